@@ -0,0 +1,110 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.gov.pagopa.bpd.ranking_processor.service.RankingSubProcessCommand.isToStop;
+
+/**
+ * Page size controller of a cashback update strategy. The size grows while pages are written well within the target
+ * latency, shrinks proportionally when they take longer, halves on deadlock and is capped so that a page is expected
+ * to complete before the stop time. The chosen size is always kept within the configured bounds
+ */
+@Slf4j
+class PageSizeController {
+
+    static final String PAGE_SIZE_METRIC_NAME = "ranking.processor.page.size";
+
+    private static final Map<String, AtomicInteger> PAGE_SIZE_GAUGES = new ConcurrentHashMap<>();
+
+    private final String strategyName;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long targetLatencyMillis;
+    private volatile int pageSize;
+
+
+    PageSizeController(String strategyName, int initialPageSize, int minPageSize, int maxPageSize, Duration targetLatency) {
+        this.strategyName = strategyName;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.targetLatencyMillis = targetLatency.toMillis();
+        this.pageSize = bound(initialPageSize);
+        report(pageSize);
+    }
+
+
+    /**
+     * Controller keeping the page size fixed
+     */
+    static PageSizeController fixed(String strategyName, int pageSize) {
+        return new PageSizeController(strategyName, pageSize, pageSize, pageSize, Duration.ZERO);
+    }
+
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+
+    /**
+     * Adjust the page size according to the time spent to process the last page
+     *
+     * @param trxCount      the number of processed transactions
+     * @param elapsedMillis the time spent to process them
+     * @param stopTime      the time the process must stop, can be null
+     */
+    synchronized void onPageProcessed(int trxCount, long elapsedMillis, LocalTime stopTime) {
+        long nextPageSize = pageSize;
+
+        if (elapsedMillis > targetLatencyMillis) {
+            nextPageSize = nextPageSize * targetLatencyMillis / elapsedMillis;
+
+        } else if (elapsedMillis < targetLatencyMillis / 2 && trxCount >= pageSize) {
+            // a partial page says nothing about the cost of a full one
+            nextPageSize = nextPageSize + nextPageSize / 2 + 1;
+        }
+
+        if (stopTime != null && trxCount > 0 && elapsedMillis > 0 && !isToStop.test(stopTime)) {
+            long remainingMillis = Duration.between(LocalTime.now(), stopTime).toMillis();
+            nextPageSize = Math.min(nextPageSize, remainingMillis * trxCount / elapsedMillis);
+        }
+
+        update(nextPageSize);
+    }
+
+
+    synchronized void onDeadlock() {
+        update(pageSize / 2);
+    }
+
+
+    private void update(long nextPageSize) {
+        int boundedPageSize = bound(nextPageSize);
+        if (boundedPageSize != pageSize) {
+            log.info("{}: page size changed from {} to {}", strategyName, pageSize, boundedPageSize);
+            pageSize = boundedPageSize;
+            report(boundedPageSize);
+        }
+    }
+
+
+    private int bound(long size) {
+        return (int) Math.max(minPageSize, Math.min(maxPageSize, size));
+    }
+
+
+    private void report(int size) {
+        PAGE_SIZE_GAUGES.computeIfAbsent(strategyName,
+                name -> Metrics.gauge(PAGE_SIZE_METRIC_NAME, Tags.of("strategy", name), new AtomicInteger()))
+                .set(size);
+    }
+
+}
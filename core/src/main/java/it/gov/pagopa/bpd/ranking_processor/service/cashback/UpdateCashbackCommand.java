@@ -1,15 +1,24 @@
 package it.gov.pagopa.bpd.ranking_processor.service.cashback;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction.TransactionType;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.util.DaoHelper;
 import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
 import it.gov.pagopa.bpd.ranking_processor.service.RankingSubProcessCommand;
 import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.CashbackUpdateStrategy;
 import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.CashbackUpdateStrategyFactory;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.IsolatingCashbackUpdateStrategy;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.PartitionedCashbackUpdateStrategy;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.StagedCashbackUpdateStrategy;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.Order;
@@ -17,8 +26,16 @@ import org.springframework.dao.DeadlockLoserDataAccessException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.*;
 import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction.TransactionType.*;
@@ -28,21 +45,59 @@ import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTr
  */
 @Slf4j
 @Service
-@Order(1)
+@Order(2)
 class UpdateCashbackCommand implements RankingSubProcessCommand {
 
+    private static final List<WinningTransaction> END_OF_EXTRACTION = Collections.unmodifiableList(new ArrayList<>());
+    private static final long HAND_OFF_TIMEOUT_MILLIS = 1000;
+    static final String DEADLOCK_METRIC_NAME = "ranking.processor.deadlock";
+    static final String POISON_METRIC_NAME = "ranking.processor.poison.trx";
+    static final String PAGE_LATENCY_METRIC_NAME = "ranking.processor.page.latency";
+
     private final CashbackUpdateStrategyFactory cashbackUpdateStrategyFactory;
     private final int cashbackUpdateRetry;
     private final CitizenRankingDao citizenRankingDao;
     private final boolean totalTransferSingleProcessEnabled;
+    private final boolean pipelineEnabled;
+    private final int pipelineQueueCapacity;
+    private final int paymentPartitionCount;
+    private final List<Integer> paymentPartitions;
+    private final int paymentPartitionThreadPoolSize;
+    private final boolean adaptivePageSizeEnabled;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final Duration targetPageLatency;
+    private final boolean bisectionEnabled;
+    private final int bisectionFloor;
+    private final int poisonRetryLimit;
+    private final Duration retryBackoffInitial;
+    private final Duration retryBackoffMax;
     private final EnumMap<TransactionType, RankingProcess> trxType2RankingProcessMap;
+    private final Counter deadlockCounter = Metrics.counter(DEADLOCK_METRIC_NAME, "process", UPDATE_CASHBACK.name());
+    private final Counter poisonCounter = Metrics.counter(POISON_METRIC_NAME, "process", UPDATE_CASHBACK.name());
 
 
     @Autowired
     public UpdateCashbackCommand(CashbackUpdateStrategyFactory cashbackUpdateStrategyFactory,
                                  CitizenRankingDao citizenRankingDao,
                                  @Value("${cashback-update.retry.limit}") Integer cashbackUpdateRetry,
-                                 @Value("${cashback-update.total-transfer.single-process.enable}") boolean totalTransferSingleProcessEnabled) {
+                                 @Value("${cashback-update.total-transfer.single-process.enable}") boolean totalTransferSingleProcessEnabled,
+                                 @Value("${cashback-update.pipeline.enable}") boolean pipelineEnabled,
+                                 @Value("${cashback-update.pipeline.queue-capacity}") int pipelineQueueCapacity,
+                                 @Value("${cashback-update.payment.partition.count}") int paymentPartitionCount,
+                                 @Value("${cashback-update.payment.partition.owned}") String paymentOwnedPartitions,
+                                 @Value("${cashback-update.payment.partition.thread-pool-size}") int paymentPartitionThreadPoolSize,
+                                 @Value("${winning-transaction.spring.datasource.hikari.maximumPoolSize}") int transactionPoolSize,
+                                 @Value("${citizen.spring.datasource.hikari.maximumPoolSize}") int citizenPoolSize,
+                                 @Value("${cashback-update.adaptive-page-size.enable}") boolean adaptivePageSizeEnabled,
+                                 @Value("${cashback-update.adaptive-page-size.min}") int minPageSize,
+                                 @Value("${cashback-update.adaptive-page-size.max}") int maxPageSize,
+                                 @Value("${cashback-update.adaptive-page-size.target-latency}") Duration targetPageLatency,
+                                 @Value("${cashback-update.retry.bisection.enable}") boolean bisectionEnabled,
+                                 @Value("${cashback-update.retry.bisection.floor}") int bisectionFloor,
+                                 @Value("${cashback-update.retry.bisection.poison-retry-limit}") int poisonRetryLimit,
+                                 @Value("${cashback-update.retry.backoff.initial}") Duration retryBackoffInitial,
+                                 @Value("${cashback-update.retry.backoff.max}") Duration retryBackoffMax) {
         if (log.isTraceEnabled()) {
             log.trace("UpdateCashbackCommand.UpdateCashbackCommand");
         }
@@ -52,6 +107,28 @@ class UpdateCashbackCommand implements RankingSubProcessCommand {
         if (cashbackUpdateRetry != null && cashbackUpdateRetry < 0) {
             throw new IllegalArgumentException("retry limit must be a positive integer");
         }
+        if (pipelineEnabled && pipelineQueueCapacity < 1) {
+            throw new IllegalArgumentException("pipeline queue capacity must be a positive integer");
+        }
+        if (paymentPartitionCount > 0 && paymentPartitionThreadPoolSize < 1) {
+            throw new IllegalArgumentException("partition thread pool size must be a positive integer");
+        }
+        // each partition worker holds a connection of both datasources for its page transaction,
+        // plus another one of the TransactionDataSource for its extractor when pipelined
+        int maxPartitionThreadPoolSize = Math.min(pipelineEnabled ? transactionPoolSize / 2 : transactionPoolSize, citizenPoolSize);
+        if (paymentPartitionCount > 0 && paymentPartitionThreadPoolSize > maxPartitionThreadPoolSize) {
+            throw new IllegalArgumentException(String.format("partition thread pool size must not exceed %d, according to the datasource pool sizes",
+                    maxPartitionThreadPoolSize));
+        }
+        if (adaptivePageSizeEnabled && (minPageSize < 1 || maxPageSize < minPageSize)) {
+            throw new IllegalArgumentException("adaptive page size bounds must be positive integers, with min not greater than max");
+        }
+        if (bisectionEnabled && bisectionFloor < 1) {
+            throw new IllegalArgumentException("bisection floor must be a positive integer");
+        }
+        if (bisectionEnabled && poisonRetryLimit < 0) {
+            throw new IllegalArgumentException("poison retry limit must be a positive integer");
+        }
 
         trxType2RankingProcessMap = new EnumMap<>(TransactionType.class);
         trxType2RankingProcessMap.put(PAYMENT, UPDATE_CASHBACK_PAYMENT);
@@ -62,6 +139,41 @@ class UpdateCashbackCommand implements RankingSubProcessCommand {
         this.citizenRankingDao = citizenRankingDao;
         this.cashbackUpdateRetry = cashbackUpdateRetry == null ? Integer.MAX_VALUE : cashbackUpdateRetry;
         this.totalTransferSingleProcessEnabled = totalTransferSingleProcessEnabled;
+        this.pipelineEnabled = pipelineEnabled;
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+        this.paymentPartitionCount = paymentPartitionCount;
+        this.paymentPartitions = parsePartitions(paymentPartitionCount, paymentOwnedPartitions);
+        this.paymentPartitionThreadPoolSize = paymentPartitionThreadPoolSize;
+        this.adaptivePageSizeEnabled = adaptivePageSizeEnabled;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.targetPageLatency = targetPageLatency;
+        this.bisectionEnabled = bisectionEnabled;
+        this.bisectionFloor = bisectionFloor;
+        this.poisonRetryLimit = poisonRetryLimit;
+        this.retryBackoffInitial = retryBackoffInitial;
+        this.retryBackoffMax = retryBackoffMax;
+    }
+
+
+    private static List<Integer> parsePartitions(int partitionCount, String ownedPartitions) {
+        List<Integer> partitions = new ArrayList<>();
+        if (partitionCount > 0) {
+            if (StringUtils.isBlank(ownedPartitions)) {
+                for (int partition = 0; partition < partitionCount; partition++) {
+                    partitions.add(partition);
+                }
+            } else {
+                for (String ownedPartition : ownedPartitions.split(",")) {
+                    int partition = Integer.parseInt(ownedPartition.trim());
+                    if (partition < 0 || partition >= partitionCount) {
+                        throw new IllegalArgumentException(String.format("partition %d is out of range [0, %d)", partition, partitionCount));
+                    }
+                    partitions.add(partition);
+                }
+            }
+        }
+        return partitions;
     }
 
 
@@ -102,8 +214,14 @@ class UpdateCashbackCommand implements RankingSubProcessCommand {
                     }
                 }
 
+                boolean pipelined = pipelineEnabled && cashbackUpdateStrategy instanceof StagedCashbackUpdateStrategy;
+                boolean partitioned = PAYMENT.equals(trxType) && paymentPartitionCount > 0
+                        && cashbackUpdateStrategy instanceof PartitionedCashbackUpdateStrategy;
+                // pipelined extraction does not hold row locks while the page is written,
+                // so it must run alone unless the fiscal codes are partitioned among the workers
                 boolean exclusiveLock = PARTIAL_TRANSFER.equals(trxType)
-                        || (TOTAL_TRANSFER.equals(trxType) && totalTransferSingleProcessEnabled);
+                        || (TOTAL_TRANSFER.equals(trxType) && totalTransferSingleProcessEnabled)
+                        || (pipelined && !partitioned);
                 try {
                     registerWorker(getUpdateRankingSubProcess(trxType), exclusiveLock);
                 } catch (CashbackUpdateExclusiveLockException e) {
@@ -112,13 +230,22 @@ class UpdateCashbackCommand implements RankingSubProcessCommand {
                 }
 
                 try {
-                    exec(awardPeriod, cashbackUpdateStrategy, stopTime);
+                    if (partitioned) {
+                        execPartitioned(awardPeriod, trxType, pipelined, stopTime);
+                    } else if (pipelined) {
+                        execPipelined(awardPeriod, (StagedCashbackUpdateStrategy) cashbackUpdateStrategy, stopTime);
+                    } else {
+                        exec(awardPeriod, cashbackUpdateStrategy, stopTime);
+                    }
 
                 } catch (RuntimeException e) {
                     log.error(e.getMessage());
                     unregisterWorker(getUpdateRankingSubProcess(trxType));
                     unregisterWorker(UPDATE_CASHBACK);
                     throw e;
+
+                } finally {
+                    cashbackUpdateStrategy.onRunCompleted();
                 }
 
                 unregisterWorker(getUpdateRankingSubProcess(trxType));
@@ -135,30 +262,374 @@ class UpdateCashbackCommand implements RankingSubProcessCommand {
 
 
     private void exec(AwardPeriod awardPeriod, CashbackUpdateStrategy cashbackUpdateStrategy, LocalTime stopTime) {
-        int trxCount = cashbackUpdateStrategy.getDataExtractionLimit();
+        PageSizeController pageSizeController = createPageSizeController(cashbackUpdateStrategy);
+        Timer pageLatencyTimer = Metrics.timer(PAGE_LATENCY_METRIC_NAME, "strategy", cashbackUpdateStrategy.getClass().getSimpleName());
+        int pageSize = pageSizeController.getPageSize();
+        int trxCount = pageSize;
 
-        while (trxCount == cashbackUpdateStrategy.getDataExtractionLimit() && !isToStop.test(stopTime)) {
+        while (trxCount == pageSize && !isToStop.test(stopTime)) {
 
-            SimplePageRequest pageRequest = SimplePageRequest.of(0, cashbackUpdateStrategy.getDataExtractionLimit());
+            pageSize = pageSizeController.getPageSize();
+            SimplePageRequest pageRequest = SimplePageRequest.of(0, pageSize);
             log.info("Start {} with page {}", cashbackUpdateStrategy.getClass().getSimpleName(), pageRequest);
 
-            int retryCount = 0;
-            while (!isToStop.test(stopTime)) {
+            long start = System.currentTimeMillis();
+            trxCount = bisectionEnabled
+                    ? processBisected(awardPeriod, cashbackUpdateStrategy, pageSizeController, pageSize, stopTime)
+                    : processWithRetry(awardPeriod, cashbackUpdateStrategy, pageSizeController, pageRequest, stopTime);
+            if (trxCount < 0) {
+                return;
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            pageLatencyTimer.record(elapsed, TimeUnit.MILLISECONDS);
+            pageSizeController.onPageProcessed(trxCount, elapsed, stopTime);
+
+            log.info("End {} with page {}", cashbackUpdateStrategy.getClass().getSimpleName(), pageRequest);
+        }
+    }
+
+
+    /**
+     * @return the number of processed transactions, or -1 if the processing has to stop
+     */
+    private int processWithRetry(AwardPeriod awardPeriod, CashbackUpdateStrategy cashbackUpdateStrategy,
+                                 PageSizeController pageSizeController, SimplePageRequest pageRequest, LocalTime stopTime) {
+        int retryCount = 0;
+        while (!isToStop.test(stopTime)) {
+
+            try {
+                int trxCount = cashbackUpdateStrategy.process(awardPeriod, pageRequest);
+                cashbackUpdateStrategy.onPageCommitted();
+                return trxCount;
+
+            } catch (DeadlockLoserDataAccessException | DuplicateKeyException e) {
+                log.warn(e.getMessage());
+                countDeadlock(e, pageSizeController);
+                if (++retryCount > cashbackUpdateRetry) {
+                    log.error("Exceeded max retry number");
+                    return -1;
+                }
+                backOff(retryCount);
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Process a page of the given size, processing it as two consecutive half pages on failure down to the bisection
+     * floor, so that only the slice holding the conflicting rows is retried. Each slice is extracted and written in
+     * its own transaction, as the row locks taken by the extraction must be held until the slice is written.
+     * A slice still failing at the floor after the poison retry limit is isolated when the strategy can skip it,
+     * see {@link IsolatingCashbackUpdateStrategy}: its transactions are left unprocessed, to be extracted again by
+     * the next run, and the page goes on. Otherwise the slice is retried up to the retry limit, then the processing stops
+     *
+     * @return the number of processed and isolated transactions, or -1 if the processing has to stop
+     */
+    private int processBisected(AwardPeriod awardPeriod, CashbackUpdateStrategy cashbackUpdateStrategy,
+                                PageSizeController pageSizeController, int pageSize, LocalTime stopTime) {
+        int retryCount = 0;
+        while (!isToStop.test(stopTime)) {
+
+            try {
+                int trxCount = cashbackUpdateStrategy.process(awardPeriod, SimplePageRequest.of(0, pageSize));
+                cashbackUpdateStrategy.onPageCommitted();
+                return trxCount;
+
+            } catch (DeadlockLoserDataAccessException | DuplicateKeyException e) {
+                log.warn(e.getMessage());
+                countDeadlock(e, pageSizeController);
+
+                if (pageSize > bisectionFloor) {
+                    int firstHalf = pageSize / 2;
+                    log.info("Bisect page of {} transactions", pageSize);
+                    int firstCount = processBisected(awardPeriod, cashbackUpdateStrategy, pageSizeController, firstHalf, stopTime);
+                    if (firstCount < firstHalf) {
+                        return firstCount;
+                    }
+                    int secondCount = processBisected(awardPeriod, cashbackUpdateStrategy, pageSizeController, pageSize - firstHalf, stopTime);
+                    return secondCount < 0 ? secondCount : firstCount + secondCount;
+                }
+
+                boolean isolating = cashbackUpdateStrategy instanceof IsolatingCashbackUpdateStrategy;
+                if (++retryCount > (isolating ? Math.min(cashbackUpdateRetry, poisonRetryLimit) : cashbackUpdateRetry)) {
+                    List<WinningTransaction> transactions = isolating
+                            ? ((IsolatingCashbackUpdateStrategy) cashbackUpdateStrategy).skipFailedPage()
+                            : Collections.emptyList();
+                    if (!transactions.isEmpty()) {
+                        isolate(transactions);
+                        return transactions.size();
+                    }
+                    log.error("Exceeded max retry number");
+                    return -1;
+                }
+                backOff(retryCount);
+            }
+        }
+        return -1;
+    }
+
 
+    /**
+     * Pipelined version of {@link #exec(AwardPeriod, CashbackUpdateStrategy, LocalTime)}: a dedicated thread extracts
+     * the next pages while the current one is aggregated and written. Extracted pages are handed off through a bounded
+     * queue, so the extraction blocks when the write stage falls behind.
+     */
+    private void execPipelined(AwardPeriod awardPeriod, StagedCashbackUpdateStrategy cashbackUpdateStrategy, LocalTime stopTime) {
+        PageSizeController pageSizeController = createPageSizeController(cashbackUpdateStrategy);
+        String strategyName = cashbackUpdateStrategy.getClass().getSimpleName();
+        BlockingQueue<List<WinningTransaction>> pages = new ArrayBlockingQueue<>(pipelineQueueCapacity);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
+
+        ExecutorService extractor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> extraction = extractor.submit(() -> {
+                if (mdcContextMap == null) {
+                    MDC.clear();
+                } else {
+                    MDC.setContextMap(mdcContextMap);
+                }
                 try {
-                    trxCount = cashbackUpdateStrategy.process(awardPeriod, pageRequest);
+                    int pageSize = pageSizeController.getPageSize();
+                    int trxCount = pageSize;
+                    while (trxCount == pageSize && !stopped.get() && !isToStop.test(stopTime)) {
+                        pageSize = pageSizeController.getPageSize();
+                        SimplePageRequest pageRequest = SimplePageRequest.of(0, pageSize);
+                        log.info("Start extraction {} with page {}", strategyName, pageRequest);
+                        List<WinningTransaction> transactions = cashbackUpdateStrategy.extract(awardPeriod, pageRequest);
+                        trxCount = transactions.size();
+                        if (trxCount > 0) {
+                            handOff(pages, transactions, stopped);
+                        }
+                        log.info("End extraction {} with page {}", strategyName, pageRequest);
+                    }
+                } finally {
+                    handOff(pages, END_OF_EXTRACTION, stopped);
+                }
+                return null;
+            });
+
+            List<WinningTransaction> transactions;
+            while ((transactions = pages.take()) != END_OF_EXTRACTION && !isToStop.test(stopTime)) {
+                log.info("Start {} with {} transactions", strategyName, transactions.size());
+                if (!apply(awardPeriod, cashbackUpdateStrategy, pageSizeController, transactions, stopTime)) {
                     break;
+                }
+                log.info("End {} with {} transactions", strategyName, transactions.size());
+            }
+
+            stopped.set(true);
+            pages.clear();
+            extraction.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CashbackUpdateException(e.getMessage());
+
+        } catch (ExecutionException e) {
+            throw toRuntimeException(e);
+
+        } finally {
+            stopped.set(true);
+            extractor.shutdownNow();
+        }
+    }
 
-                } catch (DeadlockLoserDataAccessException | DuplicateKeyException e) {
-                    log.warn(e.getMessage());
-                    if (++retryCount > cashbackUpdateRetry) {
-                        log.error("Exceeded max retry number");
-                        return;
+
+    /**
+     * Partitioned version of {@link #exec(AwardPeriod, CashbackUpdateStrategy, LocalTime)}: the owned fiscal code hash
+     * buckets are processed concurrently, each one by its own strategy instance, so that no two workers ever update
+     * the same citizen
+     */
+    private void execPartitioned(AwardPeriod awardPeriod, TransactionType trxType, boolean pipelined, LocalTime stopTime) {
+        Queue<Integer> partitions = new ConcurrentLinkedQueue<>(paymentPartitions);
+        int threadPool = Math.min(paymentPartitionThreadPoolSize, paymentPartitions.size());
+        Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
+
+        ExecutorService pool = null;
+        try {
+            pool = Executors.newFixedThreadPool(Math.max(threadPool, 1));
+            List<Callable<Void>> workers = new ArrayList<>(threadPool);
+            for (int threadCount = 0; threadCount < threadPool; threadCount++) {
+                workers.add(() -> {
+                    if (mdcContextMap == null) {
+                        MDC.clear();
+                    } else {
+                        MDC.setContextMap(mdcContextMap);
+                    }
+                    Integer partition;
+                    while (!isToStop.test(stopTime) && (partition = partitions.poll()) != null) {
+                        PartitionedCashbackUpdateStrategy cashbackUpdateStrategy =
+                                (PartitionedCashbackUpdateStrategy) cashbackUpdateStrategyFactory.create(trxType);
+                        cashbackUpdateStrategy.setPartition(paymentPartitionCount, partition);
+                        log.info("Start {} on partition {} of {}", trxType, partition, paymentPartitionCount);
+                        try {
+                            if (pipelined) {
+                                execPipelined(awardPeriod, (StagedCashbackUpdateStrategy) cashbackUpdateStrategy, stopTime);
+                            } else {
+                                exec(awardPeriod, cashbackUpdateStrategy, stopTime);
+                            }
+                        } finally {
+                            cashbackUpdateStrategy.onRunCompleted();
+                        }
+                        log.info("End {} on partition {} of {}", trxType, partition, paymentPartitionCount);
                     }
+                    return null;
+                });
+            }
+
+            List<Future<Void>> futures = pool.invokeAll(workers);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CashbackUpdateException(e.getMessage());
+
+        } catch (ExecutionException e) {
+            throw toRuntimeException(e);
+
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+
+    private static RuntimeException toRuntimeException(ExecutionException e) {
+        return e.getCause() instanceof RuntimeException
+                ? (RuntimeException) e.getCause()
+                : new CashbackUpdateException(e.getMessage());
+    }
+
+
+    private boolean apply(AwardPeriod awardPeriod, StagedCashbackUpdateStrategy cashbackUpdateStrategy,
+                          PageSizeController pageSizeController, List<WinningTransaction> transactions, LocalTime stopTime) {
+        long start = System.currentTimeMillis();
+        boolean applied = bisectionEnabled
+                ? applyBisected(awardPeriod, cashbackUpdateStrategy, pageSizeController, transactions, stopTime)
+                : applyWithRetry(awardPeriod, cashbackUpdateStrategy, pageSizeController, transactions, stopTime);
+        if (applied) {
+            pageSizeController.onPageProcessed(transactions.size(), System.currentTimeMillis() - start, stopTime);
+        }
+        return applied;
+    }
+
+
+    private boolean applyWithRetry(AwardPeriod awardPeriod, StagedCashbackUpdateStrategy cashbackUpdateStrategy,
+                                   PageSizeController pageSizeController, List<WinningTransaction> transactions, LocalTime stopTime) {
+        int retryCount = 0;
+        while (!isToStop.test(stopTime)) {
+
+            try {
+                cashbackUpdateStrategy.apply(awardPeriod, transactions);
+                return true;
+
+            } catch (DeadlockLoserDataAccessException | DuplicateKeyException e) {
+                log.warn(e.getMessage());
+                countDeadlock(e, pageSizeController);
+                if (++retryCount > cashbackUpdateRetry) {
+                    log.error("Exceeded max retry number");
+                    return false;
                 }
+                backOff(retryCount);
             }
+        }
+        return false;
+    }
 
-            log.info("End {} with page {}", cashbackUpdateStrategy.getClass().getSimpleName(), pageRequest);
+
+    /**
+     * Apply the transactions, splitting them in halves on failure down to the bisection floor, so that only the
+     * slice holding the conflicting rows is retried. Slices still failing at the floor after the retries are
+     * isolated: they are left unprocessed, to be extracted again by the next run, and the page goes on
+     */
+    private boolean applyBisected(AwardPeriod awardPeriod, StagedCashbackUpdateStrategy cashbackUpdateStrategy,
+                                  PageSizeController pageSizeController, List<WinningTransaction> transactions, LocalTime stopTime) {
+        int retryCount = 0;
+        while (!isToStop.test(stopTime)) {
+
+            try {
+                cashbackUpdateStrategy.apply(awardPeriod, transactions);
+                return true;
+
+            } catch (DeadlockLoserDataAccessException | DuplicateKeyException e) {
+                log.warn(e.getMessage());
+                countDeadlock(e, pageSizeController);
+
+                if (transactions.size() > bisectionFloor) {
+                    int middle = transactions.size() / 2;
+                    log.info("Bisect {} transactions", transactions.size());
+                    return applyBisected(awardPeriod, cashbackUpdateStrategy, pageSizeController, transactions.subList(0, middle), stopTime)
+                            && applyBisected(awardPeriod, cashbackUpdateStrategy, pageSizeController, transactions.subList(middle, transactions.size()), stopTime);
+                }
+
+                if (++retryCount > Math.min(cashbackUpdateRetry, poisonRetryLimit)) {
+                    isolate(transactions);
+                    return true;
+                }
+                backOff(retryCount);
+            }
+        }
+        return false;
+    }
+
+
+    private void isolate(List<WinningTransaction> transactions) {
+        poisonCounter.increment(transactions.size());
+        for (WinningTransaction trx : transactions) {
+            log.error("Isolated transaction (idTrxAcquirer = {}, acquirerCode = {}, trxDate = {}, operationType = {}, acquirerId = {}) after max retry number",
+                    trx.getIdTrxAcquirer(), trx.getAcquirerCode(), trx.getTrxDate(), trx.getOperationType(), trx.getAcquirerId());
+        }
+    }
+
+
+    /**
+     * Exponential backoff with full jitter: wait a random time up to initial delay * 2^(retry - 1), capped to max delay
+     */
+    private void backOff(int retryCount) {
+        long maxDelayMillis = retryBackoffMax.toMillis();
+        long delayMillis = retryBackoffInitial.toMillis();
+        for (int i = 1; i < retryCount && delayMillis < maxDelayMillis; i++) {
+            delayMillis <<= 1;
+        }
+        delayMillis = Math.min(delayMillis, maxDelayMillis);
+
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delayMillis + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CashbackUpdateException(e.getMessage());
+            }
+        }
+    }
+
+
+    private void countDeadlock(RuntimeException e, PageSizeController pageSizeController) {
+        if (e instanceof DeadlockLoserDataAccessException) {
+            deadlockCounter.increment();
+            pageSizeController.onDeadlock();
+        }
+    }
+
+
+    private PageSizeController createPageSizeController(CashbackUpdateStrategy cashbackUpdateStrategy) {
+        String strategyName = cashbackUpdateStrategy.getClass().getSimpleName();
+        return adaptivePageSizeEnabled
+                ? new PageSizeController(strategyName, cashbackUpdateStrategy.getDataExtractionLimit(), minPageSize, maxPageSize, targetPageLatency)
+                : PageSizeController.fixed(strategyName, cashbackUpdateStrategy.getDataExtractionLimit());
+    }
+
+
+    private static <T> void handOff(BlockingQueue<T> queue, T item, AtomicBoolean stopped) throws InterruptedException {
+        while (!queue.offer(item, HAND_OFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped.get()) {
+                return;
+            }
         }
     }
 
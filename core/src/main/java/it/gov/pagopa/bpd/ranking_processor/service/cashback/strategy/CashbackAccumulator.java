@@ -0,0 +1,228 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open-addressing map of the per-citizen cashback totals of a page, keyed by fiscal code.
+ * Totals are kept as euro cents and counters as primitives, so that a {@link CitizenRanking}
+ * is built only once per citizen, when the accumulation is complete.
+ * Adding the cents of a columnar page allocates nothing per row; callers holding {@link BigDecimal} scores
+ * still pay for their conversion through {@link #toCents(BigDecimal)}
+ */
+final class CashbackAccumulator {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] fiscalCodes;
+    private long[] cashbackCents;
+    private long[] transactionNumbers;
+    private long[] lastTrxEpochMicros;
+    private OffsetDateTime[] lastTrxTimestamps;
+    private int size;
+
+
+    CashbackAccumulator() {
+        this(MIN_CAPACITY);
+    }
+
+
+    CashbackAccumulator(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Add the given deltas to the totals of the citizen
+     *
+     * @param fiscalCode        the citizen fiscal code
+     * @param cents             the cashback delta, in euro cents
+     * @param transactionNumber the transaction number delta
+     * @param trxTimestamp      the transaction timestamp, can be null
+     */
+    void add(String fiscalCode, long cents, long transactionNumber, OffsetDateTime trxTimestamp) {
+        add(fiscalCode, cents, transactionNumber,
+                trxTimestamp == null ? Long.MIN_VALUE : toEpochMicros(trxTimestamp),
+                trxTimestamp);
+    }
+
+
+    /**
+     * Primitive variant of {@link #add(String, long, long, OffsetDateTime)}, the timestamp of the ranking is
+     * built at UTC offset only when the accumulation is complete
+     *
+     * @param fiscalCode        the citizen fiscal code
+     * @param cents             the cashback delta, in euro cents
+     * @param transactionNumber the transaction number delta
+     * @param trxEpochMicros    the transaction timestamp as epoch microseconds, {@link Long#MIN_VALUE} if missing
+     */
+    void add(String fiscalCode, long cents, long transactionNumber, long trxEpochMicros) {
+        add(fiscalCode, cents, transactionNumber, trxEpochMicros, null);
+    }
+
+
+    private void add(String fiscalCode, long cents, long transactionNumber, long trxEpochMicros, OffsetDateTime trxTimestamp) {
+        int slot = findSlot(fiscalCode);
+
+        if (fiscalCodes[slot] == null) {
+            fiscalCodes[slot] = fiscalCode;
+            lastTrxEpochMicros[slot] = Long.MIN_VALUE;
+            size++;
+        }
+
+        cashbackCents[slot] += cents;
+        transactionNumbers[slot] += transactionNumber;
+        if (trxEpochMicros > lastTrxEpochMicros[slot]) {
+            lastTrxEpochMicros[slot] = trxEpochMicros;
+            lastTrxTimestamps[slot] = trxTimestamp;
+        }
+
+        if (size << 1 > fiscalCodes.length) {
+            resize();
+        }
+    }
+
+
+    /**
+     * Add all the totals of the given accumulator to this one
+     *
+     * @param other the accumulator to merge
+     * @return this accumulator
+     */
+    CashbackAccumulator merge(CashbackAccumulator other) {
+        for (int i = 0; i < other.fiscalCodes.length; i++) {
+            if (other.fiscalCodes[i] != null) {
+                add(other.fiscalCodes[i], other.cashbackCents[i], other.transactionNumbers[i],
+                        other.lastTrxEpochMicros[i], other.lastTrxTimestamps[i]);
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Build the citizen rankings holding the accumulated totals
+     *
+     * @param awardPeriodId the award period of the rankings
+     * @param updateDate    the update date of the rankings
+     * @param updateUser    the update user of the rankings
+     * @return a ranking for each accumulated citizen
+     */
+    List<CitizenRanking> toRankings(Long awardPeriodId, OffsetDateTime updateDate, String updateUser) {
+        List<CitizenRanking> rankings = new ArrayList<>(size);
+
+        for (int i = 0; i < fiscalCodes.length; i++) {
+            if (fiscalCodes[i] != null) {
+                rankings.add(CitizenRanking.builder()
+                        .fiscalCode(fiscalCodes[i])
+                        .awardPeriodId(awardPeriodId)
+                        .totalCashback(BigDecimal.valueOf(cashbackCents[i], 2))
+                        .transactionNumber(transactionNumbers[i])
+                        .updateDate(updateDate)
+                        .updateUser(updateUser)
+                        .lastTrxTimestamp(lastTrxTimestamps[i] != null
+                                ? lastTrxTimestamps[i]
+                                : toOffsetDateTime(lastTrxEpochMicros[i]))
+                        .build());
+            }
+        }
+
+        return rankings;
+    }
+
+
+    /**
+     * Convert the given amount to euro cents, rounding half down as the cashback does
+     *
+     * @param amount the amount, in euro
+     * @return the amount in euro cents
+     */
+    static long toCents(BigDecimal amount) {
+        BigDecimal cents = amount.scale() == 2 ? amount : amount.setScale(2, RoundingMode.HALF_DOWN);
+        return cents.unscaledValue().longValueExact();
+    }
+
+
+    private int findSlot(String fiscalCode) {
+        int mask = fiscalCodes.length - 1;
+        int slot = spread(fiscalCode.hashCode()) & mask;
+
+        while (fiscalCodes[slot] != null && !fiscalCodes[slot].equals(fiscalCode)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+
+    private void resize() {
+        String[] oldFiscalCodes = fiscalCodes;
+        long[] oldCashbackCents = cashbackCents;
+        long[] oldTransactionNumbers = transactionNumbers;
+        long[] oldLastTrxEpochMicros = lastTrxEpochMicros;
+        OffsetDateTime[] oldLastTrxTimestamps = lastTrxTimestamps;
+
+        allocate(oldFiscalCodes.length << 1);
+
+        for (int i = 0; i < oldFiscalCodes.length; i++) {
+            if (oldFiscalCodes[i] != null) {
+                int slot = findSlot(oldFiscalCodes[i]);
+                fiscalCodes[slot] = oldFiscalCodes[i];
+                cashbackCents[slot] = oldCashbackCents[i];
+                transactionNumbers[slot] = oldTransactionNumbers[i];
+                lastTrxEpochMicros[slot] = oldLastTrxEpochMicros[i];
+                lastTrxTimestamps[slot] = oldLastTrxTimestamps[i];
+            }
+        }
+    }
+
+
+    private void allocate(int capacity) {
+        fiscalCodes = new String[capacity];
+        cashbackCents = new long[capacity];
+        transactionNumbers = new long[capacity];
+        lastTrxEpochMicros = new long[capacity];
+        lastTrxTimestamps = new OffsetDateTime[capacity];
+    }
+
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize << 1) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private static long toEpochMicros(OffsetDateTime timestamp) {
+        return timestamp.toEpochSecond() * 1_000_000L + timestamp.getNano() / 1_000;
+    }
+
+
+    private static OffsetDateTime toOffsetDateTime(long epochMicros) {
+        return epochMicros == Long.MIN_VALUE
+                ? null
+                : OffsetDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L),
+                Math.floorMod(epochMicros, 1_000_000L) * 1_000L), ZoneOffset.UTC);
+    }
+
+}
@@ -0,0 +1,19 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import org.springframework.boot.autoconfigure.condition.AllNestedConditions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+class CashbackUpdateServerSideTotalTransferEnabledCondition extends AllNestedConditions {
+
+    public CashbackUpdateServerSideTotalTransferEnabledCondition() {
+        super(ConfigurationPhase.REGISTER_BEAN);
+    }
+
+    @ConditionalOnProperty(prefix = "cashback-update.total-transfer", name = "enable", havingValue = "true")
+    public static class CashbackUpdateTotalTransferEnabled {
+    }
+
+    @ConditionalOnProperty(prefix = "cashback-update.total-transfer.server-side", name = "enable", havingValue = "true")
+    public static class CashbackUpdateServerSideTotalTransferEnabled {
+    }
+}
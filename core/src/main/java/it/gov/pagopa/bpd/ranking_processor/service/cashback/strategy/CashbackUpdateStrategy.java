@@ -30,4 +30,17 @@ public interface CashbackUpdateStrategy {
 
     int getDataExtractionLimit();
 
+    /**
+     * Notify that the transaction of the last {@link #process(AwardPeriod, SimplePageRequest)} invocation has been
+     * committed, so that any extraction cursor can move past the processed page
+     */
+    default void onPageCommitted() {
+    }
+
+    /**
+     * Notify that the strategy run is over, so that any resource held across the pages can be released
+     */
+    default void onRunCompleted() {
+    }
+
 }
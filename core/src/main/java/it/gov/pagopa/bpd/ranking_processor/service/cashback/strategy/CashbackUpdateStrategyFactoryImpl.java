@@ -38,7 +38,10 @@ class CashbackUpdateStrategyFactoryImpl implements CashbackUpdateStrategyFactory
             case PAYMENT:
                 return beanFactory.getBeanProvider(PaymentCashbackUpdate.class).getIfAvailable();
             case TOTAL_TRANSFER:
-                return beanFactory.getBeanProvider(TotalTransferCashbackUpdate.class).getIfAvailable();
+                CashbackUpdateStrategy serverSideStrategy = beanFactory.getBeanProvider(ServerSideTotalTransferCashbackUpdate.class).getIfAvailable();
+                return serverSideStrategy != null
+                        ? serverSideStrategy
+                        : beanFactory.getBeanProvider(TotalTransferCashbackUpdate.class).getIfAvailable();
             case PARTIAL_TRANSFER:
                 return beanFactory.getBeanProvider(PartialTransferCashbackUpdate.class).getIfAvailable();
             default:
@@ -28,20 +28,23 @@ abstract class CashbackUpdateStrategyTemplate implements CashbackUpdateStrategy
     protected final WinningTransactionDao winningTransactionDao;
     private final CitizenRankingDao citizenRankingDao;
     private final AggregatorStrategy aggregatorStrategy;
+    private final CashbackWriteMode writeMode;
 
     public CashbackUpdateStrategyTemplate(WinningTransactionDao winningTransactionDao,
                                           CitizenRankingDao citizenRankingDao,
-                                          AggregatorStrategy aggregatorStrategy) {
+                                          AggregatorStrategy aggregatorStrategy,
+                                          CashbackWriteMode writeMode) {
         if (log.isTraceEnabled()) {
             log.trace("CashbackUpdateStrategyTemplate.CashbackUpdateStrategyTemplate");
         }
         if (log.isDebugEnabled()) {
-            log.debug("winningTransactionDao = {}, citizenRankingDao = {}", winningTransactionDao, citizenRankingDao);
+            log.debug("winningTransactionDao = {}, citizenRankingDao = {}, writeMode = {}", winningTransactionDao, citizenRankingDao, writeMode);
         }
 
         this.winningTransactionDao = winningTransactionDao;
         this.citizenRankingDao = citizenRankingDao;
         this.aggregatorStrategy = aggregatorStrategy;
+        this.writeMode = writeMode;
     }
 
 
@@ -58,6 +61,11 @@ abstract class CashbackUpdateStrategyTemplate implements CashbackUpdateStrategy
         Pageable pageRequest = PageRequest.of(simplePageRequest.getPage(), simplePageRequest.getSize());
         List<WinningTransaction> transactions = retrieveTransactions(awardPeriod.getAwardPeriodId(), pageRequest);
 
+        return processTransactions(awardPeriod, transactions);
+    }
+
+
+    protected int processTransactions(AwardPeriod awardPeriod, List<WinningTransaction> transactions) {
         List<CitizenRanking> rankings = aggregate(awardPeriod, transactions);
 
         updateCashback(rankings);
@@ -77,7 +85,15 @@ abstract class CashbackUpdateStrategyTemplate implements CashbackUpdateStrategy
 
 
     protected void updateCashback(List<CitizenRanking> rankings) {
-        if (!rankings.isEmpty()) {
+        rankings.sort(CitizenRankingDao.WRITE_ORDER);
+
+        if (!rankings.isEmpty() && CashbackWriteMode.UPSERT == writeMode) {
+            upsertCashback(rankings);
+
+        } else if (!rankings.isEmpty() && CashbackWriteMode.COPY == writeMode) {
+            copyCashback(rankings);
+
+        } else if (!rankings.isEmpty()) {
             int[] affectedRows = citizenRankingDao.updateCashback(rankings);
 
             if (affectedRows.length != rankings.size()) {
@@ -108,6 +124,39 @@ abstract class CashbackUpdateStrategyTemplate implements CashbackUpdateStrategy
     }
 
 
+    private void upsertCashback(List<CitizenRanking> rankings) {
+        int[] affectedRows = citizenRankingDao.upsertCashback(rankings);
+
+        if (affectedRows.length != rankings.size()) {
+            String message = String.format(ERROR_MESSAGE_TEMPLATE, "upsertCashback", affectedRows.length, rankings.size());
+            log.error(message);
+            throw new CashbackUpdateException(message);
+        }
+
+        // the conflict update is skipped for disabled citizens, as the plain update does
+        long skippedCount = Arrays.stream(affectedRows)
+                .filter(affectedRow -> affectedRow == 0)
+                .count();
+        if (skippedCount > 0) {
+            log.warn("upsertCashback: skipped {} rows of {} not enabled citizens", skippedCount, rankings.size());
+        }
+    }
+
+
+    private void copyCashback(List<CitizenRanking> rankings) {
+        int affectedRows = citizenRankingDao.copyCashback(rankings);
+
+        if (affectedRows > rankings.size()) {
+            String message = String.format(ERROR_MESSAGE_TEMPLATE, "copyCashback", affectedRows, rankings.size());
+            log.error(message);
+            throw new CashbackUpdateException(message);
+
+        } else if (affectedRows < rankings.size()) {
+            log.warn("copyCashback: skipped {} rows of {} not enabled citizens", rankings.size() - affectedRows, rankings.size());
+        }
+    }
+
+
     protected abstract List<WinningTransaction> retrieveTransactions(long awardPeriodId, Pageable pageable);
 
 
@@ -0,0 +1,23 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+/**
+ * How the aggregated cashback deltas are written to the citizen ranking
+ */
+public enum CashbackWriteMode {
+
+    /**
+     * Batch update of the existing rankings, followed by a batch insert of the missing ones
+     */
+    BATCH,
+
+    /**
+     * Single batch of insert ... on conflict do update statements
+     */
+    UPSERT,
+
+    /**
+     * Bulk load into a staging table through COPY, merged with set-based statements
+     */
+    COPY
+
+}
@@ -3,19 +3,16 @@ package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
 import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
 import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.math.RoundingMode;
 import java.time.OffsetDateTime;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
-
-import static it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.CashbackUpdateStrategy.CASHBACK_MAPPER;
+import java.util.stream.Collector;
 
 /**
  * Common-case aggregator to handle payment and total transfer
@@ -34,23 +31,52 @@ class CommonAggregator implements AggregatorStrategy {
     @Override
     public Collection<CitizenRanking> aggregate(AwardPeriod awardPeriod, List<WinningTransaction> transactions) {
         OffsetDateTime now = OffsetDateTime.now();
-        Map<String, CitizenRanking> cashbackMap = executionStrategy.streamSupplier(transactions)
+        CashbackAccumulator accumulator = executionStrategy.streamSupplier(transactions)
                 .peek(trx -> {
                     trx.setUpdateDate(now);
                     trx.setUpdateUser(RankingProcessorService.PROCESS_NAME);
                 })
-                .map(trx -> CitizenRanking.builder()
-                        .fiscalCode(trx.getFiscalCode())
-                        .awardPeriodId(awardPeriod.getAwardPeriodId())
-                        .totalCashback(trx.getScore().setScale(2, RoundingMode.HALF_DOWN))
-                        .transactionNumber("01".equals(trx.getOperationType()) ? -1L : 1L)
-                        .updateDate(now)
-                        .updateUser(RankingProcessorService.PROCESS_NAME)
-                        .lastTrxTimestamp("01".equals(trx.getOperationType())?null:trx.getTrxDate())
-                        .build())
-                .collect(executionStrategy.toMap(CitizenRanking::getFiscalCode, Function.identity(), CASHBACK_MAPPER));
-
-        return cashbackMap.values();
+                .collect(Collector.of(CashbackAccumulator::new,
+                        CommonAggregator::accumulate,
+                        CashbackAccumulator::merge,
+                        Collector.Characteristics.UNORDERED));
+
+        return accumulator.toRankings(awardPeriod.getAwardPeriodId(), now, RankingProcessorService.PROCESS_NAME);
+    }
+
+
+    /**
+     * Columnar variant of {@link #aggregate(AwardPeriod, List)} for payment pages: iterate the page arrays in a single
+     * pass, without materializing the transactions
+     *
+     * @param awardPeriod the award period of the rankings
+     * @param page        the payments to aggregate
+     * @param updateDate  the update date of the rankings
+     * @return a ranking for each citizen of the page
+     */
+    public Collection<CitizenRanking> aggregate(AwardPeriod awardPeriod, WinningTransactionPage page, OffsetDateTime updateDate) {
+        CashbackAccumulator accumulator = new CashbackAccumulator(page.size());
+
+        for (int i = 0; i < page.size(); i++) {
+            accumulator.add(page.getFiscalCode(i),
+                    page.getScoreCents(i),
+                    1L,
+                    page.getTrxEpochMicros(i));
+        }
+
+        return accumulator.toRankings(awardPeriod.getAwardPeriodId(), updateDate, RankingProcessorService.PROCESS_NAME);
+    }
+
+
+    /**
+     * Accumulate a materialized transaction, its {@link java.math.BigDecimal} score is converted to cents row by row
+     */
+    private static void accumulate(CashbackAccumulator accumulator, WinningTransaction trx) {
+        boolean transfer = "01".equals(trx.getOperationType());
+        accumulator.add(trx.getFiscalCode(),
+                CashbackAccumulator.toCents(trx.getScore()),
+                transfer ? -1L : 1L,
+                transfer ? null : trx.getTrxDate());
     }
 
 }
@@ -0,0 +1,23 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+
+import java.util.List;
+
+/**
+ * A {@link CashbackUpdateStrategy} able to move its extraction past a page that keeps failing, so that the
+ * transactions of the page are left unprocessed while the next pages go on
+ */
+public interface IsolatingCashbackUpdateStrategy extends CashbackUpdateStrategy {
+
+    /**
+     * Skip the transactions extracted by the last failed {@link #process(AwardPeriod, SimplePageRequest)} invocation,
+     * so that the next invocations extract the pages following them
+     *
+     * @return the skipped transactions, empty if the failed invocation did not extract any
+     */
+    List<WinningTransaction> skipFailedPage();
+
+}
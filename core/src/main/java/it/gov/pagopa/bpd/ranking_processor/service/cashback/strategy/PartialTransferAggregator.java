@@ -14,7 +14,6 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-import static it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.CashbackUpdateStrategy.CASHBACK_MAPPER;
 import static java.math.BigDecimal.ROUND_HALF_DOWN;
 
 /**
@@ -41,7 +40,8 @@ class PartialTransferAggregator implements AggregatorStrategy {
             log.debug("awardPeriod = {}, transactions = {}", awardPeriod, transactions);
         }
 
-        Map<String, CitizenRanking> rankingMap = executionStrategy.unorderedMapSupplier();
+        // the balances are consumed sequentially, so a single accumulator collects the cashback of the page
+        CashbackAccumulator accumulator = new CashbackAccumulator(transactions.size());
         Map<String, BigDecimal> amountBalanceMap = executionStrategy.unorderedMapSupplier();
         OffsetDateTime now = OffsetDateTime.now();
         BigDecimal maxTrxEval = BigDecimal.valueOf(awardPeriod.getMaxTransactionEvaluated());
@@ -52,11 +52,6 @@ class PartialTransferAggregator implements AggregatorStrategy {
             amountBalanceMap.compute(trx.getUniqueCorrelationKey(), (key, oldValue) -> {
                 BigDecimal oldAmountBalance = oldValue == null ? trx.getAmountBalance() : oldValue;
                 BigDecimal newAmountBalance = oldAmountBalance.subtract(trx.getAmount());
-                CitizenRanking.CitizenRankingBuilder rankingBuilder = CitizenRanking.builder()
-                        .fiscalCode(trx.getFiscalCode())
-                        .awardPeriodId(awardPeriod.getAwardPeriodId())
-                        .updateDate(now)
-                        .updateUser(RankingProcessorService.PROCESS_NAME);
                 if (newAmountBalance.compareTo(BigDecimal.ZERO) < 0) {
                     log.warn("Negative amount balance for transaction with idTrxAcquirer = {}, acquirerCode = {}, acquirerId = {}, trxDate = {}, correlationId = {}",
                             trx.getIdTrxAcquirer(),
@@ -70,9 +65,7 @@ class PartialTransferAggregator implements AggregatorStrategy {
                             .multiply(negativeCashbackMultiplier)
                             .setScale(2, ROUND_HALF_DOWN);
                     trx.setScore(actualScore);
-                    rankingBuilder.totalCashback(actualScore)
-                            .transactionNumber(-1L);
-                    rankingMap.merge(trx.getFiscalCode(), rankingBuilder.build(), CASHBACK_MAPPER);
+                    accumulator.add(trx.getFiscalCode(), CashbackAccumulator.toCents(actualScore), -1L, null);
                 } else if (newAmountBalance.compareTo(maxTrxEval) < 0) {
                     BigDecimal actualScore;
                     if (oldAmountBalance.compareTo(maxTrxEval) > 0) {
@@ -86,9 +79,7 @@ class PartialTransferAggregator implements AggregatorStrategy {
                                 .setScale(2, ROUND_HALF_DOWN);
                     }
                     trx.setScore(actualScore);
-                    rankingBuilder.transactionNumber(0L)
-                            .totalCashback(actualScore);
-                    rankingMap.merge(trx.getFiscalCode(), rankingBuilder.build(), CASHBACK_MAPPER);
+                    accumulator.add(trx.getFiscalCode(), CashbackAccumulator.toCents(actualScore), 0L, null);
                 } else {
                     trx.setScore(BigDecimal.ZERO);
                 }
@@ -96,7 +87,7 @@ class PartialTransferAggregator implements AggregatorStrategy {
             });
         });
 
-        return rankingMap.values();
+        return accumulator.toRankings(awardPeriod.getAwardPeriodId(), now, RankingProcessorService.PROCESS_NAME);
     }
 
 }
@@ -4,6 +4,7 @@ import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPer
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
 import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
 import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
@@ -23,6 +24,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.Period;
 import java.util.ArrayList;
@@ -42,6 +44,9 @@ class PartialTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
 
     private final int dataExtractionLimit;
     private final Period maxDepth;
+    private final TransferMatchingMode matchingMode;
+    private final PaymentTrxMatchCache paymentTrxMatchCache;
+    private final TransferMatchingExecutor transferMatchingExecutor;
     private final OffsetDateTime startProcess;
 
 
@@ -50,16 +55,35 @@ class PartialTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
                                          CitizenRankingDao citizenRankingDao,
                                          BeanFactory beanFactory,
                                          @Value("${cashback-update.partial-transfer.data-extraction.limit}") int dataExtractionLimit,
-                                         @Value("${cashback-update.partial-transfer.max-depth}") Period maxDepth) {
+                                         @Value("${cashback-update.partial-transfer.max-depth}") Period maxDepth,
+                                         @Value("${cashback-update.write-mode}") CashbackWriteMode writeMode,
+                                         @Value("${cashback-update.partial-transfer.matching-mode}") TransferMatchingMode matchingMode,
+                                         @Value("${cashback-update.transfer-cache.max-size}") int cacheMaxSize,
+                                         @Value("${cashback-update.transfer-cache.ttl}") Duration cacheTtl,
+                                         @Value("${cashback-update.transfer-matching.thread-pool-size}") int matchingThreadPoolSize,
+                                         @Value("${winning-transaction.spring.datasource.hikari.maximumPoolSize}") int transactionPoolSize) {
         super(winningTransactionDao,
                 citizenRankingDao,
-                beanFactory.getBean(PartialTransferAggregator.class));
+                beanFactory.getBean(PartialTransferAggregator.class),
+                writeMode);
+        if (matchingMode == TransferMatchingMode.HASH) {
+            throw new IllegalArgumentException("partial transfer matching mode must be SINGLE or BATCH");
+        }
         this.dataExtractionLimit = dataExtractionLimit;
         this.maxDepth = maxDepth;
+        this.matchingMode = matchingMode;
+        this.paymentTrxMatchCache = new PaymentTrxMatchCache(getClass().getSimpleName(), cacheMaxSize, cacheTtl);
+        this.transferMatchingExecutor = new TransferMatchingExecutor(matchingThreadPoolSize, transactionPoolSize);
         this.startProcess = OffsetDateTime.now();
     }
 
 
+    @Override
+    public void onRunCompleted() {
+        transferMatchingExecutor.shutdown();
+    }
+
+
     @Override
     public int getDataExtractionLimit() {
         return dataExtractionLimit;
@@ -97,61 +121,48 @@ class PartialTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
         List<WinningTransaction> unprocessedPartialTransfer = new ArrayList<>();
 
         OffsetDateTime max = OffsetDateTime.now().minus(maxDepth);
+        List<WinningTransaction> transfersToMatch = new ArrayList<>(transactions.size());
 
         for (WinningTransaction transferTrx : transactions) {
             if (transferTrx.getInsertDate().isBefore(max)) {
                 oldTransfer.add(transferTrx);
-
             } else {
                 transferTrx.setUpdateDate(startProcess);
                 transferTrx.setUpdateUser(RankingProcessorService.PROCESS_NAME);
+                transfersToMatch.add(transferTrx);
+            }
+        }
 
-                WinningTransaction paymentTrx = null;
-                if (StringUtils.isNotBlank(transferTrx.getCorrelationId())) {
-                    WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
-                    filterCriteria.setAwardPeriodId(awardPeriod.getAwardPeriodId());
-                    filterCriteria.setHpan(transferTrx.getHpan());
-                    filterCriteria.setAcquirerCode(transferTrx.getAcquirerCode());
-                    filterCriteria.setAcquirerId(transferTrx.getAcquirerId());
-                    filterCriteria.setCorrelationId(transferTrx.getCorrelationId());
-                    try {
-                        paymentTrx = winningTransactionDao.findPaymentTrxWithCorrelationId(filterCriteria);
-                    } catch (IncorrectResultSizeDataAccessException e) {
-                        log.warn("Failed to match transfer with correlation_id '{}': {}",
-                                transferTrx.getCorrelationId(),
-                                e.getMessage());
-                        transferTrx.setParked(true);
-                        paymentTrx = null;
-                    }
-                }
+        List<PaymentTrxMatch> matches = matchingMode == TransferMatchingMode.BATCH
+                ? paymentTrxMatchCache.getAll(awardPeriod.getAwardPeriodId(), transfersToMatch,
+                transfers -> winningTransactionDao.findPaymentTrxWithProcessedTransferAmount(awardPeriod.getAwardPeriodId(), transfers))
+                : transferMatchingExecutor.map(transfersToMatch, transferTrx -> resolvePaymentTrx(awardPeriod, transferTrx));
+
+        for (int i = 0; i < transfersToMatch.size(); i++) {
+            WinningTransaction transferTrx = transfersToMatch.get(i);
+            PaymentTrxMatch match = matches.get(i);
+            WinningTransaction paymentTrx = getMatchedPaymentTrx(transferTrx, match);
 
-                if (paymentTrx == null) {
+            if (paymentTrx == null) {
+                unrelatedTransfer.add(transferTrx);
+
+            } else {
+
+                if (transferTrx.getAmount().equals(paymentTrx.getAmount())) {
+                    //total transfer managed as unrelated transfer
                     unrelatedTransfer.add(transferTrx);
 
-                } else {
+                } else if (transferTrx.getAmount().compareTo(paymentTrx.getAmount()) > 0) {
+                    transferTrx.setParked(true);
+                    unprocessedPartialTransfer.add(transferTrx);
 
-                    if (transferTrx.getAmount().equals(paymentTrx.getAmount())) {
-                        //total transfer managed as unrelated transfer
-                        unrelatedTransfer.add(transferTrx);
-
-                    } else if (transferTrx.getAmount().compareTo(paymentTrx.getAmount()) > 0) {
-                        transferTrx.setParked(true);
-                        unprocessedPartialTransfer.add(transferTrx);
-
-                    } else {
-                        relatedPartialTransfer.add(transferTrx);
-                        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
-                        filterCriteria.setAwardPeriodId(awardPeriod.getAwardPeriodId());
-                        filterCriteria.setHpan(transferTrx.getHpan());
-                        filterCriteria.setAcquirerCode(transferTrx.getAcquirerCode());
-                        filterCriteria.setAcquirerId(transferTrx.getAcquirerId());
-                        filterCriteria.setCorrelationId(transferTrx.getCorrelationId());
-                        BigDecimal processedTransferAmount = winningTransactionDao.findProcessedTransferAmount(filterCriteria);
-                        BigDecimal amountBalance = paymentTrx.getAmount().subtract(processedTransferAmount == null
-                                ? BigDecimal.ZERO
-                                : processedTransferAmount);
-                        transferTrx.setAmountBalance(amountBalance);
-                    }
+                } else {
+                    relatedPartialTransfer.add(transferTrx);
+                    BigDecimal processedTransferAmount = match.getProcessedTransferAmount();
+                    BigDecimal amountBalance = paymentTrx.getAmount().subtract(processedTransferAmount == null
+                            ? BigDecimal.ZERO
+                            : processedTransferAmount);
+                    transferTrx.setAmountBalance(amountBalance);
                 }
             }
         }
@@ -174,6 +185,11 @@ class PartialTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
 
             affectedRows = winningTransactionDao.updateProcessedTransaction(relatedPartialTransfer);
             checkErrors(relatedPartialTransfer.size(), affectedRows, "updateProcessedTransaction");
+            winningTransactionDao.updateTransferBalance(awardPeriod.getAwardPeriodId(), relatedPartialTransfer);
+
+            // the processed transfer amount of these correlation keys is changed
+            relatedPartialTransfer.forEach(trx -> paymentTrxMatchCache.invalidate(
+                    PaymentTrxMatchCache.keyOf(awardPeriod.getAwardPeriodId(), trx)));
         }
 
         if (!unrelatedTransfer.isEmpty()) {
@@ -194,4 +210,79 @@ class PartialTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
         return transactions.size();
     }
 
+
+    /**
+     * Per-row match of the transfer: the payment is looked up first, then the processed transfer amount if the
+     * transfer is a related partial transfer. Complete matches are cached
+     */
+    private PaymentTrxMatch resolvePaymentTrx(AwardPeriod awardPeriod, WinningTransaction transferTrx) {
+        String cacheKey = PaymentTrxMatchCache.keyOf(awardPeriod.getAwardPeriodId(), transferTrx);
+        PaymentTrxMatch match = paymentTrxMatchCache.get(cacheKey);
+
+        if (match == null) {
+            WinningTransaction paymentTrx = findPaymentTrx(awardPeriod, transferTrx);
+            match = PaymentTrxMatch.builder()
+                    .payment(paymentTrx)
+                    .matchCount(paymentTrx == null ? 0 : 1)
+                    .build();
+
+            if (paymentTrx != null
+                    && !transferTrx.getAmount().equals(paymentTrx.getAmount())
+                    && transferTrx.getAmount().compareTo(paymentTrx.getAmount()) <= 0) {
+                match.setProcessedTransferAmount(findProcessedTransferAmount(awardPeriod, transferTrx));
+                paymentTrxMatchCache.put(cacheKey, match);
+            }
+        }
+
+        return match;
+    }
+
+
+    private WinningTransaction findPaymentTrx(AwardPeriod awardPeriod, WinningTransaction transferTrx) {
+        WinningTransaction paymentTrx = null;
+        if (StringUtils.isNotBlank(transferTrx.getCorrelationId())) {
+            try {
+                paymentTrx = winningTransactionDao.findPaymentTrxWithCorrelationId(toFilterCriteria(awardPeriod, transferTrx));
+            } catch (IncorrectResultSizeDataAccessException e) {
+                log.warn("Failed to match transfer with correlation_id '{}': {}",
+                        transferTrx.getCorrelationId(),
+                        e.getMessage());
+                transferTrx.setParked(true);
+            }
+        }
+        return paymentTrx;
+    }
+
+
+    /**
+     * Same rules of {@link #findPaymentTrx(AwardPeriod, WinningTransaction)} applied to a batch match: a transfer
+     * matching more than one payment is parked, otherwise the first match is used
+     */
+    private WinningTransaction getMatchedPaymentTrx(WinningTransaction transferTrx, PaymentTrxMatch match) {
+        if (match.isAmbiguous()) {
+            log.warn("Failed to match transfer with correlation_id '{}': Incorrect result size: expected 1, actual {}",
+                    transferTrx.getCorrelationId(),
+                    match.getMatchCount());
+            transferTrx.setParked(true);
+            return null;
+        }
+        return match.getPayment();
+    }
+
+
+    private BigDecimal findProcessedTransferAmount(AwardPeriod awardPeriod, WinningTransaction transferTrx) {
+        return winningTransactionDao.findProcessedTransferAmount(toFilterCriteria(awardPeriod, transferTrx));
+    }
+
+
+    private static WinningTransaction.FilterCriteria toFilterCriteria(AwardPeriod awardPeriod, WinningTransaction transferTrx) {
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(awardPeriod.getAwardPeriodId());
+        filterCriteria.setHpan(transferTrx.getHpan());
+        filterCriteria.setAcquirerCode(transferTrx.getAcquirerCode());
+        filterCriteria.setAcquirerId(transferTrx.getAcquirerId());
+        filterCriteria.setCorrelationId(transferTrx.getCorrelationId());
+        return filterCriteria;
+    }
+
 }
@@ -0,0 +1,15 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+/**
+ * A {@link CashbackUpdateStrategy} able to restrict its extraction to a single fiscal code hash bucket, so that
+ * workers owning different buckets never update the same citizen
+ */
+public interface PartitionedCashbackUpdateStrategy extends CashbackUpdateStrategy {
+
+    /**
+     * @param partitionCount the total number of fiscal code hash buckets
+     * @param partitionIndex the bucket to process, between 0 and partitionCount - 1
+     */
+    void setPartition(int partitionCount, int partitionIndex);
+
+}
@@ -1,18 +1,31 @@
 package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
 
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Scope;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.stereotype.Service;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao.FIND_TRX_TO_PROCESS_PAGEABLE_SORT;
 
@@ -20,22 +33,46 @@ import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransact
  * Implementation of {@link CashbackUpdateStrategyTemplate} to handle payment
  */
 @Slf4j
-@Service
+@Component
+@Scope(BeanDefinition.SCOPE_PROTOTYPE)
 @Conditional(CashbackUpdatePaymentEnabledCondition.class)
-class PaymentCashbackUpdate extends CashbackUpdateStrategyTemplate {
+class PaymentCashbackUpdate extends CashbackUpdateStrategyTemplate
+        implements StagedCashbackUpdateStrategy, PartitionedCashbackUpdateStrategy, IsolatingCashbackUpdateStrategy {
 
     private final int dataExtractionLimit;
+    private final boolean keysetPaginationEnabled;
+    private final boolean columnarPageEnabled;
+    private final CommonAggregator commonAggregator;
+    private WinningTransaction keyset;
+    private WinningTransaction nextKeyset;
+    private List<WinningTransaction> lastExtracted = Collections.emptyList();
+    private WinningTransactionPage lastExtractedPage;
+    private Integer partitionCount;
+    private Integer partitionIndex;
 
 
     @Autowired
     public PaymentCashbackUpdate(WinningTransactionDao winningTransactionDao,
                                  CitizenRankingDao citizenRankingDao,
                                  BeanFactory beanFactory,
-                                 @Value("${cashback-update.payment.data-extraction.limit}") int dataExtractionLimit) {
+                                 @Value("${cashback-update.payment.data-extraction.limit}") int dataExtractionLimit,
+                                 @Value("${cashback-update.payment.keyset-pagination.enable}") boolean keysetPaginationEnabled,
+                                 @Value("${cashback-update.write-mode}") CashbackWriteMode writeMode,
+                                 @Value("${cashback-update.payment.columnar-page.enable}") boolean columnarPageEnabled,
+                                 @Value("${cashback-update.retry.bisection.enable}") boolean bisectionEnabled) {
         super(winningTransactionDao,
                 citizenRankingDao,
-                beanFactory.getBean(CommonAggregator.class));
+                beanFactory.getBean(CommonAggregator.class),
+                writeMode);
         this.dataExtractionLimit = dataExtractionLimit;
+        // a failing slice can be skipped only by moving the keyset past it, while an offset
+        // extraction would keep returning the unprocessed slice at the head of the next pages
+        if (bisectionEnabled && !keysetPaginationEnabled) {
+            log.info("Keyset pagination enabled, as required by the bisection of failing pages");
+        }
+        this.keysetPaginationEnabled = keysetPaginationEnabled || bisectionEnabled;
+        this.columnarPageEnabled = columnarPageEnabled;
+        this.commonAggregator = beanFactory.getBean(CommonAggregator.class);
     }
 
 
@@ -44,12 +81,141 @@ class PaymentCashbackUpdate extends CashbackUpdateStrategyTemplate {
         return dataExtractionLimit;
     }
 
+
+    @Override
+    public void setPartition(int partitionCount, int partitionIndex) {
+        if (partitionCount < 1 || partitionIndex < 0 || partitionIndex >= partitionCount) {
+            throw new IllegalArgumentException(String.format("invalid partition %d of %d", partitionIndex, partitionCount));
+        }
+        this.partitionCount = partitionCount;
+        this.partitionIndex = partitionIndex;
+    }
+
+
+    @Override
+    @Transactional("chainedTransactionManager")
+    public int process(AwardPeriod awardPeriod, SimplePageRequest simplePageRequest) {
+        // an extraction failing before returning leaves nothing to skip
+        nextKeyset = keyset;
+        lastExtracted = Collections.emptyList();
+        lastExtractedPage = null;
+
+        return columnarPageEnabled
+                ? processPage(awardPeriod, findNextColumnarPage(awardPeriod.getAwardPeriodId(), simplePageRequest.getSize()))
+                : super.process(awardPeriod, simplePageRequest);
+    }
+
+
+    @Override
+    public void onPageCommitted() {
+        // the keyset moves forward only once the page has been committed,
+        // so that a rolled back page is extracted again from the same position
+        keyset = nextKeyset;
+    }
+
+
+    @Override
+    public List<WinningTransaction> skipFailedPage() {
+        List<WinningTransaction> skipped = lastExtractedPage == null
+                ? lastExtracted
+                : IntStream.range(0, lastExtractedPage.size())
+                .mapToObj(lastExtractedPage::toWinningTransaction)
+                .collect(Collectors.toList());
+        keyset = nextKeyset;
+        return skipped;
+    }
+
+
+    @Override
+    public List<WinningTransaction> extract(AwardPeriod awardPeriod, SimplePageRequest simplePageRequest) {
+        if (log.isTraceEnabled()) {
+            log.trace("PaymentCashbackUpdate.extract");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, simplePageRequest = {}", awardPeriod, simplePageRequest);
+        }
+
+        // extraction runs ahead of the write stage, hence the keyset is always used and moves forward immediately
+        List<WinningTransaction> transactions = findNextPage(awardPeriod.getAwardPeriodId(), simplePageRequest.getSize());
+        keyset = nextKeyset;
+        return transactions;
+    }
+
+
+    @Override
+    @Transactional("chainedTransactionManager")
+    public int apply(AwardPeriod awardPeriod, List<WinningTransaction> transactions) {
+        if (log.isTraceEnabled()) {
+            log.trace("PaymentCashbackUpdate.apply");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, transactions = {}", awardPeriod, transactions.size());
+        }
+
+        return processTransactions(awardPeriod, transactions);
+    }
+
+
     @Override
     protected List<WinningTransaction> retrieveTransactions(long awardPeriodId, Pageable pageable) {
-        Pageable pageRequest = PageRequest.of(pageable.getPageNumber(),
-                pageable.getPageSize(),
-                FIND_TRX_TO_PROCESS_PAGEABLE_SORT);
-        return winningTransactionDao.findPaymentToProcess(awardPeriodId, pageRequest);
+        List<WinningTransaction> transactions;
+
+        // the partition filter is only available on the keyset extraction
+        if (keysetPaginationEnabled || partitionCount != null) {
+            transactions = findNextPage(awardPeriodId, pageable.getPageSize());
+
+        } else {
+            Pageable pageRequest = PageRequest.of(pageable.getPageNumber(),
+                    pageable.getPageSize(),
+                    FIND_TRX_TO_PROCESS_PAGEABLE_SORT);
+            transactions = winningTransactionDao.findPaymentToProcess(awardPeriodId, pageRequest);
+        }
+
+        return transactions;
+    }
+
+
+    /**
+     * Columnar variant of {@link #processTransactions(AwardPeriod, List)}: the page is aggregated and marked as
+     * processed without materializing a {@link WinningTransaction} for each row
+     */
+    private int processPage(AwardPeriod awardPeriod, WinningTransactionPage page) {
+        OffsetDateTime now = OffsetDateTime.now();
+        List<CitizenRanking> rankings = new ArrayList<>(commonAggregator.aggregate(awardPeriod, page, now));
+
+        updateCashback(rankings);
+
+        if (!page.isEmpty()) {
+            int[] affectedRows = winningTransactionDao.updateProcessedTransaction(page, now, RankingProcessorService.PROCESS_NAME);
+            checkErrors(page.size(), affectedRows, "updateProcessedTransaction");
+        }
+
+        return page.size();
+    }
+
+
+    private WinningTransactionPage findNextColumnarPage(long awardPeriodId, int limit) {
+        WinningTransactionPage page = winningTransactionDao.findPaymentPageToProcess(buildFilterCriteria(awardPeriodId), keyset, limit);
+        nextKeyset = page.isEmpty() ? keyset : page.toWinningTransaction(page.size() - 1);
+        lastExtractedPage = page;
+        return page;
+    }
+
+
+    private WinningTransaction.FilterCriteria buildFilterCriteria(long awardPeriodId) {
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(awardPeriodId);
+        filterCriteria.setPartitionCount(partitionCount);
+        filterCriteria.setPartitionIndex(partitionIndex);
+        return filterCriteria;
+    }
+
+
+    private List<WinningTransaction> findNextPage(long awardPeriodId, int limit) {
+        List<WinningTransaction> transactions = winningTransactionDao.findPaymentToProcess(buildFilterCriteria(awardPeriodId), keyset, limit);
+        nextKeyset = transactions.isEmpty() ? keyset : transactions.get(transactions.size() - 1);
+        lastExtracted = transactions;
+        return transactions;
     }
 
 }
@@ -0,0 +1,96 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory hash index of candidate payments, used to match the transfers of a page without a query per transfer.
+ * Payments are indexed both by correlation id and by amount, merchant and terminal, within the same hpan and acquirer,
+ * replicating the conditions of the match queries. The payments must be added sorted by transaction timestamp, so
+ * that the first match is the same returned by the queries
+ */
+final class PaymentTrxHashIndex {
+
+    private final Map<String, List<WinningTransaction>> byCorrelationId;
+    private final Map<String, List<WinningTransaction>> byAmount;
+
+
+    PaymentTrxHashIndex(Collection<WinningTransaction> payments) {
+        byCorrelationId = new HashMap<>(payments.size() * 2);
+        byAmount = new HashMap<>(payments.size() * 2);
+
+        for (WinningTransaction payment : payments) {
+            String correlationKey = correlationKeyOf(payment);
+            if (correlationKey != null) {
+                byCorrelationId.computeIfAbsent(correlationKey, key -> new ArrayList<>(1)).add(payment);
+            }
+            String amountKey = amountKeyOf(payment);
+            if (amountKey != null) {
+                byAmount.computeIfAbsent(amountKey, key -> new ArrayList<>(1)).add(payment);
+            }
+        }
+    }
+
+
+    /**
+     * Match the transfer by correlation id, or by amount, merchant and terminal if its correlation id is blank
+     *
+     * @param transfer the transfer to match
+     * @return the first matched payment and the number of matches
+     */
+    PaymentTrxMatch match(WinningTransaction transfer) {
+        List<WinningTransaction> payments;
+        if (StringUtils.isBlank(transfer.getCorrelationId())) {
+            String amountKey = amountKeyOf(transfer);
+            payments = amountKey == null ? null : byAmount.get(amountKey);
+        } else {
+            payments = byCorrelationId.get(correlationKeyOf(transfer));
+        }
+
+        if (payments == null) {
+            payments = Collections.emptyList();
+        }
+
+        return PaymentTrxMatch.builder()
+                .payment(payments.isEmpty() ? null : payments.get(0))
+                .matchCount(payments.size())
+                .build();
+    }
+
+
+    private static String correlationKeyOf(WinningTransaction trx) {
+        if (trx.getHpan() == null || trx.getAcquirerCode() == null || trx.getAcquirerId() == null
+                || trx.getCorrelationId() == null) {
+            return null;
+        }
+        return String.join("|", trx.getHpan(), trx.getAcquirerCode(), trx.getAcquirerId(), trx.getCorrelationId());
+    }
+
+
+    private static String amountKeyOf(WinningTransaction trx) {
+        if (trx.getHpan() == null || trx.getAcquirerCode() == null || trx.getAcquirerId() == null
+                || trx.getAmount() == null || trx.getMerchantId() == null || trx.getTerminalId() == null) {
+            return null;
+        }
+        return String.join("|", trx.getHpan(), trx.getAcquirerCode(), trx.getAcquirerId(),
+                toKey(trx.getAmount()), trx.getMerchantId(), trx.getTerminalId());
+    }
+
+
+    /**
+     * Numeric equality, regardless of the scale
+     */
+    private static String toKey(BigDecimal amount) {
+        return amount.signum() == 0 ? "0" : amount.stripTrailingZeros().toPlainString();
+    }
+
+}
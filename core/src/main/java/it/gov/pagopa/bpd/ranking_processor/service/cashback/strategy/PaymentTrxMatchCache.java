@@ -0,0 +1,163 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the payments matched by the transfers, keyed by award period, hpan, acquirer and correlation id.
+ * Entries are evicted in least recently used order when the maximum size is reached and expire after the time to live.
+ * Only unique matches are cached, since a payment not found yet could still be processed by another worker.
+ * The cache lives as long as the strategy instance owning it, i.e. one run of the update cashback process
+ */
+final class PaymentTrxMatchCache {
+
+    static final String CACHE_METRIC_NAME = "ranking.processor.transfer.cache";
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    private final Map<String, Entry> entries;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+
+    PaymentTrxMatchCache(String strategyName, int maxSize, Duration ttl) {
+        this(strategyName, maxSize, ttl, System::nanoTime);
+    }
+
+
+    PaymentTrxMatchCache(String strategyName, int maxSize, Duration ttl, LongSupplier nanoTime) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoTime = nanoTime;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > PaymentTrxMatchCache.this.maxSize;
+            }
+        };
+        this.hitCounter = Metrics.counter(CACHE_METRIC_NAME, "strategy", strategyName, "result", "hit");
+        this.missCounter = Metrics.counter(CACHE_METRIC_NAME, "strategy", strategyName, "result", "miss");
+    }
+
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+
+    /**
+     * @return the key of the payment matched by the transfer, null if the transfer has no correlation id
+     */
+    static String keyOf(Long awardPeriodId, WinningTransaction transfer) {
+        return StringUtils.isBlank(transfer.getCorrelationId())
+                ? null
+                : String.join("|", String.valueOf(awardPeriodId), transfer.getHpan(), transfer.getAcquirerCode(),
+                transfer.getAcquirerId(), transfer.getCorrelationId());
+    }
+
+
+    synchronized PaymentTrxMatch get(String key) {
+        if (!isEnabled() || key == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry != null && nanoTime.getAsLong() - entry.insertNanos >= ttlNanos) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCounter.increment();
+            return null;
+        } else {
+            hitCounter.increment();
+            return entry.match;
+        }
+    }
+
+
+    synchronized void put(String key, PaymentTrxMatch match) {
+        if (isEnabled() && key != null && match.getPayment() != null && !match.isAmbiguous()) {
+            entries.put(key, new Entry(match, nanoTime.getAsLong()));
+        }
+    }
+
+
+    synchronized void invalidate(String key) {
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Retrieve the matches of the given transfers, loading only the ones not cached
+     *
+     * @param awardPeriodId the award period of the transfers
+     * @param transfers     the transfers to match
+     * @param loader        the batch loader of the missing matches, returning a match for each transfer in the same order
+     * @return a match for each transfer, in the same order
+     */
+    List<PaymentTrxMatch> getAll(Long awardPeriodId,
+                                 List<WinningTransaction> transfers,
+                                 Function<List<WinningTransaction>, List<PaymentTrxMatch>> loader) {
+        PaymentTrxMatch[] matches = new PaymentTrxMatch[transfers.size()];
+        String[] keys = new String[transfers.size()];
+        List<WinningTransaction> missingTransfers = new ArrayList<>(transfers.size());
+        List<Integer> missingIndexes = new ArrayList<>(transfers.size());
+
+        for (int i = 0; i < transfers.size(); i++) {
+            keys[i] = keyOf(awardPeriodId, transfers.get(i));
+            matches[i] = get(keys[i]);
+            if (matches[i] == null) {
+                missingTransfers.add(transfers.get(i));
+                missingIndexes.add(i);
+            }
+        }
+
+        if (!missingTransfers.isEmpty()) {
+            List<PaymentTrxMatch> loadedMatches = loader.apply(missingTransfers);
+            for (int i = 0; i < missingIndexes.size(); i++) {
+                int index = missingIndexes.get(i);
+                matches[index] = loadedMatches.get(i);
+                put(keys[index], matches[index]);
+            }
+        }
+
+        return Arrays.asList(matches);
+    }
+
+
+    private static final class Entry {
+
+        private final PaymentTrxMatch match;
+        private final long insertNanos;
+
+
+        private Entry(PaymentTrxMatch match, long insertNanos) {
+            this.match = match;
+            this.insertNanos = insertNanos;
+        }
+
+    }
+
+}
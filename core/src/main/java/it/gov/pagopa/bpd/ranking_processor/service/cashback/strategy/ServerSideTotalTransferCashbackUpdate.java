@@ -0,0 +1,98 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.time.Period;
+
+/**
+ * Implementation of {@link CashbackUpdateStrategy} to handle total transfer entirely on the database side: every page
+ * is matched, aggregated, written to the citizen ranking and removed from the transfers by a single statement, see
+ * {@link WinningTransactionDao#reconcileTotalTransfer(WinningTransaction.FilterCriteria, OffsetDateTime, String, int)}.
+ * The deltas never leave the database, so cashback-update.write-mode does not apply: the rankings are always upserted
+ * in place, in the same lock order of the client-side writes. Usable only when both datasources point at the same
+ * database, as checked on creation
+ */
+@Slf4j
+@Component
+@Scope(BeanDefinition.SCOPE_PROTOTYPE)
+@Conditional(CashbackUpdateServerSideTotalTransferEnabledCondition.class)
+class ServerSideTotalTransferCashbackUpdate implements CashbackUpdateStrategy {
+
+    private final WinningTransactionDao winningTransactionDao;
+    private final int dataExtractionLimit;
+    private final Period maxDepth;
+    private final OffsetDateTime startProcess;
+
+
+    @Autowired
+    public ServerSideTotalTransferCashbackUpdate(WinningTransactionDao winningTransactionDao,
+                                                 CitizenRankingDao citizenRankingDao,
+                                                 @Value("${cashback-update.total-transfer.data-extraction.limit}") int dataExtractionLimit,
+                                                 @Value("${cashback-update.total-transfer.max-depth}") Period maxDepth,
+                                                 @Value("${cashback-update.write-mode}") CashbackWriteMode writeMode) {
+        if (log.isTraceEnabled()) {
+            log.trace("ServerSideTotalTransferCashbackUpdate.ServerSideTotalTransferCashbackUpdate");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("winningTransactionDao = {}, citizenRankingDao = {}, dataExtractionLimit = {}, maxDepth = {}, writeMode = {}",
+                    winningTransactionDao, citizenRankingDao, dataExtractionLimit, maxDepth, writeMode);
+        }
+        String winningTransactionDatabase = winningTransactionDao.findDatabaseIdentity();
+        String citizenDatabase = citizenRankingDao.findDatabaseIdentity();
+        if (winningTransactionDatabase == null || !winningTransactionDatabase.equals(citizenDatabase)) {
+            throw new IllegalArgumentException(String.format("server-side total transfer reconciliation requires both datasources to point at the same database, found %s and %s",
+                    winningTransactionDatabase, citizenDatabase));
+        }
+        if (writeMode != CashbackWriteMode.UPSERT) {
+            log.warn("cashback-update.write-mode {} is ignored by the server-side total transfer reconciliation, which always upserts the rankings",
+                    writeMode);
+        }
+
+        this.winningTransactionDao = winningTransactionDao;
+        this.dataExtractionLimit = dataExtractionLimit;
+        this.maxDepth = maxDepth;
+        this.startProcess = OffsetDateTime.now();
+    }
+
+
+    @Override
+    public int getDataExtractionLimit() {
+        return dataExtractionLimit;
+    }
+
+
+    @Override
+    @Transactional("chainedTransactionManager")
+    public int process(AwardPeriod awardPeriod, SimplePageRequest simplePageRequest) {
+        if (log.isTraceEnabled()) {
+            log.trace("ServerSideTotalTransferCashbackUpdate.process");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, simplePageRequest = {}", awardPeriod, simplePageRequest);
+        }
+
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(awardPeriod.getAwardPeriodId());
+        filterCriteria.setUpdateDate(startProcess);
+
+        return winningTransactionDao.reconcileTotalTransfer(filterCriteria,
+                OffsetDateTime.now().minus(maxDepth),
+                RankingProcessorService.PROCESS_NAME,
+                simplePageRequest.getSize());
+    }
+
+}
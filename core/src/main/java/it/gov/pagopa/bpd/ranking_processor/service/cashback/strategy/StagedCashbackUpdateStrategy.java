@@ -0,0 +1,28 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+
+import java.util.List;
+
+/**
+ * A {@link CashbackUpdateStrategy} whose page processing can be split into an extraction stage and a write stage,
+ * so that the two stages can run concurrently on different pages
+ */
+public interface StagedCashbackUpdateStrategy extends CashbackUpdateStrategy {
+
+    /**
+     * Extract the next page of transactions to process. Consecutive invocations never return the same transaction,
+     * even if the previous pages have not been applied yet
+     */
+    List<WinningTransaction> extract(final AwardPeriod awardPeriod, SimplePageRequest simplePageRequest);
+
+    /**
+     * Aggregate and write the cashback of a page previously returned by {@link #extract(AwardPeriod, SimplePageRequest)}
+     *
+     * @return the number of processed transactions
+     */
+    int apply(final AwardPeriod awardPeriod, List<WinningTransaction> transactions);
+
+}
@@ -4,6 +4,7 @@ import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPer
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
 import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
 import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
@@ -21,10 +22,14 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.Period;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao.FIND_TRX_TO_PROCESS_PAGEABLE_SORT;
 
@@ -39,6 +44,9 @@ class TotalTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
 
     private final int dataExtractionLimit;
     private final Period maxDepth;
+    private final TransferMatchingMode matchingMode;
+    private final PaymentTrxMatchCache paymentTrxMatchCache;
+    private final TransferMatchingExecutor transferMatchingExecutor;
     private final OffsetDateTime startProcess;
 
 
@@ -47,16 +55,32 @@ class TotalTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
                                        CitizenRankingDao citizenRankingDao,
                                        BeanFactory beanFactory,
                                        @Value("${cashback-update.total-transfer.data-extraction.limit}") int dataExtractionLimit,
-                                       @Value("${cashback-update.total-transfer.max-depth}") Period maxDepth) {
+                                       @Value("${cashback-update.total-transfer.max-depth}") Period maxDepth,
+                                       @Value("${cashback-update.write-mode}") CashbackWriteMode writeMode,
+                                       @Value("${cashback-update.total-transfer.matching-mode}") TransferMatchingMode matchingMode,
+                                       @Value("${cashback-update.transfer-cache.max-size}") int cacheMaxSize,
+                                       @Value("${cashback-update.transfer-cache.ttl}") Duration cacheTtl,
+                                       @Value("${cashback-update.transfer-matching.thread-pool-size}") int matchingThreadPoolSize,
+                                       @Value("${winning-transaction.spring.datasource.hikari.maximumPoolSize}") int transactionPoolSize) {
         super(winningTransactionDao,
                 citizenRankingDao,
-                beanFactory.getBean(CommonAggregator.class));
+                beanFactory.getBean(CommonAggregator.class),
+                writeMode);
         this.dataExtractionLimit = dataExtractionLimit;
         this.maxDepth = maxDepth;
+        this.matchingMode = matchingMode;
+        this.paymentTrxMatchCache = new PaymentTrxMatchCache(getClass().getSimpleName(), cacheMaxSize, cacheTtl);
+        this.transferMatchingExecutor = new TransferMatchingExecutor(matchingThreadPoolSize, transactionPoolSize);
         this.startProcess = OffsetDateTime.now();
     }
 
 
+    @Override
+    public void onRunCompleted() {
+        transferMatchingExecutor.shutdown();
+    }
+
+
     @Override
     public int getDataExtractionLimit() {
         return dataExtractionLimit;
@@ -95,54 +119,60 @@ class TotalTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
         List<WinningTransaction> oldTransfer = new ArrayList<>();
 
         OffsetDateTime max = OffsetDateTime.now().minus(maxDepth);
+        List<WinningTransaction> transfersToMatch = new ArrayList<>(transactions.size());
 
         for (WinningTransaction transferTrx : transactions) {
             if (transferTrx.getInsertDate().isBefore(max)) {
                 oldTransfer.add(transferTrx);
-
             } else {
                 transferTrx.setUpdateDate(startProcess);
                 transferTrx.setUpdateUser(RankingProcessorService.PROCESS_NAME);
+                transfersToMatch.add(transferTrx);
+            }
+        }
 
-                WinningTransaction paymentTrx;
-                WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
-                filterCriteria.setAwardPeriodId(awardPeriod.getAwardPeriodId());
-                filterCriteria.setHpan(transferTrx.getHpan());
-                filterCriteria.setAcquirerCode(transferTrx.getAcquirerCode());
-                filterCriteria.setAcquirerId(transferTrx.getAcquirerId());
-                if (StringUtils.isBlank(transferTrx.getCorrelationId())) {
-                    filterCriteria.setAmount(transferTrx.getAmount());
-                    filterCriteria.setMerchantId(transferTrx.getMerchantId());
-                    filterCriteria.setTerminalId(transferTrx.getTerminalId());
-                    paymentTrx = winningTransactionDao.findPaymentTrxWithoutCorrelationId(filterCriteria);
-                } else {
-                    filterCriteria.setCorrelationId(transferTrx.getCorrelationId());
-                    try {
-                        paymentTrx = winningTransactionDao.findPaymentTrxWithCorrelationId(filterCriteria);
-                    } catch (IncorrectResultSizeDataAccessException e) {
-                        log.warn(String.format("Failed to match transfer with correlation_id '%s': %s",
-                                transferTrx.getCorrelationId(),
-                                e.getMessage()));
-                        transferTrx.setParked(true);
-                        paymentTrx = null;
-                    }
-                }
+        List<WinningTransaction> paymentTrxs;
+        List<PaymentTrxMatch> matches;
+        switch (matchingMode) {
+            case BATCH:
+                matches = paymentTrxMatchCache.getAll(awardPeriod.getAwardPeriodId(), transfersToMatch,
+                        transfers -> winningTransactionDao.findPaymentTrxMatches(awardPeriod.getAwardPeriodId(), transfers));
+                break;
+            case HASH:
+                matches = paymentTrxMatchCache.getAll(awardPeriod.getAwardPeriodId(), transfersToMatch,
+                        transfers -> hashMatch(awardPeriod, transfers));
+                break;
+            default:
+                matches = null;
+        }
 
-                if (paymentTrx == null) {
-                    unrelatedTransfer.add(transferTrx);
+        if (matches == null) {
+            paymentTrxs = transferMatchingExecutor.map(transfersToMatch, transferTrx -> findPaymentTrx(awardPeriod, transferTrx));
+        } else {
+            paymentTrxs = new ArrayList<>(transfersToMatch.size());
+            for (int i = 0; i < transfersToMatch.size(); i++) {
+                paymentTrxs.add(getMatchedPaymentTrx(transfersToMatch.get(i), matches.get(i)));
+            }
+        }
 
-                } else {
+        for (int i = 0; i < transfersToMatch.size(); i++) {
+            WinningTransaction transferTrx = transfersToMatch.get(i);
+            WinningTransaction paymentTrx = paymentTrxs.get(i);
 
-                    if (transferTrx.getAmount().equals(paymentTrx.getAmount())) {
-                        relatedTotalTransfer.add(transferTrx);
+            if (paymentTrx == null) {
+                unrelatedTransfer.add(transferTrx);
 
-                    } else if (transferTrx.getAmount().compareTo(paymentTrx.getAmount()) > 0) {
-                        transferTrx.setParked(true);
-                        relatedPartialTransfer.add(transferTrx);
+            } else {
+
+                if (transferTrx.getAmount().equals(paymentTrx.getAmount())) {
+                    relatedTotalTransfer.add(transferTrx);
 
-                    } else {
-                        relatedPartialTransfer.add(transferTrx);
-                    }
+                } else if (transferTrx.getAmount().compareTo(paymentTrx.getAmount()) > 0) {
+                    transferTrx.setParked(true);
+                    relatedPartialTransfer.add(transferTrx);
+
+                } else {
+                    relatedPartialTransfer.add(transferTrx);
                 }
             }
         }
@@ -156,6 +186,7 @@ class TotalTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
 
             affectedRows = winningTransactionDao.updateProcessedTransaction(relatedTotalTransfer);
             checkErrors(relatedTotalTransfer.size(), affectedRows, "updateProcessedTransaction");
+            winningTransactionDao.updateTransferBalance(awardPeriod.getAwardPeriodId(), relatedTotalTransfer);
         }
 
         if (!relatedPartialTransfer.isEmpty()) {
@@ -176,4 +207,73 @@ class TotalTransferCashbackUpdate extends CashbackUpdateStrategyTemplate {
         return transactions.size();
     }
 
+
+    private WinningTransaction findPaymentTrx(AwardPeriod awardPeriod, WinningTransaction transferTrx) {
+        WinningTransaction paymentTrx;
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(awardPeriod.getAwardPeriodId());
+        filterCriteria.setHpan(transferTrx.getHpan());
+        filterCriteria.setAcquirerCode(transferTrx.getAcquirerCode());
+        filterCriteria.setAcquirerId(transferTrx.getAcquirerId());
+        if (StringUtils.isBlank(transferTrx.getCorrelationId())) {
+            filterCriteria.setAmount(transferTrx.getAmount());
+            filterCriteria.setMerchantId(transferTrx.getMerchantId());
+            filterCriteria.setTerminalId(transferTrx.getTerminalId());
+            paymentTrx = winningTransactionDao.findPaymentTrxWithoutCorrelationId(filterCriteria);
+        } else {
+            String cacheKey = PaymentTrxMatchCache.keyOf(awardPeriod.getAwardPeriodId(), transferTrx);
+            PaymentTrxMatch cachedMatch = paymentTrxMatchCache.get(cacheKey);
+            if (cachedMatch != null) {
+                return cachedMatch.getPayment();
+            }
+            filterCriteria.setCorrelationId(transferTrx.getCorrelationId());
+            try {
+                paymentTrx = winningTransactionDao.findPaymentTrxWithCorrelationId(filterCriteria);
+                if (paymentTrx != null) {
+                    paymentTrxMatchCache.put(cacheKey, PaymentTrxMatch.builder()
+                            .payment(paymentTrx)
+                            .matchCount(1)
+                            .build());
+                }
+            } catch (IncorrectResultSizeDataAccessException e) {
+                log.warn(String.format("Failed to match transfer with correlation_id '%s': %s",
+                        transferTrx.getCorrelationId(),
+                        e.getMessage()));
+                transferTrx.setParked(true);
+                paymentTrx = null;
+            }
+        }
+        return paymentTrx;
+    }
+
+
+    private List<PaymentTrxMatch> hashMatch(AwardPeriod awardPeriod, List<WinningTransaction> transfers) {
+        Set<String> hpans = transfers.stream()
+                .map(WinningTransaction::getHpan)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        PaymentTrxHashIndex paymentTrxIndex = new PaymentTrxHashIndex(
+                winningTransactionDao.findPaymentTrxByHpan(awardPeriod.getAwardPeriodId(), hpans));
+
+        return transfers.stream()
+                .map(paymentTrxIndex::match)
+                .collect(Collectors.toList());
+    }
+
+
+    /**
+     * Same rules of {@link #findPaymentTrx(AwardPeriod, WinningTransaction)} applied to a batch match: a transfer
+     * with correlation id matching more than one payment is parked, otherwise the first match is used
+     */
+    private WinningTransaction getMatchedPaymentTrx(WinningTransaction transferTrx, PaymentTrxMatch match) {
+        if (!StringUtils.isBlank(transferTrx.getCorrelationId()) && match.isAmbiguous()) {
+            log.warn(String.format("Failed to match transfer with correlation_id '%s': Incorrect result size: expected 1, actual %d",
+                    transferTrx.getCorrelationId(),
+                    match.getMatchCount()));
+            transferTrx.setParked(true);
+            return null;
+        }
+        return match.getPayment();
+    }
+
 }
@@ -0,0 +1,106 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.CashbackUpdateException;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Executor of the per-transfer matching phase of a page. When a thread pool size greater than one is configured the
+ * transfers are matched concurrently by a long-lived pool, shared by all the pages of the strategy run and released
+ * by {@link #shutdown()}. The pool must leave a connection of the TransactionDataSource to the page transaction.
+ * Concurrent matches run outside the page transaction, which has not written anything yet at this point.
+ * Results are always returned in the order of the transfers, so the classification that follows is deterministic
+ */
+@Slf4j
+final class TransferMatchingExecutor {
+
+    private final int concurrency;
+    private final ExecutorService pool;
+
+
+    TransferMatchingExecutor(int threadPoolSize, int transactionPoolSize) {
+        int maxThreadPoolSize = Math.max(1, transactionPoolSize - 1);
+        if (threadPoolSize < 1 || threadPoolSize > maxThreadPoolSize) {
+            throw new IllegalArgumentException(String.format("transfer matching thread pool size must be between 1 and %d, according to the datasource pool size",
+                    maxThreadPoolSize));
+        }
+        this.concurrency = threadPoolSize;
+        this.pool = threadPoolSize > 1
+                ? Executors.newFixedThreadPool(threadPoolSize)
+                : null;
+    }
+
+
+    int getConcurrency() {
+        return concurrency;
+    }
+
+
+    /**
+     * Release the thread pool, once the strategy run is over
+     */
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Apply the matcher to every transfer
+     *
+     * @param transfers the transfers to match
+     * @param matcher   the matcher, which must be safe to call concurrently on different transfers
+     * @return the results, in the same order of the transfers
+     */
+    <T, R> List<R> map(List<T> transfers, Function<T, R> matcher) {
+        if (pool == null || transfers.size() <= 1) {
+            return transfers.stream()
+                    .map(matcher)
+                    .collect(Collectors.toList());
+        }
+
+        try {
+            List<Callable<R>> concurrentJobs = new ArrayList<>(transfers.size());
+            Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
+            for (T transfer : transfers) {
+                concurrentJobs.add(() -> {
+                    if (mdcContextMap == null) {
+                        MDC.clear();
+                    } else {
+                        MDC.setContextMap(mdcContextMap);
+                    }
+                    return matcher.apply(transfer);
+                });
+            }
+
+            List<R> results = new ArrayList<>(transfers.size());
+            for (Future<R> future : pool.invokeAll(concurrentJobs)) {
+                results.add(future.get());
+            }
+            return results;
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CashbackUpdateException(e.getMessage());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CashbackUpdateException(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+/**
+ * How the transfers of a page are matched against the payments
+ */
+public enum TransferMatchingMode {
+
+    /**
+     * A query for each transfer
+     */
+    SINGLE,
+
+    /**
+     * A single query joining all the transfers of the page
+     */
+    BATCH,
+
+    /**
+     * A single query loading all the payments of the hpans of the page, matched in memory through a hash index
+     */
+    HASH
+
+}
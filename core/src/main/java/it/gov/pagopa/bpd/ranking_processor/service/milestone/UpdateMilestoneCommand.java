@@ -30,7 +30,7 @@ import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingD
 @Slf4j
 @Service
 @Conditional(MilestoneUpdateEnabledCondition.class)
-@Order(3)
+@Order(4)
 class UpdateMilestoneCommand implements RankingSubProcessCommand {
 
     private static final String FAILED_UPDATE_WORKER_MESSAGE_FORMAT = "Failed to %s worker to process %s";
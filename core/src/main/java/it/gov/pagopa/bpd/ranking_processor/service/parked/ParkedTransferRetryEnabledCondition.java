@@ -0,0 +1,15 @@
+package it.gov.pagopa.bpd.ranking_processor.service.parked;
+
+import org.springframework.boot.autoconfigure.condition.AllNestedConditions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+class ParkedTransferRetryEnabledCondition extends AllNestedConditions {
+
+    public ParkedTransferRetryEnabledCondition() {
+        super(ConfigurationPhase.REGISTER_BEAN);
+    }
+
+    @ConditionalOnProperty(prefix = "parked-transfer-retry", name = "enable", havingValue = "true")
+    public static class ParkedTransferRetryEnabled {
+    }
+}
@@ -0,0 +1,104 @@
+package it.gov.pagopa.bpd.ranking_processor.service.parked;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingSubProcessCommand;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_PARTIAL_TRANSFER;
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_TOTAL_TRANSFER;
+
+/**
+ * {@link RankingSubProcessCommand} implementation to retry the parked transfers after the expired ones are purged and
+ * before the Update Cashback subprocess.
+ * Parked transfers whose next attempt is due are released in chunks, so that the transfer strategies match them again
+ * against the payments arrived in the meantime. Every release increments the attempts of the transfer and schedules its
+ * next attempt with an exponential backoff; transfers parked again wait for it, while transfers that exhausted their
+ * attempts stay parked
+ */
+@Slf4j
+@Service
+@Conditional(ParkedTransferRetryEnabledCondition.class)
+@Order(1)
+class RetryParkedTransferCommand implements RankingSubProcessCommand {
+
+    private final WinningTransactionDao winningTransactionDao;
+    private final CitizenRankingDao citizenRankingDao;
+    private final int maxAttempts;
+    private final Duration backoffInitial;
+    private final Duration backoffMax;
+    private final int chunkSize;
+
+
+    @Autowired
+    public RetryParkedTransferCommand(WinningTransactionDao winningTransactionDao,
+                                      CitizenRankingDao citizenRankingDao,
+                                      @Value("${parked-transfer-retry.max-attempts}") int maxAttempts,
+                                      @Value("${parked-transfer-retry.backoff.initial}") Duration backoffInitial,
+                                      @Value("${parked-transfer-retry.backoff.max}") Duration backoffMax,
+                                      @Value("${parked-transfer-retry.chunk-size}") int chunkSize) {
+        if (log.isTraceEnabled()) {
+            log.trace("RetryParkedTransferCommand.RetryParkedTransferCommand");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("winningTransactionDao = {}, citizenRankingDao = {}, maxAttempts = {}, backoffInitial = {}, backoffMax = {}, chunkSize = {}",
+                    winningTransactionDao, citizenRankingDao, maxAttempts, backoffInitial, backoffMax, chunkSize);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("max attempts must be a positive integer");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be a positive integer");
+        }
+        if (backoffInitial.isNegative() || backoffMax.compareTo(backoffInitial) < 0) {
+            throw new IllegalArgumentException("backoff bounds must be positive durations, with initial not greater than max");
+        }
+
+        this.winningTransactionDao = winningTransactionDao;
+        this.citizenRankingDao = citizenRankingDao;
+        this.maxAttempts = maxAttempts;
+        this.backoffInitial = backoffInitial;
+        this.backoffMax = backoffMax;
+        this.chunkSize = chunkSize;
+    }
+
+
+    @Override
+    public void execute(AwardPeriod awardPeriod, LocalTime stopTime) {
+        if (log.isTraceEnabled()) {
+            log.trace("RetryParkedTransferCommand.execute");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}", awardPeriod);
+        }
+
+        if (citizenRankingDao.getWorkerCount(UPDATE_CASHBACK_TOTAL_TRANSFER) > 0
+                || citizenRankingDao.getWorkerCount(UPDATE_CASHBACK_PARTIAL_TRANSFER) > 0) {
+            log.info("skip retry of parked transfers");
+            return;
+        }
+
+        log.info("Start retry of parked transfers with chunk size {}", chunkSize);
+        int releasedCount = 0;
+        int chunkCount = chunkSize;
+        while (chunkCount == chunkSize && !isToStop.test(stopTime)) {
+            chunkCount = winningTransactionDao.releaseParkedTransfer(awardPeriod.getAwardPeriodId(),
+                    maxAttempts,
+                    backoffInitial,
+                    backoffMax,
+                    chunkSize);
+            releasedCount += chunkCount;
+        }
+        log.info("End retry of parked transfers: {} transfers released", releasedCount);
+    }
+
+}
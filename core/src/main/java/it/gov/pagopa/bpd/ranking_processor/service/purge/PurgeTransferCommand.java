@@ -0,0 +1,110 @@
+package it.gov.pagopa.bpd.ranking_processor.service.purge;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingSubProcessCommand;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.Period;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_PARTIAL_TRANSFER;
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_TOTAL_TRANSFER;
+
+/**
+ * {@link RankingSubProcessCommand} implementation to purge the expired transfers before the Update Cashback subprocess,
+ * so that the transfer pages contain only transfers still to be matched. Transfers are deleted in chunks, each one
+ * committed on its own, pausing between chunks to limit the load on the database
+ */
+@Slf4j
+@Service
+@Conditional(TransferPurgeEnabledCondition.class)
+@Order(0)
+class PurgeTransferCommand implements RankingSubProcessCommand {
+
+    private final WinningTransactionDao winningTransactionDao;
+    private final CitizenRankingDao citizenRankingDao;
+    private final Period totalTransferMaxDepth;
+    private final Period partialTransferMaxDepth;
+    private final int chunkSize;
+    private final Duration pause;
+
+
+    @Autowired
+    public PurgeTransferCommand(WinningTransactionDao winningTransactionDao,
+                                CitizenRankingDao citizenRankingDao,
+                                @Value("${cashback-update.total-transfer.max-depth}") Period totalTransferMaxDepth,
+                                @Value("${cashback-update.partial-transfer.max-depth}") Period partialTransferMaxDepth,
+                                @Value("${transfer-purge.chunk-size}") int chunkSize,
+                                @Value("${transfer-purge.pause}") Duration pause) {
+        if (log.isTraceEnabled()) {
+            log.trace("PurgeTransferCommand.PurgeTransferCommand");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("winningTransactionDao = {}, citizenRankingDao = {}, chunkSize = {}, pause = {}",
+                    winningTransactionDao, citizenRankingDao, chunkSize, pause);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be a positive integer");
+        }
+
+        this.winningTransactionDao = winningTransactionDao;
+        this.citizenRankingDao = citizenRankingDao;
+        this.totalTransferMaxDepth = totalTransferMaxDepth;
+        this.partialTransferMaxDepth = partialTransferMaxDepth;
+        this.chunkSize = chunkSize;
+        this.pause = pause;
+    }
+
+
+    @Override
+    public void execute(AwardPeriod awardPeriod, LocalTime stopTime) {
+        if (log.isTraceEnabled()) {
+            log.trace("PurgeTransferCommand.execute");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}", awardPeriod);
+        }
+
+        if (citizenRankingDao.getWorkerCount(UPDATE_CASHBACK_TOTAL_TRANSFER) > 0
+                || citizenRankingDao.getWorkerCount(UPDATE_CASHBACK_PARTIAL_TRANSFER) > 0) {
+            log.info("skip purge of expired transfers");
+            return;
+        }
+
+        // same thresholds applied by the transfer strategies
+        OffsetDateTime now = OffsetDateTime.now();
+        OffsetDateTime totalTransferInsertDate = now.minus(totalTransferMaxDepth);
+        OffsetDateTime partialTransferInsertDate = now.minus(partialTransferMaxDepth);
+
+        log.info("Start purge of expired transfers with chunk size {}", chunkSize);
+        int purgedCount = 0;
+        int chunkCount = chunkSize;
+        while (chunkCount == chunkSize && !isToStop.test(stopTime)) {
+            chunkCount = winningTransactionDao.deleteExpiredTransfer(awardPeriod.getAwardPeriodId(),
+                    totalTransferInsertDate,
+                    partialTransferInsertDate,
+                    chunkSize);
+            purgedCount += chunkCount;
+
+            if (chunkCount == chunkSize && !pause.isZero()) {
+                try {
+                    Thread.sleep(pause.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        log.info("End purge of expired transfers: {} transfers deleted", purgedCount);
+    }
+
+}
@@ -0,0 +1,15 @@
+package it.gov.pagopa.bpd.ranking_processor.service.purge;
+
+import org.springframework.boot.autoconfigure.condition.AllNestedConditions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+class TransferPurgeEnabledCondition extends AllNestedConditions {
+
+    public TransferPurgeEnabledCondition() {
+        super(ConfigurationPhase.REGISTER_BEAN);
+    }
+
+    @ConditionalOnProperty(prefix = "transfer-purge", name = "enable", havingValue = "true")
+    public static class TransferPurgeEnabled {
+    }
+}
@@ -25,7 +25,7 @@ import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingD
 @Slf4j
 @Service
 @Conditional(RankingUpdateEnabledCondition.class)
-@Order(2)
+@Order(3)
 class UpdateRankingCommand implements RankingSubProcessCommand {
 
     public static final String FAILED_UPDATE_WORKER_MESSAGE_FORMAT = "Failed to %s worker to process %s";
@@ -87,21 +87,26 @@ class UpdateRankingCommand implements RankingSubProcessCommand {
         RankingUpdateStrategy rankingUpdateStrategy = rankingUpdateStrategyFactory.create();
 
         try {
-            while (citizensCount == rankingUpdateLimit && !isToStop.test(stopTime)) {
-                SimplePageRequest pageRequest = SimplePageRequest.of(0, rankingUpdateLimit);
-                log.info("Start {} with page {}", rankingUpdateStrategy.getClass().getSimpleName(), pageRequest);
-                citizensCount = rankingUpdateStrategy.process(awardPeriod, pageRequest);
-                log.info("End {} with page {}", rankingUpdateStrategy.getClass().getSimpleName(), pageRequest);
+            try {
+                while (citizensCount == rankingUpdateLimit && !isToStop.test(stopTime)) {
+                    SimplePageRequest pageRequest = SimplePageRequest.of(0, rankingUpdateLimit);
+                    log.info("Start {} with page {}", rankingUpdateStrategy.getClass().getSimpleName(), pageRequest);
+                    citizensCount = rankingUpdateStrategy.process(awardPeriod, pageRequest);
+                    log.info("End {} with page {}", rankingUpdateStrategy.getClass().getSimpleName(), pageRequest);
+                }
+
+            } catch (RuntimeException e) {
+                log.error(e.getMessage());
             }
 
-        } catch (RuntimeException e) {
-            log.error(e.getMessage());
-        }
+            if (!isToStop.test(stopTime)) {
+                log.info("Start updateRankingExt");
+                rankingUpdateStrategy.updateRankingExt(awardPeriod);
+                log.info("End updateRankingExt");
+            }
 
-        if (!isToStop.test(stopTime)) {
-            log.info("Start updateRankingExt");
-            rankingUpdateStrategy.updateRankingExt(awardPeriod);
-            log.info("End updateRankingExt");
+        } finally {
+            rankingUpdateStrategy.onRunCompleted();
         }
     }
 
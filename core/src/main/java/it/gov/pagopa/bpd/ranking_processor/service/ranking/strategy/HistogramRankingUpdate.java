@@ -0,0 +1,375 @@
+package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import it.gov.pagopa.bpd.ranking_processor.service.ranking.RankingUpdateException;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_RANKING_EXT;
+
+/**
+ * Histogram-based implementation of {@link RankingUpdateStrategy}: the citizens are first counted by transaction number,
+ * deriving the ranking range of each transaction number bucket, then each bucket is ranked in the database on its own,
+ * ordering only its citizens by the remaining tie-break criteria, where the terms and conditions timestamp takes part
+ * only when the tie-break is enabled or the chunk starts below the tie-break limit.
+ * Only the histogram is held in memory, and the statistics of the award period are derived from it.
+ * As the ranking range of every bucket is known up front, the chunks of a page are claimed by up to
+ * ranking-update.histogram.thread-pool-size workers, each one ranking a different bucket at a time. A single worker
+ * ranks the page in one transaction, while the concurrent chunks share none and are committed each in its own. The workers belong to the single pod holding the
+ * Update Ranking worker registration, which is exclusive
+ */
+@Slf4j
+@Component
+@Scope(BeanDefinition.SCOPE_PROTOTYPE)
+public class HistogramRankingUpdate implements RankingUpdateStrategy {
+
+    private final CitizenRankingDao citizenRankingDao;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean tieBreakEnabled;
+    private final int tieBreakLimit;
+    private final OffsetDateTime startProcess;
+    private final int threadPoolSize;
+    private final ExecutorService pool;
+    private List<Bucket> buckets;
+    private int bucketIndex;
+    private long rankedCitizens;
+    private Long maxTransactionNumber;
+    private Long minTransactionNumber;
+    private boolean updateRankingFailed;
+
+
+    @Autowired
+    public HistogramRankingUpdate(CitizenRankingDao citizenRankingDao,
+                                  @Qualifier("citizenTransactionManager") PlatformTransactionManager transactionManager,
+                                  @Value("${ranking-update.tie-break.enable}") boolean tieBreakEnabled,
+                                  @Value("${ranking-update.tie-break.limit}") int tieBreakLimit,
+                                  @Value("${ranking-update.histogram.thread-pool-size}") int threadPoolSize,
+                                  @Value("${citizen.spring.datasource.hikari.maximumPoolSize}") int citizenPoolSize) {
+        if (log.isTraceEnabled()) {
+            log.trace("HistogramRankingUpdate.HistogramRankingUpdate");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("citizenRankingDao = {}, transactionManager = {}, tieBreakEnabled = {}, tieBreakLimit = {}, threadPoolSize = {}, citizenPoolSize = {}",
+                    citizenRankingDao, transactionManager, tieBreakEnabled, tieBreakLimit, threadPoolSize, citizenPoolSize);
+        }
+
+        // each concurrent chunk holds a connection of the CitizenDataSource for its own transaction
+        if (threadPoolSize < 1 || threadPoolSize > citizenPoolSize) {
+            throw new IllegalArgumentException(String.format("histogram ranking thread pool size must be between 1 and %d, according to the datasource pool size",
+                    citizenPoolSize));
+        }
+
+        this.citizenRankingDao = citizenRankingDao;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tieBreakEnabled = tieBreakEnabled;
+        this.tieBreakLimit = tieBreakLimit;
+        this.startProcess = OffsetDateTime.now();
+        this.threadPoolSize = threadPoolSize;
+        this.pool = threadPoolSize > 1
+                ? Executors.newFixedThreadPool(threadPoolSize)
+                : null;
+    }
+
+
+    @Override
+    public int process(AwardPeriod awardPeriod, SimplePageRequest simplePageRequest) {
+        if (log.isTraceEnabled()) {
+            log.trace("HistogramRankingUpdate.process");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}, simplePageRequest = {}", awardPeriod, simplePageRequest);
+        }
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(awardPeriod.getAwardPeriodId(), startProcess);
+        if (buckets == null) {
+            buckets = toBuckets(citizenRankingDao.findTransactionNumberHistogram(filterCriteria), awardPeriod);
+        }
+
+        PageClaims claims = new PageClaims(simplePageRequest.getSize());
+        int pageRankedCitizens;
+        try {
+            pageRankedCitizens = pool == null
+                    ? transactionTemplate.execute(status -> rankClaimedChunks(filterCriteria, claims))
+                    : rankConcurrently(filterCriteria, claims);
+
+        } catch (RuntimeException e) {
+            updateRankingFailed = true;
+            throw e;
+        }
+
+        rankedCitizens += pageRankedCitizens;
+        return pageRankedCitizens;
+    }
+
+
+    /**
+     * Rank the chunks claimed one after the other, until the page is complete or no bucket is left to claim
+     */
+    private int rankClaimedChunks(CitizenRanking.FilterCriteria filterCriteria, PageClaims claims) {
+        int workerRankedCitizens = 0;
+        Chunk chunk;
+        while ((chunk = claims.claim()) != null) {
+            int chunkRankedCitizens;
+            try {
+                chunkRankedCitizens = rankChunk(filterCriteria, chunk);
+
+            } catch (RuntimeException e) {
+                claims.abort(chunk);
+                throw e;
+            }
+
+            claims.release(chunk, chunkRankedCitizens);
+            workerRankedCitizens += chunkRankedCitizens;
+        }
+
+        return workerRankedCitizens;
+    }
+
+
+    /**
+     * Rank a chunk within the page transaction of a single worker, or in a transaction of its own for the concurrent ones
+     */
+    private int rankChunk(CitizenRanking.FilterCriteria filterCriteria, Chunk chunk) {
+        if (pool == null) {
+            return updateRankingBucket(filterCriteria, chunk);
+        }
+        return transactionTemplate.execute(status -> updateRankingBucket(filterCriteria, chunk));
+    }
+
+
+    private int updateRankingBucket(CitizenRanking.FilterCriteria filterCriteria, Chunk chunk) {
+        return citizenRankingDao.updateRankingBucket(filterCriteria,
+                chunk.bucket.transactionNumber,
+                chunk.lastAssignedRanking,
+                chunk.size,
+                tieBreakEnabled || chunk.lastAssignedRanking < tieBreakLimit,
+                RankingProcessorService.PROCESS_NAME);
+    }
+
+
+    private int rankConcurrently(CitizenRanking.FilterCriteria filterCriteria, PageClaims claims) {
+        try {
+            List<Callable<Integer>> workers = new ArrayList<>(threadPoolSize);
+            Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
+            for (int i = 0; i < threadPoolSize; i++) {
+                workers.add(() -> {
+                    if (mdcContextMap == null) {
+                        MDC.clear();
+                    } else {
+                        MDC.setContextMap(mdcContextMap);
+                    }
+                    try {
+                        return rankClaimedChunks(filterCriteria, claims);
+                    } finally {
+                        MDC.clear();
+                    }
+                });
+            }
+
+            int pageRankedCitizens = 0;
+            for (Future<Integer> future : pool.invokeAll(workers)) {
+                pageRankedCitizens += future.get();
+            }
+            return pageRankedCitizens;
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RankingUpdateException(e.getMessage());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RankingUpdateException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Derive the ranking range of each bucket and the transaction number statistics of the award period
+     */
+    private List<Bucket> toBuckets(Map<Long, Long> histogram, AwardPeriod awardPeriod) {
+        if (log.isTraceEnabled()) {
+            log.trace("HistogramRankingUpdate.toBuckets");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("histogram = {}", histogram);
+        }
+
+        List<Bucket> result = new ArrayList<>(histogram.size());
+        long firstRanking = 1;
+        for (Map.Entry<Long, Long> entry : histogram.entrySet()) {
+            if (maxTransactionNumber == null) {
+                maxTransactionNumber = entry.getKey();
+            }
+            if (firstRanking <= awardPeriod.getMinPosition()) {
+                minTransactionNumber = entry.getKey();
+            }
+            result.add(new Bucket(entry.getKey(), firstRanking, entry.getValue()));
+            firstRanking += entry.getValue();
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public void updateRankingExt(AwardPeriod awardPeriod) {
+        if (log.isTraceEnabled()) {
+            log.trace("HistogramRankingUpdate.updateRankingExt");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}", awardPeriod);
+        }
+
+        if (maxTransactionNumber == null) {
+            log.info("skip {}", UPDATE_RANKING_EXT);
+
+        } else {
+            CitizenRankingExt rankingExt = CitizenRankingExt.builder()
+                    .awardPeriodId(awardPeriod.getAwardPeriodId())
+                    .minPosition(awardPeriod.getMinPosition())
+                    .maxPeriodCashback(awardPeriod.getMaxPeriodCashback())
+                    .totalParticipants(updateRankingFailed ? null : rankedCitizens)
+                    .minTransactionNumber(updateRankingFailed && rankedCitizens < awardPeriod.getMinPosition()
+                            ? null
+                            : minTransactionNumber)
+                    .maxTransactionNumber(maxTransactionNumber)
+                    .updateDate(OffsetDateTime.now())
+                    .updateUser(RankingProcessorService.PROCESS_NAME)
+                    .build();
+
+            RankingUpdateStrategyTemplate.saveRankingExt(citizenRankingDao, rankingExt);
+        }
+    }
+
+
+    @Override
+    public void onRunCompleted() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Claims of the buckets by the workers of a page: a bucket is ranked by a single worker at a time, in chunks taken
+     * from the page size. The citizens a chunk did not find are given back to the page
+     */
+    private final class PageClaims {
+
+        private int remaining;
+        private boolean aborted;
+
+
+        private PageClaims(int limit) {
+            this.remaining = limit;
+        }
+
+
+        /**
+         * @return the next chunk of the first bucket neither complete nor claimed, null if there is none or the page
+         * is complete
+         */
+        private synchronized Chunk claim() {
+            if (aborted || remaining == 0) {
+                return null;
+            }
+
+            for (int i = bucketIndex; i < buckets.size(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (!bucket.claimed && !bucket.complete) {
+                    int size = (int) Math.min(remaining, bucket.size - bucket.rankedCitizens);
+                    bucket.claimed = true;
+                    remaining -= size;
+                    return new Chunk(bucket, bucket.firstRanking - 1 + bucket.rankedCitizens, size);
+                }
+            }
+            return null;
+        }
+
+
+        private synchronized void release(Chunk chunk, int chunkRankedCitizens) {
+            Bucket bucket = chunk.bucket;
+            bucket.claimed = false;
+            bucket.rankedCitizens += chunkRankedCitizens;
+            remaining += chunk.size - chunkRankedCitizens;
+            // a bucket shrunk since the histogram was taken is considered complete as well
+            if (chunkRankedCitizens < chunk.size || bucket.rankedCitizens == bucket.size) {
+                bucket.complete = true;
+            }
+            while (bucketIndex < buckets.size() && buckets.get(bucketIndex).complete) {
+                bucketIndex++;
+            }
+        }
+
+
+        /**
+         * Stop claiming after a failed chunk, the other workers complete their current one
+         */
+        private synchronized void abort(Chunk chunk) {
+            chunk.bucket.claimed = false;
+            aborted = true;
+        }
+
+    }
+
+
+    private static final class Chunk {
+
+        private final Bucket bucket;
+        private final long lastAssignedRanking;
+        private final int size;
+
+
+        private Chunk(Bucket bucket, long lastAssignedRanking, int size) {
+            this.bucket = bucket;
+            this.lastAssignedRanking = lastAssignedRanking;
+            this.size = size;
+        }
+
+    }
+
+
+    private static final class Bucket {
+
+        private final long transactionNumber;
+        private final long firstRanking;
+        private final long size;
+        private long rankedCitizens;
+        private boolean claimed;
+        private boolean complete;
+
+
+        private Bucket(long transactionNumber, long firstRanking, long size) {
+            this.transactionNumber = transactionNumber;
+            this.firstRanking = firstRanking;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.RankingBucket;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_RANKING_EXT;
+
+/**
+ * Incremental implementation of {@link RankingUpdateStrategy}, based on the transaction number histogram.
+ * Each transaction number bucket is compared with the ranking left by the last completed ranking update:
+ * <ul>
+ * <li>a bucket without changed citizens and still holding contiguous rankings from its new first ranking is skipped</li>
+ * <li>a bucket without changed citizens and holding contiguous rankings is shifted to its new first ranking</li>
+ * <li>any other bucket is ranked again, writing only the citizens whose ranking moved</li>
+ * </ul>
+ * Without a completed ranking update every bucket is ranked again, and the statistics are not updated after a failure,
+ * so that the next run still compares with the last completed ranking update. The statistics take the start of the run
+ * as update date, so that the citizens changed while the run was going on are compared again by the next one.
+ * As the chunks of a bucket are paged by offset, the terms and conditions timestamp takes part in the order of the whole
+ * bucket when the tie-break is enabled or the bucket starts below the tie-break limit.
+ * The buckets are processed in chunks taken from the page size, so that a page never covers more citizens than its
+ * size; the citizens a chunk did not find are given back to the page, considering the bucket complete
+ */
+@Slf4j
+@Component
+@Scope(BeanDefinition.SCOPE_PROTOTYPE)
+public class IncrementalRankingUpdate implements RankingUpdateStrategy {
+
+    private final CitizenRankingDao citizenRankingDao;
+    private final boolean tieBreakEnabled;
+    private final int tieBreakLimit;
+    private final OffsetDateTime startProcess;
+    private List<RankingBucket> buckets;
+    private long[] firstRankings;
+    private int bucketIndex;
+    private long bucketRankedCitizens;
+    private long rankedCitizens;
+    private Long maxTransactionNumber;
+    private Long minTransactionNumber;
+    private boolean updateRankingFailed;
+
+
+    @Autowired
+    public IncrementalRankingUpdate(CitizenRankingDao citizenRankingDao,
+                                    @Value("${ranking-update.tie-break.enable}") boolean tieBreakEnabled,
+                                    @Value("${ranking-update.tie-break.limit}") int tieBreakLimit) {
+        if (log.isTraceEnabled()) {
+            log.trace("IncrementalRankingUpdate.IncrementalRankingUpdate");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("citizenRankingDao = {}, tieBreakEnabled = {}, tieBreakLimit = {}",
+                    citizenRankingDao, tieBreakEnabled, tieBreakLimit);
+        }
+
+        this.citizenRankingDao = citizenRankingDao;
+        this.tieBreakEnabled = tieBreakEnabled;
+        this.tieBreakLimit = tieBreakLimit;
+        this.startProcess = OffsetDateTime.now();
+    }
+
+
+    @Override
+    @Transactional("citizenTransactionManager")
+    public int process(AwardPeriod awardPeriod, SimplePageRequest simplePageRequest) {
+        if (log.isTraceEnabled()) {
+            log.trace("IncrementalRankingUpdate.process");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}, simplePageRequest = {}", awardPeriod, simplePageRequest);
+        }
+
+        if (buckets == null) {
+            OffsetDateTime lastRankingDate = citizenRankingDao.findLastRankingDate(awardPeriod.getAwardPeriodId());
+            buckets = citizenRankingDao.findRankingBuckets(awardPeriod.getAwardPeriodId(), lastRankingDate);
+            initFirstRankings(awardPeriod);
+        }
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(awardPeriod.getAwardPeriodId(), startProcess);
+        int limit = simplePageRequest.getSize();
+        int pageCitizens = 0;
+        try {
+            while (pageCitizens < limit && bucketIndex < buckets.size()) {
+                RankingBucket bucket = buckets.get(bucketIndex);
+                long firstRanking = firstRankings[bucketIndex];
+                int chunkSize = (int) Math.min(limit - pageCitizens, bucket.getCitizenCount() - bucketRankedCitizens);
+                int chunkCitizens;
+
+                if (bucket.getChangedCount() == 0 && bucket.isContiguous()) {
+                    long shift = firstRanking - bucket.getMinRanking();
+                    if (shift == 0) {
+                        chunkCitizens = chunkSize;
+                    } else {
+                        chunkCitizens = citizenRankingDao.shiftRankingBucket(filterCriteria,
+                                bucket.getTransactionNumber(),
+                                shift,
+                                chunkSize,
+                                RankingProcessorService.PROCESS_NAME);
+                        if (log.isDebugEnabled()) {
+                            log.debug("transactionNumber = {}, shift = {}, shiftedCitizens = {}",
+                                    bucket.getTransactionNumber(), shift, chunkCitizens);
+                        }
+                    }
+
+                } else {
+                    chunkCitizens = citizenRankingDao.rerankBucket(filterCriteria,
+                            bucket.getTransactionNumber(),
+                            firstRanking - 1,
+                            bucketRankedCitizens,
+                            chunkSize,
+                            tieBreakEnabled || firstRanking - 1 < tieBreakLimit,
+                            RankingProcessorService.PROCESS_NAME);
+                    if (log.isDebugEnabled()) {
+                        log.debug("transactionNumber = {}, changedCitizens = {}, rerankedCitizens = {}",
+                                bucket.getTransactionNumber(), bucket.getChangedCount(), chunkCitizens);
+                    }
+                }
+
+                pageCitizens += chunkCitizens;
+                bucketRankedCitizens += chunkCitizens;
+                // a bucket shrunk since the buckets were taken is considered complete as well
+                if (chunkCitizens < chunkSize || bucketRankedCitizens == bucket.getCitizenCount()) {
+                    bucketIndex++;
+                    bucketRankedCitizens = 0;
+                }
+            }
+
+        } catch (RuntimeException e) {
+            updateRankingFailed = true;
+            throw e;
+        }
+
+        rankedCitizens += pageCitizens;
+        return pageCitizens;
+    }
+
+
+    /**
+     * Derive the first ranking of each bucket and the transaction number statistics of the award period
+     */
+    private void initFirstRankings(AwardPeriod awardPeriod) {
+        firstRankings = new long[buckets.size()];
+        long firstRanking = 1;
+        for (int i = 0; i < buckets.size(); i++) {
+            RankingBucket bucket = buckets.get(i);
+            if (maxTransactionNumber == null) {
+                maxTransactionNumber = bucket.getTransactionNumber();
+            }
+            if (firstRanking <= awardPeriod.getMinPosition()) {
+                minTransactionNumber = bucket.getTransactionNumber();
+            }
+            firstRankings[i] = firstRanking;
+            firstRanking += bucket.getCitizenCount();
+        }
+    }
+
+
+    @Override
+    public void updateRankingExt(AwardPeriod awardPeriod) {
+        if (log.isTraceEnabled()) {
+            log.trace("IncrementalRankingUpdate.updateRankingExt");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}", awardPeriod);
+        }
+
+        if (maxTransactionNumber == null) {
+            log.info("skip {}", UPDATE_RANKING_EXT);
+
+        } else if (updateRankingFailed) {
+            // the update date of the statistics is the baseline of the next run, which must rank again what failed
+            log.warn("skip {}: ranking update failed", UPDATE_RANKING_EXT);
+
+        } else {
+            CitizenRankingExt rankingExt = CitizenRankingExt.builder()
+                    .awardPeriodId(awardPeriod.getAwardPeriodId())
+                    .minPosition(awardPeriod.getMinPosition())
+                    .maxPeriodCashback(awardPeriod.getMaxPeriodCashback())
+                    .totalParticipants(rankedCitizens)
+                    .minTransactionNumber(minTransactionNumber)
+                    .maxTransactionNumber(maxTransactionNumber)
+                    .updateDate(startProcess)
+                    .updateUser(RankingProcessorService.PROCESS_NAME)
+                    .build();
+
+            RankingUpdateStrategyTemplate.saveRankingExt(citizenRankingDao, rankingExt);
+        }
+    }
+
+}
@@ -12,4 +12,10 @@ public interface RankingUpdateStrategy {
 
     void updateRankingExt(AwardPeriod awardPeriod);
 
+    /**
+     * Release the resources held for the whole run, once the last page and the ranking ext update are over
+     */
+    default void onRunCompleted() {
+    }
+
 }
@@ -15,20 +15,30 @@ class RankingUpdateStrategyFactoryImpl implements RankingUpdateStrategyFactory {
 
     private final BeanFactory beanFactory;
     private final boolean parallelEnabled;
+    private final boolean windowEnabled;
+    private final boolean histogramEnabled;
+    private final boolean incrementalEnabled;
 
 
     @Autowired
     public RankingUpdateStrategyFactoryImpl(BeanFactory beanFactory,
-                                            @Value("${ranking-update.parallel.enable}") boolean parallelEnabled) {
+                                            @Value("${ranking-update.parallel.enable}") boolean parallelEnabled,
+                                            @Value("${ranking-update.window.enable}") boolean windowEnabled,
+                                            @Value("${ranking-update.histogram.enable}") boolean histogramEnabled,
+                                            @Value("${ranking-update.incremental.enable}") boolean incrementalEnabled) {
         if (log.isTraceEnabled()) {
             log.trace("RankingUpdateStrategyFactoryImpl.RankingUpdateStrategyFactoryImpl");
         }
         if (log.isDebugEnabled()) {
-            log.debug("beanFactory = {}, parallelEnabled = {}", beanFactory, parallelEnabled);
+            log.debug("beanFactory = {}, parallelEnabled = {}, windowEnabled = {}, histogramEnabled = {}, incrementalEnabled = {}",
+                    beanFactory, parallelEnabled, windowEnabled, histogramEnabled, incrementalEnabled);
         }
 
         this.beanFactory = beanFactory;
         this.parallelEnabled = parallelEnabled;
+        this.windowEnabled = windowEnabled;
+        this.histogramEnabled = histogramEnabled;
+        this.incrementalEnabled = incrementalEnabled;
     }
 
 
@@ -40,7 +50,16 @@ class RankingUpdateStrategyFactoryImpl implements RankingUpdateStrategyFactory {
 
         RankingUpdateStrategy bean;
 
-        if (parallelEnabled) {
+        if (incrementalEnabled) {
+            bean = beanFactory.getBean(IncrementalRankingUpdate.class);
+
+        } else if (histogramEnabled) {
+            bean = beanFactory.getBean(HistogramRankingUpdate.class);
+
+        } else if (windowEnabled) {
+            bean = beanFactory.getBean(WindowRankingUpdate.class);
+
+        } else if (parallelEnabled) {
             bean = beanFactory.getBean(ParallelRankingUpdate.class);
 
         } else {
@@ -16,6 +16,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_RANKING_EXT;
 
@@ -36,6 +37,10 @@ abstract class RankingUpdateStrategyTemplate implements RankingUpdateStrategy {
     private int minTransactionNumber;
     private int totalParticipants;
     private final CitizenRankingDao citizenRankingDao;
+    private final boolean tieBreakEnabled;
+    private final int tieBreakLimit;
+    private final boolean skipUnchangedEnabled;
+    private CitizenRanking lastExtracted;
     /**
      * A set of latest (in terms of ranking) ties. Required to manage ties between each chunks
      */
@@ -47,15 +52,20 @@ abstract class RankingUpdateStrategyTemplate implements RankingUpdateStrategy {
 
     public RankingUpdateStrategyTemplate(CitizenRankingDao citizenRankingDao,
                                          boolean tieBreakEnabled,
-                                         int tieBreakLimit) {
+                                         int tieBreakLimit,
+                                         boolean skipUnchangedEnabled) {
         if (log.isTraceEnabled()) {
             log.trace("RankingUpdateStrategyTemplate.RankingUpdateStrategyTemplate");
         }
         if (log.isDebugEnabled()) {
-            log.debug("citizenRankingDao = {}, tieBreakEnabled = {}, tieBreakLimit = {}", citizenRankingDao, tieBreakEnabled, tieBreakLimit);
+            log.debug("citizenRankingDao = {}, tieBreakEnabled = {}, tieBreakLimit = {}, skipUnchangedEnabled = {}",
+                    citizenRankingDao, tieBreakEnabled, tieBreakLimit, skipUnchangedEnabled);
         }
 
         this.citizenRankingDao = citizenRankingDao;
+        this.tieBreakEnabled = tieBreakEnabled;
+        this.tieBreakLimit = tieBreakLimit;
+        this.skipUnchangedEnabled = skipUnchangedEnabled;
         this.startProcess = OffsetDateTime.now();
 
         tieBreak = Comparator.comparing((CitizenRanking c) -> null == c.getLastTrxTimestamp() ? OffsetDateTime.MIN : c.getLastTrxTimestamp(), Comparator.naturalOrder())
@@ -92,11 +102,25 @@ abstract class RankingUpdateStrategyTemplate implements RankingUpdateStrategy {
                 simplePageRequest.getSize(),
                 CitizenRankingDao.FIND_ALL_PAGEABLE_SORT);
         CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(awardPeriod.getAwardPeriodId(), startProcess);
-        List<CitizenRanking> citizenRankings = citizenRankingDao.findAll(filterCriteria, pageRequest);
+        List<CitizenRanking> citizenRankings;
+        if (skipUnchangedEnabled) {
+            // unchanged citizens are not written, so the following pages are extracted by keyset instead of update date
+            citizenRankings = citizenRankingDao.findAll(filterCriteria, lastExtracted, simplePageRequest.getSize());
+        } else {
+            citizenRankings = citizenRankingDao.findAll(filterCriteria, pageRequest);
+        }
         int totalExtractedRankings = citizenRankings.size();
+        if (totalExtractedRankings > 0) {
+            lastExtracted = citizenRankings.get(totalExtractedRankings - 1);
+        }
 
         citizenRankings.addAll(lastTies);
+        prefetchTcTimestamps(citizenRankings);
         NavigableMap<Long, Set<CitizenRanking>> tiedMap = aggregateData(citizenRankings);
+        Map<CitizenRanking, Long> previousRankings = new IdentityHashMap<>(citizenRankings.size());
+        if (skipUnchangedEnabled) {
+            citizenRankings.forEach(citizenRanking -> previousRankings.put(citizenRanking, citizenRanking.getRanking()));
+        }
         setRanking(tiedMap, awardPeriod);
 
 //        if (lastAssignedRanking != pageRequest.getOffset() + totalExtractedRankings) {
@@ -105,10 +129,22 @@ abstract class RankingUpdateStrategyTemplate implements RankingUpdateStrategy {
 //                    pageRequest.getOffset() + totalExtractedRankings));
 //        }
 
-        int[] affectedRows = citizenRankingDao.updateRanking(citizenRankings);
+        List<CitizenRanking> changedRankings = skipUnchangedEnabled
+                ? citizenRankings.stream()
+                .filter(citizenRanking -> !citizenRanking.getRanking().equals(previousRankings.get(citizenRanking)))
+                .collect(Collectors.toList())
+                : citizenRankings;
+        if (log.isDebugEnabled()) {
+            log.debug("changedRankings = {} of {}", changedRankings.size(), citizenRankings.size());
+        }
+
+        changedRankings.sort(CitizenRankingDao.WRITE_ORDER);
+        int[] affectedRows = changedRankings.isEmpty()
+                ? new int[0]
+                : citizenRankingDao.updateRanking(changedRankings);
 
         try {
-            checkErrors(citizenRankings.size(), affectedRows);
+            checkErrors(changedRankings.size(), affectedRows);
 
         } catch (RankingUpdateException e) {
             updateRankingFailed = true;
@@ -129,6 +165,43 @@ abstract class RankingUpdateStrategyTemplate implements RankingUpdateStrategy {
 
     protected abstract NavigableMap<Long, Set<CitizenRanking>> aggregateData(List<CitizenRanking> citizenRankings);
 
+
+    /**
+     * Retrieve with a single query the terms and conditions timestamp of the tied citizens still missing it,
+     * so that the tie-break comparator does not query the database for each of them while sorting
+     */
+    private void prefetchTcTimestamps(List<CitizenRanking> citizenRankings) {
+        if (log.isTraceEnabled()) {
+            log.trace("RankingUpdateStrategyTemplate.prefetchTcTimestamps");
+        }
+
+        if (!tieBreakEnabled && lastAssignedRanking >= tieBreakLimit) {
+            return;
+        }
+
+        Map<Long, Long> transactionNumberCounts = citizenRankings.stream()
+                .collect(Collectors.groupingBy(CitizenRanking::getTransactionNumber, Collectors.counting()));
+        List<CitizenRanking> tiedCitizens = citizenRankings.stream()
+                .filter(c -> null == c.getTimestampTc())
+                .filter(c -> transactionNumberCounts.get(c.getTransactionNumber()) > 1)
+                .collect(Collectors.toList());
+
+        if (!tiedCitizens.isEmpty()) {
+            Map<String, OffsetDateTime> tcTimestamps = citizenRankingDao.findUserTcTimestamps(tiedCitizens.stream()
+                    .map(CitizenRanking::getFiscalCode)
+                    .collect(Collectors.toSet()));
+
+            for (CitizenRanking citizenRanking : tiedCitizens) {
+                OffsetDateTime tcTimestamp = tcTimestamps.get(citizenRanking.getFiscalCode());
+                if (null == tcTimestamp) {
+                    log.warn("Citizen timestampTc null for user having fiscalCode = {}", citizenRanking.getFiscalCode());
+                    tcTimestamp = OffsetDateTime.MAX;
+                }
+                citizenRanking.setTimestampTc(tcTimestamp);
+            }
+        }
+    }
+
     private void checkErrors(int statementsCount, int[] affectedRows) {
         if (log.isTraceEnabled()) {
             log.trace("RankingUpdateStrategyTemplate.checkErrors");
@@ -180,21 +253,29 @@ abstract class RankingUpdateStrategyTemplate implements RankingUpdateStrategy {
                     .updateUser(RankingProcessorService.PROCESS_NAME)
                     .build();
 
-            int result = citizenRankingDao.updateRankingExt(rankingExt);
+            saveRankingExt(citizenRankingDao, rankingExt);
+        }
+
+    }
+
+
+    /**
+     * Update the ranking statistics of the award period, inserting them if missing
+     */
+    static void saveRankingExt(CitizenRankingDao citizenRankingDao, CitizenRankingExt rankingExt) {
+        int result = citizenRankingDao.updateRankingExt(rankingExt);
+
+        if (DaoHelper.isStatementResultKO.test(result)) {
+            rankingExt.setInsertDate(rankingExt.getUpdateDate());
+            rankingExt.setInsertUser(rankingExt.getUpdateUser());
+            rankingExt.setUpdateDate(null);
+            rankingExt.setUpdateUser(null);
+            result = citizenRankingDao.insertRankingExt(rankingExt);
 
             if (DaoHelper.isStatementResultKO.test(result)) {
-                rankingExt.setInsertDate(rankingExt.getUpdateDate());
-                rankingExt.setInsertUser(rankingExt.getUpdateUser());
-                rankingExt.setUpdateDate(null);
-                rankingExt.setUpdateUser(null);
-                result = citizenRankingDao.insertRankingExt(rankingExt);
-
-                if (DaoHelper.isStatementResultKO.test(result)) {
-                    throw new RankingUpdateException("failed to update citizen_ranking_ext");
-                }
+                throw new RankingUpdateException("failed to update citizen_ranking_ext");
             }
         }
-
     }
 
     protected OffsetDateTime retrieveTcTimestamp(String fiscalCode) {
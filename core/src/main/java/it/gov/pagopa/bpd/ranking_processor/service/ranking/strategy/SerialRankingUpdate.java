@@ -25,8 +25,9 @@ public class SerialRankingUpdate extends RankingUpdateStrategyTemplate {
     @Autowired
     public SerialRankingUpdate(CitizenRankingDao citizenRankingDao,
                                @Value("${ranking-update.tie-break.enable}") boolean tieBreakEnabled,
-                               @Value("${ranking-update.tie-break.limit}") int tieBreakLimit) {
-        super(citizenRankingDao, tieBreakEnabled, tieBreakLimit);
+                               @Value("${ranking-update.tie-break.limit}") int tieBreakLimit,
+                               @Value("${ranking-update.skip-unchanged.enable}") boolean skipUnchangedEnabled) {
+        super(citizenRankingDao, tieBreakEnabled, tieBreakLimit, skipUnchangedEnabled);
 
         if (log.isTraceEnabled()) {
             log.trace("SerialRankingUpdate.SerialRankingUpdate");
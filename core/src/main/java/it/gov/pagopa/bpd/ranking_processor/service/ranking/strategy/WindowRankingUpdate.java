@@ -0,0 +1,131 @@
+package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_RANKING_EXT;
+
+/**
+ * Set-based implementation of {@link RankingUpdateStrategy}: each chunk of citizens is ranked in the database
+ * through a window function over the tie-break order, without loading the citizens in memory.
+ * Since the order is total, ties between chunks need no special handling. As in the client-side strategies,
+ * the terms and conditions timestamp takes part in the order only when the tie-break is enabled
+ * or the chunk starts below the tie-break limit
+ */
+@Slf4j
+@Component
+@Scope(BeanDefinition.SCOPE_PROTOTYPE)
+public class WindowRankingUpdate implements RankingUpdateStrategy {
+
+    private final CitizenRankingDao citizenRankingDao;
+    private final boolean tieBreakEnabled;
+    private final int tieBreakLimit;
+    private final OffsetDateTime startProcess;
+    private long lastAssignedRanking;
+    private Long maxTransactionNumber;
+    private Long minTransactionNumber;
+    private boolean updateRankingFailed;
+
+
+    @Autowired
+    public WindowRankingUpdate(CitizenRankingDao citizenRankingDao,
+                               @Value("${ranking-update.tie-break.enable}") boolean tieBreakEnabled,
+                               @Value("${ranking-update.tie-break.limit}") int tieBreakLimit) {
+        if (log.isTraceEnabled()) {
+            log.trace("WindowRankingUpdate.WindowRankingUpdate");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("citizenRankingDao = {}, tieBreakEnabled = {}, tieBreakLimit = {}",
+                    citizenRankingDao, tieBreakEnabled, tieBreakLimit);
+        }
+
+        this.citizenRankingDao = citizenRankingDao;
+        this.tieBreakEnabled = tieBreakEnabled;
+        this.tieBreakLimit = tieBreakLimit;
+        this.startProcess = OffsetDateTime.now();
+    }
+
+
+    @Override
+    @Transactional("citizenTransactionManager")
+    public int process(AwardPeriod awardPeriod, SimplePageRequest simplePageRequest) {
+        if (log.isTraceEnabled()) {
+            log.trace("WindowRankingUpdate.process");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}, simplePageRequest = {}", awardPeriod, simplePageRequest);
+        }
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(awardPeriod.getAwardPeriodId(), startProcess);
+        CitizenRankingExt chunkRankingExt;
+        try {
+            chunkRankingExt = citizenRankingDao.updateRankingWindow(filterCriteria,
+                    lastAssignedRanking,
+                    awardPeriod.getMinPosition(),
+                    simplePageRequest.getSize(),
+                    tieBreakEnabled || lastAssignedRanking < tieBreakLimit,
+                    RankingProcessorService.PROCESS_NAME);
+
+        } catch (RuntimeException e) {
+            updateRankingFailed = true;
+            throw e;
+        }
+
+        int rankedCitizens = chunkRankingExt.getTotalParticipants().intValue();
+        lastAssignedRanking += rankedCitizens;
+
+        if (maxTransactionNumber == null) {
+            maxTransactionNumber = chunkRankingExt.getMaxTransactionNumber();
+        }
+        if (chunkRankingExt.getMinTransactionNumber() != null) {
+            minTransactionNumber = chunkRankingExt.getMinTransactionNumber();
+        }
+
+        return rankedCitizens;
+    }
+
+
+    @Override
+    public void updateRankingExt(AwardPeriod awardPeriod) {
+        if (log.isTraceEnabled()) {
+            log.trace("WindowRankingUpdate.updateRankingExt");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriod = {}", awardPeriod);
+        }
+
+        if (maxTransactionNumber == null) {
+            log.info("skip {}", UPDATE_RANKING_EXT);
+
+        } else {
+            CitizenRankingExt rankingExt = CitizenRankingExt.builder()
+                    .awardPeriodId(awardPeriod.getAwardPeriodId())
+                    .minPosition(awardPeriod.getMinPosition())
+                    .maxPeriodCashback(awardPeriod.getMaxPeriodCashback())
+                    .totalParticipants(updateRankingFailed ? null : lastAssignedRanking)
+                    .minTransactionNumber(updateRankingFailed && lastAssignedRanking < awardPeriod.getMinPosition()
+                            ? null
+                            : minTransactionNumber)
+                    .maxTransactionNumber(maxTransactionNumber)
+                    .updateDate(OffsetDateTime.now())
+                    .updateUser(RankingProcessorService.PROCESS_NAME)
+                    .build();
+
+            RankingUpdateStrategyTemplate.saveRankingExt(citizenRankingDao, rankingExt);
+        }
+    }
+
+}
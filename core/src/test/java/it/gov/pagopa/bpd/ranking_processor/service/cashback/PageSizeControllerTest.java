@@ -0,0 +1,92 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+public class PageSizeControllerTest {
+
+    @Test
+    public void onPageProcessed_OkGrow() {
+        PageSizeController controller = new PageSizeController("test", 100, 10, 1000, Duration.ofSeconds(2));
+
+        controller.onPageProcessed(100, 100, null);
+
+        Assert.assertEquals(151, controller.getPageSize());
+    }
+
+
+    @Test
+    public void onPageProcessed_OkNoGrowOnPartialPage() {
+        PageSizeController controller = new PageSizeController("test", 100, 10, 1000, Duration.ofSeconds(2));
+
+        controller.onPageProcessed(50, 100, null);
+
+        Assert.assertEquals(100, controller.getPageSize());
+    }
+
+
+    @Test
+    public void onPageProcessed_OkShrink() {
+        PageSizeController controller = new PageSizeController("test", 100, 10, 1000, Duration.ofSeconds(2));
+
+        controller.onPageProcessed(100, 4000, null);
+
+        Assert.assertEquals(50, controller.getPageSize());
+    }
+
+
+    @Test
+    public void onPageProcessed_OkBounds() {
+        PageSizeController controller = new PageSizeController("test", 5000, 10, 1000, Duration.ofSeconds(2));
+        Assert.assertEquals(1000, controller.getPageSize());
+
+        controller.onPageProcessed(1000, 200_000, null);
+
+        Assert.assertEquals(10, controller.getPageSize());
+    }
+
+
+    @Test
+    public void onPageProcessed_OkStopTime() {
+        PageSizeController controller = new PageSizeController("test", 1000, 10, 1000, Duration.ofSeconds(2));
+        LocalTime now = LocalTime.now();
+        // skip the test across midnight, where the stop time would be already passed
+        if (now.isAfter(LocalTime.MAX.minusSeconds(10))) {
+            return;
+        }
+
+        // 10 trx per second and less than 5 seconds left
+        controller.onPageProcessed(1000, 100_000, now.plusSeconds(5));
+
+        Assert.assertTrue(controller.getPageSize() <= 50);
+    }
+
+
+    @Test
+    public void onDeadlock_Ok() {
+        PageSizeController controller = new PageSizeController("test", 100, 10, 1000, Duration.ofSeconds(2));
+
+        controller.onDeadlock();
+        Assert.assertEquals(50, controller.getPageSize());
+        controller.onDeadlock();
+        controller.onDeadlock();
+        Assert.assertEquals(12, controller.getPageSize());
+        controller.onDeadlock();
+        Assert.assertEquals(10, controller.getPageSize());
+    }
+
+
+    @Test
+    public void fixed_Ok() {
+        PageSizeController controller = PageSizeController.fixed("test", 500);
+
+        controller.onPageProcessed(500, 0, null);
+        controller.onDeadlock();
+
+        Assert.assertEquals(500, controller.getPageSize());
+    }
+
+}
@@ -1,14 +1,35 @@
 package it.gov.pagopa.bpd.ranking_processor.service.cashback;
 
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import eu.sia.meda.util.TestUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction.TransactionType;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
 import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.CashbackUpdateStrategy;
 import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.CashbackUpdateStrategyFactory;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.IsolatingCashbackUpdateStrategy;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.PartitionedCashbackUpdateStrategy;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy.StagedCashbackUpdateStrategy;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -27,6 +48,8 @@ public class UpdateCashbackCommandTest {
     private final CitizenRankingDao citizenRankingDaoMock;
     private final CashbackUpdateStrategyFactory strategyFactory;
     private final CashbackUpdateStrategy updateStrategyMock;
+    private final StagedCashbackUpdateStrategy stagedStrategyMock;
+    private final AtomicInteger extractedPages;
 
     public UpdateCashbackCommandTest() {
         citizenRankingDaoMock = mock(CitizenRankingDao.class);
@@ -49,11 +72,33 @@ public class UpdateCashbackCommandTest {
                 .when(updateStrategyMock).getDataExtractionLimit();
 
 
+        extractedPages = new AtomicInteger();
+        stagedStrategyMock = mock(StagedCashbackUpdateStrategy.class);
+        when(stagedStrategyMock.extract(any(), any()))
+                .thenAnswer(invocationOnMock -> {
+                    // two full pages followed by a partial one
+                    int size = extractedPages.incrementAndGet() < 3 ? 2 : 1;
+                    List<WinningTransaction> transactions = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        transactions.add(TestUtils.mockInstance(WinningTransaction.builder().build(), i));
+                    }
+                    return transactions;
+                });
+        will(invocationOnMock -> {
+            if (deadLock) {
+                deadLock = retry;
+                throw mock(DeadlockLoserDataAccessException.class);
+            }
+            return invocationOnMock.getArgument(1, List.class).size();
+        }).given(stagedStrategyMock).apply(any(), anyList());
+        doReturn(2)
+                .when(stagedStrategyMock).getDataExtractionLimit();
+
         strategyFactory = mock(CashbackUpdateStrategyFactory.class);
         when(strategyFactory.create(Mockito.any()))
                 .thenReturn(updateStrategyMock);
 
-        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
     }
 
     @Before
@@ -84,6 +129,8 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(3)).process(any(), any());
+        verify(updateStrategyMock, times(3)).onPageCommitted();
+        verify(updateStrategyMock, times(3)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
@@ -110,11 +157,32 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(TransactionType.values().length + 1)).process(any(), any());
+        verify(updateStrategyMock, times(TransactionType.values().length)).onPageCommitted();
+        verify(updateStrategyMock, times(TransactionType.values().length)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
 
 
+    @Test
+    public void execute_OkDeadlockCounted() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        deadLock = true;
+
+        try {
+            updateCashbackCommand.execute(null, null);
+
+            Counter deadlockCounter = meterRegistry.find(UpdateCashbackCommand.DEADLOCK_METRIC_NAME).counter();
+            Assert.assertNotNull(deadlockCounter);
+            Assert.assertEquals(1, deadlockCounter.count(), 0);
+
+        } finally {
+            Metrics.removeRegistry(meterRegistry);
+        }
+    }
+
+
     @Test
     public void execute_KoMaxRetry() {
         deadLock = true;
@@ -137,16 +205,101 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(TransactionType.values().length * (1 + MAX_RETRY))).process(any(), any());
+        verify(updateStrategyMock, never()).onPageCommitted();
+        verify(updateStrategyMock, times(TransactionType.values().length)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
 
 
+    @Test
+    public void execute_KoBisectionMaxRetry() {
+        deadLock = true;
+        retry = true;
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, true, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(null, null);
+
+        // the page is split once, then the floor slice is retried up to the retry limit and the processing stops
+        verify(updateStrategyMock, times(TransactionType.values().length * (2 + MAX_RETRY))).process(any(), any());
+        verify(updateStrategyMock, never()).onPageCommitted();
+    }
+
+
+    @Test
+    public void execute_KoBisectionMaxRetryNotIsolating() {
+        deadLock = true;
+        retry = true;
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, true, 1, 0, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(null, null);
+
+        // the strategy cannot skip the floor slice, which is retried up to the retry limit despite the poison retry limit
+        verify(updateStrategyMock, times(TransactionType.values().length * (2 + MAX_RETRY))).process(any(), any());
+        verify(updateStrategyMock, never()).onPageCommitted();
+    }
+
+
+    @Test
+    public void execute_OkBisectionIsolation() {
+        IsolatingCashbackUpdateStrategy bisectedStrategyMock = mock(IsolatingCashbackUpdateStrategy.class);
+        doReturn(2)
+                .when(bisectedStrategyMock).getDataExtractionLimit();
+        // five transactions, the third one failing whenever it is processed
+        AtomicInteger position = new AtomicInteger();
+        List<Integer> processedSizes = new ArrayList<>();
+        will(invocationOnMock -> {
+            int size = invocationOnMock.getArgument(1, SimplePageRequest.class).getSize();
+            processedSizes.add(size);
+            int from = position.get();
+            int to = Math.min(from + size, 5);
+            if (from <= 2 && 2 < to) {
+                throw size > 1
+                        ? mock(DeadlockLoserDataAccessException.class)
+                        : mock(DuplicateKeyException.class);
+            }
+            position.set(to);
+            return to - from;
+        }).given(bisectedStrategyMock).process(any(), any());
+        when(bisectedStrategyMock.skipFailedPage())
+                .thenAnswer(invocationOnMock -> Collections.singletonList(
+                        TestUtils.mockInstance(WinningTransaction.builder().build(), position.getAndIncrement())));
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(bisectedStrategyMock);
+        when(strategyFactory.create(eq(TransactionType.TOTAL_TRANSFER)))
+                .thenReturn(null);
+        when(strategyFactory.create(eq(TransactionType.PARTIAL_TRANSFER)))
+                .thenReturn(null);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, true, 1, 1, Duration.ZERO, Duration.ZERO);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+
+        try {
+            updateCashbackCommand.execute(AwardPeriod.builder().awardPeriodId(1L).build(), null);
+
+            // the failing page is split, the poison slice is retried up to the poison retry limit, then isolated
+            Assert.assertEquals(Arrays.asList(2, 2, 1, 1, 1, 2), processedSizes);
+            verify(bisectedStrategyMock, times(1)).skipFailedPage();
+            verify(bisectedStrategyMock, times(3)).onPageCommitted();
+            Assert.assertEquals(1, meterRegistry.find(UpdateCashbackCommand.POISON_METRIC_NAME).counter().count(), 0);
+
+        } finally {
+            Metrics.removeRegistry(meterRegistry);
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoPoisonRetryLimit() {
+        new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, true, 1, -1, Duration.ZERO, Duration.ZERO);
+    }
+
+
     @Test
     public void execute_OkSkipTotalTransferDueToAlreadyProcessing() {
         when(citizenRankingDaoMock.getWorkerCount(eq(UPDATE_CASHBACK_TOTAL_TRANSFER)))
                 .thenReturn(1);
-        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, true);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, true, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
 
         updateCashbackCommand.execute(null, null);
 
@@ -160,6 +313,8 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(TransactionType.values().length - 2)).process(any(), any());
+        verify(updateStrategyMock, times(TransactionType.values().length - 2)).onPageCommitted();
+        verify(updateStrategyMock, times(TransactionType.values().length - 2)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
@@ -170,7 +325,7 @@ public class UpdateCashbackCommandTest {
         when(citizenRankingDaoMock.registerWorker(eq(UPDATE_CASHBACK_TOTAL_TRANSFER), eq(true)))
                 .thenReturn(0);
 
-        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, true);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, true, false, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
 
         updateCashbackCommand.execute(null, null);
 
@@ -188,6 +343,8 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(TransactionType.values().length - 1)).process(any(), any());
+        verify(updateStrategyMock, times(TransactionType.values().length - 1)).onPageCommitted();
+        verify(updateStrategyMock, times(TransactionType.values().length - 1)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
@@ -214,6 +371,8 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(TransactionType.values().length - 1)).process(any(), any());
+        verify(updateStrategyMock, times(TransactionType.values().length - 1)).onPageCommitted();
+        verify(updateStrategyMock, times(TransactionType.values().length - 1)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
@@ -240,11 +399,225 @@ public class UpdateCashbackCommandTest {
         verify(strategyFactory, times(1)).create(eq(TransactionType.TOTAL_TRANSFER));
         verify(strategyFactory, times(1)).create(eq(TransactionType.PARTIAL_TRANSFER));
         verify(updateStrategyMock, times(TransactionType.values().length - 1)).process(any(), any());
+        verify(updateStrategyMock, times(TransactionType.values().length - 1)).onPageCommitted();
+        verify(updateStrategyMock, times(TransactionType.values().length - 1)).onRunCompleted();
         verify(updateStrategyMock, atLeastOnce()).getDataExtractionLimit();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactory, updateStrategyMock);
     }
 
 
+    @Test
+    public void execute_OkPipelined() {
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(stagedStrategyMock);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(AwardPeriod.builder().awardPeriodId(1L).build(), null);
+
+        verify(citizenRankingDaoMock, times(1)).registerWorker(eq(UPDATE_CASHBACK_PAYMENT), eq(true));
+        verify(citizenRankingDaoMock, times(1)).unregisterWorker(eq(UPDATE_CASHBACK_PAYMENT));
+        verify(stagedStrategyMock, times(3)).extract(any(), any());
+        verify(stagedStrategyMock, times(3)).apply(any(), anyList());
+        verify(stagedStrategyMock, never()).process(any(), any());
+    }
+
+
+    @Test
+    public void execute_OkPipelinedBisection() {
+        StagedCashbackUpdateStrategy bisectedStrategyMock = mock(StagedCashbackUpdateStrategy.class);
+        doReturn(2)
+                .when(bisectedStrategyMock).getDataExtractionLimit();
+        AtomicInteger pageCount = new AtomicInteger();
+        when(bisectedStrategyMock.extract(any(), any()))
+                .thenAnswer(invocationOnMock -> {
+                    // two full pages followed by a partial one
+                    int page = pageCount.getAndIncrement();
+                    int size = page < 2 ? 2 : 1;
+                    List<WinningTransaction> transactions = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        transactions.add(WinningTransaction.builder()
+                                .idTrxAcquirer(page + "-" + i)
+                                .build());
+                    }
+                    return transactions;
+                });
+        List<Integer> appliedSizes = Collections.synchronizedList(new ArrayList<>());
+        will(invocationOnMock -> {
+            List<WinningTransaction> transactions = invocationOnMock.getArgument(1, List.class);
+            appliedSizes.add(transactions.size());
+            if (transactions.stream().anyMatch(trx -> "1-1".equals(trx.getIdTrxAcquirer()))) {
+                throw transactions.size() > 1
+                        ? mock(DeadlockLoserDataAccessException.class)
+                        : mock(DuplicateKeyException.class);
+            }
+            return transactions.size();
+        }).given(bisectedStrategyMock).apply(any(), anyList());
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(bisectedStrategyMock);
+        when(strategyFactory.create(eq(TransactionType.TOTAL_TRANSFER)))
+                .thenReturn(null);
+        when(strategyFactory.create(eq(TransactionType.PARTIAL_TRANSFER)))
+                .thenReturn(null);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, true, 1, 3, Duration.ZERO, Duration.ZERO);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+
+        try {
+            updateCashbackCommand.execute(AwardPeriod.builder().awardPeriodId(1L).build(), null);
+
+            verify(bisectedStrategyMock, times(3)).extract(any(), any());
+            // the failing page is split, then the poison half is retried up to the retry limit and isolated
+            Assert.assertEquals(Arrays.asList(2, 2, 1, 1, 1, 1, 1), appliedSizes);
+            Assert.assertEquals(1, meterRegistry.find(UpdateCashbackCommand.POISON_METRIC_NAME).counter().count(), 0);
+            Assert.assertEquals(1, meterRegistry.find(UpdateCashbackCommand.DEADLOCK_METRIC_NAME).counter().count(), 0);
+
+        } finally {
+            Metrics.removeRegistry(meterRegistry);
+        }
+    }
+
+
+    @Test
+    public void execute_OkPipelinedWithDeadLock() {
+        deadLock = true;
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(stagedStrategyMock);
+        when(strategyFactory.create(eq(TransactionType.TOTAL_TRANSFER)))
+                .thenReturn(null);
+        when(strategyFactory.create(eq(TransactionType.PARTIAL_TRANSFER)))
+                .thenReturn(null);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(AwardPeriod.builder().awardPeriodId(1L).build(), null);
+
+        verify(stagedStrategyMock, times(3)).extract(any(), any());
+        verify(stagedStrategyMock, times(4)).apply(any(), anyList());
+    }
+
+
+    @Test
+    public void execute_OkPipelinedStopped() {
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(stagedStrategyMock);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(AwardPeriod.builder().awardPeriodId(1L).build(), LocalTime.now().minusMinutes(1));
+
+        verify(stagedStrategyMock, never()).extract(any(), any());
+        verify(stagedStrategyMock, never()).apply(any(), anyList());
+        verify(citizenRankingDaoMock, times(1)).unregisterWorker(eq(UPDATE_CASHBACK_PAYMENT));
+    }
+
+
+    @Test(expected = CashbackUpdateException.class)
+    public void execute_KoPipelinedExtraction() {
+        when(stagedStrategyMock.extract(any(), any()))
+                .thenThrow(new CashbackUpdateException("extraction failed"));
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(stagedStrategyMock);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 0, "", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        try {
+            updateCashbackCommand.execute(AwardPeriod.builder().awardPeriodId(1L).build(), null);
+        } finally {
+            verify(stagedStrategyMock, never()).apply(any(), anyList());
+            verify(citizenRankingDaoMock, times(1)).unregisterWorker(eq(UPDATE_CASHBACK_PAYMENT));
+            verify(citizenRankingDaoMock, times(1)).unregisterWorker(eq(UPDATE_CASHBACK));
+        }
+    }
+
+
+    @Test
+    public void execute_OkPartitioned() {
+        PartitionedCashbackUpdateStrategy partitionedStrategyMock = mock(PartitionedCashbackUpdateStrategy.class);
+        doReturn(2)
+                .when(partitionedStrategyMock).getDataExtractionLimit();
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(partitionedStrategyMock);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 4, "1, 3", 2, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(null, null);
+
+        verify(citizenRankingDaoMock, times(1)).registerWorker(eq(UPDATE_CASHBACK_PAYMENT), eq(false));
+        verify(citizenRankingDaoMock, times(1)).unregisterWorker(eq(UPDATE_CASHBACK_PAYMENT));
+        verify(strategyFactory, times(3)).create(eq(TransactionType.PAYMENT));
+        verify(partitionedStrategyMock, times(1)).setPartition(eq(4), eq(1));
+        verify(partitionedStrategyMock, times(1)).setPartition(eq(4), eq(3));
+        verify(partitionedStrategyMock, never()).setPartition(eq(4), eq(0));
+        verify(partitionedStrategyMock, times(2)).process(any(), any());
+    }
+
+
+    @Test
+    public void execute_OkPartitionedPipelined() {
+        PartitionedCashbackUpdateStrategy partitionedStrategyMock = mock(PartitionedCashbackUpdateStrategy.class,
+                withSettings().extraInterfaces(StagedCashbackUpdateStrategy.class));
+        doReturn(2)
+                .when(partitionedStrategyMock).getDataExtractionLimit();
+        when(((StagedCashbackUpdateStrategy) partitionedStrategyMock).extract(any(), any()))
+                .thenReturn(new ArrayList<>());
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(partitionedStrategyMock);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 2, "", 2, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(null, null);
+
+        verify(citizenRankingDaoMock, times(1)).registerWorker(eq(UPDATE_CASHBACK_PAYMENT), eq(false));
+        verify(partitionedStrategyMock, times(1)).setPartition(eq(2), eq(0));
+        verify(partitionedStrategyMock, times(1)).setPartition(eq(2), eq(1));
+        verify((StagedCashbackUpdateStrategy) partitionedStrategyMock, times(2)).extract(any(), any());
+        verify(partitionedStrategyMock, never()).process(any(), any());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoPartitionOutOfRange() {
+        new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 4, "4", 1, 10, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoPartitionThreadPoolExceedsDataSourcePool() {
+        // pipelined workers need two connections of the TransactionDataSource each
+        new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, true, 1, 4, "", 3, 5, 10, false, 1, 1, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+    }
+
+
+    @Test
+    public void execute_OkAdaptivePageSize() {
+        CashbackUpdateStrategy adaptiveStrategyMock = mock(CashbackUpdateStrategy.class);
+        doReturn(2)
+                .when(adaptiveStrategyMock).getDataExtractionLimit();
+        AtomicInteger processedPages = new AtomicInteger();
+        when(adaptiveStrategyMock.process(any(), any()))
+                .thenAnswer(invocationOnMock -> processedPages.incrementAndGet() < 4
+                        ? invocationOnMock.getArgument(1, SimplePageRequest.class).getSize()
+                        : 0);
+        when(strategyFactory.create(eq(TransactionType.PAYMENT)))
+                .thenReturn(adaptiveStrategyMock);
+        when(strategyFactory.create(eq(TransactionType.TOTAL_TRANSFER)))
+                .thenReturn(null);
+        when(strategyFactory.create(eq(TransactionType.PARTIAL_TRANSFER)))
+                .thenReturn(null);
+        updateCashbackCommand = new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, true, 2, 8, Duration.ofMinutes(1), false, 1, 3, Duration.ZERO, Duration.ZERO);
+
+        updateCashbackCommand.execute(null, null);
+
+        ArgumentCaptor<SimplePageRequest> pageRequestCaptor = ArgumentCaptor.forClass(SimplePageRequest.class);
+        verify(adaptiveStrategyMock, times(4)).process(any(), pageRequestCaptor.capture());
+        Assert.assertEquals(Arrays.asList(2, 4, 7, 8),
+                pageRequestCaptor.getAllValues().stream()
+                        .map(SimplePageRequest::getSize)
+                        .collect(Collectors.toList()));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoAdaptivePageSizeBounds() {
+        new UpdateCashbackCommand(strategyFactory, citizenRankingDaoMock, MAX_RETRY, false, false, 1, 0, "", 1, 10, 10, true, 10, 5, Duration.ZERO, false, 1, 3, Duration.ZERO, Duration.ZERO);
+    }
+
+
     @Test(expected = CashbackUpdateException.class)
     public void execute_KoRegisterWorker() {
         registerWorkerResult = false;
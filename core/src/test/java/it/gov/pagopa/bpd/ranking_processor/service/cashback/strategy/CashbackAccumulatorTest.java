@@ -0,0 +1,91 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class CashbackAccumulatorTest {
+
+    @Test
+    public void add_OkResize() {
+        CashbackAccumulator accumulator = new CashbackAccumulator(1);
+        for (int i = 0; i < 1000; i++) {
+            accumulator.add("fiscalCode" + (i % 100), 150L, 1L, null);
+        }
+
+        List<CitizenRanking> rankings = accumulator.toRankings(1L, OffsetDateTime.now(), "user");
+
+        assertEquals(100, accumulator.size());
+        assertEquals(100, rankings.size());
+        rankings.forEach(citizenRanking -> {
+            assertEquals(BigDecimal.valueOf(1500, 2), citizenRanking.getTotalCashback());
+            assertEquals(Long.valueOf(10), citizenRanking.getTransactionNumber());
+            assertEquals(Long.valueOf(1), citizenRanking.getAwardPeriodId());
+            assertNull(citizenRanking.getLastTrxTimestamp());
+        });
+    }
+
+
+    @Test
+    public void add_OkEpochMicros() {
+        OffsetDateTime timestamp = OffsetDateTime.parse("2021-01-01T10:00:00.123456+01:00");
+        long epochMicros = timestamp.toEpochSecond() * 1_000_000L + timestamp.getNano() / 1_000;
+        CashbackAccumulator accumulator = new CashbackAccumulator();
+        accumulator.add("fiscalCode1", 100L, 1L, epochMicros);
+        accumulator.add("fiscalCode1", 100L, 1L, epochMicros - 1);
+        accumulator.add("fiscalCode2", -100L, -1L, Long.MIN_VALUE);
+
+        Map<String, CitizenRanking> rankings = accumulator.merge(new CashbackAccumulator())
+                .toRankings(1L, timestamp, "user")
+                .stream()
+                .collect(Collectors.toMap(CitizenRanking::getFiscalCode, Function.identity()));
+
+        assertEquals(new BigDecimal("2.00"), rankings.get("fiscalCode1").getTotalCashback());
+        assertTrue(timestamp.isEqual(rankings.get("fiscalCode1").getLastTrxTimestamp()));
+        assertNull(rankings.get("fiscalCode2").getLastTrxTimestamp());
+    }
+
+
+    @Test
+    public void merge_Ok() {
+        OffsetDateTime timestamp = OffsetDateTime.now();
+        CashbackAccumulator accumulator1 = new CashbackAccumulator();
+        accumulator1.add("fiscalCode1", 100L, 1L, timestamp);
+        accumulator1.add("fiscalCode2", 100L, 1L, null);
+        CashbackAccumulator accumulator2 = new CashbackAccumulator();
+        accumulator2.add("fiscalCode1", -50L, -1L, null);
+        accumulator2.add("fiscalCode2", 25L, 1L, timestamp.plusSeconds(1));
+        accumulator2.add("fiscalCode2", 25L, 1L, timestamp);
+
+        Map<String, CitizenRanking> rankings = accumulator1.merge(accumulator2)
+                .toRankings(1L, timestamp, "user")
+                .stream()
+                .collect(Collectors.toMap(CitizenRanking::getFiscalCode, Function.identity()));
+
+        assertEquals(2, rankings.size());
+        assertEquals(new BigDecimal("0.50"), rankings.get("fiscalCode1").getTotalCashback());
+        assertEquals(Long.valueOf(0), rankings.get("fiscalCode1").getTransactionNumber());
+        assertSame(timestamp, rankings.get("fiscalCode1").getLastTrxTimestamp());
+        assertEquals(new BigDecimal("1.50"), rankings.get("fiscalCode2").getTotalCashback());
+        assertEquals(Long.valueOf(3), rankings.get("fiscalCode2").getTransactionNumber());
+        assertEquals(timestamp.plusSeconds(1), rankings.get("fiscalCode2").getLastTrxTimestamp());
+    }
+
+
+    @Test
+    public void toCents_Ok() {
+        assertEquals(150L, CashbackAccumulator.toCents(new BigDecimal("1.50")));
+        assertEquals(150L, CashbackAccumulator.toCents(new BigDecimal("1.5")));
+        assertEquals(150L, CashbackAccumulator.toCents(new BigDecimal("1.505")));
+        assertEquals(-151L, CashbackAccumulator.toCents(new BigDecimal("-1.506")));
+    }
+
+}
@@ -15,6 +15,8 @@ public class CashbackUpdateStrategyFactoryImplTest {
     private final PaymentCashbackUpdate paymentCashbackUpdateMock;
     private final TotalTransferCashbackUpdate totalTransferCashbackUpdateMock;
     private final PartialTransferCashbackUpdate partialTransferCashbackUpdateMock;
+    private final ServerSideTotalTransferCashbackUpdate serverSideTotalTransferCashbackUpdateMock;
+    private final ObjectProvider serverSideTotalTransferCashbackUpdateObjectProviderMock;
 
 
     public CashbackUpdateStrategyFactoryImplTest() {
@@ -22,6 +24,8 @@ public class CashbackUpdateStrategyFactoryImplTest {
         paymentCashbackUpdateMock = Mockito.mock(PaymentCashbackUpdate.class);
         totalTransferCashbackUpdateMock = Mockito.mock(TotalTransferCashbackUpdate.class);
         partialTransferCashbackUpdateMock = Mockito.mock(PartialTransferCashbackUpdate.class);
+        serverSideTotalTransferCashbackUpdateMock = Mockito.mock(ServerSideTotalTransferCashbackUpdate.class);
+        serverSideTotalTransferCashbackUpdateObjectProviderMock = Mockito.mock(ObjectProvider.class);
         cashbackUpdateFactory = new CashbackUpdateStrategyFactoryImpl(beanFactoryMock);
 
         initMocks();
@@ -52,6 +56,8 @@ public class CashbackUpdateStrategyFactoryImplTest {
                 return totalTransferCashbackUpdateObjectProviderMock;
             else if (PartialTransferCashbackUpdate.class.getName().equals(argument.getName()))
                 return partialTransferCashbackUpdateObjectProviderMock;
+            else if (ServerSideTotalTransferCashbackUpdate.class.getName().equals(argument.getName()))
+                return serverSideTotalTransferCashbackUpdateObjectProviderMock;
             else
                 throw new IllegalArgumentException();
         })
@@ -74,6 +80,17 @@ public class CashbackUpdateStrategyFactoryImplTest {
         Assert.assertTrue(TotalTransferCashbackUpdate.class.isAssignableFrom(parallelCashbackUpdateStrategy.getClass()));
     }
 
+    @Test
+    public void create_OK_serverSideTotalTransfer() {
+        BDDMockito.doReturn(serverSideTotalTransferCashbackUpdateMock)
+                .when(serverSideTotalTransferCashbackUpdateObjectProviderMock)
+                .getIfAvailable();
+
+        CashbackUpdateStrategy parallelCashbackUpdateStrategy = cashbackUpdateFactory.create(TransactionType.TOTAL_TRANSFER);
+        Assert.assertNotNull(parallelCashbackUpdateStrategy);
+        Assert.assertTrue(ServerSideTotalTransferCashbackUpdate.class.isAssignableFrom(parallelCashbackUpdateStrategy.getClass()));
+    }
+
     @Test
     public void create_OK_partialTransfer() {
         CashbackUpdateStrategy parallelCashbackUpdateStrategy = cashbackUpdateFactory.create(TransactionType.PARTIAL_TRANSFER);
@@ -35,7 +35,7 @@ public abstract class CashbackUpdateStrategyTemplateTest {
 
     protected final WinningTransactionDao winningTransactionDaoMock;
     protected final CitizenRankingDao citizenRankingDaoMock;
-    protected final AggregatorStrategy aggregatorStrategy;
+    protected final CommonAggregator aggregatorStrategy;
     protected final BeanFactory beanFactoryMock;
 
     protected final Appender mockedAppender;
@@ -47,7 +47,7 @@ public abstract class CashbackUpdateStrategyTemplateTest {
     public CashbackUpdateStrategyTemplateTest() {
         this.winningTransactionDaoMock = Mockito.mock(WinningTransactionDao.class);
         this.citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
-        this.aggregatorStrategy = Mockito.mock(AggregatorStrategy.class);
+        this.aggregatorStrategy = Mockito.mock(CommonAggregator.class);
         this.loggingEventCaptor = ArgumentCaptor.forClass(LoggingEvent.class);
         this.mockedAppender = Mockito.mock(Appender.class);
         beanFactoryMock = Mockito.mock(BeanFactory.class);
@@ -84,6 +84,17 @@ public abstract class CashbackUpdateStrategyTemplateTest {
                     }
                     return transactions;
                 });
+        when(winningTransactionDaoMock.findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), any(), anyInt()))
+                .thenAnswer(invocationOnMock -> {
+                    int limit = invocationOnMock.getArgument(2, Integer.class);
+                    List<WinningTransaction> transactions = new ArrayList<>(limit);
+                    for (int i = 0; i < limit; i++) {
+                        transactions.add(TestUtils.mockInstance(WinningTransaction.builder()
+                                .operationType("00")
+                                .build(), i, "setOperationType"));
+                    }
+                    return transactions;
+                });
         when(winningTransactionDaoMock.findPartialTransferToProcess(any(), any(Pageable.class)))
                 .thenAnswer(invocationOnMock -> {
                     Pageable pageable = invocationOnMock.getArgument(1, Pageable.class);
@@ -175,6 +186,35 @@ public abstract class CashbackUpdateStrategyTemplateTest {
         verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
     }
 
+    @Test
+    public void process_OK_writeOrder() {
+        when(aggregatorStrategy.aggregate(any(AwardPeriod.class), anyList()))
+                .thenAnswer(invocationOnMock -> {
+                    List<CitizenRanking> rankings = new ArrayList<>(LIMIT);
+                    for (int i = LIMIT; i > 0; i--) {
+                        rankings.add(CitizenRanking.builder()
+                                .fiscalCode("fiscalCode" + i)
+                                .awardPeriodId(1L)
+                                .build());
+                    }
+                    return rankings;
+                });
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        getCashbackUpdateService().process(awardPeriod, pageRequest);
+
+        ArgumentCaptor<List<CitizenRanking>> rankingsCaptor = ArgumentCaptor.forClass(List.class);
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .updateCashback(rankingsCaptor.capture());
+        List<CitizenRanking> sortedRankings = new ArrayList<>(rankingsCaptor.getValue());
+        sortedRankings.sort(CitizenRankingDao.WRITE_ORDER);
+        Assert.assertEquals(sortedRankings, rankingsCaptor.getValue());
+        Assert.assertEquals("fiscalCode1", rankingsCaptor.getValue().get(0).getFiscalCode());
+    }
+
     protected abstract void verifyTrxToProcess(SimplePageRequest pageRequest, AwardPeriod awardPeriod);
 
     public abstract CashbackUpdateStrategy getCashbackUpdateService();
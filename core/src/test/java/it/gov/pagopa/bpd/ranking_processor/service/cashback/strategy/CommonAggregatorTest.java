@@ -3,6 +3,7 @@ package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
 import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
 import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
 import org.junit.Test;
 
@@ -117,4 +118,34 @@ public abstract class CommonAggregatorTest extends AggregatorTest {
         });
     }
 
+
+    @Test
+    public void aggregate_OkColumnarPage() {
+        AwardPeriod awardPeriod = getAwardPeriod();
+        BigDecimal maxCashbackPerTrx = BigDecimal.valueOf(awardPeriod.getMaxTransactionEvaluated());
+        HashMap<String, Expectation> fiscalCode2ExpectationMap = new HashMap<>();
+        List<WinningTransaction> winningTransactions = buildTransactions(fiscalCode2ExpectationMap, maxCashbackPerTrx, "00");
+        WinningTransactionPage page = new WinningTransactionPage(winningTransactions.size());
+        Map<String, OffsetDateTime> maxTrxTimestampMap = new HashMap<>();
+        OffsetDateTime trxDate = OffsetDateTime.now();
+        for (WinningTransaction trx : winningTransactions) {
+            trxDate = trxDate.plusDays(1);
+            maxTrxTimestampMap.put(trx.getFiscalCode(), trxDate);
+            page.add(trx.getIdTrxAcquirer(), trx.getAcquirerCode(), trxDate, trx.getOperationType(), trx.getAcquirerId(),
+                    trx.getFiscalCode(), trx.getAmount(), trx.getScore());
+        }
+        OffsetDateTime updateDate = OffsetDateTime.now();
+
+        Collection<CitizenRanking> rankings = ((CommonAggregator) aggregator).aggregate(awardPeriod, page, updateDate);
+
+        assertEquals(fiscalCode2ExpectationMap.size(), rankings.size());
+        rankings.forEach(citizenRanking -> {
+            assertEquals(RankingProcessorService.PROCESS_NAME, citizenRanking.getUpdateUser());
+            assertSame(updateDate, citizenRanking.getUpdateDate());
+            assertEquals(fiscalCode2ExpectationMap.get(citizenRanking.getFiscalCode()).getTotalCashback(), citizenRanking.getTotalCashback());
+            assertEquals(fiscalCode2ExpectationMap.get(citizenRanking.getFiscalCode()).getTransactionNumber(), citizenRanking.getTransactionNumber());
+            assertTrue(maxTrxTimestampMap.get(citizenRanking.getFiscalCode()).isEqual(citizenRanking.getLastTrxTimestamp()));
+        });
+    }
+
 }
\ No newline at end of file
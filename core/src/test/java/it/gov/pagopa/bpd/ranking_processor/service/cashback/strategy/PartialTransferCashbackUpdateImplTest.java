@@ -2,6 +2,7 @@ package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
 
 import eu.sia.meda.util.TestUtils;
 import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
 import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
 import org.junit.Assert;
@@ -12,6 +13,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.Period;
 import java.util.ArrayList;
@@ -25,6 +27,7 @@ import static org.mockito.Mockito.*;
 public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrategyTemplateTest {
 
     private final CashbackUpdateStrategy cashbackUpdateStrategy;
+    private final CashbackUpdateStrategy batchMatchingCashbackUpdateStrategy;
 
     private static boolean correlationId;
     private static boolean matchPayment;
@@ -32,10 +35,12 @@ public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrateg
     private static boolean retention;
     private static boolean cashbackError;
     private static boolean negativeAmountBalance;
+    private static boolean ambiguousMatch;
 
 
     public PartialTransferCashbackUpdateImplTest() {
-        this.cashbackUpdateStrategy = new PartialTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"));
+        this.cashbackUpdateStrategy = new PartialTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.SINGLE, 0, Duration.ZERO, 1, 1);
+        this.batchMatchingCashbackUpdateStrategy = new PartialTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.BATCH, 0, Duration.ZERO, 1, 1);
     }
 
 
@@ -67,6 +72,7 @@ public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrateg
         retention = false;
         cashbackError = false;
         negativeAmountBalance = false;
+        ambiguousMatch = false;
     }
 
 
@@ -118,6 +124,26 @@ public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrateg
                 });
         when(winningTransactionDaoMock.findProcessedTransferAmount(any()))
                 .thenReturn(BigDecimal.ONE);
+        when(winningTransactionDaoMock.findPaymentTrxWithProcessedTransferAmount(anyLong(), anyList()))
+                .thenAnswer(invocationOnMock -> {
+                    List<?> transfers = invocationOnMock.getArgument(1, List.class);
+                    List<PaymentTrxMatch> matches = new ArrayList<>(transfers.size());
+                    for (int i = 0; i < transfers.size(); i++) {
+                        if (matchPayment) {
+                            matches.add(PaymentTrxMatch.builder()
+                                    .payment(TestUtils.mockInstance(WinningTransaction.builder()
+                                            .operationType("00")
+                                            .amount(paymentWithSameAmount ? BigDecimal.ONE : BigDecimal.TEN)
+                                            .build(), "setOperationType", "setAmount", "setParked"))
+                                    .matchCount(ambiguousMatch ? 2 : 1)
+                                    .processedTransferAmount(BigDecimal.ONE)
+                                    .build());
+                        } else {
+                            matches.add(PaymentTrxMatch.builder().build());
+                        }
+                    }
+                    return matches;
+                });
         when(winningTransactionDaoMock.updateUnrelatedTransfer(any()))
                 .thenAnswer(invocationOnMock -> {
                     Collection transactions = invocationOnMock.getArgument(0, Collection.class);
@@ -155,6 +181,11 @@ public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrateg
         // see specific process_OK tests
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void init_KoHashMatchingMode() {
+        new PartialTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.HASH, 0, Duration.ZERO, 1, 1);
+    }
+
     @Test
     public void process_OK_WithCorrIdAndNoMatchPayment() {
         correlationId = true;
@@ -216,6 +247,8 @@ public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrateg
                 .deleteTransfer(anyList());
         BDDMockito.verify(citizenRankingDaoMock, times(1))
                 .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
         verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
     }
 
@@ -247,6 +280,98 @@ public class PartialTransferCashbackUpdateImplTest extends CashbackUpdateStrateg
     }
 
 
+    @Test
+    public void process_OK_BatchMatchingWithCorrIdAndMatchPaymentWithDifferentAmount() {
+        correlationId = true;
+        matchPayment = true;
+        paymentWithSameAmount = false;
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        int processedTrxCount = batchMatchingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        verifyTrxToProcess(pageRequest, awardPeriod);
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentTrxWithProcessedTransferAmount(eq(1L), argThat(transfers -> transfers.size() == LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(argThat(transactions -> transactions.stream()
+                        .allMatch(trx -> BigDecimal.valueOf(9).equals(trx.getAmountBalance()))));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .deleteTransfer(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void process_OK_BatchMatchingWithCorrIdAndAmbiguousMatch() {
+        correlationId = true;
+        matchPayment = true;
+        ambiguousMatch = true;
+        when(winningTransactionDaoMock.updateUnrelatedTransfer(any()))
+                .thenAnswer(invocationOnMock -> {
+                    Collection<WinningTransaction> transactions = invocationOnMock.getArgument(0, Collection.class);
+                    transactions.forEach(trx -> Assert.assertTrue(trx.getParked()));
+                    int[] result = new int[transactions.size()];
+                    Arrays.fill(result, 1);
+                    return result;
+                });
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        int processedTrxCount = batchMatchingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        verifyTrxToProcess(pageRequest, awardPeriod);
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentTrxWithProcessedTransferAmount(eq(1L), anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateUnrelatedTransfer(anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void process_OK_CacheInvalidatedOnBalanceChange() {
+        correlationId = true;
+        matchPayment = true;
+        paymentWithSameAmount = false;
+        CashbackUpdateStrategy cachingCashbackUpdateStrategy = new PartialTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.SINGLE, 100, Duration.ofMinutes(10), 1, 1);
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        cachingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+        int processedTrxCount = cachingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findPartialTransferToProcess(any(), eq(toPageable(pageRequest)));
+        BDDMockito.verify(winningTransactionDaoMock, times(2 * LIMIT))
+                .findPaymentTrxWithCorrelationId(any());
+        BDDMockito.verify(winningTransactionDaoMock, times(2 * LIMIT))
+                .findProcessedTransferAmount(any());
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .updateProcessedTransaction(anyCollection());
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .deleteTransfer(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, times(2))
+                .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
     @Test
     public void process_OK_WithRetention() {
         retention = true;
@@ -0,0 +1,121 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.CashbackUpdateException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.BDDMockito;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class PaymentCashbackUpdateKeysetTest extends CashbackUpdateStrategyTemplateTest {
+
+    private final CashbackUpdateStrategy cashbackUpdateStrategy;
+
+    public PaymentCashbackUpdateKeysetTest() {
+        this.cashbackUpdateStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, true, CashbackWriteMode.BATCH, false, false);
+    }
+
+    @Override
+    public CashbackUpdateStrategy getCashbackUpdateService() {
+        return cashbackUpdateStrategy;
+    }
+
+    @Override
+    protected void verifyTrxToProcess(SimplePageRequest pageRequest, AwardPeriod awardPeriod) {
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentToProcess(argThat((WinningTransaction.FilterCriteria filterCriteria) -> awardPeriod.getAwardPeriodId().equals(filterCriteria.getAwardPeriodId())),
+                        isNull(),
+                        eq(pageRequest.getSize()));
+    }
+
+
+    @Test
+    public void process_OK_keysetMovesForward() {
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        getCashbackUpdateService().process(awardPeriod, pageRequest);
+        getCashbackUpdateService().onPageCommitted();
+        getCashbackUpdateService().process(awardPeriod, pageRequest);
+
+        ArgumentCaptor<WinningTransaction> lastExtractedCaptor = ArgumentCaptor.forClass(WinningTransaction.class);
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), lastExtractedCaptor.capture(), eq(LIMIT));
+        List<WinningTransaction> lastExtractedValues = lastExtractedCaptor.getAllValues();
+        Assert.assertNull(lastExtractedValues.get(0));
+        Assert.assertNotNull(lastExtractedValues.get(1));
+    }
+
+
+    @Test
+    public void process_OK_keysetNotMovedBeforeCommit() {
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        getCashbackUpdateService().process(awardPeriod, pageRequest);
+        getCashbackUpdateService().process(awardPeriod, pageRequest);
+
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), isNull(), eq(LIMIT));
+    }
+
+
+    @Test
+    public void extractAndApply_OK() {
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        StagedCashbackUpdateStrategy stagedStrategy = (StagedCashbackUpdateStrategy) getCashbackUpdateService();
+
+        List<WinningTransaction> firstPage = stagedStrategy.extract(awardPeriod, pageRequest);
+        stagedStrategy.extract(awardPeriod, pageRequest);
+        int processedTrxCount = stagedStrategy.apply(awardPeriod, firstPage);
+
+        Assert.assertEquals(LIMIT, processedTrxCount);
+        ArgumentCaptor<WinningTransaction> lastExtractedCaptor = ArgumentCaptor.forClass(WinningTransaction.class);
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), lastExtractedCaptor.capture(), eq(LIMIT));
+        Assert.assertNull(lastExtractedCaptor.getAllValues().get(0));
+        Assert.assertSame(firstPage.get(LIMIT - 1), lastExtractedCaptor.getAllValues().get(1));
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(eq(firstPage));
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void process_KO_keysetNotMoved() {
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        error = Error.UPDATE_TRANSACTION;
+        try {
+            getCashbackUpdateService().process(awardPeriod, pageRequest);
+            Assert.fail();
+        } catch (CashbackUpdateException e) {
+            error = null;
+        }
+        getCashbackUpdateService().process(awardPeriod, pageRequest);
+
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), isNull(), eq(LIMIT));
+    }
+
+}
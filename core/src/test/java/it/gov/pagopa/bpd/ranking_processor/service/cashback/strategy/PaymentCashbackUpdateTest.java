@@ -1,12 +1,30 @@
 package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
 
+import eu.sia.meda.util.TestUtils;
 import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
 import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import it.gov.pagopa.bpd.ranking_processor.service.cashback.CashbackUpdateException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
+import org.springframework.dao.DeadlockLoserDataAccessException;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
-import static org.mockito.ArgumentMatchers.eq;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 
 public class PaymentCashbackUpdateTest extends CashbackUpdateStrategyTemplateTest {
@@ -14,7 +32,7 @@ public class PaymentCashbackUpdateTest extends CashbackUpdateStrategyTemplateTes
     private final CashbackUpdateStrategy cashbackUpdateStrategy;
 
     public PaymentCashbackUpdateTest() {
-        this.cashbackUpdateStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2);
+        this.cashbackUpdateStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, false, false);
     }
 
     @Override
@@ -32,4 +50,227 @@ public class PaymentCashbackUpdateTest extends CashbackUpdateStrategyTemplateTes
     protected PageRequest toPageable(SimplePageRequest pageRequest) {
         return PageRequest.of(pageRequest.getPage(), pageRequest.getSize(), Sort.by("fiscal_code_s"));
     }
+
+
+    @Test
+    public void process_OK_partitioned() {
+        PaymentCashbackUpdate partitionedStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, false, false);
+        partitionedStrategy.setPartition(4, 2);
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        partitionedStrategy.process(awardPeriod, pageRequest);
+
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentToProcess(argThat((WinningTransaction.FilterCriteria filterCriteria) -> filterCriteria.getPartitionCount() == 4
+                                && filterCriteria.getPartitionIndex() == 2),
+                        isNull(),
+                        eq(LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, never())
+                .findPaymentToProcess(anyLong(), any(Pageable.class));
+    }
+
+
+    @Test
+    public void process_OK_keysetWithBisection() {
+        PaymentCashbackUpdate bisectedStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, false, true);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        bisectedStrategy.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), isNull(), eq(LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, never())
+                .findPaymentToProcess(anyLong(), any(Pageable.class));
+    }
+
+
+    @Test
+    public void skipFailedPage_OK() {
+        PaymentCashbackUpdate bisectedStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, false, true);
+        BDDMockito.given(citizenRankingDaoMock.updateCashback(anyList()))
+                .willThrow(BDDMockito.mock(DeadlockLoserDataAccessException.class))
+                .willAnswer(invocationOnMock -> {
+                    int[] result = new int[invocationOnMock.getArgument(0, List.class).size()];
+                    Arrays.fill(result, 1);
+                    return result;
+                });
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        try {
+            bisectedStrategy.process(awardPeriod, SimplePageRequest.of(0, 1));
+            Assert.fail();
+        } catch (DeadlockLoserDataAccessException e) {
+            // the slice is rolled back
+        }
+
+        List<WinningTransaction> skipped = bisectedStrategy.skipFailedPage();
+        bisectedStrategy.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+
+        // the rows extracted by the failed slice are skipped, without extracting them again
+        Assert.assertEquals(1, skipped.size());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), isNull(), eq(1));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), eq(skipped.get(0)), eq(LIMIT));
+    }
+
+
+    @Test
+    public void skipFailedPage_OK_failedExtraction() {
+        PaymentCashbackUpdate bisectedStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, false, true);
+        BDDMockito.given(winningTransactionDaoMock.findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), any(), anyInt()))
+                .willThrow(BDDMockito.mock(DeadlockLoserDataAccessException.class));
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        try {
+            bisectedStrategy.process(awardPeriod, SimplePageRequest.of(0, 1));
+            Assert.fail();
+        } catch (DeadlockLoserDataAccessException e) {
+            // nothing has been extracted
+        }
+
+        Assert.assertTrue(bisectedStrategy.skipFailedPage().isEmpty());
+    }
+
+
+    @Test
+    public void process_OK_upsert() {
+        PaymentCashbackUpdate upsertStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.UPSERT, false, false);
+        BDDMockito.when(citizenRankingDaoMock.upsertCashback(anyList()))
+                .thenAnswer(invocationOnMock -> {
+                    int[] result = new int[invocationOnMock.getArgument(0, List.class).size()];
+                    Arrays.fill(result, 1);
+                    // not enabled citizen
+                    result[0] = 0;
+                    return result;
+                });
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        int processedTrxCount = upsertStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertEquals(LIMIT, processedTrxCount);
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .upsertCashback(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, never())
+                .updateCashback(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, never())
+                .insertCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(anyCollection());
+    }
+
+
+    @Test(expected = CashbackUpdateException.class)
+    public void process_KO_upsertError() {
+        PaymentCashbackUpdate upsertStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.UPSERT, false, false);
+        BDDMockito.when(citizenRankingDaoMock.upsertCashback(anyList()))
+                .thenReturn(new int[]{1});
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        try {
+            upsertStrategy.process(awardPeriod, pageRequest);
+
+        } finally {
+            BDDMockito.verify(winningTransactionDaoMock, never())
+                    .updateProcessedTransaction(anyCollection());
+        }
+    }
+
+
+    @Test
+    public void process_OK_copy() {
+        PaymentCashbackUpdate copyStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.COPY, false, false);
+        BDDMockito.when(citizenRankingDaoMock.copyCashback(anyList()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(0, List.class).size());
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        int processedTrxCount = copyStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertEquals(LIMIT, processedTrxCount);
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .copyCashback(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, never())
+                .updateCashback(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, never())
+                .insertCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(anyCollection());
+    }
+
+
+    @Test(expected = CashbackUpdateException.class)
+    public void process_KO_copyError() {
+        PaymentCashbackUpdate copyStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.COPY, false, false);
+        BDDMockito.when(citizenRankingDaoMock.copyCashback(anyList()))
+                .thenReturn(LIMIT + 1);
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        copyStrategy.process(awardPeriod, pageRequest);
+    }
+
+
+    @Test
+    public void process_OK_columnarPage() {
+        PaymentCashbackUpdate columnarStrategy = new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, true, false);
+        WinningTransactionPage page = new WinningTransactionPage();
+        for (int i = 0; i < LIMIT; i++) {
+            page.add("idTrxAcquirer" + i, "acquirerCode", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode" + i,
+                    BigDecimal.TEN, BigDecimal.ONE);
+        }
+        BDDMockito.when(winningTransactionDaoMock.findPaymentPageToProcess(any(WinningTransaction.FilterCriteria.class), any(), anyInt()))
+                .thenReturn(page);
+        BDDMockito.when(aggregatorStrategy.aggregate(any(AwardPeriod.class), any(WinningTransactionPage.class), any(OffsetDateTime.class)))
+                .thenReturn(Collections.singletonList(TestUtils.mockInstance(CitizenRanking.builder().build())));
+        BDDMockito.when(citizenRankingDaoMock.updateCashback(anyList()))
+                .thenReturn(new int[]{1});
+        BDDMockito.when(winningTransactionDaoMock.updateProcessedTransaction(eq(page), any(OffsetDateTime.class), anyString()))
+                .thenReturn(new int[]{1, 1, 1, 1, 1});
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+
+        int processedTrxCount = columnarStrategy.process(awardPeriod, pageRequest);
+        columnarStrategy.onPageCommitted();
+        columnarStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertEquals(LIMIT, processedTrxCount);
+        ArgumentCaptor<WinningTransaction> lastExtractedCaptor = ArgumentCaptor.forClass(WinningTransaction.class);
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findPaymentPageToProcess(any(WinningTransaction.FilterCriteria.class), lastExtractedCaptor.capture(), eq(LIMIT));
+        Assert.assertNull(lastExtractedCaptor.getAllValues().get(0));
+        Assert.assertEquals("idTrxAcquirer" + (LIMIT - 1), lastExtractedCaptor.getAllValues().get(1).getIdTrxAcquirer());
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .updateProcessedTransaction(eq(page), any(OffsetDateTime.class), eq(RankingProcessorService.PROCESS_NAME));
+        BDDMockito.verify(winningTransactionDaoMock, never())
+                .findPaymentToProcess(any(WinningTransaction.FilterCriteria.class), any(), anyInt());
+        BDDMockito.verify(winningTransactionDaoMock, never())
+                .updateProcessedTransaction(anyCollection());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setPartition_KO_outOfRange() {
+        new PaymentCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, false, CashbackWriteMode.BATCH, false, false)
+                .setPartition(4, 4);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+public class PaymentTrxHashIndexTest {
+
+    private static WinningTransaction trx(String idTrxAcquirer, String correlationId, String amount) {
+        return WinningTransaction.builder()
+                .idTrxAcquirer(idTrxAcquirer)
+                .hpan("hpan")
+                .acquirerCode("acquirerCode")
+                .acquirerId("acquirerId")
+                .correlationId(correlationId)
+                .amount(new BigDecimal(amount))
+                .merchantId("merchantId")
+                .terminalId("terminalId")
+                .build();
+    }
+
+
+    @Test
+    public void match_OkCorrelationId() {
+        WinningTransaction payment = trx("payment1", "correlationId", "10");
+        PaymentTrxHashIndex index = new PaymentTrxHashIndex(Arrays.asList(payment, trx("payment2", "other", "10")));
+
+        PaymentTrxMatch match = index.match(trx("transfer", "correlationId", "5"));
+
+        Assert.assertSame(payment, match.getPayment());
+        Assert.assertEquals(1, match.getMatchCount());
+    }
+
+
+    @Test
+    public void match_OkAmountIgnoringScale() {
+        WinningTransaction payment = trx("payment1", null, "10.00");
+        PaymentTrxHashIndex index = new PaymentTrxHashIndex(Arrays.asList(payment, trx("payment2", null, "11")));
+
+        PaymentTrxMatch match = index.match(trx("transfer", " ", "10"));
+
+        Assert.assertSame(payment, match.getPayment());
+        Assert.assertEquals(1, match.getMatchCount());
+    }
+
+
+    @Test
+    public void match_OkFirstOfMany() {
+        WinningTransaction payment1 = trx("payment1", "correlationId", "10");
+        WinningTransaction payment2 = trx("payment2", "correlationId", "10");
+        PaymentTrxHashIndex index = new PaymentTrxHashIndex(Arrays.asList(payment1, payment2));
+
+        PaymentTrxMatch match = index.match(trx("transfer", "correlationId", "10"));
+
+        Assert.assertSame(payment1, match.getPayment());
+        Assert.assertTrue(match.isAmbiguous());
+    }
+
+
+    @Test
+    public void match_OkNotFound() {
+        WinningTransaction transfer = trx("transfer", null, "10");
+        transfer.setMerchantId(null);
+        PaymentTrxHashIndex index = new PaymentTrxHashIndex(Arrays.asList(trx("payment1", "correlationId", "10"), transfer));
+
+        Assert.assertNull(index.match(trx("transfer", "otherCorrelationId", "10")).getPayment());
+        PaymentTrxMatch match = index.match(transfer);
+        Assert.assertNull(match.getPayment());
+        Assert.assertEquals(0, match.getMatchCount());
+    }
+
+}
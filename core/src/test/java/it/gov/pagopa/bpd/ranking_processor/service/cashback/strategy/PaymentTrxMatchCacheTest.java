@@ -0,0 +1,143 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import eu.sia.meda.util.TestUtils;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+public class PaymentTrxMatchCacheTest {
+
+    private static final PaymentTrxMatch MATCH = PaymentTrxMatch.builder()
+            .payment(WinningTransaction.builder().build())
+            .matchCount(1)
+            .build();
+
+
+    @Test
+    public void get_OkHitAndMiss() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        try {
+            PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 10, Duration.ofMinutes(1));
+
+            Assert.assertNull(cache.get("key"));
+            cache.put("key", MATCH);
+            Assert.assertSame(MATCH, cache.get("key"));
+
+            Assert.assertEquals(1, meterRegistry.get(PaymentTrxMatchCache.CACHE_METRIC_NAME)
+                    .tags("strategy", "test", "result", "hit").counter().count(), 0);
+            Assert.assertEquals(1, meterRegistry.get(PaymentTrxMatchCache.CACHE_METRIC_NAME)
+                    .tags("strategy", "test", "result", "miss").counter().count(), 0);
+        } finally {
+            Metrics.removeRegistry(meterRegistry);
+        }
+    }
+
+
+    @Test
+    public void get_OkExpired() {
+        AtomicLong nanoTime = new AtomicLong();
+        PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 10, Duration.ofSeconds(1), nanoTime::get);
+
+        cache.put("key", MATCH);
+        nanoTime.addAndGet(Duration.ofMillis(999).toNanos());
+        Assert.assertSame(MATCH, cache.get("key"));
+        nanoTime.addAndGet(Duration.ofMillis(1).toNanos());
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+
+    @Test
+    public void put_OkLeastRecentlyUsedEvicted() {
+        PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 2, Duration.ofMinutes(1));
+
+        cache.put("key1", MATCH);
+        cache.put("key2", MATCH);
+        cache.get("key1");
+        cache.put("key3", MATCH);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.get("key1"));
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertNotNull(cache.get("key3"));
+    }
+
+
+    @Test
+    public void put_OkOnlyUniqueMatches() {
+        PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 10, Duration.ofMinutes(1));
+
+        cache.put("noMatch", PaymentTrxMatch.builder().build());
+        cache.put("ambiguous", PaymentTrxMatch.builder()
+                .payment(WinningTransaction.builder().build())
+                .matchCount(2)
+                .build());
+
+        Assert.assertEquals(0, cache.size());
+    }
+
+
+    @Test
+    public void invalidate_Ok() {
+        PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 10, Duration.ofMinutes(1));
+        cache.put("key", MATCH);
+
+        cache.invalidate("key");
+
+        Assert.assertNull(cache.get("key"));
+    }
+
+
+    @Test
+    public void disabled_Ok() {
+        PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 0, Duration.ofMinutes(1));
+
+        cache.put("key", MATCH);
+
+        Assert.assertFalse(cache.isEnabled());
+        Assert.assertNull(cache.get("key"));
+    }
+
+
+    @Test
+    public void getAll_OkLoadOnlyMissing() {
+        PaymentTrxMatchCache cache = new PaymentTrxMatchCache("test", 10, Duration.ofMinutes(1));
+        List<WinningTransaction> transfers = Arrays.asList(
+                TestUtils.mockInstance(WinningTransaction.builder().build(), 1),
+                TestUtils.mockInstance(WinningTransaction.builder().build(), 2),
+                TestUtils.mockInstance(WinningTransaction.builder().correlationId(" ").build(), 3, "setCorrelationId"));
+        cache.put(PaymentTrxMatchCache.keyOf(1L, transfers.get(0)), MATCH);
+        List<List<WinningTransaction>> loaded = new ArrayList<>();
+
+        List<PaymentTrxMatch> matches = cache.getAll(1L, transfers, missingTransfers -> {
+            loaded.add(missingTransfers);
+            return missingTransfers.stream()
+                    .map(transfer -> PaymentTrxMatch.builder()
+                            .payment(transfer)
+                            .matchCount(1)
+                            .build())
+                    .collect(Collectors.toList());
+        });
+
+        Assert.assertEquals(3, matches.size());
+        Assert.assertSame(MATCH, matches.get(0));
+        Assert.assertSame(transfers.get(1), matches.get(1).getPayment());
+        Assert.assertSame(transfers.get(2), matches.get(2).getPayment());
+        Assert.assertEquals(1, loaded.size());
+        Assert.assertEquals(transfers.subList(1, 3), loaded.get(0));
+        // transfers without correlation id are never cached
+        Assert.assertEquals(2, cache.size());
+    }
+
+}
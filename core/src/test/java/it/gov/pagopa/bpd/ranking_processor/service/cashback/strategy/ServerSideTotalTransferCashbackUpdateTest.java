@@ -0,0 +1,71 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.OffsetDateTime;
+import java.time.Period;
+
+import static org.mockito.ArgumentMatchers.*;
+
+public class ServerSideTotalTransferCashbackUpdateTest {
+
+    private final WinningTransactionDao winningTransactionDaoMock;
+    private final CitizenRankingDao citizenRankingDaoMock;
+    private final ServerSideTotalTransferCashbackUpdate cashbackUpdateStrategy;
+
+
+    public ServerSideTotalTransferCashbackUpdateTest() {
+        winningTransactionDaoMock = Mockito.mock(WinningTransactionDao.class);
+        citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
+        Mockito.when(winningTransactionDaoMock.findDatabaseIdentity()).thenReturn("10.0.0.1:5432:bpd");
+        Mockito.when(citizenRankingDaoMock.findDatabaseIdentity()).thenReturn("10.0.0.1:5432:bpd");
+        cashbackUpdateStrategy = new ServerSideTotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, 100, Period.ofMonths(1), CashbackWriteMode.BATCH);
+    }
+
+
+    @Test
+    public void getDataExtractionLimit_OK() {
+        Assert.assertEquals(100, cashbackUpdateStrategy.getDataExtractionLimit());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_KoDifferentDatabases() {
+        Mockito.when(citizenRankingDaoMock.findDatabaseIdentity()).thenReturn("10.0.0.2:5432:bpd");
+
+        new ServerSideTotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, 100, Period.ofMonths(1), CashbackWriteMode.BATCH);
+    }
+
+
+    @Test
+    public void process_OK() {
+        Mockito.when(winningTransactionDaoMock.reconcileTotalTransfer(any(), any(), anyString(), anyInt()))
+                .thenReturn(7);
+        AwardPeriod awardPeriod = AwardPeriod.builder().awardPeriodId(1L).build();
+
+        int trxCount = cashbackUpdateStrategy.process(awardPeriod, SimplePageRequest.of(0, 10));
+
+        Assert.assertEquals(7, trxCount);
+        ArgumentCaptor<WinningTransaction.FilterCriteria> filterCaptor = ArgumentCaptor.forClass(WinningTransaction.FilterCriteria.class);
+        ArgumentCaptor<OffsetDateTime> maxInsertDateCaptor = ArgumentCaptor.forClass(OffsetDateTime.class);
+        Mockito.verify(winningTransactionDaoMock).reconcileTotalTransfer(filterCaptor.capture(),
+                maxInsertDateCaptor.capture(),
+                eq(RankingProcessorService.PROCESS_NAME),
+                eq(10));
+        Mockito.verify(winningTransactionDaoMock).findDatabaseIdentity();
+        Assert.assertEquals(Long.valueOf(1L), filterCaptor.getValue().getAwardPeriodId());
+        Assert.assertNotNull(filterCaptor.getValue().getUpdateDate());
+        Assert.assertTrue(maxInsertDateCaptor.getValue().isBefore(OffsetDateTime.now().minusDays(27)));
+        Mockito.verifyNoMoreInteractions(winningTransactionDaoMock);
+    }
+
+}
@@ -2,6 +2,7 @@ package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
 
 import eu.sia.meda.util.TestUtils;
 import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
 import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
 import org.junit.Assert;
@@ -12,6 +13,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.Period;
 import java.util.ArrayList;
@@ -25,15 +27,18 @@ import static org.mockito.Mockito.*;
 public class TotalTransferCashbackUpdateImplTest extends CashbackUpdateStrategyTemplateTest {
 
     private final CashbackUpdateStrategy cashbackUpdateStrategy;
+    private final CashbackUpdateStrategy batchMatchingCashbackUpdateStrategy;
 
     private static boolean correlationId;
     private static boolean matchPayment;
     private static boolean paymentWithSameAmount;
     private static boolean retention;
     private static boolean cashbackError;
+    private static boolean ambiguousMatch;
 
     public TotalTransferCashbackUpdateImplTest() {
-        this.cashbackUpdateStrategy = new TotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"));
+        this.cashbackUpdateStrategy = new TotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.SINGLE, 0, Duration.ZERO, 1, 1);
+        this.batchMatchingCashbackUpdateStrategy = new TotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.BATCH, 0, Duration.ZERO, 1, 1);
     }
 
     @Override
@@ -60,6 +65,7 @@ public class TotalTransferCashbackUpdateImplTest extends CashbackUpdateStrategyT
         paymentWithSameAmount = false;
         retention = false;
         cashbackError = false;
+        ambiguousMatch = false;
     }
 
     @Override
@@ -123,6 +129,25 @@ public class TotalTransferCashbackUpdateImplTest extends CashbackUpdateStrategyT
                         return null;
                     }
                 });
+        when(winningTransactionDaoMock.findPaymentTrxMatches(anyLong(), anyList()))
+                .thenAnswer(invocationOnMock -> {
+                    List<?> transfers = invocationOnMock.getArgument(1, List.class);
+                    List<PaymentTrxMatch> matches = new ArrayList<>(transfers.size());
+                    for (int i = 0; i < transfers.size(); i++) {
+                        if (matchPayment) {
+                            matches.add(PaymentTrxMatch.builder()
+                                    .payment(TestUtils.mockInstance(WinningTransaction.builder()
+                                            .operationType("00")
+                                            .amount(paymentWithSameAmount ? BigDecimal.ONE : BigDecimal.valueOf(-1))
+                                            .build(), "setOperationType", "setAmount"))
+                                    .matchCount(ambiguousMatch ? 2 : 1)
+                                    .build());
+                        } else {
+                            matches.add(PaymentTrxMatch.builder().build());
+                        }
+                    }
+                    return matches;
+                });
         when(winningTransactionDaoMock.updateUnrelatedTransfer(any()))
                 .thenAnswer(invocationOnMock -> {
                     Collection transactions = invocationOnMock.getArgument(0, Collection.class);
@@ -243,6 +268,157 @@ public class TotalTransferCashbackUpdateImplTest extends CashbackUpdateStrategyT
                 .deleteTransfer(anyList());
         BDDMockito.verify(citizenRankingDaoMock, times(1))
                 .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+    @Test
+    public void process_OK_BatchMatchingWithoutCorrIdAndMatchPayment() {
+        correlationId = false;
+        matchPayment = true;
+        paymentWithSameAmount = true;
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        int processedTrxCount = batchMatchingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        verifyTrxToProcess(pageRequest, awardPeriod);
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentTrxMatches(eq(1L), argThat(transfers -> transfers.size() == LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(anyCollection());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .deleteTransfer(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+    @Test
+    public void process_OK_BatchMatchingWithCorrIdAndAmbiguousMatch() {
+        correlationId = true;
+        matchPayment = true;
+        paymentWithSameAmount = true;
+        ambiguousMatch = true;
+        when(winningTransactionDaoMock.updateUnrelatedTransfer(any()))
+                .thenAnswer(invocationOnMock -> {
+                    Collection<WinningTransaction> transactions = invocationOnMock.getArgument(0, Collection.class);
+                    transactions.forEach(trx -> Assert.assertTrue(trx.getParked()));
+                    int[] result = new int[transactions.size()];
+                    Arrays.fill(result, 1);
+                    return result;
+                });
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        int processedTrxCount = batchMatchingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        verifyTrxToProcess(pageRequest, awardPeriod);
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentTrxMatches(eq(1L), anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateUnrelatedTransfer(anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+    @Test
+    public void process_OK_HashMatchingWithoutCorrIdAndMatchPayment() {
+        correlationId = false;
+        matchPayment = true;
+        paymentWithSameAmount = true;
+        when(winningTransactionDaoMock.findPaymentTrxByHpan(anyLong(), anyCollection()))
+                .thenAnswer(invocationOnMock -> {
+                    List<WinningTransaction> payments = new ArrayList<>(LIMIT);
+                    for (int i = 0; i < LIMIT; i++) {
+                        // same keys of the transfers
+                        payments.add(TestUtils.mockInstance(WinningTransaction.builder()
+                                .operationType("00")
+                                .amount(BigDecimal.ONE)
+                                .build(), i, "setOperationType", "setAmount", "setCorrelationId"));
+                    }
+                    return payments;
+                });
+        CashbackUpdateStrategy hashMatchingCashbackUpdateStrategy = new TotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.HASH, 0, Duration.ZERO, 1, 1);
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        int processedTrxCount = hashMatchingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        verifyTrxToProcess(pageRequest, awardPeriod);
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .findPaymentTrxByHpan(eq(1L), argThat(hpans -> hpans.size() == LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(argThat(transactions -> transactions.size() == LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .deleteTransfer(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+    @Test
+    public void process_OK_ParallelMatchingWithoutCorrIdAndMatchPayment() {
+        correlationId = false;
+        matchPayment = true;
+        paymentWithSameAmount = true;
+        CashbackUpdateStrategy parallelCashbackUpdateStrategy = new TotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.SINGLE, 0, Duration.ZERO, 2, 3);
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        int processedTrxCount = parallelCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        verifyTrxToProcess(pageRequest, awardPeriod);
+        BDDMockito.verify(winningTransactionDaoMock, times(LIMIT))
+                .findPaymentTrxWithoutCorrelationId(any());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateProcessedTransaction(argThat(transactions -> transactions.size() == LIMIT));
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .deleteTransfer(anyList());
+        BDDMockito.verify(citizenRankingDaoMock, times(1))
+                .updateCashback(anyList());
+        BDDMockito.verify(winningTransactionDaoMock, times(1))
+                .updateTransferBalance(eq(1L), anyCollection());
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+    @Test
+    public void process_OK_CachedMatchAcrossPages() {
+        correlationId = true;
+        matchPayment = true;
+        paymentWithSameAmount = false;
+        CashbackUpdateStrategy cachingCashbackUpdateStrategy = new TotalTransferCashbackUpdate(winningTransactionDaoMock, citizenRankingDaoMock, beanFactoryMock, 2, Period.parse("P1D"), CashbackWriteMode.BATCH, TransferMatchingMode.SINGLE, 100, Duration.ofMinutes(10), 1, 1);
+
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+        cachingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+        int processedTrxCount = cachingCashbackUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, processedTrxCount);
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .findTransferToProcess(any(), eq(toPageable(pageRequest)));
+        BDDMockito.verify(winningTransactionDaoMock, times(LIMIT))
+                .findPaymentTrxWithCorrelationId(any());
+        BDDMockito.verify(winningTransactionDaoMock, times(2))
+                .updateUnprocessedPartialTransfer(anyCollection());
         verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
     }
 
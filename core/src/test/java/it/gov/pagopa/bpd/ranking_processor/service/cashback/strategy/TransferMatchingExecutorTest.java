@@ -0,0 +1,101 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class TransferMatchingExecutorTest {
+
+    @Test
+    public void constructor_OkConcurrency() {
+        Assert.assertEquals(1, new TransferMatchingExecutor(1, 10).getConcurrency());
+        Assert.assertEquals(1, new TransferMatchingExecutor(1, 1).getConcurrency());
+        Assert.assertEquals(4, new TransferMatchingExecutor(4, 5).getConcurrency());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoExceedsDataSourcePool() {
+        new TransferMatchingExecutor(5, 5);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoNotPositive() {
+        new TransferMatchingExecutor(0, 10);
+    }
+
+
+    @Test
+    public void map_OkOrderPreserved() {
+        TransferMatchingExecutor executor = new TransferMatchingExecutor(3, 4);
+        List<Integer> transfers = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Integer> results = executor.map(transfers, transfer -> {
+            threadNames.add(Thread.currentThread().getName());
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return transfer * 2;
+        });
+
+        Assert.assertEquals(transfers.stream().map(transfer -> transfer * 2).collect(Collectors.toList()), results);
+        Assert.assertTrue(maxRunning.get() <= 3);
+        Assert.assertTrue(threadNames.size() <= 3);
+
+        // the pool is reused by the next pages
+        executor.map(transfers, transfer -> threadNames.add(Thread.currentThread().getName()));
+        Assert.assertTrue(threadNames.size() <= 3);
+        executor.shutdown();
+    }
+
+
+    @Test(expected = RejectedExecutionException.class)
+    public void map_KoAfterShutdown() {
+        TransferMatchingExecutor executor = new TransferMatchingExecutor(3, 4);
+        executor.shutdown();
+
+        executor.map(IntStream.range(0, 10).boxed().collect(Collectors.toList()), transfer -> transfer);
+    }
+
+
+    @Test
+    public void map_OkSerial() {
+        TransferMatchingExecutor executor = new TransferMatchingExecutor(1, 4);
+        String callerThreadName = Thread.currentThread().getName();
+
+        List<String> results = executor.map(IntStream.range(0, 10).boxed().collect(Collectors.toList()),
+                transfer -> Thread.currentThread().getName());
+
+        Assert.assertTrue(results.stream().allMatch(callerThreadName::equals));
+    }
+
+
+    @Test(expected = DeadlockLoserDataAccessException.class)
+    public void map_KoExceptionPropagated() {
+        TransferMatchingExecutor executor = new TransferMatchingExecutor(3, 4);
+
+        executor.map(IntStream.range(0, 10).boxed().collect(Collectors.toList()), transfer -> {
+            if (transfer == 5) {
+                throw new DeadlockLoserDataAccessException("deadlock", null);
+            }
+            return transfer;
+        });
+    }
+
+}
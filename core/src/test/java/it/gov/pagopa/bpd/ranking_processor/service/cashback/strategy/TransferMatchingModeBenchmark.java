@@ -0,0 +1,211 @@
+package it.gov.pagopa.bpd.ranking_processor.service.cashback.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.beans.factory.BeanFactory;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.Period;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * JMH comparison of the {@link TransferMatchingMode}s on a page of total transfers, each one matching a payment.
+ * The DAOs are in-memory stubs parking for the given round trip on every matching query, so the figures compare
+ * the round trips and the in-memory matching work of each mode, not the database plans.
+ * Run it from the IDE through {@link #main(String[])}, or from the test classpath with
+ * {@code java org.openjdk.jmh.Main TransferMatchingModeBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferMatchingModeBenchmark {
+
+    private static final long AWARD_PERIOD_ID = 1L;
+
+    @Param({"SINGLE", "BATCH", "HASH"})
+    public TransferMatchingMode matchingMode;
+
+    @Param({"100", "500"})
+    public int pageSize;
+
+    @Param({"0", "200"})
+    public long roundTripMicros;
+
+    private CashbackUpdateStrategy cashbackUpdateStrategy;
+    private AwardPeriod awardPeriod;
+    private SimplePageRequest pageRequest;
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TransferMatchingModeBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+
+    @Setup
+    public void setUp() {
+        OffsetDateTime now = OffsetDateTime.now();
+        List<WinningTransaction> transfers = new ArrayList<>(pageSize);
+        Map<String, WinningTransaction> paymentsByHpan = new HashMap<>();
+        for (int i = 0; i < pageSize; i++) {
+            // half of the transfers are matched through the correlation id, the other half through amount, merchant and terminal
+            String correlationId = i % 2 == 0 ? "correlationId" + i : null;
+            BigDecimal amount = BigDecimal.valueOf(10 + i % 7);
+            paymentsByHpan.put("hpan" + i, WinningTransaction.builder()
+                    .idTrxAcquirer("payment" + i)
+                    .acquirerCode("acquirerCode")
+                    .acquirerId("acquirerId")
+                    .trxDate(now.minusDays(1))
+                    .operationType("00")
+                    .fiscalCode("fiscalCode" + i % 100)
+                    .hpan("hpan" + i)
+                    .correlationId(correlationId)
+                    .merchantId("merchantId")
+                    .terminalId("terminalId")
+                    .amount(amount)
+                    .score(amount.divide(BigDecimal.TEN))
+                    .build());
+            transfers.add(WinningTransaction.builder()
+                    .idTrxAcquirer("transfer" + i)
+                    .acquirerCode("acquirerCode")
+                    .acquirerId("acquirerId")
+                    .trxDate(now)
+                    .operationType("01")
+                    .fiscalCode("fiscalCode" + i % 100)
+                    .hpan("hpan" + i)
+                    .correlationId(correlationId)
+                    .merchantId("merchantId")
+                    .terminalId("terminalId")
+                    .amount(amount)
+                    .score(amount.divide(BigDecimal.TEN).negate())
+                    .insertDate(now)
+                    .build());
+        }
+
+        Map<String, Function<Object[], Object>> winningTransactionAnswers = new HashMap<>();
+        winningTransactionAnswers.put("findTransferToProcess", args -> transfers);
+        winningTransactionAnswers.put("findPaymentTrxWithCorrelationId", args -> {
+            roundTrip();
+            return paymentsByHpan.get(((WinningTransaction.FilterCriteria) args[0]).getHpan());
+        });
+        winningTransactionAnswers.put("findPaymentTrxWithoutCorrelationId", args -> {
+            roundTrip();
+            return paymentsByHpan.get(((WinningTransaction.FilterCriteria) args[0]).getHpan());
+        });
+        winningTransactionAnswers.put("findPaymentTrxMatches", args -> {
+            roundTrip();
+            return ((List<?>) args[1]).stream()
+                    .map(transfer -> PaymentTrxMatch.builder()
+                            .payment(paymentsByHpan.get(((WinningTransaction) transfer).getHpan()))
+                            .matchCount(1)
+                            .build())
+                    .collect(Collectors.toList());
+        });
+        winningTransactionAnswers.put("findPaymentTrxByHpan", args -> {
+            roundTrip();
+            return ((Collection<?>) args[1]).stream()
+                    .map(paymentsByHpan::get)
+                    .collect(Collectors.toList());
+        });
+
+        Map<String, Function<Object[], Object>> beanFactoryAnswers = new HashMap<>();
+        CommonAggregator commonAggregator = new CommonAggregator(SerialExecutionStrategy::new);
+        beanFactoryAnswers.put("getBean", args -> commonAggregator);
+
+        cashbackUpdateStrategy = new TotalTransferCashbackUpdate(stub(WinningTransactionDao.class, winningTransactionAnswers),
+                stub(CitizenRankingDao.class, Collections.emptyMap()),
+                stub(BeanFactory.class, beanFactoryAnswers),
+                pageSize,
+                Period.ofYears(1),
+                CashbackWriteMode.BATCH,
+                matchingMode,
+                0,
+                Duration.ZERO,
+                1,
+                1);
+        awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(AWARD_PERIOD_ID)
+                .build();
+        pageRequest = SimplePageRequest.of(0, pageSize);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        cashbackUpdateStrategy.onRunCompleted();
+    }
+
+
+    @Benchmark
+    public int process() {
+        return cashbackUpdateStrategy.process(awardPeriod, pageRequest);
+    }
+
+
+    private void roundTrip() {
+        if (roundTripMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+        }
+    }
+
+
+    /**
+     * Stub of the given interface: the answered methods are delegated to their answer, the write methods report
+     * a row affected by each statement, the others return null
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (Object.class.equals(method.getDeclaringClass())) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName();
+                }
+            }
+
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+
+            int statementsCount = args != null && args.length > 0 && args[args.length - 1] instanceof Collection
+                    ? ((Collection<?>) args[args.length - 1]).size()
+                    : 0;
+            if (int[].class.equals(method.getReturnType())) {
+                int[] affectedRows = new int[statementsCount];
+                Arrays.fill(affectedRows, 1);
+                return affectedRows;
+            } else if (int.class.equals(method.getReturnType())) {
+                return statementsCount;
+            } else if (boolean.class.equals(method.getReturnType())) {
+                return false;
+            }
+            return null;
+        });
+    }
+
+}
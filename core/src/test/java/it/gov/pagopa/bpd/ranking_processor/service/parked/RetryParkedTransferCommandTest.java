@@ -0,0 +1,88 @@
+package it.gov.pagopa.bpd.ranking_processor.service.parked;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_PARTIAL_TRANSFER;
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_TOTAL_TRANSFER;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RetryParkedTransferCommandTest {
+
+    private static final int CHUNK_SIZE = 10;
+    private static final Duration BACKOFF_INITIAL = Duration.ofHours(1);
+    private static final Duration BACKOFF_MAX = Duration.ofDays(7);
+
+    private final WinningTransactionDao winningTransactionDaoMock;
+    private final CitizenRankingDao citizenRankingDaoMock;
+    private final RetryParkedTransferCommand retryParkedTransferCommand;
+    private final AwardPeriod awardPeriod;
+
+
+    public RetryParkedTransferCommandTest() {
+        winningTransactionDaoMock = Mockito.mock(WinningTransactionDao.class);
+        citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
+        retryParkedTransferCommand = new RetryParkedTransferCommand(winningTransactionDaoMock,
+                citizenRankingDaoMock,
+                5,
+                BACKOFF_INITIAL,
+                BACKOFF_MAX,
+                CHUNK_SIZE);
+        awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+    }
+
+
+    @Test
+    public void execute_OkChunks() {
+        when(winningTransactionDaoMock.releaseParkedTransfer(eq(1L), eq(5), eq(BACKOFF_INITIAL), eq(BACKOFF_MAX), eq(CHUNK_SIZE)))
+                .thenReturn(CHUNK_SIZE, 0);
+
+        retryParkedTransferCommand.execute(awardPeriod, null);
+
+        verify(citizenRankingDaoMock, times(1)).getWorkerCount(eq(UPDATE_CASHBACK_TOTAL_TRANSFER));
+        verify(citizenRankingDaoMock, times(1)).getWorkerCount(eq(UPDATE_CASHBACK_PARTIAL_TRANSFER));
+        verify(winningTransactionDaoMock, times(2))
+                .releaseParkedTransfer(eq(1L), eq(5), eq(BACKOFF_INITIAL), eq(BACKOFF_MAX), eq(CHUNK_SIZE));
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void execute_OkSkipWithActiveTransferWorker() {
+        when(citizenRankingDaoMock.getWorkerCount(eq(UPDATE_CASHBACK_PARTIAL_TRANSFER)))
+                .thenReturn(1);
+
+        retryParkedTransferCommand.execute(awardPeriod, null);
+
+        verify(winningTransactionDaoMock, never()).releaseParkedTransfer(any(), anyInt(), any(), any(), anyInt());
+    }
+
+
+    @Test
+    public void execute_OkStopTime() {
+        retryParkedTransferCommand.execute(awardPeriod, LocalTime.MIN);
+
+        verify(winningTransactionDaoMock, never()).releaseParkedTransfer(any(), anyInt(), any(), any(), anyInt());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_KoBackoff() {
+        new RetryParkedTransferCommand(winningTransactionDaoMock,
+                citizenRankingDaoMock,
+                5,
+                BACKOFF_MAX,
+                BACKOFF_INITIAL,
+                CHUNK_SIZE);
+    }
+
+}
@@ -0,0 +1,90 @@
+package it.gov.pagopa.bpd.ranking_processor.service.purge;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.Period;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_PARTIAL_TRANSFER;
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao.RankingProcess.UPDATE_CASHBACK_TOTAL_TRANSFER;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PurgeTransferCommandTest {
+
+    private static final int CHUNK_SIZE = 10;
+
+    private final WinningTransactionDao winningTransactionDaoMock;
+    private final CitizenRankingDao citizenRankingDaoMock;
+    private final PurgeTransferCommand purgeTransferCommand;
+    private final AwardPeriod awardPeriod;
+
+
+    public PurgeTransferCommandTest() {
+        winningTransactionDaoMock = Mockito.mock(WinningTransactionDao.class);
+        citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
+        purgeTransferCommand = new PurgeTransferCommand(winningTransactionDaoMock,
+                citizenRankingDaoMock,
+                Period.ofMonths(1),
+                Period.ofMonths(2),
+                CHUNK_SIZE,
+                Duration.ZERO);
+        awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .build();
+    }
+
+
+    @Test
+    public void execute_OkChunks() {
+        when(winningTransactionDaoMock.deleteExpiredTransfer(eq(1L), any(), any(), eq(CHUNK_SIZE)))
+                .thenReturn(CHUNK_SIZE, CHUNK_SIZE, 3);
+
+        purgeTransferCommand.execute(awardPeriod, null);
+
+        verify(citizenRankingDaoMock, times(1)).getWorkerCount(eq(UPDATE_CASHBACK_TOTAL_TRANSFER));
+        verify(citizenRankingDaoMock, times(1)).getWorkerCount(eq(UPDATE_CASHBACK_PARTIAL_TRANSFER));
+        verify(winningTransactionDaoMock, times(3)).deleteExpiredTransfer(eq(1L),
+                argThat(totalTransferInsertDate -> totalTransferInsertDate != null),
+                argThat(partialTransferInsertDate -> partialTransferInsertDate != null),
+                eq(CHUNK_SIZE));
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void execute_OkSkipWithActiveTransferWorker() {
+        when(citizenRankingDaoMock.getWorkerCount(eq(UPDATE_CASHBACK_TOTAL_TRANSFER)))
+                .thenReturn(1);
+
+        purgeTransferCommand.execute(awardPeriod, null);
+
+        verify(citizenRankingDaoMock, times(1)).getWorkerCount(eq(UPDATE_CASHBACK_TOTAL_TRANSFER));
+        verifyNoMoreInteractions(winningTransactionDaoMock, citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void execute_OkStopTime() {
+        purgeTransferCommand.execute(awardPeriod, LocalTime.MIN);
+
+        verify(winningTransactionDaoMock, never()).deleteExpiredTransfer(any(), any(), any(), anyInt());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void init_KoChunkSize() {
+        new PurgeTransferCommand(winningTransactionDaoMock,
+                citizenRankingDaoMock,
+                Period.ofMonths(1),
+                Period.ofMonths(1),
+                0,
+                Duration.ZERO);
+    }
+
+}
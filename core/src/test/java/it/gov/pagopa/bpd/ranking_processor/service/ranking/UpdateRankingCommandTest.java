@@ -24,6 +24,7 @@ public class UpdateRankingCommandTest {
     private final UpdateRankingCommand updateRankingCommand;
     private final CitizenRankingDao citizenRankingDaoMock;
     private final RankingUpdateStrategyFactory strategyFactoryMock;
+    private final RankingUpdateStrategy strategyMock;
 
     public UpdateRankingCommandTest() {
         citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
@@ -35,8 +36,9 @@ public class UpdateRankingCommandTest {
                 .thenAnswer(invocationOnMock -> getWorkerCountResult ? 0 : 1);
 
         strategyFactoryMock = Mockito.mock(RankingUpdateStrategyFactory.class);
+        strategyMock = Mockito.mock(RankingUpdateStrategy.class);
         when(strategyFactoryMock.create())
-                .thenReturn(Mockito.mock(RankingUpdateStrategy.class));
+                .thenReturn(strategyMock);
 
         updateRankingCommand = new UpdateRankingCommand(strategyFactoryMock, citizenRankingDaoMock, 2);
     }
@@ -56,9 +58,23 @@ public class UpdateRankingCommandTest {
         BDDMockito.verify(citizenRankingDaoMock, times(1)).registerWorker(eq(UPDATE_RANKING), eq(true));
         BDDMockito.verify(citizenRankingDaoMock, times(1)).unregisterWorker(eq(UPDATE_RANKING));
         BDDMockito.verify(strategyFactoryMock, only()).create();
+        BDDMockito.verify(strategyMock, times(1)).onRunCompleted();
         verifyNoMoreInteractions(citizenRankingDaoMock, strategyFactoryMock);
     }
 
+
+    @Test
+    public void execute_OkRunCompletedAfterFailure() {
+        when(strategyMock.process(any(), any()))
+                .thenThrow(new RuntimeException());
+
+        updateRankingCommand.execute(Mockito.mock(AwardPeriod.class), null);
+
+        BDDMockito.verify(strategyMock, times(1)).process(any(), any());
+        BDDMockito.verify(strategyMock, times(1)).updateRankingExt(any());
+        BDDMockito.verify(strategyMock, times(1)).onRunCompleted();
+    }
+
     @Test
     public void execute_OkUpdateCashbackIncomplete() {
         getWorkerCountResult = false;
@@ -0,0 +1,171 @@
+package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class HistogramRankingUpdateTest {
+
+    private static final int LIMIT = 3;
+
+    private final CitizenRankingDao citizenRankingDaoMock;
+    private final PlatformTransactionManager transactionManagerMock;
+    private final HistogramRankingUpdate histogramRankingUpdate;
+    private final AwardPeriod awardPeriod;
+
+
+    public HistogramRankingUpdateTest() {
+        citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
+        transactionManagerMock = Mockito.mock(PlatformTransactionManager.class);
+        histogramRankingUpdate = new HistogramRankingUpdate(citizenRankingDaoMock, transactionManagerMock, false, LIMIT, 1, 5);
+        awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .minPosition(4L)
+                .maxPeriodCashback(150L)
+                .build();
+
+        Map<Long, Long> histogram = new LinkedHashMap<>();
+        histogram.put(10L, 1L);
+        histogram.put(7L, 2L);
+        histogram.put(5L, 4L);
+        when(citizenRankingDaoMock.findTransactionNumberHistogram(any()))
+                .thenReturn(histogram);
+        when(citizenRankingDaoMock.updateRankingBucket(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(3, Integer.class));
+        when(citizenRankingDaoMock.updateRankingExt(any()))
+                .thenReturn(1);
+    }
+
+
+    @Test
+    public void process_OK() {
+        int firstPage = histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        int secondPage = histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        int thirdPage = histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        histogramRankingUpdate.updateRankingExt(awardPeriod);
+
+        Assert.assertEquals(3, firstPage);
+        Assert.assertEquals(3, secondPage);
+        Assert.assertEquals(1, thirdPage);
+        InOrder inOrder = inOrder(citizenRankingDaoMock);
+        inOrder.verify(citizenRankingDaoMock).findTransactionNumberHistogram(any());
+        inOrder.verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(10L), eq(0L), eq(1), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        inOrder.verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(7L), eq(1L), eq(2), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        inOrder.verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(5L), eq(3L), eq(3), eq(false), eq(RankingProcessorService.PROCESS_NAME));
+        inOrder.verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(5L), eq(6L), eq(1), eq(false), eq(RankingProcessorService.PROCESS_NAME));
+
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        inOrder.verify(citizenRankingDaoMock).updateRankingExt(rankingExtCaptor.capture());
+        CitizenRankingExt rankingExt = rankingExtCaptor.getValue();
+        Assert.assertEquals(Long.valueOf(7L), rankingExt.getTotalParticipants());
+        Assert.assertEquals(Long.valueOf(10L), rankingExt.getMaxTransactionNumber());
+        Assert.assertEquals(Long.valueOf(5L), rankingExt.getMinTransactionNumber());
+        verify(citizenRankingDaoMock, times(1)).findTransactionNumberHistogram(any());
+        verifyNoMoreInteractions(citizenRankingDaoMock);
+        // a single worker ranks each page in one transaction
+        verify(transactionManagerMock, times(3)).commit(any());
+    }
+
+
+    @Test
+    public void process_OK_shrunkBucket() {
+        when(citizenRankingDaoMock.updateRankingBucket(any(), eq(7L), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenReturn(1);
+
+        int firstPage = histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+
+        Assert.assertEquals(LIMIT, firstPage);
+        verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(7L), eq(1L), eq(2), anyBoolean(), anyString());
+        verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(5L), eq(3L), eq(1), anyBoolean(), anyString());
+    }
+
+
+    @Test
+    public void process_OK_concurrentBuckets() {
+        HistogramRankingUpdate concurrentRankingUpdate = new HistogramRankingUpdate(citizenRankingDaoMock, transactionManagerMock, false, LIMIT, 3, 5);
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        when(citizenRankingDaoMock.updateRankingBucket(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenAnswer(invocationOnMock -> {
+                    threadNames.add(Thread.currentThread().getName());
+                    return invocationOnMock.getArgument(3, Integer.class);
+                });
+
+        int firstPage = concurrentRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, 5));
+        int secondPage = concurrentRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, 5));
+        concurrentRankingUpdate.updateRankingExt(awardPeriod);
+        concurrentRankingUpdate.onRunCompleted();
+
+        Assert.assertEquals(5, firstPage);
+        Assert.assertEquals(2, secondPage);
+        Assert.assertFalse(threadNames.contains(Thread.currentThread().getName()));
+        // each bucket keeps the ranking range derived from the histogram, whichever worker claims it
+        verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(10L), eq(0L), eq(1), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(7L), eq(1L), eq(2), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(5L), eq(3L), eq(2), eq(false), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock).updateRankingBucket(any(), eq(5L), eq(5L), eq(2), eq(false), eq(RankingProcessorService.PROCESS_NAME));
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        verify(citizenRankingDaoMock).updateRankingExt(rankingExtCaptor.capture());
+        Assert.assertEquals(Long.valueOf(7L), rankingExtCaptor.getValue().getTotalParticipants());
+        // the concurrent chunks are committed each on its own
+        verify(transactionManagerMock, times(4)).commit(any());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_KoThreadPoolSize() {
+        new HistogramRankingUpdate(citizenRankingDaoMock, transactionManagerMock, false, LIMIT, 6, 5);
+    }
+
+
+    @Test
+    public void updateRankingExt_OK_skip() {
+        when(citizenRankingDaoMock.findTransactionNumberHistogram(any()))
+                .thenReturn(Collections.emptyMap());
+
+        int rankedCitizens = histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        histogramRankingUpdate.updateRankingExt(awardPeriod);
+
+        Assert.assertEquals(0, rankedCitizens);
+        verify(citizenRankingDaoMock, never()).updateRankingBucket(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString());
+        verify(citizenRankingDaoMock, never()).updateRankingExt(any());
+    }
+
+
+    @Test
+    public void updateRankingExt_OK_afterFailure() {
+        when(citizenRankingDaoMock.updateRankingBucket(any(), eq(5L), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenThrow(new RuntimeException());
+
+        histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        try {
+            histogramRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            histogramRankingUpdate.updateRankingExt(awardPeriod);
+        }
+
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        verify(citizenRankingDaoMock).updateRankingExt(rankingExtCaptor.capture());
+        Assert.assertNull(rankingExtCaptor.getValue().getTotalParticipants());
+        Assert.assertNull(rankingExtCaptor.getValue().getMinTransactionNumber());
+        Assert.assertEquals(Long.valueOf(10L), rankingExtCaptor.getValue().getMaxTransactionNumber());
+    }
+
+}
@@ -0,0 +1,161 @@
+package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.RankingBucket;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class IncrementalRankingUpdateTest {
+
+    private static final int LIMIT = 4;
+
+    private final CitizenRankingDao citizenRankingDaoMock;
+    private final IncrementalRankingUpdate incrementalRankingUpdate;
+    private final AwardPeriod awardPeriod;
+    private final OffsetDateTime lastRankingDate;
+
+
+    public IncrementalRankingUpdateTest() {
+        citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
+        incrementalRankingUpdate = new IncrementalRankingUpdate(citizenRankingDaoMock, false, LIMIT);
+        awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .minPosition(3L)
+                .maxPeriodCashback(150L)
+                .build();
+        lastRankingDate = OffsetDateTime.now().minusDays(1);
+
+        when(citizenRankingDaoMock.findLastRankingDate(1L))
+                .thenReturn(lastRankingDate);
+        when(citizenRankingDaoMock.findRankingBuckets(1L, lastRankingDate))
+                .thenReturn(Arrays.asList(
+                        // a new citizen reached the top
+                        bucketOf(10L, 1L, null, null, 1L),
+                        // unchanged, shifted by the new citizen
+                        bucketOf(8L, 2L, 1L, 2L, 0L),
+                        // a citizen moved here from the bucket below
+                        bucketOf(7L, 2L, 3L, 5L, 1L),
+                        // unchanged, already at the right place
+                        bucketOf(5L, 2L, 6L, 7L, 0L)));
+        // every chunk finds all its citizens
+        when(citizenRankingDaoMock.shiftRankingBucket(any(), anyLong(), anyLong(), anyInt(), anyString()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(3));
+        when(citizenRankingDaoMock.rerankBucket(any(), anyLong(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(4));
+        when(citizenRankingDaoMock.updateRankingExt(any()))
+                .thenReturn(1);
+    }
+
+
+    private static RankingBucket bucketOf(long transactionNumber, long citizenCount, Long minRanking, Long maxRanking, long changedCount) {
+        return RankingBucket.builder()
+                .transactionNumber(transactionNumber)
+                .citizenCount(citizenCount)
+                .distinctRankingCount(minRanking == null ? 0 : maxRanking - minRanking + 1)
+                .minRanking(minRanking)
+                .maxRanking(maxRanking)
+                .changedCount(changedCount)
+                .build();
+    }
+
+
+    @Test
+    public void process_OK() {
+        int firstPage = incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        int secondPage = incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        incrementalRankingUpdate.updateRankingExt(awardPeriod);
+
+        Assert.assertEquals(LIMIT, firstPage);
+        Assert.assertEquals(3, secondPage);
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(10L), eq(0L), eq(0L), eq(4), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock).shiftRankingBucket(any(), eq(8L), eq(1L), eq(3), eq(RankingProcessorService.PROCESS_NAME));
+        // the bucket 7 is split across the pages
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(7L), eq(3L), eq(0L), eq(1), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(7L), eq(3L), eq(1L), eq(1), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock, never()).shiftRankingBucket(any(), eq(5L), anyLong(), anyInt(), anyString());
+        verify(citizenRankingDaoMock, never()).rerankBucket(any(), eq(5L), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString());
+
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        verify(citizenRankingDaoMock).updateRankingExt(rankingExtCaptor.capture());
+        Assert.assertEquals(Long.valueOf(7L), rankingExtCaptor.getValue().getTotalParticipants());
+        Assert.assertEquals(Long.valueOf(10L), rankingExtCaptor.getValue().getMaxTransactionNumber());
+        Assert.assertEquals(Long.valueOf(8L), rankingExtCaptor.getValue().getMinTransactionNumber());
+        verify(citizenRankingDaoMock, times(1)).findLastRankingDate(1L);
+        verify(citizenRankingDaoMock, times(1)).findRankingBuckets(1L, lastRankingDate);
+        // the next run compares with the start of this one
+        ArgumentCaptor<CitizenRanking.FilterCriteria> filterCriteriaCaptor = ArgumentCaptor.forClass(CitizenRanking.FilterCriteria.class);
+        verify(citizenRankingDaoMock).shiftRankingBucket(filterCriteriaCaptor.capture(), anyLong(), anyLong(), anyInt(), anyString());
+        Assert.assertEquals(filterCriteriaCaptor.getValue().getUpdateDate(), rankingExtCaptor.getValue().getUpdateDate());
+    }
+
+
+    @Test
+    public void process_OK_withoutLastRanking() {
+        when(citizenRankingDaoMock.findLastRankingDate(1L))
+                .thenReturn(null);
+        when(citizenRankingDaoMock.findRankingBuckets(1L, null))
+                .thenReturn(Collections.singletonList(bucketOf(3L, 2L, null, null, 2L)));
+
+        int rankedCitizens = incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+
+        Assert.assertEquals(2, rankedCitizens);
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(3L), eq(0L), eq(0L), eq(LIMIT), eq(true), anyString());
+        verify(citizenRankingDaoMock, never()).shiftRankingBucket(any(), anyLong(), anyLong(), anyInt(), anyString());
+    }
+
+
+    @Test
+    public void process_OK_shrunkBucket() {
+        when(citizenRankingDaoMock.findLastRankingDate(1L))
+                .thenReturn(null);
+        when(citizenRankingDaoMock.findRankingBuckets(1L, null))
+                .thenReturn(Arrays.asList(
+                        bucketOf(4L, 3L, null, null, 3L),
+                        bucketOf(3L, 3L, null, null, 3L)));
+        // a citizen of the first bucket was disabled since the buckets were taken
+        when(citizenRankingDaoMock.rerankBucket(any(), eq(4L), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenReturn(2);
+
+        int firstPage = incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        int secondPage = incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+
+        Assert.assertEquals(LIMIT, firstPage);
+        Assert.assertEquals(1, secondPage);
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(4L), eq(0L), eq(0L), eq(3), eq(true), anyString());
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(3L), eq(3L), eq(0L), eq(2), eq(true), anyString());
+        verify(citizenRankingDaoMock).rerankBucket(any(), eq(3L), eq(3L), eq(2L), eq(1), eq(true), anyString());
+    }
+
+
+    @Test
+    public void updateRankingExt_OK_skipAfterFailure() {
+        when(citizenRankingDaoMock.rerankBucket(any(), eq(7L), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenThrow(new RuntimeException());
+
+        incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, 2));
+        try {
+            incrementalRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, 2));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            incrementalRankingUpdate.updateRankingExt(awardPeriod);
+        }
+
+        verify(citizenRankingDaoMock, never()).updateRankingExt(any());
+        verify(citizenRankingDaoMock, never()).insertRankingExt(any());
+    }
+
+}
@@ -11,12 +11,18 @@ public class RankingUpdateStrategyFactoryImplTest {
     private final BeanFactory beanFactoryMock;
     private final RankingUpdateStrategyFactoryImpl serialRankingUpdateFactory;
     private final RankingUpdateStrategyFactoryImpl parallelRankingUpdateFactory;
+    private final RankingUpdateStrategyFactoryImpl windowRankingUpdateFactory;
+    private final RankingUpdateStrategyFactoryImpl histogramRankingUpdateFactory;
+    private final RankingUpdateStrategyFactoryImpl incrementalRankingUpdateFactory;
 
 
     public RankingUpdateStrategyFactoryImplTest() {
         beanFactoryMock = Mockito.mock(BeanFactory.class);
-        serialRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, false);
-        parallelRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, true);
+        serialRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, false, false, false, false);
+        parallelRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, true, false, false, false);
+        windowRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, true, true, false, false);
+        histogramRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, true, true, true, false);
+        incrementalRankingUpdateFactory = new RankingUpdateStrategyFactoryImpl(beanFactoryMock, true, true, true, true);
 
         initMocks();
     }
@@ -26,9 +32,15 @@ public class RankingUpdateStrategyFactoryImplTest {
         BDDMockito.doAnswer(invocationOnMock -> {
             Class argument = invocationOnMock.getArgument(0, Class.class);
             if (ParallelRankingUpdate.class.getName().equals(argument.getName()))
-                return new ParallelRankingUpdate(null, true, Integer.MAX_VALUE);
+                return new ParallelRankingUpdate(null, true, Integer.MAX_VALUE, false);
             else if (SerialRankingUpdate.class.getName().equals(argument.getName()))
-                return new SerialRankingUpdate(null, true, Integer.MAX_VALUE);
+                return new SerialRankingUpdate(null, true, Integer.MAX_VALUE, false);
+            else if (WindowRankingUpdate.class.getName().equals(argument.getName()))
+                return new WindowRankingUpdate(null, true, 0);
+            else if (HistogramRankingUpdate.class.getName().equals(argument.getName()))
+                return new HistogramRankingUpdate(null, null, true, 0, 1, 5);
+            else if (IncrementalRankingUpdate.class.getName().equals(argument.getName()))
+                return new IncrementalRankingUpdate(null, true, 0);
             else
                 throw new IllegalArgumentException();
         })
@@ -51,4 +63,25 @@ public class RankingUpdateStrategyFactoryImplTest {
         Assert.assertTrue(ParallelRankingUpdate.class.isAssignableFrom(parallelRankingUpdateStrategy.getClass()));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void create_OK_window() {
+        RankingUpdateStrategy windowRankingUpdateStrategy = windowRankingUpdateFactory.create();
+        Assert.assertNotNull(windowRankingUpdateStrategy);
+        Assert.assertTrue(WindowRankingUpdate.class.isAssignableFrom(windowRankingUpdateStrategy.getClass()));
+    }
+
+    @Test
+    public void create_OK_histogram() {
+        RankingUpdateStrategy histogramRankingUpdateStrategy = histogramRankingUpdateFactory.create();
+        Assert.assertNotNull(histogramRankingUpdateStrategy);
+        Assert.assertTrue(HistogramRankingUpdate.class.isAssignableFrom(histogramRankingUpdateStrategy.getClass()));
+    }
+
+    @Test
+    public void create_OK_incremental() {
+        RankingUpdateStrategy incrementalRankingUpdateStrategy = incrementalRankingUpdateFactory.create();
+        Assert.assertNotNull(incrementalRankingUpdateStrategy);
+        Assert.assertTrue(IncrementalRankingUpdate.class.isAssignableFrom(incrementalRankingUpdateStrategy.getClass()));
+    }
+
+}
@@ -23,7 +23,10 @@ import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -41,6 +44,7 @@ public abstract class RankingUpdateStrategyTemplateTest {
 
     private Error error;
     private MissRecord missRecords;
+    private String missingTcTimestampFiscalCode;
 
 
     public RankingUpdateStrategyTemplateTest() {
@@ -65,15 +69,30 @@ public abstract class RankingUpdateStrategyTemplateTest {
         when(citizenRankingDaoMock.findAll(any(), any(Pageable.class)))
                 .thenAnswer(invocationOnMock -> {
                     Pageable pageable = invocationOnMock.getArgument(1, Pageable.class);
-                    List<CitizenRanking> rankings = new ArrayList<>(pageable.getPageSize());
-                    for (int i = 0; i < pageable.getPageSize(); i++) {
-                        rankings.add(TestUtils.mockInstance(CitizenRanking.builder()
-                                .transactionNumber(1L).lastTrxTimestamp(i<2?start.minusDays(1+i):null).timestampTc(i<4?start.minusDays(i):null).insertUser(""+i)
-                                .build(), i, "setTransactionNumber", "setLastTrxTimestamp", "setTimestampTc", "setInsertUser"));
+                    return mockRankings(pageable.getPageSize(), start);
+                });
+        when(citizenRankingDaoMock.findAll(any(), nullable(CitizenRanking.class), anyInt()))
+                .thenAnswer(invocationOnMock -> {
+                    List<CitizenRanking> rankings = mockRankings(invocationOnMock.getArgument(2, Integer.class), start);
+                    // all the citizens but the first one already hold their ranking
+                    for (CitizenRanking ranking : rankings) {
+                        ranking.setRanking("0".equals(ranking.getInsertUser())
+                                ? null
+                                : 5L - Long.parseLong(ranking.getInsertUser()));
                     }
                     return rankings;
                 });
-        when(citizenRankingDaoMock.getUserTcTimestamp(Mockito.anyString())).thenReturn(OffsetDateTime.now().minusDays(5));
+        when(citizenRankingDaoMock.findUserTcTimestamps(anyCollection()))
+                .thenAnswer(invocationOnMock -> {
+                    Collection<String> fiscalCodes = invocationOnMock.getArgument(0, Collection.class);
+                    Map<String, OffsetDateTime> tcTimestamps = new HashMap<>();
+                    for (String fiscalCode : fiscalCodes) {
+                        if (!fiscalCode.equals(missingTcTimestampFiscalCode)) {
+                            tcTimestamps.put(fiscalCode, start.minusDays(5));
+                        }
+                    }
+                    return tcTimestamps;
+                });
 
 
         when(citizenRankingDaoMock.updateRanking(anyCollection()))
@@ -93,10 +112,22 @@ public abstract class RankingUpdateStrategyTemplateTest {
     }
 
 
+    private static List<CitizenRanking> mockRankings(int size, OffsetDateTime start) {
+        List<CitizenRanking> rankings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            rankings.add(TestUtils.mockInstance(CitizenRanking.builder()
+                    .transactionNumber(1L).lastTrxTimestamp(i<2?start.minusDays(1+i):null).timestampTc(i<4?start.minusDays(i):null).insertUser(""+i)
+                    .build(), i, "setTransactionNumber", "setLastTrxTimestamp", "setTimestampTc", "setInsertUser"));
+        }
+        return rankings;
+    }
+
+
     @Before
     public void init() {
         error = null;
         missRecords = null;
+        missingTcTimestampFiscalCode = null;
     }
 
 
@@ -124,9 +155,12 @@ public abstract class RankingUpdateStrategyTemplateTest {
         for (CitizenRanking citizen : citizenRankingCaptor.getValue()) {
             Assert.assertEquals(5L-Long.parseLong(citizen.getInsertUser()),citizen.getRanking().longValue());
         }
+        List<CitizenRanking> sortedRankings = new ArrayList<>(citizenRankingCaptor.getValue());
+        sortedRankings.sort(CitizenRankingDao.WRITE_ORDER);
+        Assert.assertEquals(sortedRankings, citizenRankingCaptor.getValue());
 
         verify(citizenRankingDaoMock, times(1))
-                .getUserTcTimestamp(anyString());
+                .findUserTcTimestamps(Collections.singleton("setFiscalCode4"));
         verifyNoMoreInteractions(citizenRankingDaoMock);
     }
 
@@ -134,7 +168,7 @@ public abstract class RankingUpdateStrategyTemplateTest {
     public void process_OK_noTimestampTc() {
         SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
         AwardPeriod awardPeriod = AwardPeriod.builder().awardPeriodId(1L).minPosition(2L).build();
-        when(citizenRankingDaoMock.getUserTcTimestamp(Mockito.eq("setFiscalCode4"))).thenReturn(null);
+        missingTcTimestampFiscalCode = "setFiscalCode4";
 
         int processedTrxCount = getRankingUpdateService().process(awardPeriod, pageRequest);
 
@@ -174,7 +208,7 @@ public abstract class RankingUpdateStrategyTemplateTest {
         }
 
         verify(citizenRankingDaoMock, times(1))
-                .getUserTcTimestamp(anyString());
+                .findUserTcTimestamps(Collections.singleton("setFiscalCode4"));
         verifyNoMoreInteractions(citizenRankingDaoMock);
     }
 
@@ -207,7 +241,7 @@ public abstract class RankingUpdateStrategyTemplateTest {
             verify(citizenRankingDaoMock, times(1))
                     .updateRanking(anyList());
             verify(citizenRankingDaoMock, times(1))
-                    .getUserTcTimestamp(anyString());
+                    .findUserTcTimestamps(Collections.singleton("setFiscalCode4"));
             verifyNoMoreInteractions(citizenRankingDaoMock);
 
             throw e;
@@ -239,15 +273,44 @@ public abstract class RankingUpdateStrategyTemplateTest {
             verify(citizenRankingDaoMock, times(1))
                     .updateRanking(anyList());
             verify(citizenRankingDaoMock, times(1))
-                    .getUserTcTimestamp(anyString());
+                    .findUserTcTimestamps(Collections.singleton("setFiscalCode4"));
             verifyNoMoreInteractions(citizenRankingDaoMock);
 
             throw e;
         }
     }
 
+    @Test
+    public void process_OK_skipUnchanged() {
+        SimplePageRequest pageRequest = SimplePageRequest.of(0, LIMIT);
+        AwardPeriod awardPeriod = AwardPeriod.builder().awardPeriodId(1L).minPosition(2L).build();
+        RankingUpdateStrategy rankingUpdateStrategy = getSkipUnchangedRankingUpdateService();
+
+        int firstPage = rankingUpdateStrategy.process(awardPeriod, pageRequest);
+        int secondPage = rankingUpdateStrategy.process(awardPeriod, pageRequest);
+
+        Assert.assertSame(LIMIT, firstPage);
+        Assert.assertSame(LIMIT, secondPage);
+        ArgumentCaptor<CitizenRanking> lastExtractedCaptor = ArgumentCaptor.forClass(CitizenRanking.class);
+        verify(citizenRankingDaoMock, times(2))
+                .findAll(any(), lastExtractedCaptor.capture(), eq(LIMIT));
+        Assert.assertNull(lastExtractedCaptor.getAllValues().get(0));
+        Assert.assertEquals("4", lastExtractedCaptor.getAllValues().get(1).getInsertUser());
+        verify(citizenRankingDaoMock, never())
+                .findAll(any(), any(Pageable.class));
+
+        verify(citizenRankingDaoMock, atLeastOnce())
+                .updateRanking(citizenRankingCaptor.capture());
+        Assert.assertEquals(1, citizenRankingCaptor.getAllValues().get(0).size());
+        CitizenRanking changedRanking = citizenRankingCaptor.getAllValues().get(0).iterator().next();
+        Assert.assertEquals("0", changedRanking.getInsertUser());
+        Assert.assertEquals(5L, changedRanking.getRanking().longValue());
+    }
+
     public abstract RankingUpdateStrategy getRankingUpdateService();
 
+    public abstract RankingUpdateStrategy getSkipUnchangedRankingUpdateService();
+
     private enum Error {
         UPDATE_RANKING
     }
@@ -3,9 +3,11 @@ package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
 public class SerialRankingUpdateTest extends RankingUpdateStrategyTemplateTest {
 
     private final RankingUpdateStrategy rankingUpdateStrategy;
+    private final RankingUpdateStrategy skipUnchangedRankingUpdateStrategy;
 
     public SerialRankingUpdateTest() {
-        this.rankingUpdateStrategy = new SerialRankingUpdate(citizenRankingDaoMock, true, Integer.MAX_VALUE);
+        this.rankingUpdateStrategy = new SerialRankingUpdate(citizenRankingDaoMock, true, Integer.MAX_VALUE, false);
+        this.skipUnchangedRankingUpdateStrategy = new SerialRankingUpdate(citizenRankingDaoMock, true, Integer.MAX_VALUE, true);
     }
 
     @Override
@@ -13,4 +15,9 @@ public class SerialRankingUpdateTest extends RankingUpdateStrategyTemplateTest {
         return rankingUpdateStrategy;
     }
 
+    @Override
+    public RankingUpdateStrategy getSkipUnchangedRankingUpdateService() {
+        return skipUnchangedRankingUpdateStrategy;
+    }
+
 }
\ No newline at end of file
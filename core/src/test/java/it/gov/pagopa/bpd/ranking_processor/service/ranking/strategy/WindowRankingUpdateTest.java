@@ -0,0 +1,133 @@
+package it.gov.pagopa.bpd.ranking_processor.service.ranking.strategy;
+
+import it.gov.pagopa.bpd.ranking_processor.connector.award_period.model.AwardPeriod;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.CitizenRankingDao;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.model.SimplePageRequest;
+import it.gov.pagopa.bpd.ranking_processor.service.RankingProcessorService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class WindowRankingUpdateTest {
+
+    private static final int LIMIT = 5;
+
+    private final CitizenRankingDao citizenRankingDaoMock;
+    private final WindowRankingUpdate windowRankingUpdate;
+    private final AwardPeriod awardPeriod;
+
+
+    public WindowRankingUpdateTest() {
+        citizenRankingDaoMock = Mockito.mock(CitizenRankingDao.class);
+        windowRankingUpdate = new WindowRankingUpdate(citizenRankingDaoMock, false, LIMIT);
+        awardPeriod = AwardPeriod.builder()
+                .awardPeriodId(1L)
+                .minPosition(7L)
+                .maxPeriodCashback(150L)
+                .build();
+    }
+
+
+    private static CitizenRankingExt chunkOf(long totalParticipants, Long maxTransactionNumber, Long minTransactionNumber) {
+        return CitizenRankingExt.builder()
+                .totalParticipants(totalParticipants)
+                .maxTransactionNumber(maxTransactionNumber)
+                .minTransactionNumber(minTransactionNumber)
+                .build();
+    }
+
+
+    @Test
+    public void process_OK() {
+        when(citizenRankingDaoMock.updateRankingWindow(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenReturn(chunkOf(LIMIT, 20L, 10L), chunkOf(3, 9L, 8L));
+        when(citizenRankingDaoMock.updateRankingExt(any()))
+                .thenReturn(1);
+
+        int firstChunk = windowRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        int secondChunk = windowRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        windowRankingUpdate.updateRankingExt(awardPeriod);
+
+        Assert.assertEquals(LIMIT, firstChunk);
+        Assert.assertEquals(3, secondChunk);
+        ArgumentCaptor<CitizenRanking.FilterCriteria> filterCriteriaCaptor = ArgumentCaptor.forClass(CitizenRanking.FilterCriteria.class);
+        verify(citizenRankingDaoMock).updateRankingWindow(filterCriteriaCaptor.capture(), eq(0L), eq(7L), eq(LIMIT), eq(true), eq(RankingProcessorService.PROCESS_NAME));
+        verify(citizenRankingDaoMock).updateRankingWindow(filterCriteriaCaptor.capture(), eq((long) LIMIT), eq(7L), eq(LIMIT), eq(false), eq(RankingProcessorService.PROCESS_NAME));
+        Assert.assertEquals(awardPeriod.getAwardPeriodId(), filterCriteriaCaptor.getValue().getAwardPeriodId());
+        Assert.assertEquals(filterCriteriaCaptor.getAllValues().get(0).getUpdateDate(), filterCriteriaCaptor.getValue().getUpdateDate());
+
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        verify(citizenRankingDaoMock).updateRankingExt(rankingExtCaptor.capture());
+        CitizenRankingExt rankingExt = rankingExtCaptor.getValue();
+        Assert.assertEquals(Long.valueOf(8L), rankingExt.getTotalParticipants());
+        Assert.assertEquals(Long.valueOf(20L), rankingExt.getMaxTransactionNumber());
+        Assert.assertEquals(Long.valueOf(8L), rankingExt.getMinTransactionNumber());
+        Assert.assertEquals(awardPeriod.getMinPosition(), rankingExt.getMinPosition());
+        Assert.assertEquals(awardPeriod.getMaxPeriodCashback(), rankingExt.getMaxPeriodCashback());
+        verifyNoMoreInteractions(citizenRankingDaoMock);
+    }
+
+
+    @Test
+    public void updateRankingExt_OK_insert() {
+        when(citizenRankingDaoMock.updateRankingWindow(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenReturn(chunkOf(2, 20L, 10L));
+        when(citizenRankingDaoMock.updateRankingExt(any()))
+                .thenReturn(0);
+        when(citizenRankingDaoMock.insertRankingExt(any()))
+                .thenReturn(1);
+
+        windowRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        windowRankingUpdate.updateRankingExt(awardPeriod);
+
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        verify(citizenRankingDaoMock).insertRankingExt(rankingExtCaptor.capture());
+        Assert.assertEquals(RankingProcessorService.PROCESS_NAME, rankingExtCaptor.getValue().getInsertUser());
+        Assert.assertNull(rankingExtCaptor.getValue().getUpdateDate());
+    }
+
+
+    @Test
+    public void updateRankingExt_OK_skip() {
+        when(citizenRankingDaoMock.updateRankingWindow(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenReturn(chunkOf(0, null, null));
+
+        int rankedCitizens = windowRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        windowRankingUpdate.updateRankingExt(awardPeriod);
+
+        Assert.assertEquals(0, rankedCitizens);
+        verify(citizenRankingDaoMock, never()).updateRankingExt(any());
+        verify(citizenRankingDaoMock, never()).insertRankingExt(any());
+    }
+
+
+    @Test
+    public void updateRankingExt_OK_afterFailure() {
+        when(citizenRankingDaoMock.updateRankingWindow(any(), anyLong(), anyLong(), anyInt(), anyBoolean(), anyString()))
+                .thenReturn(chunkOf(LIMIT, 20L, 10L))
+                .thenThrow(new RuntimeException());
+        when(citizenRankingDaoMock.updateRankingExt(any()))
+                .thenReturn(1);
+
+        windowRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+        try {
+            windowRankingUpdate.process(awardPeriod, SimplePageRequest.of(0, LIMIT));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            windowRankingUpdate.updateRankingExt(awardPeriod);
+        }
+
+        ArgumentCaptor<CitizenRankingExt> rankingExtCaptor = ArgumentCaptor.forClass(CitizenRankingExt.class);
+        verify(citizenRankingDaoMock).updateRankingExt(rankingExtCaptor.capture());
+        Assert.assertNull(rankingExtCaptor.getValue().getTotalParticipants());
+        Assert.assertNull(rankingExtCaptor.getValue().getMinTransactionNumber());
+        Assert.assertEquals(Long.valueOf(20L), rankingExtCaptor.getValue().getMaxTransactionNumber());
+    }
+
+}
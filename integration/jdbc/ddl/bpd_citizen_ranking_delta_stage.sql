@@ -0,0 +1,19 @@
+-- Supports cashback-update.write-mode=COPY: every page is copied into this table and then upserted into
+-- bpd_citizen_ranking by a single statement that deletes the rows it consumes.
+-- The table is shared by all the workers: backend_pid_n is filled by default with the pid of the copying session,
+-- so each worker merges only its own rows. Rows are deleted in the page transaction, a rolled back page leaves none.
+-- The table is unlogged, staged rows never outlive their transaction and do not need to survive a crash.
+create unlogged table if not exists bpd_citizen_ranking_delta_stage
+(
+    backend_pid_n        integer      not null default pg_backend_pid(),
+    fiscal_code_c        varchar(16)  not null,
+    award_period_id_n    bigint       not null,
+    transaction_n        bigint       not null,
+    cashback_n           numeric      not null,
+    update_date_t        timestamptz  not null,
+    update_user_s        varchar(40)  not null,
+    last_trx_timestamp_t timestamptz
+);
+
+create index if not exists bpd_citizen_ranking_delta_stage_pid_ix
+    on bpd_citizen_ranking_delta_stage (backend_pid_n);
@@ -0,0 +1,19 @@
+-- Supports winning-transaction.transfer-balance.enable: the processed amount of every transfer correlation key,
+-- read by the partial transfer matching instead of summing all the processed transfers of the key.
+-- A balance is created lazily by the first page processing a transfer of its key: seed_amount_i holds the amount of
+-- the transfers processed before, processed_amount_i the amount added by the pages since then. Pages upsert the
+-- balance on the unique key below, so no backfill is needed.
+-- bpd_transfer_balance is the default of winning-transaction.transfer-balance.table.name.
+create table if not exists bpd_transfer_balance
+(
+    award_period_id_n  bigint       not null,
+    hpan_s             varchar(64)  not null,
+    acquirer_c         varchar(20)  not null,
+    acquirer_id_s      varchar(20)  not null,
+    correlation_id_s   varchar(255) not null,
+    seed_amount_i      numeric      not null default 0,
+    processed_amount_i numeric      not null default 0,
+    insert_date_t      timestamptz  not null default now(),
+    update_date_t      timestamptz  not null default now(),
+    constraint bpd_transfer_balance_pk primary key (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s)
+);
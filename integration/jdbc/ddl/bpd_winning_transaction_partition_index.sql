@@ -0,0 +1,11 @@
+-- Supports cashback-update.payment.partition.count: the partitioned payment extraction filters on
+-- abs(hashtext(fiscal_code_s)::bigint) % <partition count> = <partition index>, with the partition count inlined
+-- in the statement. Without this index every partition worker scans the whole award period.
+-- The modulus must be equal to the configured partition count (8 below); build a new index before changing it.
+-- The index keys follow the keyset sort, so each worker reads its bucket in order.
+-- elab_ranking_b is the default of winning-transaction.extraction-query.elab-ranking.name.
+create index concurrently if not exists bpd_winning_transaction_partition_8_ix
+    on bpd_winning_transaction (award_period_id_n,
+                                (abs(hashtext(fiscal_code_s)::bigint) % 8),
+                                fiscal_code_s, id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s)
+    where enabled_b is true and elab_ranking_b is not true and operation_type_c != '01';
@@ -0,0 +1,12 @@
+-- Supports parked-transfer-retry.enable: the retry state of the parked transfers.
+-- Both columns are not null, so the release statement filters them with plain comparisons: a transfer never
+-- released has no attempts and is due since its insert.
+-- bpd_winning_transaction_transfer is the default of winning-transaction.extraction-query.transfer.table.name.
+alter table bpd_winning_transaction_transfer
+    add column if not exists parked_attempt_n integer not null default 0,
+    add column if not exists next_attempt_t timestamptz not null default now();
+
+-- The release statement reads the due parked transfers of an award period; the index covers only the parked ones.
+create index concurrently if not exists bpd_winning_transaction_transfer_parked_ix
+    on bpd_winning_transaction_transfer (award_period_id_n, next_attempt_t)
+    where parked_b is true;
@@ -2,12 +2,15 @@ package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
 
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.RankingBucket;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
 import java.time.OffsetDateTime;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Data Access Object to manage the operations to the database related to {@link CitizenRanking} model
@@ -21,14 +24,154 @@ public interface CitizenRankingDao {
      */
     Sort FIND_ALL_PAGEABLE_SORT = Sort.by(Sort.Order.desc("transaction_n"), Sort.Order.asc("fiscal_code_c"));
 
+    /**
+     * Canonical order of the write batches, so that concurrent workers lock the same rows in the same order
+     */
+    Comparator<CitizenRanking> WRITE_ORDER = Comparator.comparing(CitizenRanking::getFiscalCode)
+            .thenComparing(CitizenRanking::getAwardPeriodId);
+
     int[] updateCashback(List<CitizenRanking> citizenRankings);
 
     int[] insertCashback(List<CitizenRanking> citizenRankings);
 
+    /**
+     * Insert the cashback of the given rankings, or add it to the existing ones in a single statement.
+     * The existing rankings of not enabled citizens are left untouched, reporting 0 affected rows
+     *
+     * @param citizenRankings the cashback deltas to apply
+     * @return the affected rows of each ranking
+     */
+    int[] upsertCashback(List<CitizenRanking> citizenRankings);
+
+    /**
+     * Stream the cashback of the given rankings into the staging table through COPY,
+     * then upsert them into the rankings in key order with a single statement, consuming the staged rows.
+     * The existing rankings of not enabled citizens are left untouched.
+     * Must be invoked within a transaction, so that a failed merge leaves no staged rows behind
+     *
+     * @param citizenRankings the cashback deltas to apply, at most one for each citizen and award period
+     * @return the number of updated and inserted rankings
+     */
+    int copyCashback(List<CitizenRanking> citizenRankings);
+
     List<CitizenRanking> findAll(CitizenRanking.FilterCriteria filterCriteria, Pageable pageable);
 
+    /**
+     * Retrieve the next page of citizens sorted by {@link #FIND_ALL_PAGEABLE_SORT}, resuming after the last extracted one,
+     * so that the extracted citizens need no write to be excluded from the following pages
+     *
+     * @param filterCriteria the award period and the process start
+     * @param lastExtracted  the last citizen of the previous page, null for the first page
+     * @param limit          the page size
+     * @return the citizens of the page
+     */
+    List<CitizenRanking> findAll(CitizenRanking.FilterCriteria filterCriteria, CitizenRanking lastExtracted, int limit);
+
     int[] updateRanking(Collection<CitizenRanking> citizenRankings);
 
+    /**
+     * Assign the ranking to the next chunk of not yet ranked citizens of the award period in a single statement,
+     * numbering them with a window function over the tie-break order (transaction number desc, last transaction
+     * timestamp with nulls first, terms and conditions timestamp with nulls last, fiscal code)
+     *
+     * @param filterCriteria      the award period and the process start, set as update date of the ranked citizens
+     * @param lastAssignedRanking the last ranking assigned by the previous chunks
+     * @param minPosition         the minimum position of the award period
+     * @param limit               the chunk size
+     * @param tcTieBreakEnabled   whether the terms and conditions timestamp breaks the ties, skipped otherwise
+     * @param updateUser          the update user of the ranked citizens
+     * @return the statistics of the chunk: number of ranked citizens, max transaction number
+     * and min transaction number within the minimum position, null if the chunk does not reach it
+     */
+    CitizenRankingExt updateRankingWindow(CitizenRanking.FilterCriteria filterCriteria,
+                                          long lastAssignedRanking,
+                                          long minPosition,
+                                          int limit,
+                                          boolean tcTieBreakEnabled,
+                                          String updateUser);
+
+    /**
+     * Count the not yet ranked citizens of the award period by transaction number
+     *
+     * @param filterCriteria the award period and the process start
+     * @return the number of citizens of each transaction number, iterated by transaction number desc
+     */
+    Map<Long, Long> findTransactionNumberHistogram(CitizenRanking.FilterCriteria filterCriteria);
+
+    /**
+     * Assign the ranking to the next chunk of not yet ranked citizens having the given transaction number,
+     * numbering them with a window function over the tie-break order
+     * (last transaction timestamp with nulls first, terms and conditions timestamp with nulls last, fiscal code)
+     *
+     * @param filterCriteria      the award period and the process start, set as update date of the ranked citizens
+     * @param transactionNumber   the transaction number of the bucket
+     * @param lastAssignedRanking the last ranking assigned before the chunk
+     * @param limit               the chunk size
+     * @param tcTieBreakEnabled   whether the terms and conditions timestamp breaks the ties, skipped otherwise
+     * @param updateUser          the update user of the ranked citizens
+     * @return the number of ranked citizens
+     */
+    int updateRankingBucket(CitizenRanking.FilterCriteria filterCriteria,
+                            long transactionNumber,
+                            long lastAssignedRanking,
+                            int limit,
+                            boolean tcTieBreakEnabled,
+                            String updateUser);
+
+    /**
+     * @param awardPeriodId the award period
+     * @return the date of the last ranking update completed for the award period, null if missing
+     */
+    OffsetDateTime findLastRankingDate(Long awardPeriodId);
+
+    /**
+     * Compare by transaction number the enabled citizens of the award period with their current ranking
+     *
+     * @param awardPeriodId   the award period
+     * @param lastRankingDate the date of the last ranking update, citizens updated later are counted as changed.
+     *                        If null, every citizen is counted as changed
+     * @return the buckets of each transaction number, sorted by transaction number desc
+     */
+    List<RankingBucket> findRankingBuckets(Long awardPeriodId, OffsetDateTime lastRankingDate);
+
+    /**
+     * Shift by the same amount the ranking of a chunk of the enabled citizens having the given transaction number,
+     * taking the lowest rankings not shifted yet by the process
+     *
+     * @param filterCriteria    the award period and the process start, set as update date of the shifted citizens
+     * @param transactionNumber the transaction number of the bucket
+     * @param shift             the amount to add to the rankings
+     * @param limit             the maximum number of citizens to shift
+     * @param updateUser        the update user of the shifted citizens
+     * @return the number of shifted citizens
+     */
+    int shiftRankingBucket(CitizenRanking.FilterCriteria filterCriteria,
+                           long transactionNumber,
+                           long shift,
+                           int limit,
+                           String updateUser);
+
+    /**
+     * Rank again a chunk of the enabled citizens having the given transaction number, with the same order of
+     * {@link #updateRankingBucket}, writing only the citizens whose ranking actually changed
+     *
+     * @param filterCriteria      the award period and the process start, set as update date of the moved citizens
+     * @param transactionNumber   the transaction number of the bucket
+     * @param lastAssignedRanking the last ranking before the bucket
+     * @param offset              the number of citizens of the bucket preceding the chunk
+     * @param limit               the maximum number of citizens of the chunk
+     * @param tcTieBreakEnabled   whether the terms and conditions timestamp breaks the ties, to keep for every chunk of the bucket
+     * @param updateUser          the update user of the moved citizens
+     * @return the number of citizens of the chunk, whether their ranking changed or not
+     */
+    int rerankBucket(CitizenRanking.FilterCriteria filterCriteria,
+                     long transactionNumber,
+                     long lastAssignedRanking,
+                     long offset,
+                     int limit,
+                     boolean tcTieBreakEnabled,
+                     String updateUser);
+
     int updateRankingExt(CitizenRankingExt rankingExt);
 
     int insertRankingExt(CitizenRankingExt rankingExt);
@@ -39,10 +182,25 @@ public interface CitizenRankingDao {
 
     int getWorkerCount(RankingProcess process);
 
+    /**
+     * Identify the database the rankings are written to, i.e. its server address, port and name
+     *
+     * @return the database identity, equal for every datasource pointing at the same database
+     */
+    String findDatabaseIdentity();
+
     int updateMilestone(Integer offset, Integer limit, OffsetDateTime timestamp);
 
     OffsetDateTime getUserTcTimestamp(String fiscalCode);
 
+    /**
+     * Retrieve the terms and conditions timestamp of the given citizens with a single query
+     *
+     * @param fiscalCodes the fiscal codes of the citizens
+     * @return the timestamps by fiscal code, without the citizens missing it
+     */
+    Map<String, OffsetDateTime> findUserTcTimestamps(Collection<String> fiscalCodes);
+
     enum RankingProcess {
         UPDATE_CASHBACK,
         UPDATE_CASHBACK_PAYMENT,
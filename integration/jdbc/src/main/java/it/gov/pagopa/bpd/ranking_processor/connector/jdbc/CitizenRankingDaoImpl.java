@@ -2,15 +2,20 @@ package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
 
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.RankingBucket;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.RowMapperResultSetExtractor;
@@ -19,15 +24,24 @@ import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsertOperations;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
 import java.sql.JDBCType;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @Slf4j
@@ -35,16 +49,56 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
 
     private static final String UPDATE_REDIS_SQL = "UPDATE redis_cache_config SET update_ranking=true, update_ranking_from=CURRENT_TIMESTAMP";
     private static final String UPDATE_CASHBACK_SQL_TEMPLATE = "update %s bcr set cashback_n = cashback_n + :totalCashback, transaction_n = transaction_n + :transactionNumber, update_date_t = :updateDate, update_user_s = :updateUser, last_trx_timestamp_t = greatest(last_trx_timestamp_t, :lastTrxTimestamp) where fiscal_code_c = :fiscalCode and award_period_id_n = :awardPeriodId and exists (select 1 from bpd_citizen bc where bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true)";
+    private static final String UPSERT_CASHBACK_SQL_TEMPLATE = "insert into %s as bcr (fiscal_code_c, award_period_id_n, transaction_n, cashback_n, insert_date_t, insert_user_s, last_trx_timestamp_t) values (:fiscalCode, :awardPeriodId, :transactionNumber, :totalCashback, :updateDate, :updateUser, :lastTrxTimestamp) on conflict (fiscal_code_c, award_period_id_n) do update set cashback_n = bcr.cashback_n + excluded.cashback_n, transaction_n = bcr.transaction_n + excluded.transaction_n, update_date_t = excluded.insert_date_t, update_user_s = excluded.insert_user_s, last_trx_timestamp_t = greatest(bcr.last_trx_timestamp_t, excluded.last_trx_timestamp_t) where exists (select 1 from bpd_citizen bc where bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true)";
+    private static final String COPY_CASHBACK_STAGE_SQL_TEMPLATE = "copy %s (fiscal_code_c, award_period_id_n, transaction_n, cashback_n, update_date_t, update_user_s, last_trx_timestamp_t) from stdin with (format csv)";
+    private static final String MERGE_CASHBACK_STAGE_SQL_TEMPLATE = "with s as (delete from %1$s stage where stage.backend_pid_n = pg_backend_pid() returning stage.fiscal_code_c, stage.award_period_id_n, stage.transaction_n, stage.cashback_n, stage.update_date_t, stage.update_user_s, stage.last_trx_timestamp_t) "
+            + "insert into %2$s as bcr (fiscal_code_c, award_period_id_n, transaction_n, cashback_n, insert_date_t, insert_user_s, last_trx_timestamp_t) select s.fiscal_code_c, s.award_period_id_n, s.transaction_n, s.cashback_n, s.update_date_t, s.update_user_s, s.last_trx_timestamp_t from s order by s.fiscal_code_c, s.award_period_id_n "
+            + "on conflict (fiscal_code_c, award_period_id_n) do update set cashback_n = bcr.cashback_n + excluded.cashback_n, transaction_n = bcr.transaction_n + excluded.transaction_n, update_date_t = excluded.insert_date_t, update_user_s = excluded.insert_user_s, last_trx_timestamp_t = greatest(bcr.last_trx_timestamp_t, excluded.last_trx_timestamp_t) where exists (select 1 from bpd_citizen bc where bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true)";
     private static final String FINDALL_BY_AWARDPERIOD_AND_UPDATEDATE_SQL_TEMPLATE = "select bcr.fiscal_code_c, bcr.award_period_id_n, bcr.transaction_n, bcr.cashback_n, bcr.ranking_n, bcr.last_trx_timestamp_t from %s bcr where bcr.award_period_id_n = ? and coalesce(bcr.update_date_t,'1900-01-01 00:00:00.000'::timestamptz) < ? and exists (select 1 from bpd_citizen.bpd_citizen bc where bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true)";
+    private static final String FINDALL_KEYSET_CONDITION = " and (bcr.transaction_n < ? or (bcr.transaction_n = ? and bcr.fiscal_code_c > ?))";
     private static final String UPDATE_RANKING_SQL_TEMPLATE = "update %s bcr set ranking_n = :ranking, update_date_t = :updateDate, update_user_s = :updateUser where fiscal_code_c = :fiscalCode and award_period_id_n = :awardPeriodId";
+    // the terms and conditions timestamp breaks the ties only when enabled, as in the client-side tie-break comparator
+    private static final String TC_TIE_BREAK_PAGE_ORDER = "bc.timestamp_tc_t asc nulls last, ";
+    private static final String TC_TIE_BREAK_RANKED_ORDER = "timestamp_tc_t asc nulls last, ";
+    private static final String UPDATE_RANKING_WINDOW_SQL_TEMPLATE = "with page as (select bcr.fiscal_code_c, bcr.award_period_id_n, bcr.transaction_n, bcr.last_trx_timestamp_t, bc.timestamp_tc_t from %1$s bcr join bpd_citizen.bpd_citizen bc on bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true where bcr.award_period_id_n = ? and coalesce(bcr.update_date_t,'1900-01-01 00:00:00.000'::timestamptz) < ? order by bcr.transaction_n desc, bcr.last_trx_timestamp_t asc nulls first, %2$sbcr.fiscal_code_c limit ? for update of bcr), "
+            + "ranked as (select fiscal_code_c, award_period_id_n, transaction_n, ? + row_number() over (order by transaction_n desc, last_trx_timestamp_t asc nulls first, %3$sfiscal_code_c) as ranking_n from page), "
+            + "updated as (update %1$s bcr set ranking_n = ranked.ranking_n, update_date_t = ?, update_user_s = ? from ranked where bcr.fiscal_code_c = ranked.fiscal_code_c and bcr.award_period_id_n = ranked.award_period_id_n returning ranked.ranking_n, ranked.transaction_n) "
+            + "select count(*) as total_participants, max(transaction_n) as max_transaction_n, min(transaction_n) filter (where ranking_n <= ?) as min_transaction_n from updated";
+    private static final String FIND_TRANSACTION_NUMBER_HISTOGRAM_SQL_TEMPLATE = "select bcr.transaction_n, count(*) as citizen_n from %s bcr join bpd_citizen.bpd_citizen bc on bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true where bcr.award_period_id_n = ? and coalesce(bcr.update_date_t,'1900-01-01 00:00:00.000'::timestamptz) < ? group by bcr.transaction_n order by bcr.transaction_n desc";
+    private static final String UPDATE_RANKING_BUCKET_SQL_TEMPLATE = "with page as (select bcr.fiscal_code_c, bcr.award_period_id_n, bcr.last_trx_timestamp_t, bc.timestamp_tc_t from %1$s bcr join bpd_citizen.bpd_citizen bc on bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true where bcr.award_period_id_n = ? and bcr.transaction_n = ? and coalesce(bcr.update_date_t,'1900-01-01 00:00:00.000'::timestamptz) < ? order by bcr.last_trx_timestamp_t asc nulls first, %2$sbcr.fiscal_code_c limit ? for update of bcr), "
+            + "ranked as (select fiscal_code_c, award_period_id_n, ? + row_number() over (order by last_trx_timestamp_t asc nulls first, %3$sfiscal_code_c) as ranking_n from page) "
+            + "update %1$s bcr set ranking_n = ranked.ranking_n, update_date_t = ?, update_user_s = ? from ranked where bcr.fiscal_code_c = ranked.fiscal_code_c and bcr.award_period_id_n = ranked.award_period_id_n";
+    private static final String FIND_LAST_RANKING_DATE_SQL_TEMPLATE = "select coalesce(update_date_t, insert_date_t) as ranking_date_t from %s where award_period_id_n = ? and total_participants is not null";
+    private static final String FIND_RANKING_BUCKETS_SQL_TEMPLATE = "select bcr.transaction_n, count(*) as citizen_n, count(distinct bcr.ranking_n) as distinct_ranking_n, min(bcr.ranking_n) as min_ranking_n, max(bcr.ranking_n) as max_ranking_n, count(*) filter (where bcr.ranking_n is null or bcr.update_date_t is null or bcr.update_date_t > coalesce(?::timestamptz, '-infinity'::timestamptz)) as changed_n from %s bcr join bpd_citizen.bpd_citizen bc on bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true where bcr.award_period_id_n = ? group by bcr.transaction_n order by bcr.transaction_n desc";
+    private static final String SHIFT_RANKING_BUCKET_SQL_TEMPLATE = "with page as (select bcr.fiscal_code_c, bcr.award_period_id_n from %1$s bcr join bpd_citizen.bpd_citizen bc on bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true where bcr.award_period_id_n = ? and bcr.transaction_n = ? and bcr.update_date_t < ? order by bcr.ranking_n limit ? for update of bcr) "
+            + "update %1$s bcr set ranking_n = bcr.ranking_n + ?, update_date_t = ?, update_user_s = ? from page where bcr.fiscal_code_c = page.fiscal_code_c and bcr.award_period_id_n = page.award_period_id_n";
+    private static final String RERANK_BUCKET_SQL_TEMPLATE = "with page as (select bcr.fiscal_code_c, bcr.award_period_id_n, bcr.last_trx_timestamp_t, bc.timestamp_tc_t from %1$s bcr join bpd_citizen.bpd_citizen bc on bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true where bcr.award_period_id_n = ? and bcr.transaction_n = ? order by bcr.last_trx_timestamp_t asc nulls first, %2$sbcr.fiscal_code_c offset ? limit ? for update of bcr), "
+            + "ranked as (select fiscal_code_c, award_period_id_n, ? + row_number() over (order by last_trx_timestamp_t asc nulls first, %3$sfiscal_code_c) as ranking_n from page), "
+            + "moved as (update %1$s bcr set ranking_n = ranked.ranking_n, update_date_t = ?, update_user_s = ? from ranked where bcr.fiscal_code_c = ranked.fiscal_code_c and bcr.award_period_id_n = ranked.award_period_id_n and bcr.ranking_n is distinct from ranked.ranking_n returning bcr.fiscal_code_c) "
+            + "select (select count(*) from ranked) as citizen_n, (select count(*) from moved) as moved_n";
     private static final String UPDATE_RANKING_EXT_SQL_TEMPLATE = "update %s set ${TOTAL_PARTECIPANTS} ${MIN_TRANSACTION} max_transaction_n = :maxTransactionNumber, ranking_min_n = :minPosition, period_cashback_max_n = :maxPeriodCashback, update_date_t = :updateDate, update_user_s = :updateUser where award_period_id_n = :awardPeriodId";
     private static final String UPDATE_MILESTONE_SQL_TEMPLATE = "SELECT * from %s(?, ?, ?)";
     private static final String UPDATE_RANKING_PROCESSOR_LOCK_SQL = "update bpd_citizen.%s set worker_count = worker_count + :value, status = case when (worker_count + :value) = 0 then 'IDLE' else 'IN_PROGRESS' end, update_user = :updateUser, update_date = CURRENT_TIMESTAMP where process_id = :processId";
     private static final String GET_WORKER_COUNT_SQL = "select worker_count from bpd_ranking_processor_lock where process_id = ?";
     public static final String GET_USER_TC_TIMESTAMP_SQL = "select timestamp_tc_t from bpd_citizen.bpd_citizen bc where fiscal_code_s = ?";
+    private static final String FIND_USER_TC_TIMESTAMPS_SQL = "select fiscal_code_s, timestamp_tc_t from bpd_citizen.bpd_citizen bc where fiscal_code_s = any(?::varchar[]) and timestamp_tc_t is not null";
 
     private final String updateCashbackSql;
+    private final String upsertCashbackSql;
+    private final String cashbackStageTableName;
+    private final String copyCashbackStageSql;
+    private final String mergeCashbackStageSql;
     private final String updateRankingSql;
+    private final String updateRankingWindowSql;
+    private final String updateRankingWindowWithoutTcSql;
+    private final String findTransactionNumberHistogramSql;
+    private final String updateRankingBucketSql;
+    private final String updateRankingBucketWithoutTcSql;
+    private final String findLastRankingDateSql;
+    private final String findRankingBucketsSql;
+    private final String shiftRankingBucketSql;
+    private final String rerankBucketSql;
+    private final String rerankBucketWithoutTcSql;
     private final String updateRankingExtSql;
     private final String updateRankingProcessorLockSql;
     private final String findAllByAwardPeriodAndUpdateDateSql;
@@ -54,6 +108,7 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
     private final RowMapperResultSetExtractor<CitizenRanking> findAllResultSetExtractor = new RowMapperResultSetExtractor<>(new CitizenRankingMapper());
     private final SimpleJdbcInsertOperations insertRankingOps;
     private final SimpleJdbcInsertOperations insertRankingExtOps;
+    private final RowMapperResultSetExtractor<RankingBucket> rankingBucketResultSetExtractor = new RowMapperResultSetExtractor<>(new RankingBucketMapper());
     private final RowMapperResultSetExtractor<OffsetDateTime> userTcTimestampResultSetExtractor = new RowMapperResultSetExtractor<>(new CitizenRankingDaoImpl.UserTcTimestampMapper());
 
 
@@ -62,6 +117,7 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
                                  @Value("${citizen.dao.table.name.ranking}") String rankingTableName,
                                  @Value("${citizen.dao.table.name.rankingExt}") String rankingExtTableName,
                                  @Value("${citizen.dao.table.name.rankingLock}") String rankingLockTableName,
+                                 @Value("${citizen.dao.table.name.rankingDeltaStage}") String rankingDeltaStageTableName,
                                  @Value("${citizen.dao.function.name.milestone}") String milestoneFunctionName) {
         if (log.isTraceEnabled()) {
             log.trace("CitizenRankingDaoImpl.CitizenRankingDaoImpl");
@@ -93,10 +149,37 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
 
         updateCashbackSql = String.format(UPDATE_CASHBACK_SQL_TEMPLATE,
                 rankingTableName);
+        upsertCashbackSql = String.format(UPSERT_CASHBACK_SQL_TEMPLATE,
+                rankingTableName);
+        cashbackStageTableName = rankingDeltaStageTableName;
+        copyCashbackStageSql = String.format(COPY_CASHBACK_STAGE_SQL_TEMPLATE,
+                rankingDeltaStageTableName);
+        mergeCashbackStageSql = String.format(MERGE_CASHBACK_STAGE_SQL_TEMPLATE,
+                rankingDeltaStageTableName, rankingTableName);
         findAllByAwardPeriodAndUpdateDateSql = String.format(FINDALL_BY_AWARDPERIOD_AND_UPDATEDATE_SQL_TEMPLATE,
                 rankingTableName);
         updateRankingSql = String.format(UPDATE_RANKING_SQL_TEMPLATE,
                 rankingTableName);
+        updateRankingWindowSql = String.format(UPDATE_RANKING_WINDOW_SQL_TEMPLATE,
+                rankingTableName, TC_TIE_BREAK_PAGE_ORDER, TC_TIE_BREAK_RANKED_ORDER);
+        updateRankingWindowWithoutTcSql = String.format(UPDATE_RANKING_WINDOW_SQL_TEMPLATE,
+                rankingTableName, "", "");
+        findTransactionNumberHistogramSql = String.format(FIND_TRANSACTION_NUMBER_HISTOGRAM_SQL_TEMPLATE,
+                rankingTableName);
+        updateRankingBucketSql = String.format(UPDATE_RANKING_BUCKET_SQL_TEMPLATE,
+                rankingTableName, TC_TIE_BREAK_PAGE_ORDER, TC_TIE_BREAK_RANKED_ORDER);
+        updateRankingBucketWithoutTcSql = String.format(UPDATE_RANKING_BUCKET_SQL_TEMPLATE,
+                rankingTableName, "", "");
+        findLastRankingDateSql = String.format(FIND_LAST_RANKING_DATE_SQL_TEMPLATE,
+                rankingExtTableName);
+        findRankingBucketsSql = String.format(FIND_RANKING_BUCKETS_SQL_TEMPLATE,
+                rankingTableName);
+        shiftRankingBucketSql = String.format(SHIFT_RANKING_BUCKET_SQL_TEMPLATE,
+                rankingTableName);
+        rerankBucketSql = String.format(RERANK_BUCKET_SQL_TEMPLATE,
+                rankingTableName, TC_TIE_BREAK_PAGE_ORDER, TC_TIE_BREAK_RANKED_ORDER);
+        rerankBucketWithoutTcSql = String.format(RERANK_BUCKET_SQL_TEMPLATE,
+                rankingTableName, "", "");
         updateRankingExtSql = String.format(UPDATE_RANKING_EXT_SQL_TEMPLATE,
                 rankingExtTableName);
         updateRankingProcessorLockSql = String.format(UPDATE_RANKING_PROCESSOR_LOCK_SQL,
@@ -134,6 +217,84 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
     }
 
 
+    @Override
+    public int[] upsertCashback(final List<CitizenRanking> citizenRankings) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.upsertCashback");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("citizenRankings = {}", citizenRankings);
+        }
+
+        SqlParameterSource[] batchValues = SqlParameterSourceUtils.createBatch(citizenRankings);
+        return namedParameterJdbcTemplate.batchUpdate(upsertCashbackSql, batchValues);
+    }
+
+
+    @Override
+    public int copyCashback(final List<CitizenRanking> citizenRankings) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.copyCashback");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("citizenRankings = {}", citizenRankings);
+        }
+
+        Long copiedRows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                return copyManager.copyIn(copyCashbackStageSql, new StringReader(toCsv(citizenRankings)));
+            } catch (IOException e) {
+                throw new SQLException("Failed to copy cashback into " + cashbackStageTableName, e);
+            }
+        });
+        if (log.isDebugEnabled()) {
+            log.debug("copiedRows = {}", copiedRows);
+        }
+
+        // the merge consumes the rows copied by this session, upserting them in key order
+        // so that concurrent workers lock the rankings in the same order
+        return jdbcTemplate.update(mergeCashbackStageSql);
+    }
+
+
+    private static String toCsv(List<CitizenRanking> citizenRankings) {
+        StringBuilder csv = new StringBuilder(citizenRankings.size() * 128);
+
+        for (CitizenRanking citizenRanking : citizenRankings) {
+            csv.append(toCsvValue(citizenRanking.getFiscalCode())).append(',')
+                    .append(toCsvValue(citizenRanking.getAwardPeriodId())).append(',')
+                    .append(toCsvValue(citizenRanking.getTransactionNumber())).append(',')
+                    .append(toCsvValue(citizenRanking.getTotalCashback())).append(',')
+                    .append(toCsvValue(citizenRanking.getUpdateDate())).append(',')
+                    .append(toCsvValue(citizenRanking.getUpdateUser())).append(',')
+                    .append(toCsvValue(citizenRanking.getLastTrxTimestamp())).append('\n');
+        }
+
+        return csv.toString();
+    }
+
+
+    private static String toCsvValue(Object value) {
+        if (value == null) {
+            // an unquoted empty value is read as null by COPY
+            return "";
+
+        } else if (value instanceof String) {
+            return '"' + ((String) value).replace("\"", "\"\"") + '"';
+
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+
+        } else if (value instanceof OffsetDateTime) {
+            return ((OffsetDateTime) value).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+
+        } else {
+            return value.toString();
+        }
+    }
+
+
     @Override
     public int updateRedis() {
         if (log.isTraceEnabled()) {
@@ -197,11 +358,40 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
                 findAllResultSetExtractor);
     }
 
+    @Override
+    public List<CitizenRanking> findAll(CitizenRanking.FilterCriteria filterCriteria, CitizenRanking lastExtracted, int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.findAll");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, lastExtracted = {}, limit = {}", filterCriteria, lastExtracted, limit);
+        }
+
+        StringBuilder sql = new StringBuilder(findAllByAwardPeriodAndUpdateDateSql);
+        if (lastExtracted != null) {
+            sql.append(FINDALL_KEYSET_CONDITION);
+        }
+        // the keyset condition replaces the offset, which would be always 0
+        manageSorting(sql, FIND_ALL_PAGEABLE_SORT);
+        sql.append(" LIMIT ").append(limit);
+        manageLocking(sql);
+
+        return jdbcTemplate.query(connection -> connection.prepareStatement(sql.toString()),
+                preparedStatement -> {
+                    preparedStatement.setLong(1, filterCriteria.getAwardPeriodId());
+                    preparedStatement.setTimestamp(2, new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli()));
+                    if (lastExtracted != null) {
+                        preparedStatement.setLong(3, lastExtracted.getTransactionNumber());
+                        preparedStatement.setLong(4, lastExtracted.getTransactionNumber());
+                        preparedStatement.setString(5, lastExtracted.getFiscalCode());
+                    }
+                },
+                findAllResultSetExtractor);
+    }
+
     private void managePagination(StringBuilder sql, Pageable pageable) {
         if (pageable != null) {
-            if (!pageable.getSort().isEmpty()) {
-                sql.append(" ORDER BY ").append(pageable.getSort().toString().replace(":", ""));
-            }
+            manageSorting(sql, pageable.getSort());
             if (pageable.isPaged()) {
                 sql.append(" LIMIT ").append(pageable.getPageSize())
                         .append(" OFFSET ").append(pageable.getOffset());
@@ -210,6 +400,13 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
     }
 
 
+    private void manageSorting(StringBuilder sql, Sort sort) {
+        if (!sort.isEmpty()) {
+            sql.append(" ORDER BY ").append(sort.toString().replace(":", ""));
+        }
+    }
+
+
     private void manageLocking(StringBuilder sql) {
         sql.append(" FOR UPDATE");
     }
@@ -262,6 +459,21 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
         }
     }
 
+    @Slf4j
+    static final class RankingBucketMapper implements RowMapper<RankingBucket> {
+
+        public RankingBucket mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return RankingBucket.builder()
+                    .transactionNumber(rs.getLong("transaction_n"))
+                    .citizenCount(rs.getLong("citizen_n"))
+                    .distinctRankingCount(rs.getLong("distinct_ranking_n"))
+                    .minRanking(rs.getObject("min_ranking_n", Long.class))
+                    .maxRanking(rs.getObject("max_ranking_n", Long.class))
+                    .changedCount(rs.getLong("changed_n"))
+                    .build();
+        }
+    }
+
     @SneakyThrows
     private static SqlParameterSource toSqlParameterSource(Object candidate) {
         if (log.isTraceEnabled()) {
@@ -304,6 +516,187 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
         return namedParameterJdbcTemplate.batchUpdate(updateRankingSql, batchValues);
     }
 
+    @Override
+    public CitizenRankingExt updateRankingWindow(CitizenRanking.FilterCriteria filterCriteria,
+                                                 long lastAssignedRanking,
+                                                 long minPosition,
+                                                 int limit,
+                                                 boolean tcTieBreakEnabled,
+                                                 String updateUser) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.updateRankingWindow");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, lastAssignedRanking = {}, minPosition = {}, limit = {}, tcTieBreakEnabled = {}, updateUser = {}",
+                    filterCriteria, lastAssignedRanking, minPosition, limit, tcTieBreakEnabled, updateUser);
+        }
+
+        Timestamp updateDate = new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli());
+        return jdbcTemplate.queryForObject(tcTieBreakEnabled ? updateRankingWindowSql : updateRankingWindowWithoutTcSql,
+                (rs, rowNum) -> CitizenRankingExt.builder()
+                        .awardPeriodId(filterCriteria.getAwardPeriodId())
+                        .minPosition(minPosition)
+                        .totalParticipants(rs.getLong("total_participants"))
+                        .maxTransactionNumber(rs.getObject("max_transaction_n", Long.class))
+                        .minTransactionNumber(rs.getObject("min_transaction_n", Long.class))
+                        .build(),
+                filterCriteria.getAwardPeriodId(),
+                updateDate,
+                limit,
+                lastAssignedRanking,
+                updateDate,
+                updateUser,
+                minPosition);
+    }
+
+    @Override
+    public Map<Long, Long> findTransactionNumberHistogram(CitizenRanking.FilterCriteria filterCriteria) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.findTransactionNumberHistogram");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}", filterCriteria);
+        }
+
+        Map<Long, Long> result = jdbcTemplate.query(connection -> connection.prepareStatement(findTransactionNumberHistogramSql),
+                preparedStatement -> {
+                    preparedStatement.setLong(1, filterCriteria.getAwardPeriodId());
+                    preparedStatement.setTimestamp(2, new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli()));
+                },
+                rs -> {
+                    Map<Long, Long> histogram = new LinkedHashMap<>();
+                    while (rs.next()) {
+                        histogram.put(rs.getLong("transaction_n"), rs.getLong("citizen_n"));
+                    }
+                    return histogram;
+                });
+        return result != null
+                ? result
+                : Collections.emptyMap();
+    }
+
+    @Override
+    public int updateRankingBucket(CitizenRanking.FilterCriteria filterCriteria,
+                                   long transactionNumber,
+                                   long lastAssignedRanking,
+                                   int limit,
+                                   boolean tcTieBreakEnabled,
+                                   String updateUser) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.updateRankingBucket");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, transactionNumber = {}, lastAssignedRanking = {}, limit = {}, tcTieBreakEnabled = {}, updateUser = {}",
+                    filterCriteria, transactionNumber, lastAssignedRanking, limit, tcTieBreakEnabled, updateUser);
+        }
+
+        Timestamp updateDate = new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli());
+        return jdbcTemplate.update(tcTieBreakEnabled ? updateRankingBucketSql : updateRankingBucketWithoutTcSql,
+                filterCriteria.getAwardPeriodId(),
+                transactionNumber,
+                updateDate,
+                limit,
+                lastAssignedRanking,
+                updateDate,
+                updateUser);
+    }
+
+    @Override
+    public OffsetDateTime findLastRankingDate(Long awardPeriodId) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.findLastRankingDate");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}", awardPeriodId);
+        }
+
+        List<OffsetDateTime> result = jdbcTemplate.query(findLastRankingDateSql,
+                (rs, rowNum) -> rs.getObject("ranking_date_t", OffsetDateTime.class),
+                awardPeriodId);
+        return result != null && result.size() > 0
+                ? result.get(0)
+                : null;
+    }
+
+    @Override
+    public List<RankingBucket> findRankingBuckets(Long awardPeriodId, OffsetDateTime lastRankingDate) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.findRankingBuckets");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, lastRankingDate = {}", awardPeriodId, lastRankingDate);
+        }
+
+        return jdbcTemplate.query(connection -> connection.prepareStatement(findRankingBucketsSql),
+                preparedStatement -> {
+                    if (lastRankingDate == null) {
+                        preparedStatement.setNull(1, Types.TIMESTAMP_WITH_TIMEZONE);
+                    } else {
+                        preparedStatement.setTimestamp(1, new Timestamp(lastRankingDate.toInstant().toEpochMilli()));
+                    }
+                    preparedStatement.setLong(2, awardPeriodId);
+                },
+                rankingBucketResultSetExtractor);
+    }
+
+    @Override
+    public int shiftRankingBucket(CitizenRanking.FilterCriteria filterCriteria,
+                                  long transactionNumber,
+                                  long shift,
+                                  int limit,
+                                  String updateUser) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.shiftRankingBucket");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, transactionNumber = {}, shift = {}, limit = {}, updateUser = {}",
+                    filterCriteria, transactionNumber, shift, limit, updateUser);
+        }
+
+        Timestamp updateDate = new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli());
+        return jdbcTemplate.update(shiftRankingBucketSql,
+                filterCriteria.getAwardPeriodId(),
+                transactionNumber,
+                updateDate,
+                limit,
+                shift,
+                updateDate,
+                updateUser);
+    }
+
+    @Override
+    public int rerankBucket(CitizenRanking.FilterCriteria filterCriteria,
+                            long transactionNumber,
+                            long lastAssignedRanking,
+                            long offset,
+                            int limit,
+                            boolean tcTieBreakEnabled,
+                            String updateUser) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.rerankBucket");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, transactionNumber = {}, lastAssignedRanking = {}, offset = {}, limit = {}, tcTieBreakEnabled = {}, updateUser = {}",
+                    filterCriteria, transactionNumber, lastAssignedRanking, offset, limit, tcTieBreakEnabled, updateUser);
+        }
+
+        return jdbcTemplate.queryForObject(tcTieBreakEnabled ? rerankBucketSql : rerankBucketWithoutTcSql,
+                (rs, rowNum) -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("transactionNumber = {}, offset = {}, movedCitizens = {}",
+                                transactionNumber, offset, rs.getLong("moved_n"));
+                    }
+                    return rs.getInt("citizen_n");
+                },
+                filterCriteria.getAwardPeriodId(),
+                transactionNumber,
+                offset,
+                limit,
+                lastAssignedRanking + offset,
+                new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli()),
+                updateUser);
+    }
+
     @Override
     public int registerWorker(RankingProcess process, boolean exclusiveLock) {
         return updateWorker(process, 1, exclusiveLock);
@@ -333,6 +726,15 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
         return jdbcTemplate.queryForObject(GET_WORKER_COUNT_SQL, Integer.class, process.name());
     }
 
+    @Override
+    public String findDatabaseIdentity() {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.findDatabaseIdentity");
+        }
+
+        return jdbcTemplate.queryForObject(WinningTransactionDaoImpl.FIND_DATABASE_IDENTITY_SQL, String.class);
+    }
+
     @Getter
     @AllArgsConstructor
     private static class UpdateWorkerDto {
@@ -357,6 +759,30 @@ class CitizenRankingDaoImpl implements CitizenRankingDao {
                 : null;
     }
 
+    @Override
+    public Map<String, OffsetDateTime> findUserTcTimestamps(Collection<String> fiscalCodes) {
+        if (log.isTraceEnabled()) {
+            log.trace("CitizenRankingDaoImpl.findUserTcTimestamps");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("fiscalCodes = {}", fiscalCodes);
+        }
+
+        Map<String, OffsetDateTime> result = jdbcTemplate.query(connection -> connection.prepareStatement(FIND_USER_TC_TIMESTAMPS_SQL),
+                preparedStatement -> preparedStatement.setArray(1, preparedStatement.getConnection()
+                        .createArrayOf("varchar", fiscalCodes.toArray(new String[0]))),
+                rs -> {
+                    Map<String, OffsetDateTime> tcTimestamps = new HashMap<>(fiscalCodes.size() * 2);
+                    while (rs.next()) {
+                        tcTimestamps.put(rs.getString("fiscal_code_s"), rs.getObject("timestamp_tc_t", OffsetDateTime.class));
+                    }
+                    return tcTimestamps;
+                });
+        return result != null
+                ? result
+                : Collections.emptyMap();
+    }
+
     @Slf4j
     static class UserTcTimestampMapper implements RowMapper<OffsetDateTime> {
 
@@ -1,10 +1,14 @@
 package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
 
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.util.Collection;
 import java.util.List;
 
@@ -18,23 +22,165 @@ public interface WinningTransactionDao {
      */
     Sort FIND_TRX_TO_PROCESS_PAGEABLE_SORT = Sort.by("fiscal_code_s");
 
+    /**
+     * Sort used by the keyset extraction: {@link #FIND_TRX_TO_PROCESS_PAGEABLE_SORT} followed by the transaction key,
+     * so that every transaction has a unique position
+     */
+    Sort FIND_TRX_TO_PROCESS_KEYSET_SORT = FIND_TRX_TO_PROCESS_PAGEABLE_SORT
+            .and(Sort.by("id_trx_acquirer_s", "acquirer_c", "trx_timestamp_t", "operation_type_c", "acquirer_id_s"));
+
     List<WinningTransaction> findPaymentToProcess(Long awardPeriodId, Pageable pageable);
 
+    /**
+     * Keyset (seek) variant of {@link #findPaymentToProcess(Long, Pageable)}: transactions are sorted by
+     * {@link #FIND_TRX_TO_PROCESS_KEYSET_SORT} and the page starts right after the given transaction.
+     * When a partition count is specified, only the transactions whose fiscal code falls in the hash bucket
+     * partitionIndex are returned
+     *
+     * @param filterCriteria the filter criteria, only the award period is mandatory
+     * @param lastExtracted  the last transaction of the previous page, null to start from the beginning
+     * @param limit          the page size
+     * @return the next page of payments to process
+     */
+    List<WinningTransaction> findPaymentToProcess(WinningTransaction.FilterCriteria filterCriteria, WinningTransaction lastExtracted, int limit);
+
+    /**
+     * Columnar variant of {@link #findPaymentToProcess(WinningTransaction.FilterCriteria, WinningTransaction, int)}
+     *
+     * @param filterCriteria the filter criteria, only the award period is mandatory
+     * @param lastExtracted  the last transaction of the previous page, null to start from the beginning
+     * @param limit          the page size
+     * @return the next page of payments to process
+     */
+    WinningTransactionPage findPaymentPageToProcess(WinningTransaction.FilterCriteria filterCriteria, WinningTransaction lastExtracted, int limit);
+
     WinningTransaction findPaymentTrxWithCorrelationId(WinningTransaction.FilterCriteria filterCriteria);
 
     WinningTransaction findPaymentTrxWithoutCorrelationId(WinningTransaction.FilterCriteria filterCriteria);
 
+    /**
+     * Batch variant of {@link #findPaymentTrxWithCorrelationId(WinningTransaction.FilterCriteria)} and
+     * {@link #findPaymentTrxWithoutCorrelationId(WinningTransaction.FilterCriteria)}: all the given transfers are
+     * matched against the payments with a single query. Transfers having a blank correlation id are matched by amount,
+     * merchant and terminal
+     *
+     * @param awardPeriodId the award period of the payments
+     * @param transfers     the transfers to match
+     * @return a match for each transfer, in the same order, holding the first matched payment and the number of matches
+     */
+    List<PaymentTrxMatch> findPaymentTrxMatches(Long awardPeriodId, List<WinningTransaction> transfers);
+
+    /**
+     * Retrieve all the payments of the given hpans that a transfer could match, sorted by transaction timestamp.
+     * Besides the payment fields, correlation id, hpan, merchant and terminal are valued
+     *
+     * @param awardPeriodId the award period of the payments
+     * @param hpans         the hpans of the payments
+     * @return the candidate payments
+     */
+    List<WinningTransaction> findPaymentTrxByHpan(Long awardPeriodId, Collection<String> hpans);
+
     List<WinningTransaction> findTransferToProcess(WinningTransaction.FilterCriteria filterCriteria, Pageable pageable);
 
     List<WinningTransaction> findPartialTransferToProcess(WinningTransaction.FilterCriteria filterCriteria, Pageable pageable);
 
+    /**
+     * Columnar variant of {@link #updateProcessedTransaction(Collection)}, executed as a single statement when the bulk
+     * update is enabled and as a batch otherwise.
+     * The score is left untouched, since the page holds it rounded to euro cents
+     *
+     * @param page       the processed transactions
+     * @param updateDate the update date
+     * @param updateUser the update user
+     * @return the affected rows of each transaction, in the same order of the page
+     */
+    int[] updateProcessedTransaction(WinningTransactionPage page, OffsetDateTime updateDate, String updateUser);
+
     int[] updateProcessedTransaction(Collection<WinningTransaction> winningTransactionIds);
 
+    /**
+     * Add the amount of the given processed transfers to the balance of their correlation keys, kept in the transfer
+     * balance table when enabled, so that {@link #findProcessedTransferAmount(WinningTransaction.FilterCriteria)}
+     * reads a single row instead of summing all the processed transfers. The balance is written by a single upsert:
+     * a missing balance is seeded with the sum of the transfers processed before the page, so it must be called in the
+     * same transaction and after {@link #updateProcessedTransaction(Collection)}. Transfers having a blank correlation
+     * id are ignored
+     *
+     * @param awardPeriodId      the award period of the transfers
+     * @param processedTransfers the transfers just processed
+     */
+    void updateTransferBalance(Long awardPeriodId, Collection<WinningTransaction> processedTransfers);
+
     int[] updateUnrelatedTransfer(Collection<WinningTransaction> winningTransactions);
 
     int[] updateUnprocessedPartialTransfer(Collection<WinningTransaction> winningTransactions);
 
     BigDecimal findProcessedTransferAmount(WinningTransaction.FilterCriteria filterCriteria);
 
+    /**
+     * Batch variant of {@link #findPaymentTrxWithCorrelationId(WinningTransaction.FilterCriteria)} followed by
+     * {@link #findProcessedTransferAmount(WinningTransaction.FilterCriteria)}: the payment and the amount of the already
+     * processed transfers of every correlation key are retrieved with a single query. Transfers having a blank
+     * correlation id are not matched
+     *
+     * @param awardPeriodId the award period of the transactions
+     * @param transfers     the transfers to match
+     * @return a match for each transfer, in the same order, holding the first matched payment, the number of matches
+     * and the processed transfer amount
+     */
+    List<PaymentTrxMatch> findPaymentTrxWithProcessedTransferAmount(Long awardPeriodId, List<WinningTransaction> transfers);
+
     int[] deleteTransfer(List<WinningTransaction> winningTransactions);
+
+    /**
+     * Server-side variant of the whole total transfer process of a page, executed as a single data-modifying statement:
+     * the page of transfers is extracted, matched against the payments and classified as in the total transfer
+     * strategy, the cashback of the citizens is upserted, the matched transfers are marked as processed and every
+     * transfer is deleted or updated. The scores are rounded to cents half down, as the client-side aggregators do,
+     * and the rankings are upserted in fiscal code order, i.e. in {@link CitizenRankingDao#WRITE_ORDER} within the
+     * award period. The citizen ranking tables must be reachable from the winning transaction datasource, i.e. both
+     * datasources must point at the same database
+     *
+     * @param filterCriteria the filter criteria, holding the award period and the start date of the process
+     * @param maxInsertDate  the insert date before which transfers are deleted without being matched
+     * @param updateUser     the user of the updated rows
+     * @param limit          the page size
+     * @return the number of transfers of the page
+     */
+    int reconcileTotalTransfer(WinningTransaction.FilterCriteria filterCriteria, OffsetDateTime maxInsertDate, String updateUser, int limit);
+
+    /**
+     * Identify the database the transactions are read from, i.e. its server address, port and name
+     *
+     * @return the database identity, equal for every datasource pointing at the same database
+     */
+    String findDatabaseIdentity();
+
+    /**
+     * Delete a chunk of the expired transfers, i.e. the ones the transfer strategies would discard: all the transfers
+     * inserted before the partial transfer threshold and the not partial ones inserted before the total transfer
+     * threshold. Parked transfers and transfers locked by another worker are skipped
+     *
+     * @param awardPeriodId             the award period of the transfers
+     * @param totalTransferInsertDate   the insert date threshold of the total transfers
+     * @param partialTransferInsertDate the insert date threshold of all the transfers
+     * @param limit                     the maximum number of transfers to delete
+     * @return the number of deleted transfers
+     */
+    int deleteExpiredTransfer(Long awardPeriodId, OffsetDateTime totalTransferInsertDate, OffsetDateTime partialTransferInsertDate, int limit);
+
+    /**
+     * Release a chunk of the parked transfers whose next attempt is due and that have attempts left, so that they are
+     * extracted again by the transfer strategies. Each released transfer has its attempts incremented and the next
+     * attempt scheduled after backoffInitial * 2^attempts, capped to backoffMax. Transfers never released are due,
+     * their next attempt defaulting to the insert time. Transfers locked by another worker are skipped
+     *
+     * @param awardPeriodId  the award period of the transfers
+     * @param maxAttempts    the maximum number of attempts of a transfer
+     * @param backoffInitial the delay of the first retry
+     * @param backoffMax     the maximum delay between retries
+     * @param limit          the maximum number of transfers to release
+     * @return the number of released transfers
+     */
+    int releaseParkedTransfer(Long awardPeriodId, int maxAttempts, Duration backoffInitial, Duration backoffMax, int limit);
 }
@@ -1,6 +1,8 @@
 package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
 
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,42 +10,114 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.core.namedparam.SqlParameterSourceUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static it.gov.pagopa.bpd.ranking_processor.connector.jdbc.WinningTransactionDao.FIND_TRX_TO_PROCESS_KEYSET_SORT;
 
 @Service
 @Slf4j
 class WinningTransactionDaoImpl implements WinningTransactionDao {
 
+    // the partition count is inlined, so that the condition matches the expression index built on the same modulus
+    private static final String FISCAL_CODE_PARTITION_CONDITION_TEMPLATE = " and abs(hashtext(fiscal_code_s)::bigint) %% %d = ?";
+    private static final String UNNEST_KEY_ARRAYS = "?::varchar[], ?::varchar[], ?::timestamptz[], ?::varchar[], ?::varchar[]";
+    private static final String UNNEST_KEY_COLUMNS = "id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s";
+    private static final String UNNEST_KEY_CONDITION = "t.id_trx_acquirer_s = k.id_trx_acquirer_s and t.acquirer_c = k.acquirer_c and t.trx_timestamp_t = k.trx_timestamp_t and t.operation_type_c = k.operation_type_c and t.acquirer_id_s = k.acquirer_id_s";
+    // the bulk statements lock the target rows in key order before updating them, so that concurrent workers do not deadlock
+    private static final String LOCKED_UNNEST_SOURCE_TEMPLATE = "(select k.* from %1$s locked join unnest(%2$s) with ordinality as k(%3$s) on locked.id_trx_acquirer_s = k.id_trx_acquirer_s and locked.acquirer_c = k.acquirer_c and locked.trx_timestamp_t = k.trx_timestamp_t and locked.operation_type_c = k.operation_type_c and locked.acquirer_id_s = k.acquirer_id_s "
+            + "order by locked.id_trx_acquirer_s, locked.acquirer_c, locked.trx_timestamp_t, locked.operation_type_c, locked.acquirer_id_s for update of locked) k";
+    // rounds to cents as RoundingMode.HALF_DOWN does in the client-side aggregators, while round() would break ties away from zero
+    private static final String ROUND_HALF_DOWN_SQL_TEMPLATE = "sign(%1$s) * ceil(abs(%1$s) * 100 - 0.5) / 100";
+    // the server address as seen by the server itself, so that different host names of the same database match
+    static final String FIND_DATABASE_IDENTITY_SQL = "select concat_ws(':', host(inet_server_addr()), inet_server_port(), current_database())";
+    private static final List<Function<WinningTransaction, Object>> KEY_EXTRACTORS = Arrays.asList(
+            WinningTransaction::getIdTrxAcquirer,
+            WinningTransaction::getAcquirerCode,
+            WinningTransaction::getTrxDate,
+            WinningTransaction::getOperationType,
+            WinningTransaction::getAcquirerId);
+    private static final List<Function<WinningTransaction, Object>> PAYMENT_MATCH_EXTRACTORS = Arrays.asList(
+            WinningTransaction::getHpan,
+            WinningTransaction::getAcquirerCode,
+            WinningTransaction::getAcquirerId,
+            transfer -> StringUtils.hasText(transfer.getCorrelationId()) ? transfer.getCorrelationId() : null,
+            WinningTransaction::getAmount,
+            WinningTransaction::getMerchantId,
+            WinningTransaction::getTerminalId);
+    private static final List<Function<WinningTransaction, Object>> CORRELATION_KEY_EXTRACTORS = Arrays.asList(
+            WinningTransaction::getHpan,
+            WinningTransaction::getAcquirerCode,
+            WinningTransaction::getAcquirerId,
+            transfer -> StringUtils.hasText(transfer.getCorrelationId()) ? transfer.getCorrelationId() : null);
+    private static final List<Function<WinningTransaction, Object>> TRANSFER_BALANCE_EXTRACTORS = Arrays.asList(
+            WinningTransaction::getHpan,
+            WinningTransaction::getAcquirerCode,
+            WinningTransaction::getAcquirerId,
+            WinningTransaction::getCorrelationId,
+            WinningTransaction::getAmount);
+
     private final String findPaymentTrxToProcessQuery;
+    private final String paymentKeysetColumns;
     private final String findPartialTransferTrxToProcessQuery;
     private final String findTransferTrxToProcessQuery;
     private final String findPaymentTrxWithCorrelationIdQuery;
     private final String findPaymentTrxWithoutCorrelationIdQuery;
+    private final String findPaymentTrxMatchesQuery;
+    private final String findPaymentTrxByHpanQuery;
     private final String findProcessedTransferAmountQuery;
+    private final String findPaymentTrxWithProcessedTransferAmountQuery;
     private final String updateProcessedTrxSql;
+    private final String updateProcessedPageSql;
     private final String updateUnrelatedTransferSql;
     private final String updateUnprocessedPartialTransferSql;
     private final String deleteTrxTransferSql;
+    private final String bulkUpdateProcessedTrxSql;
+    private final String bulkUpdateProcessedPageSql;
+    private final String bulkUpdateUnrelatedTransferSql;
+    private final String bulkUpdateUnprocessedPartialTransferSql;
+    private final String bulkDeleteTrxTransferSql;
+    private final String deleteExpiredTransferSql;
+    private final String releaseParkedTransferSql;
+    private final String reconcileTotalTransferSql;
+    private final String upsertTransferBalanceSql;
     private final JdbcTemplate jdbcTemplate;
     private final RowMapper<WinningTransaction> paymentTrxRowMapper = new WinningTransactionMapper();
     private final RowMapperResultSetExtractor<WinningTransaction> paymentTrxResultSetExtractor = new RowMapperResultSetExtractor<>(new WinningTransactionMapper());
     private final RowMapperResultSetExtractor<WinningTransaction> transferTrxResultSetExtractor = new RowMapperResultSetExtractor<>(new WinningTransactionTotalTransferMapper());
     private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
     private final boolean lockEnabled;
+    private final boolean bulkUpdateEnabled;
+    private final boolean transferBalanceEnabled;
 
 
     @SneakyThrows
@@ -51,7 +125,12 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
     public WinningTransactionDaoImpl(@Qualifier("winningTransactionJdbcTemplate") JdbcTemplate jdbcTemplate,
                                      @Value("${winning-transaction.extraction-query.lock.enable}") boolean lockEnabled,
                                      @Value("${winning-transaction.extraction-query.elab-ranking.name}") String elabRankingName,
-                                     @Value("${winning-transaction.extraction-query.transfer.table.name}") String transferTableName) {
+                                     @Value("${winning-transaction.extraction-query.transfer.table.name}") String transferTableName,
+                                     @Value("${winning-transaction.bulk-update.enable}") boolean bulkUpdateEnabled,
+                                     @Value("${winning-transaction.transfer-balance.enable}") boolean transferBalanceEnabled,
+                                     @Value("${winning-transaction.transfer-balance.table.name}") String transferBalanceTableName,
+                                     @Value("${winning-transaction.reconciliation.ranking.table.name}") String rankingTableName,
+                                     @Value("${winning-transaction.reconciliation.citizen.table.name}") String citizenTableName) {
         if (log.isTraceEnabled()) {
             log.trace("WinningTransactionDaoImpl.WinningTransactionDaoImpl");
         }
@@ -61,18 +140,70 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
 
         this.jdbcTemplate = jdbcTemplate;
         this.lockEnabled = lockEnabled;
+        this.bulkUpdateEnabled = bulkUpdateEnabled;
+        this.transferBalanceEnabled = transferBalanceEnabled;
         namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
 
         findPaymentTrxToProcessQuery = String.format("select id_trx_acquirer_s, trx_timestamp_t, acquirer_c, acquirer_id_s, operation_type_c, score_n, amount_i, fiscal_code_s from bpd_winning_transaction where enabled_b is true and %s is not true and award_period_id_n = ? and operation_type_c != '01'",
                 elabRankingName);
+        paymentKeysetColumns = FIND_TRX_TO_PROCESS_KEYSET_SORT.stream()
+                .map(Sort.Order::getProperty)
+                .collect(Collectors.joining(", "));
         updateProcessedTrxSql = String.format("update bpd_winning_transaction set %s = true, score_n = :score, update_date_t = :updateDate, update_user_s = :updateUser where id_trx_acquirer_s = :idTrxAcquirer and acquirer_c = :acquirerCode and trx_timestamp_t = :trxDate and operation_type_c = :operationType and acquirer_id_s = :acquirerId",
                 elabRankingName);
+        updateProcessedPageSql = String.format("update bpd_winning_transaction set %s = true, update_date_t = ?, update_user_s = ? where id_trx_acquirer_s = ? and acquirer_c = ? and trx_timestamp_t = ? and operation_type_c = ? and acquirer_id_s = ?",
+                elabRankingName);
         updateUnrelatedTransferSql = String.format("update %s set update_date_t = :updateDate, update_user_s = :updateUser, parked_b = :parked where id_trx_acquirer_s = :idTrxAcquirer and acquirer_c = :acquirerCode and trx_timestamp_t = :trxDate and operation_type_c = :operationType and acquirer_id_s = :acquirerId",
                 transferTableName);
         updateUnprocessedPartialTransferSql = String.format("update %s set partial_transfer_b = true, update_date_t = :updateDate, update_user_s = :updateUser, parked_b = :parked where id_trx_acquirer_s = :idTrxAcquirer and acquirer_c = :acquirerCode and trx_timestamp_t = :trxDate and operation_type_c = :operationType and acquirer_id_s = :acquirerId",
                 transferTableName);
         deleteTrxTransferSql = String.format("delete from %s where id_trx_acquirer_s = :idTrxAcquirer and acquirer_c = :acquirerCode and trx_timestamp_t = :trxDate and operation_type_c = :operationType and acquirer_id_s = :acquirerId",
                 transferTableName);
+        bulkUpdateProcessedTrxSql = String.format("update bpd_winning_transaction t set %s = true, score_n = k.score_n, update_date_t = k.update_date_t, update_user_s = k.update_user_s from %s where %s returning k.ord",
+                elabRankingName,
+                lockedUnnestSource("bpd_winning_transaction", UNNEST_KEY_ARRAYS + ", ?::numeric[], ?::timestamptz[], ?::varchar[]", UNNEST_KEY_COLUMNS + ", score_n, update_date_t, update_user_s, ord"),
+                UNNEST_KEY_CONDITION);
+        bulkUpdateProcessedPageSql = String.format("update bpd_winning_transaction t set %s = true, update_date_t = ?, update_user_s = ? from %s where %s returning k.ord",
+                elabRankingName,
+                lockedUnnestSource("bpd_winning_transaction", UNNEST_KEY_ARRAYS, UNNEST_KEY_COLUMNS + ", ord"),
+                UNNEST_KEY_CONDITION);
+        bulkUpdateUnrelatedTransferSql = String.format("update %s t set update_date_t = k.update_date_t, update_user_s = k.update_user_s, parked_b = k.parked_b from %s where %s returning k.ord",
+                transferTableName,
+                lockedUnnestSource(transferTableName, UNNEST_KEY_ARRAYS + ", ?::timestamptz[], ?::varchar[], ?::boolean[]", UNNEST_KEY_COLUMNS + ", update_date_t, update_user_s, parked_b, ord"),
+                UNNEST_KEY_CONDITION);
+        bulkUpdateUnprocessedPartialTransferSql = String.format("update %s t set partial_transfer_b = true, update_date_t = k.update_date_t, update_user_s = k.update_user_s, parked_b = k.parked_b from %s where %s returning k.ord",
+                transferTableName,
+                lockedUnnestSource(transferTableName, UNNEST_KEY_ARRAYS + ", ?::timestamptz[], ?::varchar[], ?::boolean[]", UNNEST_KEY_COLUMNS + ", update_date_t, update_user_s, parked_b, ord"),
+                UNNEST_KEY_CONDITION);
+        bulkDeleteTrxTransferSql = String.format("delete from %s t using %s where %s returning k.ord",
+                transferTableName,
+                lockedUnnestSource(transferTableName, UNNEST_KEY_ARRAYS, UNNEST_KEY_COLUMNS + ", ord"),
+                UNNEST_KEY_CONDITION);
+        deleteExpiredTransferSql = String.format("delete from %1$s t using (select %2$s from %1$s transfer where transfer.award_period_id_n = ? and transfer.parked_b is not true and (transfer.insert_date_t < ? or (transfer.partial_transfer_b is not true and transfer.insert_date_t < ?)) limit ? for update skip locked) k where %3$s",
+                transferTableName, UNNEST_KEY_COLUMNS, UNNEST_KEY_CONDITION);
+        releaseParkedTransferSql = String.format("update %1$s t set parked_b = false, parked_attempt_n = t.parked_attempt_n + 1, next_attempt_t = now() + least(?::bigint * power(2, t.parked_attempt_n), ?::bigint) * interval '1 millisecond' from (select %2$s from %1$s transfer where transfer.award_period_id_n = ? and transfer.parked_b is true and transfer.next_attempt_t <= now() and transfer.parked_attempt_n < ? limit ? for update skip locked) k where %3$s",
+                transferTableName, UNNEST_KEY_COLUMNS, UNNEST_KEY_CONDITION);
+        reconcileTotalTransferSql = String.format("with page as (" +
+                        "select transfer.id_trx_acquirer_s, transfer.acquirer_c, transfer.trx_timestamp_t, transfer.operation_type_c, transfer.acquirer_id_s, transfer.fiscal_code_s, transfer.score_n, transfer.amount_i, transfer.hpan_s, transfer.correlation_id_s, coalesce(trim(transfer.correlation_id_s), '') != '' as correlation_b, transfer.merchant_id_s, transfer.terminal_id_s, coalesce(transfer.insert_date_t < :maxInsertDate, false) as old_b from %2$s transfer where transfer.award_period_id_n = :awardPeriodId and coalesce(transfer.update_date_t, '1900-01-01 00:00:00.000'::timestamptz) < :startProcess and transfer.partial_transfer_b is not true and transfer.parked_b is not true order by transfer.fiscal_code_s limit :limit%3$s), " +
+                        "matched as (" +
+                        "select page.*, case when page.correlation_b then case when correlation_match.match_count_n = 1 then correlation_match.amount_i end else amount_match.amount_i end as payment_amount_i, coalesce(correlation_match.match_count_n > 1, false) as ambiguous_b from page " +
+                        "left join lateral (select payment.amount_i, count(*) over () as match_count_n from bpd_winning_transaction payment where page.correlation_b and not page.old_b and payment.enabled_b is true and payment.%1$s is true and payment.operation_type_c != '01' and payment.award_period_id_n = :awardPeriodId and payment.hpan_s = page.hpan_s and payment.acquirer_c = page.acquirer_c and payment.acquirer_id_s = page.acquirer_id_s and payment.correlation_id_s = page.correlation_id_s order by payment.trx_timestamp_t, payment.id_trx_acquirer_s limit 1) correlation_match on true " +
+                        "left join lateral (select payment.amount_i from bpd_winning_transaction payment where not page.correlation_b and not page.old_b and payment.enabled_b is true and payment.%1$s is true and payment.operation_type_c != '01' and payment.award_period_id_n = :awardPeriodId and payment.hpan_s = page.hpan_s and payment.acquirer_c = page.acquirer_c and payment.acquirer_id_s = page.acquirer_id_s and payment.amount_i = page.amount_i and payment.merchant_id_s = page.merchant_id_s and payment.terminal_id_s = page.terminal_id_s order by payment.trx_timestamp_t, payment.id_trx_acquirer_s limit 1) amount_match on true), " +
+                        "k as (" +
+                        "select matched.*, case when matched.old_b then 'OLD' when matched.payment_amount_i is null then 'UNRELATED' when matched.amount_i = matched.payment_amount_i then 'TOTAL' else 'PARTIAL' end as transfer_type_c, case when matched.ambiguous_b or matched.amount_i > matched.payment_amount_i then true end as parked_b from matched), " +
+                        "deleted_transfer as (delete from %2$s t using k where k.transfer_type_c in ('OLD', 'TOTAL') and %6$s), " +
+                        "partial_transfer as (update %2$s t set partial_transfer_b = true, update_date_t = :startProcess, update_user_s = :updateUser, parked_b = k.parked_b from k where k.transfer_type_c = 'PARTIAL' and %6$s), " +
+                        "unrelated_transfer as (update %2$s t set update_date_t = :startProcess, update_user_s = :updateUser, parked_b = k.parked_b from k where k.transfer_type_c = 'UNRELATED' and %6$s), " +
+                        "processed_transfer as (update bpd_winning_transaction t set %1$s = true, score_n = k.score_n, update_date_t = :updateDate, update_user_s = :updateUser from k where k.transfer_type_c = 'TOTAL' and %6$s), " +
+                        "cashback as (insert into %4$s as bcr (fiscal_code_c, award_period_id_n, transaction_n, cashback_n, insert_date_t, insert_user_s) select k.fiscal_code_s, :awardPeriodId, -count(*), sum(%8$s), :updateDate, :updateUser from k where k.transfer_type_c = 'TOTAL' group by k.fiscal_code_s order by k.fiscal_code_s on conflict (fiscal_code_c, award_period_id_n) do update set cashback_n = bcr.cashback_n + excluded.cashback_n, transaction_n = bcr.transaction_n + excluded.transaction_n, update_date_t = excluded.insert_date_t, update_user_s = excluded.insert_user_s where exists (select 1 from %5$s bc where bc.fiscal_code_s = bcr.fiscal_code_c and bc.enabled_b is true))" +
+                        "%7$s " +
+                        "select count(*) from page",
+                elabRankingName, transferTableName, lockEnabled ? " for update skip locked" : "", rankingTableName, citizenTableName, UNNEST_KEY_CONDITION,
+                !transferBalanceEnabled ? "" : String.format(", " +
+                                "balance_delta as (select k.hpan_s, k.acquirer_c, k.acquirer_id_s, k.correlation_id_s, sum(k.amount_i) as amount_i from k where k.transfer_type_c = 'TOTAL' and k.correlation_b group by k.hpan_s, k.acquirer_c, k.acquirer_id_s, k.correlation_id_s), " +
+                                "upserted_balance as (insert into %2$s as balance (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s, seed_amount_i, processed_amount_i, insert_date_t, update_date_t) select :awardPeriodId, d.hpan_s, d.acquirer_c, d.acquirer_id_s, d.correlation_id_s, case when current_balance.award_period_id_n is null then (select coalesce(sum(processed.amount_i), 0) from bpd_winning_transaction processed where processed.enabled_b is true and processed.%1$s is true and processed.operation_type_c = '01' and processed.award_period_id_n = :awardPeriodId and processed.hpan_s = d.hpan_s and processed.acquirer_c = d.acquirer_c and processed.acquirer_id_s = d.acquirer_id_s and processed.correlation_id_s = d.correlation_id_s) else 0 end, d.amount_i, now(), now() from balance_delta d left join %2$s current_balance on current_balance.award_period_id_n = :awardPeriodId and current_balance.hpan_s = d.hpan_s and current_balance.acquirer_c = d.acquirer_c and current_balance.acquirer_id_s = d.acquirer_id_s and current_balance.correlation_id_s = d.correlation_id_s order by d.hpan_s, d.acquirer_c, d.acquirer_id_s, d.correlation_id_s on conflict (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s) do update set processed_amount_i = balance.processed_amount_i + excluded.processed_amount_i, update_date_t = excluded.update_date_t)",
+                        elabRankingName, transferBalanceTableName),
+                String.format(ROUND_HALF_DOWN_SQL_TEMPLATE, "k.score_n"));
         findPartialTransferTrxToProcessQuery = String.format("select id_trx_acquirer_s, trx_timestamp_t, acquirer_c, acquirer_id_s, operation_type_c, score_n, amount_i, fiscal_code_s, correlation_id_s, hpan_s, merchant_id_s, terminal_id_s, insert_date_t from %s transfer where transfer.award_period_id_n = ? and coalesce(transfer.update_date_t, '1900-01-01 00:00:00.000'::timestamptz) < ? and transfer.parked_b is not true",
                 transferTableName);
         findTransferTrxToProcessQuery = String.format("select id_trx_acquirer_s, trx_timestamp_t, acquirer_c, acquirer_id_s, operation_type_c, score_n, amount_i, fiscal_code_s, correlation_id_s, hpan_s, merchant_id_s, terminal_id_s, insert_date_t from %s transfer where transfer.award_period_id_n = ? and coalesce(transfer.update_date_t, '1900-01-01 00:00:00.000'::timestamptz) < ? and transfer.partial_transfer_b is not true and transfer.parked_b is not true",
@@ -81,8 +212,40 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
                 elabRankingName);
         findPaymentTrxWithoutCorrelationIdQuery = String.format("select id_trx_acquirer_s, trx_timestamp_t, acquirer_c, acquirer_id_s, operation_type_c, score_n, amount_i, fiscal_code_s from bpd_winning_transaction payment where payment.enabled_b is true and payment.%s is true and payment.operation_type_c != '01' and payment.award_period_id_n = ? and payment.hpan_s = ? and payment.acquirer_c = ? and payment.acquirer_id_s = ? and payment.amount_i = ? and payment.merchant_id_s = ? and payment.terminal_id_s = ?",
                 elabRankingName);
-        findProcessedTransferAmountQuery = String.format("select sum(amount_i) from bpd_winning_transaction where enabled_b is true and %s is true and operation_type_c = '01' and award_period_id_n = ? and hpan_s = ? and acquirer_c = ? and acquirer_id_s = ? and correlation_id_s = ?",
+        findPaymentTrxByHpanQuery = String.format("select id_trx_acquirer_s, trx_timestamp_t, acquirer_c, acquirer_id_s, operation_type_c, score_n, amount_i, fiscal_code_s, correlation_id_s, hpan_s, merchant_id_s, terminal_id_s, insert_date_t from bpd_winning_transaction payment where payment.enabled_b is true and payment.%s is true and payment.operation_type_c != '01' and payment.award_period_id_n = ? and payment.hpan_s = any(?::varchar[]) order by payment.trx_timestamp_t, payment.id_trx_acquirer_s",
+                elabRankingName);
+        findPaymentTrxMatchesQuery = String.format("with transfer as (select * from unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::numeric[], ?::varchar[], ?::varchar[]) with ordinality as k(hpan_s, acquirer_c, acquirer_id_s, correlation_id_s, amount_i, merchant_id_s, terminal_id_s, ord)), " +
+                        "payment_match as (" +
+                        "select transfer.ord, payment.id_trx_acquirer_s, payment.trx_timestamp_t, payment.acquirer_c, payment.acquirer_id_s, payment.operation_type_c, payment.score_n, payment.amount_i, payment.fiscal_code_s from transfer join bpd_winning_transaction payment on payment.hpan_s = transfer.hpan_s and payment.acquirer_c = transfer.acquirer_c and payment.acquirer_id_s = transfer.acquirer_id_s and payment.correlation_id_s = transfer.correlation_id_s where transfer.correlation_id_s is not null and payment.enabled_b is true and payment.%1$s is true and payment.operation_type_c != '01' and payment.award_period_id_n = ? " +
+                        "union all " +
+                        "select transfer.ord, payment.id_trx_acquirer_s, payment.trx_timestamp_t, payment.acquirer_c, payment.acquirer_id_s, payment.operation_type_c, payment.score_n, payment.amount_i, payment.fiscal_code_s from transfer join bpd_winning_transaction payment on payment.hpan_s = transfer.hpan_s and payment.acquirer_c = transfer.acquirer_c and payment.acquirer_id_s = transfer.acquirer_id_s and payment.amount_i = transfer.amount_i and payment.merchant_id_s = transfer.merchant_id_s and payment.terminal_id_s = transfer.terminal_id_s where transfer.correlation_id_s is null and payment.enabled_b is true and payment.%1$s is true and payment.operation_type_c != '01' and payment.award_period_id_n = ?) " +
+                        "select * from (select payment_match.*, row_number() over (partition by ord order by trx_timestamp_t, id_trx_acquirer_s) as match_rank_n, count(*) over (partition by ord) as match_count_n from payment_match) ranked_match where match_rank_n = 1",
+                elabRankingName);
+        findProcessedTransferAmountQuery = transferBalanceEnabled
+                ? String.format("with transfer as (select ?::bigint as award_period_id_n, ?::varchar as hpan_s, ?::varchar as acquirer_c, ?::varchar as acquirer_id_s, ?::varchar as correlation_id_s) " +
+                        "select coalesce((select balance.seed_amount_i + balance.processed_amount_i from %2$s balance, transfer where balance.award_period_id_n = transfer.award_period_id_n and balance.hpan_s = transfer.hpan_s and balance.acquirer_c = transfer.acquirer_c and balance.acquirer_id_s = transfer.acquirer_id_s and balance.correlation_id_s = transfer.correlation_id_s), " +
+                        "(select sum(processed.amount_i) from bpd_winning_transaction processed, transfer where processed.enabled_b is true and processed.%1$s is true and processed.operation_type_c = '01' and processed.award_period_id_n = transfer.award_period_id_n and processed.hpan_s = transfer.hpan_s and processed.acquirer_c = transfer.acquirer_c and processed.acquirer_id_s = transfer.acquirer_id_s and processed.correlation_id_s = transfer.correlation_id_s))",
+                elabRankingName, transferBalanceTableName)
+                : String.format("select sum(amount_i) from bpd_winning_transaction where enabled_b is true and %s is true and operation_type_c = '01' and award_period_id_n = ? and hpan_s = ? and acquirer_c = ? and acquirer_id_s = ? and correlation_id_s = ?",
+                elabRankingName);
+        String processedTransferQuery = transferBalanceEnabled
+                ? String.format("select transfer.ord, coalesce(balance.seed_amount_i + balance.processed_amount_i, (select sum(processed.amount_i) from bpd_winning_transaction processed where processed.enabled_b is true and processed.%1$s is true and processed.operation_type_c = '01' and processed.award_period_id_n = period.award_period_id_n and processed.hpan_s = transfer.hpan_s and processed.acquirer_c = transfer.acquirer_c and processed.acquirer_id_s = transfer.acquirer_id_s and processed.correlation_id_s = transfer.correlation_id_s)) as processed_transfer_amount_i from transfer cross join (select ?::bigint as award_period_id_n) period left join %2$s balance on balance.award_period_id_n = period.award_period_id_n and balance.hpan_s = transfer.hpan_s and balance.acquirer_c = transfer.acquirer_c and balance.acquirer_id_s = transfer.acquirer_id_s and balance.correlation_id_s = transfer.correlation_id_s",
+                elabRankingName, transferBalanceTableName)
+                : String.format("select transfer.ord, sum(processed.amount_i) as processed_transfer_amount_i from transfer join bpd_winning_transaction processed on processed.hpan_s = transfer.hpan_s and processed.acquirer_c = transfer.acquirer_c and processed.acquirer_id_s = transfer.acquirer_id_s and processed.correlation_id_s = transfer.correlation_id_s where processed.enabled_b is true and processed.%1$s is true and processed.operation_type_c = '01' and processed.award_period_id_n = ? group by transfer.ord",
                 elabRankingName);
+        findPaymentTrxWithProcessedTransferAmountQuery = String.format("with transfer as (select * from unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[]) with ordinality as k(hpan_s, acquirer_c, acquirer_id_s, correlation_id_s, ord) where k.correlation_id_s is not null), " +
+                        "payment_match as (" +
+                        "select transfer.ord, payment.id_trx_acquirer_s, payment.trx_timestamp_t, payment.acquirer_c, payment.acquirer_id_s, payment.operation_type_c, payment.score_n, payment.amount_i, payment.fiscal_code_s, row_number() over (partition by transfer.ord order by payment.trx_timestamp_t, payment.id_trx_acquirer_s) as match_rank_n, count(*) over (partition by transfer.ord) as match_count_n from transfer join bpd_winning_transaction payment on payment.hpan_s = transfer.hpan_s and payment.acquirer_c = transfer.acquirer_c and payment.acquirer_id_s = transfer.acquirer_id_s and payment.correlation_id_s = transfer.correlation_id_s where payment.enabled_b is true and payment.%1$s is true and payment.operation_type_c != '01' and payment.award_period_id_n = ?), " +
+                        "processed_transfer as (%2$s) " +
+                        "select payment_match.*, processed_transfer.processed_transfer_amount_i from payment_match left join processed_transfer on processed_transfer.ord = payment_match.ord where payment_match.match_rank_n = 1",
+                elabRankingName, processedTransferQuery);
+        upsertTransferBalanceSql = String.format("insert into %2$s as balance (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s, seed_amount_i, processed_amount_i, insert_date_t, update_date_t) " +
+                        "select period.award_period_id_n, k.hpan_s, k.acquirer_c, k.acquirer_id_s, k.correlation_id_s, case when current_balance.award_period_id_n is null then (select coalesce(sum(processed.amount_i), 0) from bpd_winning_transaction processed where processed.enabled_b is true and processed.%1$s is true and processed.operation_type_c = '01' and processed.award_period_id_n = period.award_period_id_n and processed.hpan_s = k.hpan_s and processed.acquirer_c = k.acquirer_c and processed.acquirer_id_s = k.acquirer_id_s and processed.correlation_id_s = k.correlation_id_s) - k.amount_i else 0 end, k.amount_i, now(), now() " +
+                        "from unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::numeric[]) as k(hpan_s, acquirer_c, acquirer_id_s, correlation_id_s, amount_i) cross join (select ?::bigint as award_period_id_n) period " +
+                        "left join %2$s current_balance on current_balance.award_period_id_n = period.award_period_id_n and current_balance.hpan_s = k.hpan_s and current_balance.acquirer_c = k.acquirer_c and current_balance.acquirer_id_s = k.acquirer_id_s and current_balance.correlation_id_s = k.correlation_id_s " +
+                        "order by k.hpan_s, k.acquirer_c, k.acquirer_id_s, k.correlation_id_s " +
+                        "on conflict (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s) do update set processed_amount_i = balance.processed_amount_i + excluded.processed_amount_i, update_date_t = excluded.update_date_t",
+                elabRankingName, transferBalanceTableName);
     }
 
 
@@ -123,6 +286,68 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
     }
 
 
+    @Override
+    public List<WinningTransaction> findPaymentToProcess(WinningTransaction.FilterCriteria filterCriteria, WinningTransaction lastExtracted, int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.findPaymentToProcess");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, lastExtracted = {}, limit = {}", filterCriteria, lastExtracted, limit);
+        }
+
+        return findPaymentToProcess(filterCriteria, lastExtracted, limit, paymentTrxResultSetExtractor);
+    }
+
+
+    @Override
+    public WinningTransactionPage findPaymentPageToProcess(WinningTransaction.FilterCriteria filterCriteria, WinningTransaction lastExtracted, int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.findPaymentPageToProcess");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, lastExtracted = {}, limit = {}", filterCriteria, lastExtracted, limit);
+        }
+
+        return findPaymentToProcess(filterCriteria, lastExtracted, limit, new WinningTransactionPageExtractor(limit));
+    }
+
+
+    private <T> T findPaymentToProcess(WinningTransaction.FilterCriteria filterCriteria,
+                                       WinningTransaction lastExtracted,
+                                       int limit,
+                                       ResultSetExtractor<T> resultSetExtractor) {
+        boolean partitioned = filterCriteria.getPartitionCount() != null;
+        StringBuilder sql = new StringBuilder(findPaymentTrxToProcessQuery);
+        if (partitioned) {
+            sql.append(String.format(FISCAL_CODE_PARTITION_CONDITION_TEMPLATE, filterCriteria.getPartitionCount()));
+        }
+        if (lastExtracted != null) {
+            sql.append(" and (").append(paymentKeysetColumns).append(") > (?, ?, ?, ?, ?, ?)");
+        }
+        sql.append(" ORDER BY ").append(paymentKeysetColumns)
+                .append(" LIMIT ").append(limit);
+        manageLocking(sql);
+
+        return jdbcTemplate.query(connection -> connection.prepareStatement(sql.toString()),
+                preparedStatement -> {
+                    int index = 1;
+                    preparedStatement.setLong(index++, filterCriteria.getAwardPeriodId());
+                    if (partitioned) {
+                        preparedStatement.setInt(index++, filterCriteria.getPartitionIndex());
+                    }
+                    if (lastExtracted != null) {
+                        preparedStatement.setString(index++, lastExtracted.getFiscalCode());
+                        preparedStatement.setString(index++, lastExtracted.getIdTrxAcquirer());
+                        preparedStatement.setString(index++, lastExtracted.getAcquirerCode());
+                        preparedStatement.setObject(index++, lastExtracted.getTrxDate());
+                        preparedStatement.setString(index++, lastExtracted.getOperationType());
+                        preparedStatement.setString(index, lastExtracted.getAcquirerId());
+                    }
+                },
+                resultSetExtractor);
+    }
+
+
     @Override
     public WinningTransaction findPaymentTrxWithCorrelationId(WinningTransaction.FilterCriteria filterCriteria) {
         if (log.isTraceEnabled()) {
@@ -177,6 +402,42 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
     }
 
 
+    @Override
+    public List<PaymentTrxMatch> findPaymentTrxMatches(Long awardPeriodId, List<WinningTransaction> transfers) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.findPaymentTrxMatches");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, transfers = {}", awardPeriodId, transfers.size());
+        }
+
+        return executeMatchQuery(findPaymentTrxMatchesQuery, awardPeriodId, transfers, PAYMENT_MATCH_EXTRACTORS, false);
+    }
+
+
+    @Override
+    public List<WinningTransaction> findPaymentTrxByHpan(Long awardPeriodId, Collection<String> hpans) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.findPaymentTrxByHpan");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, hpans = {}", awardPeriodId, hpans.size());
+        }
+
+        if (hpans.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return jdbcTemplate.query(connection -> connection.prepareStatement(findPaymentTrxByHpanQuery),
+                preparedStatement -> {
+                    preparedStatement.setLong(1, awardPeriodId);
+                    preparedStatement.setArray(2, preparedStatement.getConnection()
+                            .createArrayOf("varchar", hpans.toArray(new String[0])));
+                },
+                transferTrxResultSetExtractor);
+    }
+
+
     @Override
     public List<WinningTransaction> findTransferToProcess(WinningTransaction.FilterCriteria filterCriteria, Pageable pageable) {
         if (log.isTraceEnabled()) {
@@ -248,6 +509,54 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
     }
 
 
+    @Override
+    public List<PaymentTrxMatch> findPaymentTrxWithProcessedTransferAmount(Long awardPeriodId, List<WinningTransaction> transfers) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.findPaymentTrxWithProcessedTransferAmount");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, transfers = {}", awardPeriodId, transfers.size());
+        }
+
+        return executeMatchQuery(findPaymentTrxWithProcessedTransferAmountQuery, awardPeriodId, transfers, CORRELATION_KEY_EXTRACTORS, true);
+    }
+
+
+    /**
+     * Execute a match query binding the unnested column arrays of the transfers followed by the award period, twice.
+     * Each returned row is the first match of the transfer at the position given by its ordinality
+     */
+    private List<PaymentTrxMatch> executeMatchQuery(String sql,
+                                                  Long awardPeriodId,
+                                                  List<WinningTransaction> transfers,
+                                                  List<Function<WinningTransaction, Object>> columnExtractors,
+                                                  boolean withProcessedTransferAmount) {
+        List<PaymentTrxMatch> result = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            result.add(PaymentTrxMatch.builder().build());
+        }
+
+        if (!transfers.isEmpty()) {
+            jdbcTemplate.query(connection -> {
+                        PreparedStatement preparedStatement = prepareArrayStatement(connection, sql, transfers, columnExtractors);
+                        preparedStatement.setLong(columnExtractors.size() + 1, awardPeriodId);
+                        preparedStatement.setLong(columnExtractors.size() + 2, awardPeriodId);
+                        return preparedStatement;
+                    },
+                    (RowCallbackHandler) rs -> {
+                        PaymentTrxMatch match = result.get(rs.getInt("ord") - 1);
+                        match.setPayment(paymentTrxRowMapper.mapRow(rs, rs.getRow()));
+                        match.setMatchCount(rs.getInt("match_count_n"));
+                        if (withProcessedTransferAmount) {
+                            match.setProcessedTransferAmount(rs.getBigDecimal("processed_transfer_amount_i"));
+                        }
+                    });
+        }
+
+        return result;
+    }
+
+
     @Override
     public int[] deleteTransfer(List<WinningTransaction> winningTransactions) {
         if (log.isTraceEnabled()) {
@@ -257,11 +566,87 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
             log.debug("winningTransactions = {}", winningTransactions);
         }
 
+        if (bulkUpdateEnabled) {
+            return executeBulkUpdate(bulkDeleteTrxTransferSql, winningTransactions, KEY_EXTRACTORS);
+        }
+
         SqlParameterSource[] batchValues = SqlParameterSourceUtils.createBatch(winningTransactions);
         return namedParameterJdbcTemplate.batchUpdate(deleteTrxTransferSql, batchValues);
     }
 
 
+    @Override
+    public int deleteExpiredTransfer(Long awardPeriodId,
+                                     OffsetDateTime totalTransferInsertDate,
+                                     OffsetDateTime partialTransferInsertDate,
+                                     int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.deleteExpiredTransfer");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, totalTransferInsertDate = {}, partialTransferInsertDate = {}, limit = {}",
+                    awardPeriodId, totalTransferInsertDate, partialTransferInsertDate, limit);
+        }
+
+        return jdbcTemplate.update(deleteExpiredTransferSql,
+                awardPeriodId,
+                new Timestamp(partialTransferInsertDate.toInstant().toEpochMilli()),
+                new Timestamp(totalTransferInsertDate.toInstant().toEpochMilli()),
+                limit);
+    }
+
+
+    @Override
+    public int releaseParkedTransfer(Long awardPeriodId, int maxAttempts, Duration backoffInitial, Duration backoffMax, int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.releaseParkedTransfer");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, maxAttempts = {}, backoffInitial = {}, backoffMax = {}, limit = {}",
+                    awardPeriodId, maxAttempts, backoffInitial, backoffMax, limit);
+        }
+
+        return jdbcTemplate.update(releaseParkedTransferSql,
+                backoffInitial.toMillis(),
+                backoffMax.toMillis(),
+                awardPeriodId,
+                maxAttempts,
+                limit);
+    }
+
+
+    @Override
+    public int reconcileTotalTransfer(WinningTransaction.FilterCriteria filterCriteria, OffsetDateTime maxInsertDate, String updateUser, int limit) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.reconcileTotalTransfer");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("filterCriteria = {}, maxInsertDate = {}, updateUser = {}, limit = {}", filterCriteria, maxInsertDate, updateUser, limit);
+        }
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("awardPeriodId", filterCriteria.getAwardPeriodId())
+                .addValue("startProcess", new Timestamp(filterCriteria.getUpdateDate().toInstant().toEpochMilli()))
+                .addValue("maxInsertDate", new Timestamp(maxInsertDate.toInstant().toEpochMilli()))
+                .addValue("limit", limit)
+                .addValue("updateDate", new Timestamp(System.currentTimeMillis()))
+                .addValue("updateUser", updateUser);
+        Integer pageSize = namedParameterJdbcTemplate.queryForObject(reconcileTotalTransferSql, parameters, Integer.class);
+
+        return pageSize == null ? 0 : pageSize;
+    }
+
+
+    @Override
+    public String findDatabaseIdentity() {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.findDatabaseIdentity");
+        }
+
+        return jdbcTemplate.queryForObject(FIND_DATABASE_IDENTITY_SQL, String.class);
+    }
+
+
     @Override
     public int[] updateProcessedTransaction(final Collection<WinningTransaction> winningTransactionIds) {
         if (log.isTraceEnabled()) {
@@ -271,11 +656,132 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
             log.debug("winningTransactionIds = {}", winningTransactionIds);
         }
 
+        if (bulkUpdateEnabled) {
+            return executeBulkUpdate(bulkUpdateProcessedTrxSql, winningTransactionIds, withKeyExtractors(
+                    WinningTransaction::getScore,
+                    WinningTransaction::getUpdateDate,
+                    WinningTransaction::getUpdateUser));
+        }
+
         SqlParameterSource[] batchValues = SqlParameterSourceUtils.createBatch(winningTransactionIds);
         return namedParameterJdbcTemplate.batchUpdate(updateProcessedTrxSql, batchValues);
     }
 
 
+    @Override
+    public int[] updateProcessedTransaction(WinningTransactionPage page, OffsetDateTime updateDate, String updateUser) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.updateProcessedTransaction");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("page = {}, updateDate = {}, updateUser = {}", page.size(), updateDate, updateUser);
+        }
+
+        if (page.isEmpty()) {
+            return new int[0];
+        }
+
+        if (!bulkUpdateEnabled) {
+            return jdbcTemplate.batchUpdate(updateProcessedPageSql, new BatchPreparedStatementSetter() {
+
+                @Override
+                public void setValues(PreparedStatement preparedStatement, int i) throws SQLException {
+                    preparedStatement.setObject(1, updateDate);
+                    preparedStatement.setString(2, updateUser);
+                    preparedStatement.setString(3, page.getIdTrxAcquirer(i));
+                    preparedStatement.setString(4, page.getAcquirerCode(i));
+                    preparedStatement.setObject(5, page.getTrxDate(i));
+                    preparedStatement.setString(6, page.getOperationType(i));
+                    preparedStatement.setString(7, page.getAcquirerId(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return page.size();
+                }
+            });
+        }
+
+        int[] affectedRows = new int[page.size()];
+        List<Long> matchedOrdinals = jdbcTemplate.query(connection -> {
+                    String[] idTrxAcquirers = new String[page.size()];
+                    String[] acquirerCodes = new String[page.size()];
+                    String[] trxDates = new String[page.size()];
+                    String[] operationTypes = new String[page.size()];
+                    String[] acquirerIds = new String[page.size()];
+                    for (int i = 0; i < page.size(); i++) {
+                        idTrxAcquirers[i] = page.getIdTrxAcquirer(i);
+                        acquirerCodes[i] = page.getAcquirerCode(i);
+                        trxDates[i] = toArrayElement(page.getTrxDate(i));
+                        operationTypes[i] = page.getOperationType(i);
+                        acquirerIds[i] = page.getAcquirerId(i);
+                    }
+
+                    PreparedStatement preparedStatement = connection.prepareStatement(bulkUpdateProcessedPageSql);
+                    int index = 1;
+                    preparedStatement.setObject(index++, updateDate);
+                    preparedStatement.setString(index++, updateUser);
+                    for (String[] values : Arrays.asList(idTrxAcquirers, acquirerCodes, trxDates, operationTypes, acquirerIds)) {
+                        preparedStatement.setArray(index++, connection.createArrayOf("varchar", values));
+                    }
+                    return preparedStatement;
+                },
+                (rs, rowNum) -> rs.getLong("ord"));
+
+        for (Long ordinal : matchedOrdinals) {
+            affectedRows[ordinal.intValue() - 1]++;
+        }
+
+        return affectedRows;
+    }
+
+
+    @Override
+    public void updateTransferBalance(Long awardPeriodId, Collection<WinningTransaction> processedTransfers) {
+        if (log.isTraceEnabled()) {
+            log.trace("WinningTransactionDaoImpl.updateTransferBalance");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("awardPeriodId = {}, processedTransfers = {}", awardPeriodId, processedTransfers.size());
+        }
+
+        if (!transferBalanceEnabled) {
+            return;
+        }
+
+        Map<List<String>, BigDecimal> amountByCorrelationKey = new LinkedHashMap<>();
+        for (WinningTransaction transfer : processedTransfers) {
+            if (StringUtils.hasText(transfer.getCorrelationId())) {
+                amountByCorrelationKey.merge(
+                        Arrays.asList(transfer.getHpan(), transfer.getAcquirerCode(), transfer.getAcquirerId(), transfer.getCorrelationId()),
+                        transfer.getAmount(),
+                        BigDecimal::add);
+            }
+        }
+        List<WinningTransaction> balances = amountByCorrelationKey.entrySet().stream()
+                .map(entry -> WinningTransaction.builder()
+                        .hpan(entry.getKey().get(0))
+                        .acquirerCode(entry.getKey().get(1))
+                        .acquirerId(entry.getKey().get(2))
+                        .correlationId(entry.getKey().get(3))
+                        .amount(entry.getValue())
+                        .build())
+                .collect(Collectors.toList());
+
+        if (balances.isEmpty()) {
+            return;
+        }
+
+        // a single upsert: the seed is read only for the keys having no balance yet, while the page amount is
+        // added on conflict, so a balance created concurrently by another page is never seeded twice
+        jdbcTemplate.update(connection -> {
+            PreparedStatement preparedStatement = prepareArrayStatement(connection, upsertTransferBalanceSql, balances, TRANSFER_BALANCE_EXTRACTORS);
+            preparedStatement.setLong(TRANSFER_BALANCE_EXTRACTORS.size() + 1, awardPeriodId);
+            return preparedStatement;
+        });
+    }
+
+
     @Override
     public int[] updateUnrelatedTransfer(final Collection<WinningTransaction> winningTransactions) {
         if (log.isTraceEnabled()) {
@@ -285,6 +791,13 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
             log.debug("winningTransactions = {}", winningTransactions);
         }
 
+        if (bulkUpdateEnabled) {
+            return executeBulkUpdate(bulkUpdateUnrelatedTransferSql, winningTransactions, withKeyExtractors(
+                    WinningTransaction::getUpdateDate,
+                    WinningTransaction::getUpdateUser,
+                    WinningTransaction::getParked));
+        }
+
         SqlParameterSource[] batchValues = SqlParameterSourceUtils.createBatch(winningTransactions);
         return namedParameterJdbcTemplate.batchUpdate(updateUnrelatedTransferSql, batchValues);
     }
@@ -299,11 +812,96 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
             log.debug("winningTransactions = {}", winningTransactions);
         }
 
+        if (bulkUpdateEnabled) {
+            return executeBulkUpdate(bulkUpdateUnprocessedPartialTransferSql, winningTransactions, withKeyExtractors(
+                    WinningTransaction::getUpdateDate,
+                    WinningTransaction::getUpdateUser,
+                    WinningTransaction::getParked));
+        }
+
         SqlParameterSource[] batchValues = SqlParameterSourceUtils.createBatch(winningTransactions);
         return namedParameterJdbcTemplate.batchUpdate(updateUnprocessedPartialTransferSql, batchValues);
     }
 
 
+    private static String lockedUnnestSource(String tableName, String arrays, String columns) {
+        return String.format(LOCKED_UNNEST_SOURCE_TEMPLATE, tableName, arrays, columns);
+    }
+
+
+    @SafeVarargs
+    private static List<Function<WinningTransaction, Object>> withKeyExtractors(Function<WinningTransaction, Object>... extractors) {
+        List<Function<WinningTransaction, Object>> columnExtractors = new ArrayList<>(KEY_EXTRACTORS);
+        columnExtractors.addAll(Arrays.asList(extractors));
+        return columnExtractors;
+    }
+
+
+    /**
+     * Execute a single statement joining the table with the unnested column arrays of the given transactions.
+     * The statement returns the ordinality of the matched transactions, which are mapped back to the batch-like
+     * result expected by the callers
+     *
+     * @param sql              the statement, having an array parameter for each column
+     * @param transactions     the transactions to update
+     * @param columnExtractors the extractors of the columns, in the same order of the array parameters
+     * @return the affected rows of each transaction
+     */
+    private int[] executeBulkUpdate(String sql,
+                                    Collection<WinningTransaction> transactions,
+                                    List<Function<WinningTransaction, Object>> columnExtractors) {
+        int[] affectedRows = new int[transactions.size()];
+
+        if (!transactions.isEmpty()) {
+            List<Long> matchedOrdinals = jdbcTemplate.query(
+                    connection -> prepareArrayStatement(connection, sql, transactions, columnExtractors),
+                    (rs, rowNum) -> rs.getLong("ord"));
+
+            for (Long ordinal : matchedOrdinals) {
+                affectedRows[ordinal.intValue() - 1]++;
+            }
+        }
+
+        return affectedRows;
+    }
+
+
+    /**
+     * Prepare the given statement binding, starting from the first parameter, an array for each column extractor
+     */
+    private static PreparedStatement prepareArrayStatement(Connection connection,
+                                                           String sql,
+                                                           Collection<WinningTransaction> transactions,
+                                                           List<Function<WinningTransaction, Object>> columnExtractors) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        int index = 1;
+        for (Function<WinningTransaction, Object> columnExtractor : columnExtractors) {
+            String[] values = transactions.stream()
+                    .map(columnExtractor)
+                    .map(WinningTransactionDaoImpl::toArrayElement)
+                    .toArray(String[]::new);
+            preparedStatement.setArray(index++, connection.createArrayOf("varchar", values));
+        }
+        return preparedStatement;
+    }
+
+
+    private static String toArrayElement(Object value) {
+        if (value == null) {
+            return null;
+
+        } else if (value instanceof OffsetDateTime) {
+            return ((OffsetDateTime) value).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+
+        } else {
+            return value.toString();
+        }
+    }
+
+
     @Slf4j
     static class WinningTransactionMapper implements RowMapper<WinningTransaction> {
 
@@ -321,6 +919,36 @@ class WinningTransactionDaoImpl implements WinningTransactionDao {
         }
     }
 
+    /**
+     * Extractor of a {@link WinningTransactionPage}, filling the columns directly from the result set
+     */
+    static class WinningTransactionPageExtractor implements ResultSetExtractor<WinningTransactionPage> {
+
+        private final int expectedSize;
+
+
+        WinningTransactionPageExtractor(int expectedSize) {
+            this.expectedSize = expectedSize;
+        }
+
+
+        @Override
+        public WinningTransactionPage extractData(ResultSet rs) throws SQLException {
+            WinningTransactionPage page = new WinningTransactionPage(expectedSize);
+            while (rs.next()) {
+                page.add(rs.getString("id_trx_acquirer_s"),
+                        rs.getString("acquirer_c"),
+                        rs.getObject("trx_timestamp_t", OffsetDateTime.class),
+                        rs.getString("operation_type_c"),
+                        rs.getString("acquirer_id_s"),
+                        rs.getString("fiscal_code_s"),
+                        rs.getBigDecimal("amount_i"),
+                        rs.getBigDecimal("score_n"));
+            }
+            return page;
+        }
+    }
+
     @Slf4j
     static class WinningTransactionTotalTransferMapper extends WinningTransactionMapper {
 
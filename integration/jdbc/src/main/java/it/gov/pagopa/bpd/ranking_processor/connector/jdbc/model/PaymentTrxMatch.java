@@ -0,0 +1,24 @@
+package it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Result of the match of a transfer against the payments
+ */
+@Data
+@Builder
+public class PaymentTrxMatch {
+
+    private WinningTransaction payment;
+    private int matchCount;
+    private BigDecimal processedTransferAmount;
+
+
+    public boolean isAmbiguous() {
+        return matchCount > 1;
+    }
+
+}
@@ -0,0 +1,31 @@
+package it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Statistics of the citizens of an award period sharing the same transaction number,
+ * compared with the ranking assigned to them by the last ranking update
+ */
+@Data
+@Builder
+public class RankingBucket {
+
+    private long transactionNumber;
+    private long citizenCount;
+    private long distinctRankingCount;
+    private Long minRanking;
+    private Long maxRanking;
+    private long changedCount;
+
+
+    /**
+     * @return true if the citizens hold distinct rankings without gaps, i.e. their relative order is still valid
+     */
+    public boolean isContiguous() {
+        return minRanking != null
+                && distinctRankingCount == citizenCount
+                && maxRanking - minRanking + 1 == citizenCount;
+    }
+
+}
@@ -57,6 +57,8 @@ public class WinningTransaction implements Serializable {
         private BigDecimal amount;
         private String merchantId;
         private String terminalId;
+        private Integer partitionCount;
+        private Integer partitionIndex;
     }
 
 }
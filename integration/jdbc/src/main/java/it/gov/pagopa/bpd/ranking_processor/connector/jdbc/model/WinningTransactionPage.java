@@ -0,0 +1,272 @@
+package it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar representation of a page of {@link WinningTransaction}, holding a primitive array for each column.
+ * Amounts and scores are kept as euro cents, timestamps as epoch microseconds and the low cardinality columns
+ * (acquirer code, acquirer id and operation type) as indexes of a dictionary shared by the page.
+ * Missing amounts are tracked by a null mask, while the score is mandatory as it makes up the cashback.
+ * Consecutive equal fiscal codes share the same instance, as pages are extracted sorted by fiscal code
+ */
+public final class WinningTransactionPage {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Map<String, Integer> dictionaryIndexes = new HashMap<>();
+    private String[] dictionary = new String[MIN_CAPACITY];
+    private int dictionarySize;
+
+    private String[] idTrxAcquirers;
+    private int[] acquirerCodes;
+    private int[] acquirerIds;
+    private int[] operationTypes;
+    private long[] trxEpochMicros;
+    private String[] fiscalCodes;
+    private long[] amountCents;
+    private long[] scoreCents;
+    private final BitSet missingAmounts = new BitSet();
+    private int size;
+
+
+    public WinningTransactionPage() {
+        this(MIN_CAPACITY);
+    }
+
+
+    public WinningTransactionPage(int expectedSize) {
+        allocate(Math.max(expectedSize, 1));
+    }
+
+
+    /**
+     * Append a transaction to the page
+     *
+     * @param idTrxAcquirer the acquirer transaction id
+     * @param acquirerCode  the acquirer code
+     * @param trxDate       the transaction timestamp
+     * @param operationType the operation type
+     * @param acquirerId    the acquirer id
+     * @param fiscalCode    the citizen fiscal code
+     * @param amount        the amount, rounded to euro cents, possibly null
+     * @param score         the score, rounded to euro cents
+     * @throws IllegalArgumentException if the score is missing
+     */
+    public void add(String idTrxAcquirer,
+                    String acquirerCode,
+                    OffsetDateTime trxDate,
+                    String operationType,
+                    String acquirerId,
+                    String fiscalCode,
+                    BigDecimal amount,
+                    BigDecimal score) {
+        if (score == null) {
+            throw new IllegalArgumentException(String.format("Missing score of transaction %s, acquirer code %s, operation type %s",
+                    idTrxAcquirer, acquirerCode, operationType));
+        }
+        if (size == idTrxAcquirers.length) {
+            grow();
+        }
+
+        idTrxAcquirers[size] = idTrxAcquirer;
+        acquirerCodes[size] = encode(acquirerCode);
+        trxEpochMicros[size] = toEpochMicros(trxDate);
+        operationTypes[size] = encode(operationType);
+        acquirerIds[size] = encode(acquirerId);
+        fiscalCodes[size] = size > 0 && fiscalCodes[size - 1] != null && fiscalCodes[size - 1].equals(fiscalCode)
+                ? fiscalCodes[size - 1]
+                : fiscalCode;
+        if (amount == null) {
+            missingAmounts.set(size);
+        } else {
+            amountCents[size] = toCents(amount);
+        }
+        scoreCents[size] = toCents(score);
+        size++;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    public String getIdTrxAcquirer(int index) {
+        return idTrxAcquirers[checkIndex(index)];
+    }
+
+
+    public String getAcquirerCode(int index) {
+        return decode(acquirerCodes[checkIndex(index)]);
+    }
+
+
+    public String getAcquirerId(int index) {
+        return decode(acquirerIds[checkIndex(index)]);
+    }
+
+
+    public String getOperationType(int index) {
+        return decode(operationTypes[checkIndex(index)]);
+    }
+
+
+    /**
+     * @return the transaction timestamp as epoch microseconds, {@link Long#MIN_VALUE} if missing
+     */
+    public long getTrxEpochMicros(int index) {
+        return trxEpochMicros[checkIndex(index)];
+    }
+
+
+    /**
+     * @return the transaction timestamp at UTC offset, null if missing
+     */
+    public OffsetDateTime getTrxDate(int index) {
+        return toOffsetDateTime(getTrxEpochMicros(index));
+    }
+
+
+    public String getFiscalCode(int index) {
+        return fiscalCodes[checkIndex(index)];
+    }
+
+
+    /**
+     * @return false if the amount of the transaction is missing
+     */
+    public boolean hasAmount(int index) {
+        return !missingAmounts.get(checkIndex(index));
+    }
+
+
+    /**
+     * @throws IllegalStateException if the amount of the transaction is missing, see {@link #hasAmount(int)}
+     */
+    public long getAmountCents(int index) {
+        if (!hasAmount(index)) {
+            throw new IllegalStateException(String.format("Missing amount of transaction %s", idTrxAcquirers[index]));
+        }
+        return amountCents[index];
+    }
+
+
+    public long getScoreCents(int index) {
+        return scoreCents[checkIndex(index)];
+    }
+
+
+    /**
+     * @return true if the transaction is a transfer, i.e. its operation type is 01
+     */
+    public boolean isTransfer(int index) {
+        return "01".equals(getOperationType(index));
+    }
+
+
+    /**
+     * Materialize a single transaction of the page, e.g. to be used as keyset of the next extraction
+     */
+    public WinningTransaction toWinningTransaction(int index) {
+        return WinningTransaction.builder()
+                .idTrxAcquirer(getIdTrxAcquirer(index))
+                .acquirerCode(getAcquirerCode(index))
+                .trxDate(getTrxDate(index))
+                .operationType(getOperationType(index))
+                .acquirerId(getAcquirerId(index))
+                .fiscalCode(getFiscalCode(index))
+                .amount(hasAmount(index) ? BigDecimal.valueOf(getAmountCents(index), 2) : null)
+                .score(BigDecimal.valueOf(getScoreCents(index), 2))
+                .build();
+    }
+
+
+    private int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        Integer index = dictionaryIndexes.get(value);
+        if (index == null) {
+            if (dictionarySize == dictionary.length) {
+                dictionary = Arrays.copyOf(dictionary, dictionarySize << 1);
+            }
+            index = dictionarySize;
+            dictionary[dictionarySize++] = value;
+            dictionaryIndexes.put(value, index);
+        }
+        return index;
+    }
+
+
+    private String decode(int code) {
+        return code < 0 ? null : dictionary[code];
+    }
+
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+
+    private void grow() {
+        int capacity = idTrxAcquirers.length << 1;
+        idTrxAcquirers = Arrays.copyOf(idTrxAcquirers, capacity);
+        acquirerCodes = Arrays.copyOf(acquirerCodes, capacity);
+        acquirerIds = Arrays.copyOf(acquirerIds, capacity);
+        operationTypes = Arrays.copyOf(operationTypes, capacity);
+        trxEpochMicros = Arrays.copyOf(trxEpochMicros, capacity);
+        fiscalCodes = Arrays.copyOf(fiscalCodes, capacity);
+        amountCents = Arrays.copyOf(amountCents, capacity);
+        scoreCents = Arrays.copyOf(scoreCents, capacity);
+    }
+
+
+    private void allocate(int capacity) {
+        idTrxAcquirers = new String[capacity];
+        acquirerCodes = new int[capacity];
+        acquirerIds = new int[capacity];
+        operationTypes = new int[capacity];
+        trxEpochMicros = new long[capacity];
+        fiscalCodes = new String[capacity];
+        amountCents = new long[capacity];
+        scoreCents = new long[capacity];
+    }
+
+
+    private static long toCents(BigDecimal value) {
+        return value.setScale(2, RoundingMode.HALF_DOWN).unscaledValue().longValueExact();
+    }
+
+
+    private static long toEpochMicros(OffsetDateTime timestamp) {
+        return timestamp == null
+                ? Long.MIN_VALUE
+                : timestamp.toEpochSecond() * 1_000_000L + timestamp.getNano() / 1_000;
+    }
+
+
+    private static OffsetDateTime toOffsetDateTime(long epochMicros) {
+        return epochMicros == Long.MIN_VALUE
+                ? null
+                : OffsetDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L),
+                Math.floorMod(epochMicros, 1_000_000L) * 1_000L), ZoneOffset.UTC);
+    }
+
+}
@@ -4,24 +4,34 @@ package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
 import it.gov.pagopa.bpd.common.BaseTest;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRanking;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.CitizenRankingExt;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.RankingBucket;
 import lombok.SneakyThrows;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.jdbc.core.*;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsertOperations;
+import org.springframework.util.FileCopyUtils;
 
+import java.io.Reader;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -40,6 +50,7 @@ public class CitizenRankingDaoImplTest extends BaseTest {
                 "bpd_citizen_ranking",
                 "bpd_citizen_ranking_ext",
                 "bpd_ranking_processor_lock",
+                "bpd_citizen_ranking_delta_stage",
                 "update_ranking_with_milestone");
         Field insertRankingOps = CitizenRankingDaoImpl.class.getDeclaredField("insertRankingOps");
         insertRankingOps.setAccessible(true);
@@ -64,6 +75,66 @@ public class CitizenRankingDaoImplTest extends BaseTest {
     }
 
 
+    @Test
+    public void upsertCashbackOK() {
+        Mockito.when(jdbcTemplateMock.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class)))
+                .thenReturn(new int[]{1});
+
+        int[] affectedRows = citizenRankingDao.upsertCashback(Collections.singletonList(new CitizenRanking()));
+
+        Assert.assertNotNull(affectedRows);
+        Assert.assertEquals(1, affectedRows.length);
+        Mockito.verify(jdbcTemplateMock, Mockito.only())
+                .batchUpdate(Mockito.contains("on conflict"), any(BatchPreparedStatementSetter.class));
+    }
+
+
+    @SneakyThrows
+    @Test
+    public void copyCashbackOK() {
+        CopyManager copyManagerMock = Mockito.mock(CopyManager.class);
+        PGConnection pgConnectionMock = Mockito.mock(PGConnection.class);
+        Connection connectionMock = Mockito.mock(Connection.class);
+        Mockito.when(connectionMock.unwrap(PGConnection.class))
+                .thenReturn(pgConnectionMock);
+        Mockito.when(pgConnectionMock.getCopyAPI())
+                .thenReturn(copyManagerMock);
+        Mockito.when(copyManagerMock.copyIn(anyString(), any(Reader.class)))
+                .thenReturn(2L);
+        Mockito.when(jdbcTemplateMock.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(0, ConnectionCallback.class)
+                        .doInConnection(connectionMock));
+        Mockito.when(jdbcTemplateMock.update(Mockito.startsWith("with s as (delete from bpd_citizen_ranking_delta_stage")))
+                .thenReturn(2);
+        List<CitizenRanking> citizenRankings = Arrays.asList(CitizenRanking.builder()
+                        .fiscalCode("fiscalCode1")
+                        .awardPeriodId(1L)
+                        .transactionNumber(1L)
+                        .totalCashback(BigDecimal.ONE)
+                        .updateDate(OffsetDateTime.now())
+                        .updateUser("user")
+                        .build(),
+                CitizenRanking.builder()
+                        .fiscalCode("fiscalCode2")
+                        .awardPeriodId(1L)
+                        .build());
+
+        int affectedRows = citizenRankingDao.copyCashback(citizenRankings);
+
+        Assert.assertEquals(2, affectedRows);
+        ArgumentCaptor<Reader> readerCaptor = ArgumentCaptor.forClass(Reader.class);
+        Mockito.verify(copyManagerMock).copyIn(Mockito.startsWith("copy bpd_citizen_ranking_delta_stage ("), readerCaptor.capture());
+        String[] csvLines = FileCopyUtils.copyToString(readerCaptor.getValue()).split("\n");
+        Assert.assertEquals(2, csvLines.length);
+        Assert.assertTrue(csvLines[0].startsWith("\"fiscalCode1\",1,1,1,"));
+        Assert.assertEquals("\"fiscalCode2\",1,,,,,", csvLines[1]);
+        ArgumentCaptor<String> mergeSqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(jdbcTemplateMock).update(mergeSqlCaptor.capture());
+        Assert.assertTrue(mergeSqlCaptor.getValue().contains("order by s.fiscal_code_c, s.award_period_id_n on conflict (fiscal_code_c, award_period_id_n) do update"));
+        Mockito.verify(jdbcTemplateMock, Mockito.never()).execute(anyString());
+    }
+
+
     @Test
     public void insertCashbackOK() {
         Mockito.when(insertRankingOpsMock.executeBatch(any(SqlParameterSource[].class)))
@@ -99,6 +170,41 @@ public class CitizenRankingDaoImplTest extends BaseTest {
         Assert.assertNotNull(results);
     }
 
+    @Test
+    @SneakyThrows
+    public void findAllOK_withKeyset() {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.emptyList());
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        CitizenRanking lastExtracted = CitizenRanking.builder()
+                .fiscalCode("fiscalCode")
+                .transactionNumber(1L)
+                .build();
+        List<CitizenRanking> results = citizenRankingDao.findAll(filterCriteria, lastExtracted, 1);
+
+        Assert.assertNotNull(results);
+        ArgumentCaptor<PreparedStatementCreator> statementCreatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(statementCreatorCaptor.capture(), any(PreparedStatementSetter.class), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        statementCreatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        Assert.assertTrue(sqlCaptor.getValue().endsWith(" LIMIT 1 FOR UPDATE"));
+        Assert.assertFalse(sqlCaptor.getValue().contains("OFFSET"));
+    }
+
+    @Test
+    public void findAllOK_withoutKeyset() {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.emptyList());
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        List<CitizenRanking> results = citizenRankingDao.findAll(filterCriteria, null, 1);
+
+        Assert.assertNotNull(results);
+    }
+
 
     @Test
     public void updateRankingOK() {
@@ -112,6 +218,159 @@ public class CitizenRankingDaoImplTest extends BaseTest {
     }
 
 
+    @Test
+    @SneakyThrows
+    public void updateRankingWindowOK() {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.getLong("total_participants")).thenReturn(2L);
+        Mockito.when(resultSetMock.getObject("max_transaction_n", Long.class)).thenReturn(10L);
+        Mockito.when(resultSetMock.getObject("min_transaction_n", Long.class)).thenReturn(5L);
+        Mockito.when(jdbcTemplateMock.queryForObject(Mockito.contains("row_number() over (order by transaction_n desc, last_trx_timestamp_t asc nulls first, timestamp_tc_t asc nulls last, fiscal_code_c)"), any(RowMapper.class), any()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(1, RowMapper.class).mapRow(resultSetMock, 0));
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        CitizenRankingExt result = citizenRankingDao.updateRankingWindow(filterCriteria, 0L, 3L, 100, true, "updateUser");
+
+        Assert.assertNotNull(result);
+        Assert.assertEquals(Long.valueOf(1L), result.getAwardPeriodId());
+        Assert.assertEquals(Long.valueOf(3L), result.getMinPosition());
+        Assert.assertEquals(Long.valueOf(2L), result.getTotalParticipants());
+        Assert.assertEquals(Long.valueOf(10L), result.getMaxTransactionNumber());
+        Assert.assertEquals(Long.valueOf(5L), result.getMinTransactionNumber());
+    }
+
+
+    @Test
+    @SneakyThrows
+    public void updateRankingWindowOK_withoutTcTieBreak() {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.getLong("total_participants")).thenReturn(2L);
+        Mockito.when(jdbcTemplateMock.queryForObject(Mockito.<String>argThat(sql -> sql.contains("row_number() over") && !sql.contains("timestamp_tc_t asc")), any(RowMapper.class), any()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(1, RowMapper.class).mapRow(resultSetMock, 0));
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        CitizenRankingExt result = citizenRankingDao.updateRankingWindow(filterCriteria, 0L, 3L, 100, false, "updateUser");
+
+        Assert.assertNotNull(result);
+        Assert.assertEquals(Long.valueOf(2L), result.getTotalParticipants());
+    }
+
+
+    @Test
+    @SneakyThrows
+    public void findTransactionNumberHistogramOK() {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.next()).thenReturn(true, true, false);
+        Mockito.when(resultSetMock.getLong("transaction_n")).thenReturn(10L, 3L);
+        Mockito.when(resultSetMock.getLong("citizen_n")).thenReturn(1L, 4L);
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(2, ResultSetExtractor.class).extractData(resultSetMock));
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        Map<Long, Long> histogram = citizenRankingDao.findTransactionNumberHistogram(filterCriteria);
+
+        Assert.assertEquals(Arrays.asList(10L, 3L), new ArrayList<>(histogram.keySet()));
+        Assert.assertEquals(Arrays.asList(1L, 4L), new ArrayList<>(histogram.values()));
+    }
+
+
+    @Test
+    public void updateRankingBucketOK() {
+        Mockito.when(jdbcTemplateMock.update(Mockito.contains("order by last_trx_timestamp_t asc nulls first, timestamp_tc_t asc nulls last, fiscal_code_c"), Mockito.<Object>any()))
+                .thenReturn(3);
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        int result = citizenRankingDao.updateRankingBucket(filterCriteria, 5L, 10L, 100, true, "updateUser");
+
+        Assert.assertEquals(3, result);
+    }
+
+
+    @Test
+    public void updateRankingBucketOK_withoutTcTieBreak() {
+        Mockito.when(jdbcTemplateMock.update(Mockito.<String>argThat(sql -> sql.contains("bcr.transaction_n = ?") && !sql.contains("timestamp_tc_t asc")), Mockito.<Object>any()))
+                .thenReturn(3);
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        int result = citizenRankingDao.updateRankingBucket(filterCriteria, 5L, 10L, 100, false, "updateUser");
+
+        Assert.assertEquals(3, result);
+    }
+
+
+    @Test
+    public void findLastRankingDateOK() {
+        OffsetDateTime rankingDate = OffsetDateTime.now();
+        Mockito.when(jdbcTemplateMock.query(Mockito.contains("total_participants is not null"), any(RowMapper.class), Mockito.<Object>any()))
+                .thenReturn(Collections.singletonList(rankingDate));
+
+        Assert.assertEquals(rankingDate, citizenRankingDao.findLastRankingDate(1L));
+    }
+
+
+    @Test
+    public void findRankingBucketsOK() {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.singletonList(RankingBucket.builder().build()));
+
+        List<RankingBucket> buckets = citizenRankingDao.findRankingBuckets(1L, null);
+
+        Assert.assertEquals(1, buckets.size());
+    }
+
+
+    @Test
+    public void shiftRankingBucketOK() {
+        Mockito.when(jdbcTemplateMock.update(Mockito.contains("ranking_n = bcr.ranking_n + ?"), Mockito.<Object>any()))
+                .thenReturn(2);
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        int result = citizenRankingDao.shiftRankingBucket(filterCriteria, 5L, 3L, 100, "updateUser");
+
+        Assert.assertEquals(2, result);
+    }
+
+
+    @Test
+    @SneakyThrows
+    public void rerankBucketOK() {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.getInt("citizen_n")).thenReturn(3);
+        Mockito.when(resultSetMock.getLong("moved_n")).thenReturn(1L);
+        Mockito.when(jdbcTemplateMock.queryForObject(Mockito.contains("is distinct from ranked.ranking_n"), any(RowMapper.class), any()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(1, RowMapper.class).mapRow(resultSetMock, 0));
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        int result = citizenRankingDao.rerankBucket(filterCriteria, 5L, 10L, 200L, 100, true, "updateUser");
+
+        Assert.assertEquals(3, result);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(jdbcTemplateMock).queryForObject(sqlCaptor.capture(), any(RowMapper.class),
+                Mockito.eq(1L), Mockito.eq(5L), Mockito.eq(200L), Mockito.eq(100), Mockito.eq(210L), any(), Mockito.eq("updateUser"));
+        Assert.assertTrue(sqlCaptor.getValue().contains("offset ? limit ?"));
+        Assert.assertTrue(sqlCaptor.getValue().contains("timestamp_tc_t asc nulls last"));
+    }
+
+
+    @Test
+    @SneakyThrows
+    public void rerankBucketOK_withoutTcTieBreak() {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.getInt("citizen_n")).thenReturn(3);
+        Mockito.when(jdbcTemplateMock.queryForObject(Mockito.contains("is distinct from ranked.ranking_n"), any(RowMapper.class), any()))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(1, RowMapper.class).mapRow(resultSetMock, 0));
+
+        CitizenRanking.FilterCriteria filterCriteria = new CitizenRanking.FilterCriteria(1L, OffsetDateTime.now());
+        int result = citizenRankingDao.rerankBucket(filterCriteria, 5L, 10L, 200L, 100, false, "updateUser");
+
+        Assert.assertEquals(3, result);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(jdbcTemplateMock).queryForObject(sqlCaptor.capture(), any(RowMapper.class),
+                Mockito.eq(1L), Mockito.eq(5L), Mockito.eq(200L), Mockito.eq(100), Mockito.eq(210L), any(), Mockito.eq("updateUser"));
+        Assert.assertFalse(sqlCaptor.getValue().contains("timestamp_tc_t asc"));
+    }
+
+
     @Test
     public void updateRankingExtOK() {
         int result = citizenRankingDao.updateRankingExt(CitizenRankingExt.builder().build());
@@ -137,6 +396,44 @@ public class CitizenRankingDaoImplTest extends BaseTest {
         Assert.assertNotNull(result);
     }
 
+    @Test
+    @SneakyThrows
+    public void findUserTcTimestampsOK() {
+        OffsetDateTime tcTimestamp = OffsetDateTime.now();
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.next()).thenReturn(true, false);
+        Mockito.when(resultSetMock.getString("fiscal_code_s")).thenReturn("fiscalCode1");
+        Mockito.when(resultSetMock.getObject("timestamp_tc_t", OffsetDateTime.class)).thenReturn(tcTimestamp);
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenAnswer(invocationOnMock -> invocationOnMock.getArgument(2, ResultSetExtractor.class).extractData(resultSetMock));
+
+        Map<String, OffsetDateTime> result = citizenRankingDao.findUserTcTimestamps(Arrays.asList("fiscalCode1", "fiscalCode2"));
+
+        Assert.assertEquals(Collections.singletonMap("fiscalCode1", tcTimestamp), result);
+    }
+
+    public static class RankingBucketMapperTest {
+
+        @Test
+        @SneakyThrows
+        public void mapRowOK() {
+            ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+            Mockito.when(resultSetMock.getLong("transaction_n")).thenReturn(5L);
+            Mockito.when(resultSetMock.getLong("citizen_n")).thenReturn(3L);
+            Mockito.when(resultSetMock.getLong("distinct_ranking_n")).thenReturn(3L);
+            Mockito.when(resultSetMock.getObject("min_ranking_n", Long.class)).thenReturn(4L);
+            Mockito.when(resultSetMock.getObject("max_ranking_n", Long.class)).thenReturn(6L);
+            Mockito.when(resultSetMock.getLong("changed_n")).thenReturn(0L);
+
+            RankingBucket bucket = new CitizenRankingDaoImpl.RankingBucketMapper().mapRow(resultSetMock, 0);
+
+            Assert.assertEquals(5L, bucket.getTransactionNumber());
+            Assert.assertTrue(bucket.isContiguous());
+            bucket.setMaxRanking(7L);
+            Assert.assertFalse(bucket.isContiguous());
+        }
+    }
+
     public static class CitizenRankingMapperTest {
 
         private final CitizenRankingDaoImpl.CitizenRankingMapper citizenRankingMapper;
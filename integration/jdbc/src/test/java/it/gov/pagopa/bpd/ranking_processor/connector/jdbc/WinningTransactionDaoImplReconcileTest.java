@@ -0,0 +1,145 @@
+package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
+
+import io.zonky.test.db.postgres.junit.EmbeddedPostgresRules;
+import io.zonky.test.db.postgres.junit.SingleInstancePostgresRule;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class WinningTransactionDaoImplReconcileTest {
+
+    @ClassRule
+    public static final SingleInstancePostgresRule POSTGRES = EmbeddedPostgresRules.singleInstance();
+
+    private static final String FISCAL_CODE = "fiscalCode";
+    private static final long AWARD_PERIOD_ID = 1L;
+
+    private JdbcTemplate jdbcTemplate;
+    private WinningTransactionDaoImpl winningTransactionDao;
+
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = new JdbcTemplate(POSTGRES.getEmbeddedPostgres().getPostgresDatabase());
+        jdbcTemplate.execute("drop table if exists bpd_winning_transaction, bpd_winning_transaction_transfer, bpd_citizen_ranking, bpd_citizen");
+        jdbcTemplate.execute("create table bpd_winning_transaction (id_trx_acquirer_s varchar, acquirer_c varchar, trx_timestamp_t timestamptz, operation_type_c varchar, acquirer_id_s varchar, "
+                + "fiscal_code_s varchar, hpan_s varchar, correlation_id_s varchar, merchant_id_s varchar, terminal_id_s varchar, amount_i numeric, score_n numeric, award_period_id_n bigint, "
+                + "enabled_b boolean, elab_ranking_b boolean, update_date_t timestamptz, update_user_s varchar, "
+                + "primary key (id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s))");
+        jdbcTemplate.execute("create table bpd_winning_transaction_transfer (id_trx_acquirer_s varchar, acquirer_c varchar, trx_timestamp_t timestamptz, operation_type_c varchar, acquirer_id_s varchar, "
+                + "fiscal_code_s varchar, hpan_s varchar, correlation_id_s varchar, merchant_id_s varchar, terminal_id_s varchar, amount_i numeric, score_n numeric, award_period_id_n bigint, "
+                + "insert_date_t timestamptz, update_date_t timestamptz, update_user_s varchar, partial_transfer_b boolean, parked_b boolean, "
+                + "primary key (id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s))");
+        jdbcTemplate.execute("create table bpd_citizen_ranking (fiscal_code_c varchar, award_period_id_n bigint, transaction_n bigint, cashback_n numeric, "
+                + "insert_date_t timestamptz, insert_user_s varchar, update_date_t timestamptz, update_user_s varchar, primary key (fiscal_code_c, award_period_id_n))");
+        jdbcTemplate.execute("create table bpd_citizen (fiscal_code_s varchar primary key, enabled_b boolean)");
+        jdbcTemplate.update("insert into bpd_citizen values (?, true)", FISCAL_CODE);
+        jdbcTemplate.update("insert into bpd_citizen_ranking (fiscal_code_c, award_period_id_n, transaction_n, cashback_n) values (?, ?, 5, 10)",
+                FISCAL_CODE, AWARD_PERIOD_ID);
+
+        winningTransactionDao = new WinningTransactionDaoImpl(jdbcTemplate, true, "elab_ranking_b", "bpd_winning_transaction_transfer", false, false, "bpd_transfer_balance", "bpd_citizen_ranking", "bpd_citizen");
+    }
+
+
+    @Test
+    public void reconcileTotalTransferOK_classification() {
+        insertPayment("payment-correlated", "hpan", "correlation", "10.00", null, null);
+        insertPayment("payment-uncorrelated", "hpan", null, "20.00", "merchant", "terminal");
+        insertPayment("payment-partial", "hpan", "partial", "30.00", null, null);
+        insertPayment("payment-overflow", "hpan", "overflow", "5.00", null, null);
+        insertPayment("payment-ambiguous-1", "hpan", "ambiguous", "7.00", null, null);
+        insertPayment("payment-ambiguous-2", "hpan", "ambiguous", "7.00", null, null);
+        OffsetDateTime now = OffsetDateTime.now();
+        insertTransfer("total-correlated", "hpan", "correlation", "10.00", null, null, "-0.125", now);
+        insertTransfer("total-uncorrelated", "hpan", " ", "20.00", "merchant", "terminal", "-1.005", now);
+        insertTransfer("partial", "hpan", "partial", "12.00", null, null, "-1.2", now);
+        insertTransfer("partial-overflow", "hpan", "overflow", "6.00", null, null, "-0.6", now);
+        insertTransfer("ambiguous", "hpan", "ambiguous", "7.00", null, null, "-0.7", now);
+        insertTransfer("unrelated", "other-hpan", null, "20.00", "merchant", "terminal", "-2", now);
+        insertTransfer("old", "hpan", "correlation", "10.00", null, null, "-1", now.minusMonths(2));
+
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(AWARD_PERIOD_ID);
+        filterCriteria.setUpdateDate(now);
+        int pageSize = winningTransactionDao.reconcileTotalTransfer(filterCriteria, now.minusMonths(1), "user", 10);
+
+        Assert.assertEquals(7, pageSize);
+        List<Map<String, Object>> transfers = jdbcTemplate.queryForList(
+                "select id_trx_acquirer_s, partial_transfer_b, parked_b, update_user_s from bpd_winning_transaction_transfer order by id_trx_acquirer_s");
+        Assert.assertEquals(4, transfers.size());
+        assertTransfer(transfers.get(0), "ambiguous", null, true);
+        assertTransfer(transfers.get(1), "partial", true, null);
+        assertTransfer(transfers.get(2), "partial-overflow", true, true);
+        assertTransfer(transfers.get(3), "unrelated", null, null);
+        Assert.assertEquals(Arrays.asList("total-correlated", "total-uncorrelated"), jdbcTemplate.queryForList(
+                "select id_trx_acquirer_s from bpd_winning_transaction where operation_type_c = '01' and elab_ranking_b is true order by id_trx_acquirer_s",
+                String.class));
+        Map<String, Object> ranking = jdbcTemplate.queryForMap("select transaction_n, cashback_n from bpd_citizen_ranking where fiscal_code_c = ? and award_period_id_n = ?",
+                FISCAL_CODE, AWARD_PERIOD_ID);
+        Assert.assertEquals(3L, ((Number) ranking.get("transaction_n")).longValue());
+        // -0.125 and -1.005 are rounded half down to -0.12 and -1.00
+        Assert.assertEquals(0, new BigDecimal("8.88").compareTo((BigDecimal) ranking.get("cashback_n")));
+    }
+
+
+    @Test
+    public void reconcileTotalTransferOK_pageNotExtractedTwice() {
+        insertPayment("payment", "hpan", "correlation", "30.00", null, null);
+        OffsetDateTime now = OffsetDateTime.now();
+        insertTransfer("partial", "hpan", "correlation", "12.00", null, null, "-1.2", now);
+        insertTransfer("unrelated", "other-hpan", null, "20.00", "merchant", "terminal", "-2", now);
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(AWARD_PERIOD_ID);
+        filterCriteria.setUpdateDate(now);
+
+        Assert.assertEquals(2, winningTransactionDao.reconcileTotalTransfer(filterCriteria, now.minusMonths(1), "user", 10));
+        Assert.assertEquals(0, winningTransactionDao.reconcileTotalTransfer(filterCriteria, now.minusMonths(1), "user", 10));
+        Assert.assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject("select count(*) from bpd_winning_transaction_transfer", Integer.class));
+    }
+
+
+    @Test
+    public void findDatabaseIdentityOK() {
+        String identity = winningTransactionDao.findDatabaseIdentity();
+
+        Assert.assertNotNull(identity);
+        Assert.assertTrue(identity.endsWith(":postgres"));
+        Assert.assertEquals(identity, winningTransactionDao.findDatabaseIdentity());
+    }
+
+
+    private void insertPayment(String id, String hpan, String correlationId, String amount, String merchantId, String terminalId) {
+        jdbcTemplate.update("insert into bpd_winning_transaction (id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s, fiscal_code_s, hpan_s, correlation_id_s, merchant_id_s, terminal_id_s, amount_i, score_n, award_period_id_n, enabled_b, elab_ranking_b) "
+                        + "values (?, 'acquirer', now(), '00', 'acquirerId', ?, ?, ?, ?, ?, ?, ?, ?, true, true)",
+                id, FISCAL_CODE, hpan, correlationId, merchantId, terminalId, new BigDecimal(amount), new BigDecimal(amount).movePointLeft(1), AWARD_PERIOD_ID);
+    }
+
+    private void insertTransfer(String id, String hpan, String correlationId, String amount, String merchantId, String terminalId, String score, OffsetDateTime insertDate) {
+        Timestamp trxTimestamp = new Timestamp(System.currentTimeMillis());
+        Object[] values = {id, trxTimestamp, FISCAL_CODE, hpan, correlationId, merchantId, terminalId, new BigDecimal(amount), new BigDecimal(score), AWARD_PERIOD_ID};
+        jdbcTemplate.update("insert into bpd_winning_transaction (id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s, fiscal_code_s, hpan_s, correlation_id_s, merchant_id_s, terminal_id_s, amount_i, score_n, award_period_id_n, enabled_b, elab_ranking_b) "
+                + "values (?, 'acquirer', ?, '01', 'acquirerId', ?, ?, ?, ?, ?, ?, ?, ?, true, false)", values);
+        jdbcTemplate.update("insert into bpd_winning_transaction_transfer (id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s, fiscal_code_s, hpan_s, correlation_id_s, merchant_id_s, terminal_id_s, amount_i, score_n, award_period_id_n, insert_date_t) "
+                        + "values (?, 'acquirer', ?, '01', 'acquirerId', ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7], values[8], values[9],
+                new Timestamp(insertDate.toInstant().toEpochMilli()));
+    }
+
+    private void assertTransfer(Map<String, Object> transfer, String id, Boolean partialTransfer, Boolean parked) {
+        Assert.assertEquals(id, transfer.get("id_trx_acquirer_s"));
+        Assert.assertEquals(id, partialTransfer, transfer.get("partial_transfer_b"));
+        Assert.assertEquals(id, parked, transfer.get("parked_b"));
+        Assert.assertEquals(id, "user", transfer.get("update_user_s"));
+    }
+
+}
@@ -3,17 +3,25 @@ package it.gov.pagopa.bpd.ranking_processor.connector.jdbc;
 
 import eu.sia.meda.util.TestUtils;
 import it.gov.pagopa.bpd.common.BaseTest;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.PaymentTrxMatch;
 import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransaction;
+import it.gov.pagopa.bpd.ranking_processor.connector.jdbc.model.WinningTransactionPage;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.jdbc.core.*;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.Collections;
@@ -25,12 +33,16 @@ import static org.mockito.Mockito.doThrow;
 public class WinningTransactionDaoImplTest extends BaseTest {
 
     private final WinningTransactionDaoImpl winningWinningTransactionDao;
+    private final WinningTransactionDaoImpl bulkWinningTransactionDao;
+    private final WinningTransactionDaoImpl balanceWinningTransactionDao;
     private final JdbcTemplate jdbcTemplateMock;
 
 
     public WinningTransactionDaoImplTest() {
         jdbcTemplateMock = Mockito.mock(JdbcTemplate.class);
-        winningWinningTransactionDao = new WinningTransactionDaoImpl(jdbcTemplateMock, true, "elab_ranking_b", "bpd_winning_transaction_transfer");
+        winningWinningTransactionDao = new WinningTransactionDaoImpl(jdbcTemplateMock, true, "elab_ranking_b", "bpd_winning_transaction_transfer", false, false, "bpd_transfer_balance", "bpd_citizen_ranking", "bpd_citizen");
+        bulkWinningTransactionDao = new WinningTransactionDaoImpl(jdbcTemplateMock, true, "elab_ranking_b", "bpd_winning_transaction_transfer", true, false, "bpd_transfer_balance", "bpd_citizen_ranking", "bpd_citizen");
+        balanceWinningTransactionDao = new WinningTransactionDaoImpl(jdbcTemplateMock, true, "elab_ranking_b", "bpd_winning_transaction_transfer", false, true, "bpd_transfer_balance", "bpd_citizen_ranking", "bpd_citizen");
     }
 
 
@@ -58,6 +70,89 @@ public class WinningTransactionDaoImplTest extends BaseTest {
         Assert.assertEquals(0, transactions.size());
     }
 
+    @Test
+    public void findPaymentToProcessOK_keysetFirstPage() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.emptyList());
+
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(1L);
+        List<WinningTransaction> transactions = winningWinningTransactionDao.findPaymentToProcess(filterCriteria, null, 10);
+
+        Assert.assertNotNull(transactions);
+        Assert.assertEquals(0, transactions.size());
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        ArgumentCaptor<PreparedStatementSetter> setterCaptor = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), setterCaptor.capture(), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        Assert.assertFalse(sqlCaptor.getValue().contains(" > ("));
+        Assert.assertTrue(sqlCaptor.getValue().contains(" LIMIT 10"));
+        Assert.assertFalse(sqlCaptor.getValue().contains("OFFSET"));
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        setterCaptor.getValue().setValues(preparedStatementMock);
+        Mockito.verify(preparedStatementMock).setLong(1, 1L);
+        Mockito.verifyNoMoreInteractions(preparedStatementMock);
+    }
+
+    @Test
+    public void findPaymentToProcessOK_keysetNextPage() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.emptyList());
+
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(1L);
+        WinningTransaction lastExtracted = TestUtils.mockInstance(WinningTransaction.builder().build());
+        List<WinningTransaction> transactions = winningWinningTransactionDao.findPaymentToProcess(filterCriteria, lastExtracted, 10);
+
+        Assert.assertNotNull(transactions);
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        ArgumentCaptor<PreparedStatementSetter> setterCaptor = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), setterCaptor.capture(), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        Assert.assertTrue(sqlCaptor.getValue().contains("(fiscal_code_s, id_trx_acquirer_s, acquirer_c, trx_timestamp_t, operation_type_c, acquirer_id_s) > (?, ?, ?, ?, ?, ?)"));
+        Assert.assertTrue(sqlCaptor.getValue().endsWith(" LIMIT 10 FOR UPDATE SKIP LOCKED"));
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        setterCaptor.getValue().setValues(preparedStatementMock);
+        Mockito.verify(preparedStatementMock).setLong(1, 1L);
+        Mockito.verify(preparedStatementMock).setString(2, lastExtracted.getFiscalCode());
+        Mockito.verify(preparedStatementMock).setObject(5, lastExtracted.getTrxDate());
+        Mockito.verify(preparedStatementMock).setString(7, lastExtracted.getAcquirerId());
+    }
+
+    @Test
+    public void findPaymentToProcessOK_partitioned() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.emptyList());
+
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(1L);
+        filterCriteria.setPartitionCount(8);
+        filterCriteria.setPartitionIndex(3);
+        WinningTransaction lastExtracted = TestUtils.mockInstance(WinningTransaction.builder().build());
+        winningWinningTransactionDao.findPaymentToProcess(filterCriteria, lastExtracted, 10);
+
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        ArgumentCaptor<PreparedStatementSetter> setterCaptor = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), setterCaptor.capture(), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        Assert.assertTrue(sqlCaptor.getValue().contains("abs(hashtext(fiscal_code_s)::bigint) % 8 = ?"));
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        setterCaptor.getValue().setValues(preparedStatementMock);
+        Mockito.verify(preparedStatementMock).setLong(1, 1L);
+        Mockito.verify(preparedStatementMock).setInt(2, 3);
+        Mockito.verify(preparedStatementMock).setString(3, lastExtracted.getFiscalCode());
+        Mockito.verify(preparedStatementMock).setString(8, lastExtracted.getAcquirerId());
+    }
+
     @Test
     public void findTransferToProcessOK_withPage() {
         Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
@@ -111,6 +206,18 @@ public class WinningTransactionDaoImplTest extends BaseTest {
     }
 
 
+    @Test
+    public void findProcessedTranferAmountOK_transferBalance() {
+        Mockito.when(jdbcTemplateMock.queryForObject(contains("from bpd_transfer_balance balance"), eq(BigDecimal.class), any()))
+                .thenReturn(BigDecimal.TEN);
+
+        WinningTransaction.FilterCriteria filterCriteria = TestUtils.mockInstance(new WinningTransaction.FilterCriteria());
+        BigDecimal processedTranferAmount = balanceWinningTransactionDao.findProcessedTransferAmount(filterCriteria);
+
+        Assert.assertEquals(BigDecimal.TEN, processedTranferAmount);
+    }
+
+
     @Test
     public void findProcessedTranferAmountOK_notFound() {
         doThrow(EmptyResultDataAccessException.class)
@@ -145,6 +252,131 @@ public class WinningTransactionDaoImplTest extends BaseTest {
         Assert.assertNotNull(transaction);
     }
 
+    @Test
+    public void findPaymentTrxMatchesOK() throws SQLException {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.getInt("ord")).thenReturn(2);
+        Mockito.when(resultSetMock.getInt("match_count_n")).thenReturn(3);
+        Mockito.when(resultSetMock.getString("id_trx_acquirer_s")).thenReturn("idTrxAcquirer");
+        Mockito.doAnswer(invocationOnMock -> {
+            invocationOnMock.getArgument(1, RowCallbackHandler.class).processRow(resultSetMock);
+            return null;
+        }).when(jdbcTemplateMock).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        List<WinningTransaction> transfers = Arrays.asList(
+                TestUtils.mockInstance(WinningTransaction.builder().build(), 1),
+                TestUtils.mockInstance(WinningTransaction.builder().correlationId(" ").build(), 2, "setCorrelationId"));
+
+        List<PaymentTrxMatch> matches = winningWinningTransactionDao.findPaymentTrxMatches(1L, transfers);
+
+        Assert.assertEquals(2, matches.size());
+        Assert.assertNull(matches.get(0).getPayment());
+        Assert.assertEquals(0, matches.get(0).getMatchCount());
+        Assert.assertEquals("idTrxAcquirer", matches.get(1).getPayment().getIdTrxAcquirer());
+        Assert.assertEquals(3, matches.get(1).getMatchCount());
+        Assert.assertTrue(matches.get(1).isAmbiguous());
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(RowCallbackHandler.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connectionMock.prepareStatement(anyString()))
+                .thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        Mockito.verify(connectionMock).prepareStatement(contains("with ordinality"));
+        ArgumentCaptor<Object[]> valuesCaptor = ArgumentCaptor.forClass(Object[].class);
+        Mockito.verify(connectionMock, Mockito.times(7)).createArrayOf(eq("varchar"), valuesCaptor.capture());
+        Assert.assertArrayEquals(new Object[]{transfers.get(0).getCorrelationId(), null}, valuesCaptor.getAllValues().get(3));
+        Mockito.verify(preparedStatementMock).setLong(8, 1L);
+        Mockito.verify(preparedStatementMock).setLong(9, 1L);
+    }
+
+    @Test
+    public void findPaymentTrxWithProcessedTransferAmountOK() throws SQLException {
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.getInt("ord")).thenReturn(1);
+        Mockito.when(resultSetMock.getInt("match_count_n")).thenReturn(1);
+        Mockito.when(resultSetMock.getBigDecimal("amount_i")).thenReturn(BigDecimal.TEN);
+        Mockito.when(resultSetMock.getBigDecimal("processed_transfer_amount_i")).thenReturn(BigDecimal.ONE);
+        Mockito.doAnswer(invocationOnMock -> {
+            invocationOnMock.getArgument(1, RowCallbackHandler.class).processRow(resultSetMock);
+            return null;
+        }).when(jdbcTemplateMock).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        List<WinningTransaction> transfers = Collections.singletonList(
+                TestUtils.mockInstance(WinningTransaction.builder().build()));
+
+        List<PaymentTrxMatch> matches = winningWinningTransactionDao.findPaymentTrxWithProcessedTransferAmount(1L, transfers);
+
+        Assert.assertEquals(1, matches.size());
+        Assert.assertEquals(BigDecimal.TEN, matches.get(0).getPayment().getAmount());
+        Assert.assertEquals(BigDecimal.ONE, matches.get(0).getProcessedTransferAmount());
+        Assert.assertFalse(matches.get(0).isAmbiguous());
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(RowCallbackHandler.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connectionMock.prepareStatement(anyString()))
+                .thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        Mockito.verify(connectionMock).prepareStatement(contains("sum(processed.amount_i)"));
+        Mockito.verify(connectionMock, Mockito.times(4)).createArrayOf(eq("varchar"), any());
+        Mockito.verify(preparedStatementMock).setLong(5, 1L);
+        Mockito.verify(preparedStatementMock).setLong(6, 1L);
+    }
+
+    @Test
+    public void findPaymentTrxWithProcessedTransferAmountOK_transferBalance() throws SQLException {
+        List<WinningTransaction> transfers = Collections.singletonList(
+                TestUtils.mockInstance(WinningTransaction.builder().build()));
+
+        balanceWinningTransactionDao.findPaymentTrxWithProcessedTransferAmount(1L, transfers);
+
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(RowCallbackHandler.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connectionMock.prepareStatement(anyString()))
+                .thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        Mockito.verify(connectionMock).prepareStatement(contains("coalesce(balance.seed_amount_i + balance.processed_amount_i"));
+        Mockito.verify(preparedStatementMock).setLong(5, 1L);
+        Mockito.verify(preparedStatementMock).setLong(6, 1L);
+    }
+
+    @Test
+    public void findPaymentTrxByHpanOK() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.singletonList(TestUtils.mockInstance(WinningTransaction.builder().build())));
+
+        List<WinningTransaction> payments = winningWinningTransactionDao.findPaymentTrxByHpan(1L, Arrays.asList("hpan1", "hpan2"));
+
+        Assert.assertEquals(1, payments.size());
+        ArgumentCaptor<PreparedStatementSetter> setterCaptor = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+        Mockito.verify(jdbcTemplateMock).query(any(PreparedStatementCreator.class), setterCaptor.capture(), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(preparedStatementMock.getConnection())
+                .thenReturn(connectionMock);
+        setterCaptor.getValue().setValues(preparedStatementMock);
+        Mockito.verify(preparedStatementMock).setLong(1, 1L);
+        Mockito.verify(connectionMock).createArrayOf("varchar", new String[]{"hpan1", "hpan2"});
+        Mockito.verify(preparedStatementMock).setArray(eq(2), any());
+    }
+
+    @Test
+    public void findPaymentTrxByHpanOK_empty() {
+        List<WinningTransaction> payments = winningWinningTransactionDao.findPaymentTrxByHpan(1L, Collections.emptyList());
+
+        Assert.assertTrue(payments.isEmpty());
+        Mockito.verifyZeroInteractions(jdbcTemplateMock);
+    }
+
+    @Test
+    public void findPaymentTrxMatchesOK_empty() {
+        List<PaymentTrxMatch> matches = winningWinningTransactionDao.findPaymentTrxMatches(1L, Collections.emptyList());
+
+        Assert.assertTrue(matches.isEmpty());
+        Mockito.verifyZeroInteractions(jdbcTemplateMock);
+    }
+
     @Test
     public void findPaymentTrxWithoutCorrelationIdOK_notFound() {
         Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
@@ -230,6 +462,366 @@ public class WinningTransactionDaoImplTest extends BaseTest {
     }
 
 
+    @Test
+    public void updateProcessedTransactionOK_bulk() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(RowMapper.class)))
+                .thenReturn(Arrays.asList(1L, 3L));
+        List<WinningTransaction> transactions = Arrays.asList(
+                TestUtils.mockInstance(WinningTransaction.builder().build(), 1),
+                TestUtils.mockInstance(WinningTransaction.builder().build(), 2),
+                TestUtils.mockInstance(WinningTransaction.builder().build(), 3));
+
+        int[] affectedRows = bulkWinningTransactionDao.updateProcessedTransaction(transactions);
+
+        Assert.assertArrayEquals(new int[]{1, 0, 1}, affectedRows);
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(RowMapper.class));
+        Mockito.verify(jdbcTemplateMock, Mockito.never()).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connectionMock.prepareStatement(anyString()))
+                .thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        Assert.assertTrue(sqlCaptor.getValue().startsWith("update bpd_winning_transaction t set elab_ranking_b = true"));
+        Assert.assertTrue(sqlCaptor.getValue().contains("with ordinality"));
+        Assert.assertTrue(sqlCaptor.getValue().contains("order by locked.id_trx_acquirer_s, locked.acquirer_c, locked.trx_timestamp_t, locked.operation_type_c, locked.acquirer_id_s for update of locked"));
+        ArgumentCaptor<Object[]> valuesCaptor = ArgumentCaptor.forClass(Object[].class);
+        Mockito.verify(connectionMock, Mockito.times(8)).createArrayOf(eq("varchar"), valuesCaptor.capture());
+        Assert.assertArrayEquals(transactions.stream().map(WinningTransaction::getIdTrxAcquirer).toArray(),
+                valuesCaptor.getAllValues().get(0));
+        Mockito.verify(preparedStatementMock, Mockito.times(8)).setArray(anyInt(), any());
+    }
+
+
+    @Test
+    public void updateTransferBalanceOK_disabled() {
+        winningWinningTransactionDao.updateTransferBalance(1L, Collections.singletonList(
+                TestUtils.mockInstance(WinningTransaction.builder().build())));
+
+        Mockito.verifyZeroInteractions(jdbcTemplateMock);
+    }
+
+
+    @Test
+    public void updateTransferBalanceOK_withoutCorrelationId() {
+        balanceWinningTransactionDao.updateTransferBalance(1L, Collections.singletonList(
+                TestUtils.mockInstance(WinningTransaction.builder().correlationId(" ").build(), 1, "setCorrelationId")));
+
+        Mockito.verifyZeroInteractions(jdbcTemplateMock);
+    }
+
+
+    @Test
+    public void updateTransferBalanceOK() throws SQLException {
+        WinningTransaction transfer = TestUtils.mockInstance(WinningTransaction.builder().build());
+        WinningTransaction sameKeyTransfer = TestUtils.mockInstance(WinningTransaction.builder().build());
+        transfer.setAmount(BigDecimal.ONE);
+        sameKeyTransfer.setAmount(BigDecimal.TEN);
+
+        balanceWinningTransactionDao.updateTransferBalance(1L, Arrays.asList(transfer, sameKeyTransfer));
+
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).update(creatorCaptor.capture());
+        Mockito.verifyNoMoreInteractions(jdbcTemplateMock);
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.when(connectionMock.prepareStatement(sqlCaptor.capture()))
+                .thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        Assert.assertTrue(sqlCaptor.getValue().startsWith("insert into bpd_transfer_balance as balance"));
+        // the seed is computed only for the keys having no balance, the page amount is added on conflict
+        Assert.assertTrue(sqlCaptor.getValue().contains("case when current_balance.award_period_id_n is null then (select coalesce(sum(processed.amount_i), 0)"));
+        Assert.assertTrue(sqlCaptor.getValue().endsWith("on conflict (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s) do update set processed_amount_i = balance.processed_amount_i + excluded.processed_amount_i, update_date_t = excluded.update_date_t"));
+        ArgumentCaptor<Object[]> valuesCaptor = ArgumentCaptor.forClass(Object[].class);
+        Mockito.verify(connectionMock, Mockito.times(5)).createArrayOf(eq("varchar"), valuesCaptor.capture());
+        // the amounts of the same correlation key are summed up
+        Assert.assertArrayEquals(new Object[]{"11"}, valuesCaptor.getAllValues().get(4));
+        Mockito.verify(preparedStatementMock).setLong(6, 1L);
+    }
+
+
+    @Test
+    public void deleteExpiredTransferOK() {
+        Mockito.when(jdbcTemplateMock.update(contains("for update skip locked"), eq(1L), any(Timestamp.class), any(Timestamp.class), eq(10)))
+                .thenReturn(10);
+        OffsetDateTime now = OffsetDateTime.now();
+
+        int deletedCount = winningWinningTransactionDao.deleteExpiredTransfer(1L, now.minusMonths(1), now.minusMonths(2), 10);
+
+        Assert.assertEquals(10, deletedCount);
+        Mockito.verify(jdbcTemplateMock).update(startsWith("delete from bpd_winning_transaction_transfer t using"),
+                eq(1L),
+                eq(new Timestamp(now.minusMonths(2).toInstant().toEpochMilli())),
+                eq(new Timestamp(now.minusMonths(1).toInstant().toEpochMilli())),
+                eq(10));
+    }
+
+
+    @Test
+    public void releaseParkedTransferOK() {
+        Mockito.when(jdbcTemplateMock.update(contains("for update skip locked"), eq(3_600_000L), eq(86_400_000L), eq(1L), eq(5), eq(10)))
+                .thenReturn(10);
+
+        int releasedCount = winningWinningTransactionDao.releaseParkedTransfer(1L, 5, Duration.ofHours(1), Duration.ofDays(1), 10);
+
+        Assert.assertEquals(10, releasedCount);
+        Mockito.verify(jdbcTemplateMock).update(startsWith("update bpd_winning_transaction_transfer t set parked_b = false"),
+                eq(3_600_000L), eq(86_400_000L), eq(1L), eq(5), eq(10));
+        // plain comparisons on the not null columns, served by the partial index on the parked transfers
+        Mockito.verify(jdbcTemplateMock).update(contains("transfer.parked_b is true and transfer.next_attempt_t <= now() and transfer.parked_attempt_n < ?"),
+                eq(3_600_000L), eq(86_400_000L), eq(1L), eq(5), eq(10));
+        Mockito.verify(jdbcTemplateMock, Mockito.never()).update(contains("coalesce(t.parked_attempt_n"),
+                eq(3_600_000L), eq(86_400_000L), eq(1L), eq(5), eq(10));
+    }
+
+
+    @Test
+    public void findPaymentPageToProcessOK() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), any(ResultSetExtractor.class)))
+                .thenReturn(new WinningTransactionPage());
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(1L);
+
+        WinningTransactionPage page = winningWinningTransactionDao.findPaymentPageToProcess(filterCriteria, null, 10);
+
+        Assert.assertNotNull(page);
+        ArgumentCaptor<ResultSetExtractor> extractorCaptor = ArgumentCaptor.forClass(ResultSetExtractor.class);
+        Mockito.verify(jdbcTemplateMock).query(any(PreparedStatementCreator.class), any(PreparedStatementSetter.class), extractorCaptor.capture());
+        OffsetDateTime trxDate = OffsetDateTime.parse("2021-01-01T10:00:00.123456+01:00");
+        ResultSet resultSetMock = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSetMock.next()).thenReturn(true, true, false);
+        Mockito.when(resultSetMock.getString("id_trx_acquirer_s")).thenReturn("id1", "id2");
+        Mockito.when(resultSetMock.getString("acquirer_c")).thenReturn("acquirer");
+        Mockito.when(resultSetMock.getString("acquirer_id_s")).thenReturn("acquirerId");
+        Mockito.when(resultSetMock.getString("operation_type_c")).thenReturn("00", "01");
+        Mockito.when(resultSetMock.getString("fiscal_code_s")).thenReturn(new String("fiscalCode"), new String("fiscalCode"));
+        Mockito.when(resultSetMock.getObject("trx_timestamp_t", OffsetDateTime.class)).thenReturn(trxDate, null);
+        Mockito.when(resultSetMock.getBigDecimal("amount_i")).thenReturn(new BigDecimal("10.50"));
+        Mockito.when(resultSetMock.getBigDecimal("score_n")).thenReturn(new BigDecimal("1.055"));
+        WinningTransactionPage extractedPage = (WinningTransactionPage) extractorCaptor.getValue().extractData(resultSetMock);
+        Assert.assertEquals(2, extractedPage.size());
+        Assert.assertEquals("id2", extractedPage.getIdTrxAcquirer(1));
+        Assert.assertEquals("acquirer", extractedPage.getAcquirerCode(1));
+        Assert.assertEquals("acquirerId", extractedPage.getAcquirerId(0));
+        Assert.assertFalse(extractedPage.isTransfer(0));
+        Assert.assertTrue(extractedPage.isTransfer(1));
+        Assert.assertSame(extractedPage.getFiscalCode(0), extractedPage.getFiscalCode(1));
+        Assert.assertTrue(trxDate.isEqual(extractedPage.getTrxDate(0)));
+        Assert.assertNull(extractedPage.getTrxDate(1));
+        Assert.assertEquals(1050L, extractedPage.getAmountCents(0));
+        Assert.assertEquals(105L, extractedPage.getScoreCents(0));
+        Assert.assertEquals(new BigDecimal("1.05"), extractedPage.toWinningTransaction(0).getScore());
+    }
+
+
+    @Test
+    public void winningTransactionPageOK_missingAmount() {
+        WinningTransactionPage page = new WinningTransactionPage();
+        page.add("id1", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", null, BigDecimal.ONE);
+        page.add("id2", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", BigDecimal.ZERO, BigDecimal.ONE);
+
+        Assert.assertFalse(page.hasAmount(0));
+        Assert.assertNull(page.toWinningTransaction(0).getAmount());
+        Assert.assertEquals(100L, page.getScoreCents(0));
+        // a zero amount is not mistaken for a missing one
+        Assert.assertTrue(page.hasAmount(1));
+        Assert.assertEquals(0L, page.getAmountCents(1));
+        Assert.assertEquals(0, BigDecimal.ZERO.compareTo(page.toWinningTransaction(1).getAmount()));
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void winningTransactionPageKO_missingAmountCents() {
+        WinningTransactionPage page = new WinningTransactionPage();
+        page.add("id1", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", null, BigDecimal.ONE);
+
+        page.getAmountCents(0);
+    }
+
+
+    @Test
+    public void winningTransactionPageKO_missingScore() {
+        WinningTransactionPage page = new WinningTransactionPage();
+
+        try {
+            page.add("id1", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", BigDecimal.ONE, null);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("id1"));
+        }
+        Assert.assertTrue(page.isEmpty());
+    }
+
+
+    @Test
+    public void updateProcessedTransactionOK_page() throws SQLException {
+        Mockito.when(jdbcTemplateMock.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class)))
+                .thenReturn(new int[]{1, 1});
+        WinningTransactionPage page = new WinningTransactionPage();
+        page.add("id1", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", BigDecimal.ONE, BigDecimal.ONE);
+        page.add("id2", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", BigDecimal.ONE, BigDecimal.ONE);
+        OffsetDateTime updateDate = OffsetDateTime.now();
+
+        int[] affectedRows = winningWinningTransactionDao.updateProcessedTransaction(page, updateDate, "user");
+
+        Assert.assertArrayEquals(new int[]{1, 1}, affectedRows);
+        ArgumentCaptor<BatchPreparedStatementSetter> setterCaptor = ArgumentCaptor.forClass(BatchPreparedStatementSetter.class);
+        Mockito.verify(jdbcTemplateMock).batchUpdate(startsWith("update bpd_winning_transaction set elab_ranking_b = true, update_date_t = ?"),
+                setterCaptor.capture());
+        Mockito.verify(jdbcTemplateMock, Mockito.never()).query(any(PreparedStatementCreator.class), any(RowMapper.class));
+        Assert.assertEquals(2, setterCaptor.getValue().getBatchSize());
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        setterCaptor.getValue().setValues(preparedStatementMock, 1);
+        Mockito.verify(preparedStatementMock).setObject(1, updateDate);
+        Mockito.verify(preparedStatementMock).setString(2, "user");
+        Mockito.verify(preparedStatementMock).setString(3, "id2");
+    }
+
+
+    @Test
+    public void updateProcessedTransactionOK_pageBulk() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(RowMapper.class)))
+                .thenReturn(Collections.singletonList(2L));
+        WinningTransactionPage page = new WinningTransactionPage();
+        page.add("id1", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", BigDecimal.ONE, BigDecimal.ONE);
+        page.add("id2", "acquirer", OffsetDateTime.now(), "00", "acquirerId", "fiscalCode", BigDecimal.ONE, BigDecimal.ONE);
+        OffsetDateTime updateDate = OffsetDateTime.now();
+
+        int[] affectedRows = bulkWinningTransactionDao.updateProcessedTransaction(page, updateDate, "user");
+
+        Assert.assertArrayEquals(new int[]{0, 1}, affectedRows);
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(RowMapper.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connectionMock.prepareStatement(anyString())).thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        Mockito.verify(connectionMock).prepareStatement(startsWith("update bpd_winning_transaction t set elab_ranking_b = true, update_date_t = ?"));
+        Mockito.verify(connectionMock).createArrayOf("varchar", new String[]{"id1", "id2"});
+        Mockito.verify(connectionMock, Mockito.times(5)).createArrayOf(eq("varchar"), any());
+        Mockito.verify(preparedStatementMock).setObject(1, updateDate);
+        Mockito.verify(preparedStatementMock).setString(2, "user");
+    }
+
+
+    @Test
+    public void updateProcessedTransactionOK_emptyPage() {
+        int[] affectedRows = winningWinningTransactionDao.updateProcessedTransaction(new WinningTransactionPage(), OffsetDateTime.now(), "user");
+
+        Assert.assertEquals(0, affectedRows.length);
+        Mockito.verifyZeroInteractions(jdbcTemplateMock);
+    }
+
+
+    @Test
+    public void reconcileTotalTransferOK() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.singletonList(10));
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(1L);
+        filterCriteria.setUpdateDate(OffsetDateTime.now());
+
+        int pageSize = winningWinningTransactionDao.reconcileTotalTransfer(filterCriteria, OffsetDateTime.now().minusMonths(1), "user", 10);
+
+        Assert.assertEquals(10, pageSize);
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        PreparedStatement preparedStatementMock = Mockito.mock(PreparedStatement.class);
+        Mockito.when(connectionMock.prepareStatement(anyString())).thenReturn(preparedStatementMock);
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        Assert.assertTrue(sqlCaptor.getValue().startsWith("with page as"));
+        Assert.assertTrue(sqlCaptor.getValue().contains("insert into bpd_citizen_ranking"));
+        Assert.assertTrue(sqlCaptor.getValue().contains("for update skip locked"));
+        Assert.assertFalse(sqlCaptor.getValue().contains("bpd_transfer_balance"));
+        Mockito.verify(preparedStatementMock, Mockito.atLeastOnce()).setObject(anyInt(), eq(1L));
+        Mockito.verify(preparedStatementMock).setObject(anyInt(), eq(10));
+    }
+
+
+    @Test
+    public void reconcileTotalTransferOK_halfDownRounding() throws SQLException {
+        String sql = captureReconcileTotalTransferSql(winningWinningTransactionDao);
+
+        Assert.assertTrue(sql.contains("sum(sign(k.score_n) * ceil(abs(k.score_n) * 100 - 0.5) / 100)"));
+        Assert.assertFalse(sql.contains("round("));
+        // the same expression evaluated in Java matches the client-side HALF_DOWN rounding, ties included
+        for (String score : new String[]{"0.125", "-0.125", "0.135", "0.1251", "-0.1249", "-0.1351", "1.005", "2", "-0.004"}) {
+            BigDecimal value = new BigDecimal(score);
+            BigDecimal rounded = value.abs().movePointRight(2).subtract(new BigDecimal("0.5"))
+                    .setScale(0, RoundingMode.CEILING)
+                    .movePointLeft(2)
+                    .multiply(BigDecimal.valueOf(value.signum()));
+            Assert.assertEquals(score, 0, value.setScale(2, RoundingMode.HALF_DOWN).compareTo(rounded));
+        }
+    }
+
+
+    @Test
+    public void reconcileTotalTransferOK_transferBalance() throws SQLException {
+        String sql = captureReconcileTotalTransferSql(balanceWinningTransactionDao);
+
+        Assert.assertTrue(sql.contains("upserted_balance as (insert into bpd_transfer_balance as balance"));
+        Assert.assertTrue(sql.contains("on conflict (award_period_id_n, hpan_s, acquirer_c, acquirer_id_s, correlation_id_s) do update set processed_amount_i = balance.processed_amount_i + excluded.processed_amount_i"));
+        Assert.assertFalse(sql.contains("do nothing"));
+        Assert.assertFalse(sql.contains("update bpd_transfer_balance"));
+    }
+
+
+    private String captureReconcileTotalTransferSql(WinningTransactionDaoImpl winningTransactionDao) throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(ResultSetExtractor.class)))
+                .thenReturn(Collections.singletonList(10));
+        WinningTransaction.FilterCriteria filterCriteria = new WinningTransaction.FilterCriteria();
+        filterCriteria.setAwardPeriodId(1L);
+        filterCriteria.setUpdateDate(OffsetDateTime.now());
+        winningTransactionDao.reconcileTotalTransfer(filterCriteria, OffsetDateTime.now().minusMonths(1), "user", 10);
+
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(ResultSetExtractor.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        Mockito.when(connectionMock.prepareStatement(anyString())).thenReturn(Mockito.mock(PreparedStatement.class));
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(connectionMock).prepareStatement(sqlCaptor.capture());
+        return sqlCaptor.getValue();
+    }
+
+
+    @Test
+    public void deleteTransferOK_bulk() throws SQLException {
+        Mockito.when(jdbcTemplateMock.query(any(PreparedStatementCreator.class), any(RowMapper.class)))
+                .thenReturn(Collections.singletonList(1L));
+        List<WinningTransaction> transactions = Collections.singletonList(
+                TestUtils.mockInstance(WinningTransaction.builder().build()));
+
+        int[] affectedRows = bulkWinningTransactionDao.deleteTransfer(transactions);
+
+        Assert.assertArrayEquals(new int[]{1}, affectedRows);
+        ArgumentCaptor<PreparedStatementCreator> creatorCaptor = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Mockito.verify(jdbcTemplateMock).query(creatorCaptor.capture(), any(RowMapper.class));
+        Connection connectionMock = Mockito.mock(Connection.class);
+        Mockito.when(connectionMock.prepareStatement(anyString()))
+                .thenReturn(Mockito.mock(PreparedStatement.class));
+        creatorCaptor.getValue().createPreparedStatement(connectionMock);
+        Mockito.verify(connectionMock).prepareStatement(startsWith("delete from bpd_winning_transaction_transfer t using (select k.* from bpd_winning_transaction_transfer locked join unnest("));
+        Mockito.verify(connectionMock, Mockito.times(5)).createArrayOf(eq("varchar"), any());
+    }
+
+
+    @Test
+    public void updateUnrelatedTransferOK_bulkEmpty() {
+        int[] affectedRows = bulkWinningTransactionDao.updateUnrelatedTransfer(Collections.emptyList());
+
+        Assert.assertEquals(0, affectedRows.length);
+        Mockito.verifyZeroInteractions(jdbcTemplateMock);
+    }
+
+
     public static class WinningTransactionMapperTest {
 
         private final WinningTransactionDaoImpl.WinningTransactionMapper winningTransactionMapper;